@@ -0,0 +1,198 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare;
+
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.OAuth2Credentials;
+import com.google.common.annotations.VisibleForTesting;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the ready-made request headers of a set of credentials, "Authorization: Bearer" and any
+ * other request metadata such as the quota project's x-goog-user-project, refreshed on a
+ * background thread ahead of token expiry, so that requests never wait on a token refresh.
+ *
+ * <p>Meant to be shared by all DICOMweb clients using the same credentials. Also usable as the
+ * HttpRequestInitializer of HTTP/1.1 request factories.
+ */
+public class AuthorizationHeaderProvider implements HttpRequestInitializer {
+
+  // Refresh this long before the token expires.
+  static final long REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  // Refresh period of tokens without an expiration time.
+  static final long DEFAULT_REFRESH_PERIOD_MILLIS = TimeUnit.MINUTES.toMillis(30);
+  // Delay before retrying a failed background refresh.
+  static final long RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private static final String AUTHORIZATION = "Authorization";
+
+  private static Logger log = LoggerFactory.getLogger(AuthorizationHeaderProvider.class);
+
+  private static ScheduledExecutorService sharedRefresher;
+
+  private final OAuth2Credentials credentials;
+  private final ScheduledExecutorService refresher;
+  private final Clock clock;
+
+  private volatile CachedHeaders cachedHeaders;
+  private ScheduledFuture<?> scheduledRefresh;
+
+  public AuthorizationHeaderProvider(OAuth2Credentials credentials) {
+    this(credentials, getSharedRefresher(), System::currentTimeMillis);
+  }
+
+  @VisibleForTesting
+  AuthorizationHeaderProvider(OAuth2Credentials credentials, ScheduledExecutorService refresher,
+      Clock clock) {
+    this.credentials = credentials;
+    this.refresher = refresher;
+    this.clock = clock;
+  }
+
+  /**
+   * Returns the request headers of the credentials. Only refreshes synchronously on first use or
+   * when the background refresh failed for long enough for the token to expire.
+   */
+  public Map<String, List<String>> getRequestHeaders() throws IOException {
+    return getCachedHeaders().headers;
+  }
+
+  /** Returns the Authorization header value, as in {@link #getRequestHeaders()}. */
+  public String getAuthorizationHeader() throws IOException {
+    List<String> values = getRequestHeaders().get(AUTHORIZATION);
+    return values != null && !values.isEmpty() ? values.get(0) : null;
+  }
+
+  /** Sets the request headers, retrying the request once with a fresh token on HTTP 401. */
+  @Override
+  public void initialize(HttpRequest request) throws IOException {
+    CachedHeaders sent = getCachedHeaders();
+    setHeaders(request, sent);
+    AtomicBoolean retried = new AtomicBoolean();
+    request.setUnsuccessfulResponseHandler((unsuccessfulRequest, response, supportsRetry) -> {
+      if (response.getStatusCode() != HttpStatusCodes.STATUS_CODE_UNAUTHORIZED
+          || !retried.compareAndSet(false, true)) {
+        return false;
+      }
+      CachedHeaders headers;
+      synchronized (this) {
+        // Another request may have refreshed the token since this one was sent.
+        headers = cachedHeaders != sent ? cachedHeaders : refresh();
+      }
+      setHeaders(unsuccessfulRequest, headers);
+      return true;
+    });
+  }
+
+  private CachedHeaders getCachedHeaders() throws IOException {
+    CachedHeaders headers = cachedHeaders;
+    if (headers != null && clock.millis() < headers.expiresAtMillis) {
+      return headers;
+    }
+    synchronized (this) {
+      headers = cachedHeaders;
+      if (headers != null && clock.millis() < headers.expiresAtMillis) {
+        return headers;
+      }
+      return refresh();
+    }
+  }
+
+  private static void setHeaders(HttpRequest request, CachedHeaders headers) {
+    for (Map.Entry<String, List<String>> header : headers.headers.entrySet()) {
+      request.getHeaders().put(header.getKey(), new ArrayList<>(header.getValue()));
+    }
+  }
+
+  // Guarded by this.
+  private CachedHeaders refresh() throws IOException {
+    credentials.refresh();
+    AccessToken token = credentials.getAccessToken();
+    long now = clock.millis();
+    Date expirationTime = token.getExpirationTime();
+    long expiresAtMillis = expirationTime != null ? expirationTime.getTime() : Long.MAX_VALUE;
+    // Built from the token just refreshed, with whatever metadata the credentials add to it.
+    CachedHeaders headers =
+        new CachedHeaders(credentials.getRequestMetadata(), expiresAtMillis);
+    cachedHeaders = headers;
+
+    long refreshDelay = expirationTime != null
+        ? expiresAtMillis - REFRESH_MARGIN_MILLIS - now
+        : DEFAULT_REFRESH_PERIOD_MILLIS;
+    scheduleRefresh(Math.max(refreshDelay, RETRY_DELAY_MILLIS));
+    return headers;
+  }
+
+  // Guarded by this.
+  private void scheduleRefresh(long delayMillis) {
+    if (scheduledRefresh != null) {
+      scheduledRefresh.cancel(false);
+    }
+    scheduledRefresh =
+        refresher.schedule(this::backgroundRefresh, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private synchronized void backgroundRefresh() {
+    try {
+      refresh();
+    } catch (IOException | RuntimeException e) {
+      // The current token stays in use until it expires.
+      log.warn("Background OAuth token refresh failed, retrying", e);
+      scheduleRefresh(RETRY_DELAY_MILLIS);
+    }
+  }
+
+  private static synchronized ScheduledExecutorService getSharedRefresher() {
+    if (sharedRefresher == null) {
+      sharedRefresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "oauth-token-refresh");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return sharedRefresher;
+  }
+
+  @VisibleForTesting
+  interface Clock {
+
+    long millis();
+  }
+
+  private static class CachedHeaders {
+
+    private final Map<String, List<String>> headers;
+    private final long expiresAtMillis;
+
+    CachedHeaders(Map<String, List<String>> headers, long expiresAtMillis) {
+      this.headers = headers;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+  }
+}
@@ -0,0 +1,190 @@
+package com.google.cloud.healthcare;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.ResetFrame;
+import org.eclipse.jetty.util.Callback;
+
+/**
+ * OutputStream writing HTTP/2 DATA frames of a request stream.
+ *
+ * <p>Bytes are copied once, into pooled direct buffers that are handed to Jetty as is. Two buffers
+ * are used alternately, so the next frame is filled while the previous one, the only one Jetty
+ * takes at a time, is being sent. A frame not sent within the response timeout, e.g. because the
+ * server stopped granting flow control credit, resets the stream.
+ */
+class DataFrameOutputStream extends OutputStream {
+
+  static final int FRAME_BUFFER_SIZE = 64 * 1024;
+  private static final int MAX_POOLED_BUFFERS = 64;
+  // Same as the time Http2ResponseStream and DicomWebClientJetty wait for a response.
+  private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(300);
+
+  private static final ArrayBlockingQueue<ByteBuffer> bufferPool =
+      new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+  private final Stream stream;
+  private final long timeoutMillis;
+  private final ByteBuffer[] buffers = new ByteBuffer[2];
+  private final FrameCallback[] callbacks = new FrameCallback[2];
+  private int current;
+  private boolean closed;
+
+  DataFrameOutputStream(Stream stream) {
+    this(stream, TIMEOUT_MILLIS);
+  }
+
+  DataFrameOutputStream(Stream stream, long timeoutMillis) {
+    this.stream = stream;
+    this.timeoutMillis = timeoutMillis;
+    for (int i = 0; i < buffers.length; i++) {
+      buffers[i] = acquireBuffer();
+      callbacks[i] = FrameCallback.COMPLETED;
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureWritable();
+    buffers[current].put((byte) b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      ensureWritable();
+      int count = Math.min(len, buffers[current].remaining());
+      buffers[current].put(b, off, count);
+      off += count;
+      len -= count;
+    }
+  }
+
+  /** Sends the remaining bytes with the end of stream flag and waits until they are sent. */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    sendCurrent(true);
+    closed = true;
+    awaitAll();
+    releaseBuffers();
+  }
+
+  /** Resets the stream, so the server discards the incomplete request. */
+  public void abort() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    reset();
+    try {
+      awaitAll();
+      releaseBuffers();
+    } catch (IOException e) {
+      // buffers may still be referenced by a failed frame, leave them to the GC
+    }
+  }
+
+  private void ensureWritable() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (!buffers[current].hasRemaining()) {
+      sendCurrent(false);
+    }
+  }
+
+  private void sendCurrent(boolean endStream) throws IOException {
+    ByteBuffer buffer = buffers[current];
+    buffer.flip();
+    // Jetty takes one DATA frame of a stream at a time, so the previous frame must be sent first.
+    await(callbacks[current ^ 1]);
+    FrameCallback callback = new FrameCallback();
+    callbacks[current] = callback;
+    stream.data(new DataFrame(stream.getId(), buffer, endStream), callback);
+
+    current ^= 1;
+    buffers[current].clear();
+  }
+
+  private void awaitAll() throws IOException {
+    for (FrameCallback callback : callbacks) {
+      await(callback);
+    }
+  }
+
+  private void await(FrameCallback callback) throws IOException {
+    if (!callback.await(timeoutMillis)) {
+      // The frame's buffer stays with Jetty until the reset fails it, so it is not pooled again.
+      closed = true;
+      reset();
+      throw new IOException("Timed out sending data frame");
+    }
+  }
+
+  private void reset() {
+    stream.reset(new ResetFrame(stream.getId(), ErrorCode.CANCEL_STREAM_ERROR.code),
+        Callback.NOOP);
+  }
+
+  private void releaseBuffers() {
+    for (ByteBuffer buffer : buffers) {
+      buffer.clear();
+      bufferPool.offer(buffer);
+    }
+  }
+
+  private static ByteBuffer acquireBuffer() {
+    ByteBuffer buffer = bufferPool.poll();
+    return buffer != null ? buffer : ByteBuffer.allocateDirect(FRAME_BUFFER_SIZE);
+  }
+
+  private static class FrameCallback implements Callback {
+
+    static final FrameCallback COMPLETED = new FrameCallback();
+
+    static {
+      COMPLETED.succeeded();
+    }
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Throwable failure;
+
+    @Override
+    public void succeeded() {
+      done.countDown();
+    }
+
+    @Override
+    public void failed(Throwable x) {
+      failure = x;
+      done.countDown();
+    }
+
+    /** @return false if the frame is still not sent after timeoutMillis. */
+    boolean await(long timeoutMillis) throws IOException {
+      try {
+        if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+          return false;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted sending data frame");
+      }
+      if (failure != null) {
+        throw new IOException(failure);
+      }
+      return true;
+    }
+  }
+}
@@ -14,7 +14,9 @@
 
 package com.google.cloud.healthcare;
 
+import com.google.api.client.http.AbstractHttpContent;
 import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
 import com.google.api.client.http.HttpMediaType;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestFactory;
@@ -27,7 +29,12 @@ import com.google.common.io.CharStreams;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import javax.inject.Inject;
 import org.dcm4che3.data.Attributes;
@@ -35,6 +42,7 @@ import org.dcm4che3.data.Tag;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.net.Status;
 import org.json.JSONArray;
+import org.json.JSONException;
 
 /** A client for communicating with the Cloud Healthcare API. */
 public class DicomWebClient implements IDicomWebClient {
@@ -130,20 +138,65 @@ public class DicomWebClient implements IDicomWebClient {
    */
   @Override
   public void stowRs(InputStream in) throws IDicomWebClient.DicomWebException {
-    GenericUrl url = new GenericUrl(StringUtil.joinPath(serviceUrlPrefix, this.stowPath));
+    stow(new InputStreamContent("application/dicom", in));
+  }
 
-    // DICOM "Type" parameter:
-    // http://dicom.nema.org/medical/dicom/current/output/html/part18.html#sect_6.6.1.1.1
-    MultipartContent content = new MultipartContent();
-    content.setMediaType(new HttpMediaType("multipart/related; type=\"application/dicom\""));
-    content.setBoundary(UUID.randomUUID().toString());
-    InputStreamContent dicomStream = new InputStreamContent("application/dicom", in);
-    content.addPart(new MultipartContent.Part(dicomStream));
+  /**
+   * Makes a STOW-RS call, writing the body straight into the request stream.
+   *
+   * @param body Writes the DICOM instance.
+   */
+  @Override
+  public void stowRs(StowBody body) throws IDicomWebClient.DicomWebException {
+    stow(new StowBodyContent(body));
+  }
+
+  /**
+   * Makes one STOW-RS call with an application/dicom part per instance, and returns the outcome
+   * of each instance. An HTTP 409 (Conflict) response lists the instances that failed rather than
+   * failing the call.
+   */
+  @Override
+  public StowResponse stowRs(Map<String, StowBody> instances)
+      throws IDicomWebClient.DicomWebException {
+    List<HttpContent> parts = new ArrayList<>();
+    for (StowBody body : instances.values()) {
+      parts.add(new StowBodyContent(body));
+    }
+    HttpResponse resp = null;
+    try {
+      resp = post(parts);
+      return StowResponse.parse(resp.getStatusCode(), resp.parseAsString());
+    } catch (HttpResponseException e) {
+      if (e.getStatusCode() == HttpStatusCodes.STATUS_CODE_CONFLICT) {
+        try {
+          return StowResponse.parse(e.getStatusCode(), e.getContent());
+        } catch (JSONException je) {
+          // Failed like any other error.
+        }
+      }
+      throw new DicomWebException(
+          String.format("StowRs: %d, %s", e.getStatusCode(), e.getStatusMessage()),
+          e,
+          e.getStatusCode(),
+          Status.ProcessingFailure);
+    } catch (IOException | JSONException e) {
+      throw new IDicomWebClient.DicomWebException(e);
+    } finally {
+      try {
+        if ((resp) != null) {
+          resp.disconnect();
+        }
+      } catch (IOException e) {
+        throw new IDicomWebClient.DicomWebException(e);
+      }
+    }
+  }
 
+  private void stow(HttpContent dicomContent) throws IDicomWebClient.DicomWebException {
     HttpResponse resp = null;
     try {
-      HttpRequest httpRequest = requestFactory.buildPostRequest(url, content);
-      resp = httpRequest.execute();
+      resp = post(Collections.singletonList(dicomContent));
     } catch (HttpResponseException e) {
       throw new DicomWebException(
           String.format("StowRs: %d, %s", e.getStatusCode(), e.getStatusMessage()),
@@ -163,6 +216,23 @@ public class DicomWebClient implements IDicomWebClient {
     }
   }
 
+  private HttpResponse post(List<HttpContent> dicomContents) throws IOException {
+    GenericUrl url = new GenericUrl(StringUtil.joinPath(serviceUrlPrefix, this.stowPath));
+
+    // DICOM "Type" parameter:
+    // http://dicom.nema.org/medical/dicom/current/output/html/part18.html#sect_6.6.1.1.1
+    MultipartContent content = new MultipartContent();
+    content.setMediaType(new HttpMediaType("multipart/related; type=\"application/dicom\""));
+    content.setBoundary(UUID.randomUUID().toString());
+    for (HttpContent dicomContent : dicomContents) {
+      content.addPart(new MultipartContent.Part(dicomContent));
+    }
+
+    HttpRequest httpRequest = requestFactory.buildPostRequest(url, content);
+    httpRequest.getHeaders().setAccept("application/dicom+json");
+    return httpRequest.execute();
+  }
+
   /** Retry the STOW-RS on an HTTP409, after DELETE. */
   @Override
   public Boolean getStowOverwrite() {
@@ -214,4 +284,33 @@ public class DicomWebClient implements IDicomWebClient {
       throw new IDicomWebClient.DicomWebException(e);
     }
   }
+
+  /**
+   * Single-use content of unknown length, so that it is streamed (chunked) rather than written
+   * twice to compute the length.
+   */
+  private static class StowBodyContent extends AbstractHttpContent {
+
+    private final StowBody body;
+
+    StowBodyContent(StowBody body) {
+      super("application/dicom");
+      this.body = body;
+    }
+
+    @Override
+    public long getLength() {
+      return -1;
+    }
+
+    @Override
+    public boolean retrySupported() {
+      return false;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      body.writeTo(out);
+    }
+  }
 }
@@ -1,14 +1,18 @@
 package com.google.cloud.healthcare;
 
+import com.google.api.client.http.GenericUrl;
 import com.google.auth.oauth2.OAuth2Credentials;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.io.DicomInputStream;
@@ -20,17 +24,13 @@ import org.eclipse.jetty.http.HttpURI;
 import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.http.MetaData;
 import org.eclipse.jetty.http.MetaData.Response;
-import org.eclipse.jetty.http2.api.Session;
 import org.eclipse.jetty.http2.api.Stream;
-import org.eclipse.jetty.http2.api.server.ServerSessionListener;
-import org.eclipse.jetty.http2.client.HTTP2Client;
 import org.eclipse.jetty.http2.frames.DataFrame;
 import org.eclipse.jetty.http2.frames.HeadersFrame;
 import org.eclipse.jetty.http2.frames.ResetFrame;
 import org.eclipse.jetty.util.Callback;
-import org.eclipse.jetty.util.FuturePromise;
-import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,117 +40,183 @@ public class DicomWebClientJetty implements IDicomWebClient {
 
   private static final int CONNECT_PORT = 443;
 
+  // Time a request waits for its response to complete once sent.
+  private static final long RESPONSE_TIMEOUT_SECONDS = 300;
+
+  // Maximum error response body included in exception messages.
+  private static final int MAX_ERROR_BODY_BYTES = 4096;
+
   private final Boolean useStowOverwrite;
+  private final String serviceUrlPrefix;
   private final String stowPath;
-  private final OAuth2Credentials credentials;
+  private final AuthorizationHeaderProvider authorizationProvider;
+  private final Http2SessionPool sessionPool;
 
   public DicomWebClientJetty(
       OAuth2Credentials credentials,
       String stowPath,
       Boolean useStowOverwrite) {
-    this.credentials = credentials;
+    this(credentials != null ? new AuthorizationHeaderProvider(credentials) : null,
+        stowPath, useStowOverwrite, Http2SessionPool.getDefault());
+  }
+
+  /**
+   * Client for STOW-RS and DELETE only.
+   *
+   * @param authorizationProvider shared token cache, null to send requests without credentials.
+   * @param stowPath full STOW-RS URL.
+   */
+  public DicomWebClientJetty(
+      AuthorizationHeaderProvider authorizationProvider,
+      String stowPath,
+      Boolean useStowOverwrite,
+      Http2SessionPool sessionPool) {
+    this.authorizationProvider = authorizationProvider;
+    this.serviceUrlPrefix = null;
     this.stowPath = StringUtil.trim(stowPath);
     this.useStowOverwrite = useStowOverwrite;
+    this.sessionPool = sessionPool;
   }
 
+  /**
+   * Client for all DICOMweb requests.
+   *
+   * @param authorizationProvider shared token cache, null to send requests without credentials.
+   * @param serviceUrlPrefix DICOMweb root all QIDO-RS and WADO-RS paths are appended to.
+   * @param stowPath path of STOW-RS requests, relative to serviceUrlPrefix.
+   */
+  public DicomWebClientJetty(
+      AuthorizationHeaderProvider authorizationProvider,
+      String serviceUrlPrefix,
+      String stowPath,
+      Boolean useStowOverwrite,
+      Http2SessionPool sessionPool) {
+    this.authorizationProvider = authorizationProvider;
+    this.serviceUrlPrefix = StringUtil.trim(serviceUrlPrefix);
+    this.stowPath = StringUtil.joinPath(this.serviceUrlPrefix, stowPath);
+    this.useStowOverwrite = useStowOverwrite;
+    this.sessionPool = sessionPool;
+  }
+
+  /** Makes a WADO-RS call and returns the response body, streamed as it arrives. */
   @Override
   public InputStream wadoRs(String path) throws DicomWebException {
-    throw new UnsupportedOperationException("Not Implemented, use DicomWebClient");
+    Http2ResponseStream response = get(path, "application/dicom; transfer-syntax=*");
+    try {
+      int httpStatus = response.getStatus();
+      if (httpStatus != HttpStatus.OK_200) {
+        throw new DicomWebException(
+            String.format("WadoRs: %d, %s", httpStatus, readErrorBody(response)),
+            httpStatus,
+            Status.ProcessingFailure);
+      }
+      return response;
+    } catch (IOException | DicomWebException e) {
+      response.close();
+      throw e instanceof DicomWebException ? (DicomWebException) e : new DicomWebException(e);
+    }
   }
 
+  /** Makes a QIDO-RS call and returns a JSON array. */
   @Override
   public JSONArray qidoRs(String path) throws DicomWebException {
-    throw new UnsupportedOperationException("Not Implemented, use DicomWebClient");
+    try (Http2ResponseStream response = get(path, "application/dicom+json")) {
+      int httpStatus = response.getStatus();
+      // dcm4che server can return 204 responses.
+      if (httpStatus == HttpStatus.NO_CONTENT_204) {
+        return new JSONArray();
+      }
+      if (httpStatus != HttpStatus.OK_200) {
+        throw new DicomWebException(
+            String.format("QidoRs: %d, %s", httpStatus, readErrorBody(response)),
+            httpStatus,
+            Status.UnableToCalculateNumberOfMatches);
+      }
+      return new JSONArray(new String(response.readAllBytes(), StandardCharsets.UTF_8));
+    } catch (IOException | JSONException e) {
+      throw new DicomWebException(e);
+    }
   }
 
   @Override
   public void stowRs(InputStream in) throws DicomWebException {
+    stow("application/dicom", stream -> new DataStream(stream, in).send(),
+        ResponseListener::checkStowResponse);
+  }
+
+  /**
+   * Makes a STOW-RS call, with the body written straight into the DATA frames of the request.
+   */
+  @Override
+  public void stowRs(StowBody body) throws DicomWebException {
+    stow("application/dicom", stream -> writeBody(stream, body),
+        ResponseListener::checkStowResponse);
+  }
+
+  /**
+   * Makes one STOW-RS call with an application/dicom part per instance, written straight into the
+   * DATA frames of the request, and returns the outcome of each instance. An HTTP 409 (Conflict)
+   * response lists the instances that failed rather than failing the call.
+   */
+  @Override
+  public StowResponse stowRs(Map<String, StowBody> instances) throws DicomWebException {
+    String boundary = UUID.randomUUID().toString();
+    byte[] delimiter = ("--" + boundary + "\r\nContent-Type: application/dicom\r\n\r\n")
+        .getBytes(StandardCharsets.US_ASCII);
+    byte[] partEnd = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    byte[] closeDelimiter = ("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    StowBody multipartBody = out -> {
+      for (StowBody body : instances.values()) {
+        out.write(delimiter);
+        body.writeTo(out);
+        out.write(partEnd);
+      }
+      out.write(closeDelimiter);
+    };
+    return stow(
+        "multipart/related; type=\"application/dicom\"; boundary=" + boundary,
+        stream -> writeBody(stream, multipartBody),
+        ResponseListener::readStowResponse);
+  }
+
+  private static void writeBody(Stream stream, StowBody body) throws IOException {
+    DataFrameOutputStream out = new DataFrameOutputStream(stream);
     try {
-      log.debug("STOW-RS to: " + stowPath);
+      body.writeTo(out);
+      out.close();
+    } catch (IOException | RuntimeException e) {
+      out.abort();
+      throw e;
+    }
+  }
 
-      HTTP2Client client = new HTTP2Client();
-      SslContextFactory sslContextFactory = new SslContextFactory.Client();
-      client.addBean(sslContextFactory);
-      client.start();
+  private <T> T stow(String contentType, BodySender bodySender,
+      ResponseReader<T> responseReader) throws DicomWebException {
+    try {
+      log.debug("STOW-RS to: " + stowPath);
 
       HttpURI uri = new HttpURI(stowPath);
 
-      FuturePromise<Session> sessionPromise = new FuturePromise<>();
-      client.connect(sslContextFactory, new InetSocketAddress(uri.getHost(), CONNECT_PORT),
-          new ServerSessionListener.Adapter(), sessionPromise);
-      // Having a low timeout here causes flakyness when used with in transit compression.
-      // This is likely due to the Stow thread sleeping and then waking up again between
-      // the connect call and the session promise.get() call.
-      // Reference: https://github.com/GoogleCloudPlatform/healthcare-dicom-dicomweb-adapter/issues/108
-      Session session = sessionPromise.get(300, TimeUnit.SECONDS);
-
       // Prepare the request
       HttpFields requestFields = new HttpFields();
-      if (credentials != null) {
-        credentials.getRequestMetadata();
-        requestFields.add(HttpHeader.AUTHORIZATION,
-            "Bearer " + credentials.getAccessToken().getTokenValue());
-      }
-      requestFields.add(HttpHeader.CONTENT_TYPE,
-          "application/dicom");
+      addAuthorization(requestFields);
+      requestFields.add(HttpHeader.CONTENT_TYPE, contentType);
       requestFields.add(HttpHeader.ACCEPT,
           "application/dicom+json");
       MetaData.Request request = new MetaData.Request("POST", uri, HttpVersion.HTTP_2,
           requestFields);
       HeadersFrame headersFrame = new HeadersFrame(request, null, false);
 
-      // Prepare the listener to receive the HTTP response frames.
-      final StringBuilder resultBuilder = new StringBuilder();
-      final CompletableFuture<Integer> responseCodeFuture = new CompletableFuture<>();
-      final CompletableFuture<Boolean> doneFuture = new CompletableFuture<>();
-      Stream.Listener responseListener = new Stream.Listener.Adapter() {
-        @Override
-        public void onReset(Stream stream, ResetFrame frame) {
-          doneFuture.complete(false);
-        }
-
-        @Override
-        public void onHeaders(Stream stream, HeadersFrame frame) {
-          if (frame.getMetaData() instanceof Response) {
-            responseCodeFuture.complete(((Response) frame.getMetaData()).getStatus());
-          }
-        }
-
-        @Override
-        public void onData(Stream stream, DataFrame frame, Callback callback) {
-          byte[] bytes = new byte[frame.getData().remaining()];
-          frame.getData().get(bytes);
-          resultBuilder.append(new String(bytes, StandardCharsets.UTF_8));
-
-          if (frame.isEndStream()) {
-            doneFuture.complete(true);
+      ResponseListener responseListener = new ResponseListener();
+      try (Http2SessionPool.StreamLease lease = newStream(uri, headersFrame, responseListener)) {
+        try {
+          bodySender.send(lease.getStream());
+        } catch (IOException e) {
+          if (!responseListener.isDone()) {
+            throw e;
           }
-
-          callback.succeeded();
-        }
-      };
-
-      FuturePromise<Stream> streamPromise = new FuturePromise<>();
-      session.newStream(headersFrame, streamPromise, responseListener);
-      Stream stream = streamPromise.get();
-
-      DataStream dataStream = new DataStream(stream, in);
-      try {
-        dataStream.send();
-      } catch (IOException e) {
-        if (!doneFuture.isDone()) {
-          throw e;
         }
-      }
-
-      doneFuture.get();
-      client.stop();
-
-      int httpStatus = responseCodeFuture.get();
-      if (httpStatus != HttpStatus.OK_200) {
-        String resp = resultBuilder.toString();
-        throw new DicomWebException(
-            "Http_" + httpStatus + ": " + resp, httpStatus, Status.ProcessingFailure);
+        return responseReader.read(responseListener);
       }
     } catch (Exception e) {
       if (e instanceof DicomWebException) {
@@ -177,78 +243,19 @@ public class DicomWebClientJetty implements IDicomWebClient {
       String deletePath = String.format("%s/%s", stowPath, StringUtil.trim(path));
       log.debug("DELETE to: " + deletePath);
 
-      HTTP2Client client = new HTTP2Client();
-      SslContextFactory sslContextFactory = new SslContextFactory.Client();
-      client.addBean(sslContextFactory);
-      client.start();
-
       HttpURI uri = new HttpURI(deletePath);
 
-      FuturePromise<Session> sessionPromise = new FuturePromise<>();
-      client.connect(
-          sslContextFactory,
-          new InetSocketAddress(uri.getHost(), CONNECT_PORT),
-          new ServerSessionListener.Adapter(),
-          sessionPromise);
-
-      // Applied based on logic in the STOW request.
-      Session session = sessionPromise.get(300, TimeUnit.SECONDS);
-
       // Prepare the request
       HttpFields requestFields = new HttpFields();
-      if (credentials != null) {
-        credentials.getRequestMetadata();
-        requestFields.add(
-            HttpHeader.AUTHORIZATION, "Bearer " + credentials.getAccessToken().getTokenValue());
-      }
+      addAuthorization(requestFields);
 
       MetaData.Request request =
           new MetaData.Request("DELETE", uri, HttpVersion.HTTP_2, requestFields);
       HeadersFrame headersFrame = new HeadersFrame(request, null, true);
 
-      // Prepare the listener to receive the HTTP response frames.
-      final StringBuilder resultBuilder = new StringBuilder();
-      final CompletableFuture<Integer> responseCodeFuture = new CompletableFuture<>();
-      final CompletableFuture<Boolean> doneFuture = new CompletableFuture<>();
-
-      session.newStream(
-          headersFrame,
-          new FuturePromise<>(),
-          new Stream.Listener.Adapter() {
-            @Override
-            public void onReset(Stream stream, ResetFrame frame) {
-              doneFuture.complete(false);
-            }
-
-            @Override
-            public void onHeaders(Stream stream, HeadersFrame frame) {
-              if (frame.getMetaData() instanceof Response) {
-                responseCodeFuture.complete(((Response) frame.getMetaData()).getStatus());
-              }
-            }
-
-            @Override
-            public void onData(Stream stream, DataFrame frame, Callback callback) {
-              byte[] bytes = new byte[frame.getData().remaining()];
-              frame.getData().get(bytes);
-              resultBuilder.append(new String(bytes, StandardCharsets.UTF_8));
-
-              if (frame.isEndStream()) {
-                doneFuture.complete(true);
-              }
-
-              callback.succeeded();
-            }
-          });
-
-      doneFuture.get();
-      client.stop();
-
-      int httpStatus = responseCodeFuture.get();
-      if (httpStatus != HttpStatus.OK_200) {
-        String resp = resultBuilder.toString();
-        throw new DicomWebException(
-            "Http_" + httpStatus + ": " + resp, httpStatus, Status.ProcessingFailure);
+      ResponseListener responseListener = new ResponseListener();
+      try (Http2SessionPool.StreamLease lease = newStream(uri, headersFrame, responseListener)) {
+        responseListener.checkResponse();
       }
     } catch (Exception e) {
       if (e instanceof DicomWebException) {
@@ -281,6 +288,186 @@ public class DicomWebClientJetty implements IDicomWebClient {
     }
   }
 
+  /** Sends a GET request for path, relative to serviceUrlPrefix, without waiting for the response. */
+  private Http2ResponseStream get(String path, String accept) throws DicomWebException {
+    if (serviceUrlPrefix == null) {
+      throw new UnsupportedOperationException(
+          "Not Implemented, construct with a service URL prefix or use DicomWebClient");
+    }
+    Http2ResponseStream response = new Http2ResponseStream();
+    try {
+      // GenericUrl takes care of escaping the query.
+      HttpURI uri = new HttpURI(
+          new GenericUrl(serviceUrlPrefix + "/" + StringUtil.trim(path)).build());
+      log.debug("GET: " + uri);
+
+      HttpFields requestFields = new HttpFields();
+      addAuthorization(requestFields);
+      requestFields.add(HttpHeader.ACCEPT, accept);
+      MetaData.Request request = new MetaData.Request("GET", uri, HttpVersion.HTTP_2,
+          requestFields);
+      response.setLease(newStream(uri, new HeadersFrame(request, null, true),
+          response.getListener()));
+      return response;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      response.close();
+      throw new DicomWebException(e);
+    } catch (IOException | IllegalArgumentException e) {
+      response.close();
+      throw new DicomWebException(e);
+    }
+  }
+
+  private static String readErrorBody(InputStream response) throws IOException {
+    return new String(response.readNBytes(MAX_ERROR_BODY_BYTES), StandardCharsets.UTF_8);
+  }
+
+  private Http2SessionPool.StreamLease newStream(HttpURI uri, HeadersFrame headersFrame,
+      Stream.Listener listener) throws IOException, InterruptedException {
+    int port = uri.getPort() > 0 ? uri.getPort() : CONNECT_PORT;
+    return sessionPool.newStream(uri.getHost(), port, headersFrame, listener);
+  }
+
+  // Authorization and the other request metadata of the credentials, e.g. x-goog-user-project.
+  private void addAuthorization(HttpFields requestFields) throws IOException {
+    if (authorizationProvider != null) {
+      for (Map.Entry<String, List<String>> header
+          : authorizationProvider.getRequestHeaders().entrySet()) {
+        for (String value : header.getValue()) {
+          requestFields.add(header.getKey(), value);
+        }
+      }
+    }
+  }
+
+  @FunctionalInterface
+  private interface BodySender {
+
+    void send(Stream stream) throws IOException;
+  }
+
+  @FunctionalInterface
+  private interface ResponseReader<T> {
+
+    T read(ResponseListener responseListener) throws Exception;
+  }
+
+  /**
+   * Collects the status and body of a response. A stream reset, timed out or failed completes the
+   * response with an IOException, so that the caller returns and releases its pooled slot.
+   */
+  static class ResponseListener extends Stream.Listener.Adapter {
+
+    private final StringBuilder resultBuilder = new StringBuilder();
+    private final CompletableFuture<Integer> responseCodeFuture = new CompletableFuture<>();
+    private final CompletableFuture<Boolean> doneFuture = new CompletableFuture<>();
+
+    @Override
+    public void onReset(Stream stream, ResetFrame frame) {
+      fail(new IOException("Stream reset by server, error " + frame.getError()));
+    }
+
+    @Override
+    public boolean onIdleTimeout(Stream stream, Throwable x) {
+      fail(new IOException("Response timed out", x));
+      return true;
+    }
+
+    @Override
+    public void onFailure(Stream stream, int error, String reason, Throwable failure,
+        Callback callback) {
+      fail(new IOException("Stream failed, error " + error + ": " + reason, failure));
+      callback.succeeded();
+    }
+
+    @Override
+    public void onHeaders(Stream stream, HeadersFrame frame) {
+      if (frame.getMetaData() instanceof Response) {
+        responseCodeFuture.complete(((Response) frame.getMetaData()).getStatus());
+      }
+      if (frame.isEndStream()) {
+        doneFuture.complete(true);
+      }
+    }
+
+    @Override
+    public void onData(Stream stream, DataFrame frame, Callback callback) {
+      byte[] bytes = new byte[frame.getData().remaining()];
+      frame.getData().get(bytes);
+      synchronized (resultBuilder) {
+        resultBuilder.append(new String(bytes, StandardCharsets.UTF_8));
+      }
+
+      if (frame.isEndStream()) {
+        doneFuture.complete(true);
+      }
+
+      callback.succeeded();
+    }
+
+    boolean isDone() {
+      return doneFuture.isDone();
+    }
+
+    /** Waits for the response to complete and throws if it is not a success. */
+    void checkResponse() throws Exception {
+      int httpStatus = awaitResponse();
+      if (httpStatus != HttpStatus.OK_200) {
+        throw new DicomWebException(
+            "Http_" + httpStatus + ": " + getBody(), httpStatus, Status.ProcessingFailure);
+      }
+    }
+
+    Void checkStowResponse() throws Exception {
+      checkResponse();
+      return null;
+    }
+
+    /**
+     * Waits for the response to complete and parses the outcome of each instance, throwing if
+     * the response is neither a success nor a conflict listing failed instances.
+     */
+    StowResponse readStowResponse() throws Exception {
+      int httpStatus = awaitResponse();
+      String body = getBody();
+      if (httpStatus == HttpStatus.CONFLICT_409) {
+        try {
+          return StowResponse.parse(httpStatus, body);
+        } catch (JSONException e) {
+          // Failed like any other error.
+        }
+      } else if (httpStatus == HttpStatus.OK_200 || httpStatus == HttpStatus.ACCEPTED_202) {
+        return StowResponse.parse(httpStatus, body);
+      }
+      throw new DicomWebException(
+          "Http_" + httpStatus + ": " + body, httpStatus, Status.ProcessingFailure);
+    }
+
+    // Waits for the end of the response, up to RESPONSE_TIMEOUT_SECONDS, and returns its status.
+    private int awaitResponse() throws IOException, InterruptedException {
+      try {
+        doneFuture.get(RESPONSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        return responseCodeFuture.get(RESPONSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      } catch (ExecutionException e) {
+        throw new IOException(e.getCause());
+      } catch (TimeoutException e) {
+        throw new IOException("Timed out waiting for response", e);
+      }
+    }
+
+    private void fail(IOException e) {
+      responseCodeFuture.completeExceptionally(e);
+      doneFuture.completeExceptionally(e);
+    }
+
+    private String getBody() {
+      synchronized (resultBuilder) {
+        return resultBuilder.toString();
+      }
+    }
+  }
+
   private static class DataStream {
 
     private static final int BUFFER_SIZE = 8192;
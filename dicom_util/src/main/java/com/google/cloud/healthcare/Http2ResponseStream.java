@@ -0,0 +1,210 @@
+package com.google.cloud.healthcare;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.eclipse.jetty.http.MetaData.Response;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.ResetFrame;
+import org.eclipse.jetty.util.Callback;
+
+/**
+ * Response body of an HTTP/2 request, read as it arrives.
+ *
+ * <p>DATA frames are only acknowledged to Jetty once they have been read, so a slow reader holds
+ * back the server through HTTP/2 flow control instead of buffering the whole body. Closing the
+ * stream before the end of the body resets the HTTP/2 stream and releases its pooled slot.
+ */
+class Http2ResponseStream extends InputStream {
+
+  private static final long TIMEOUT_SECONDS = 300;
+  private static final Frame END_OF_STREAM = new Frame(ByteBuffer.allocate(0), Callback.NOOP);
+
+  private final LinkedBlockingQueue<Frame> frames = new LinkedBlockingQueue<>();
+  private final CompletableFuture<Integer> statusFuture = new CompletableFuture<>();
+  private final Stream.Listener listener = new Listener();
+
+  private Http2SessionPool.StreamLease lease;
+  private Frame current;
+  private boolean endOfStream;
+  private volatile boolean closed;
+  private volatile IOException failure;
+
+  Stream.Listener getListener() {
+    return listener;
+  }
+
+  void setLease(Http2SessionPool.StreamLease lease) {
+    this.lease = lease;
+  }
+
+  /** Waits for the response headers and returns the HTTP status. */
+  int getStatus() throws IOException {
+    try {
+      return statusFuture.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for response");
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    } catch (TimeoutException e) {
+      throw new IOException("Timed out waiting for response", e);
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!nextFrame()) {
+      return -1;
+    }
+    return current.data.get() & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (!nextFrame()) {
+      return -1;
+    }
+    int count = Math.min(len, current.data.remaining());
+    current.data.get(b, off, count);
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return current == null ? 0 : current.data.remaining();
+  }
+
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (current != null) {
+      current.callback.succeeded();
+      current = null;
+    }
+    drainFrames();
+    if (lease != null) {
+      lease.close();
+    }
+  }
+
+  private boolean nextFrame() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    while (current == null || !current.data.hasRemaining()) {
+      if (current != null) {
+        current.callback.succeeded();
+        current = null;
+      }
+      if (endOfStream) {
+        return false;
+      }
+      Frame frame;
+      try {
+        frame = frames.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted reading response");
+      }
+      if (frame == null) {
+        throw new IOException("Timed out reading response");
+      }
+      if (frame == END_OF_STREAM) {
+        endOfStream = true;
+        if (failure != null) {
+          throw failure;
+        }
+        return false;
+      }
+      current = frame;
+    }
+    return true;
+  }
+
+  // Acknowledges the frames nobody is going to read, returning their flow control credit.
+  private void drainFrames() {
+    Frame frame;
+    while ((frame = frames.poll()) != null) {
+      frame.callback.succeeded();
+    }
+  }
+
+  private void fail(IOException e) {
+    failure = e;
+    statusFuture.completeExceptionally(e);
+    frames.add(END_OF_STREAM);
+  }
+
+  private class Listener extends Stream.Listener.Adapter {
+
+    @Override
+    public void onHeaders(Stream stream, HeadersFrame frame) {
+      if (frame.getMetaData() instanceof Response) {
+        statusFuture.complete(((Response) frame.getMetaData()).getStatus());
+      }
+      if (frame.isEndStream()) {
+        frames.add(END_OF_STREAM);
+      }
+    }
+
+    @Override
+    public void onData(Stream stream, DataFrame frame, Callback callback) {
+      if (closed) {
+        callback.succeeded();
+        return;
+      }
+      frames.add(new Frame(frame.getData(), callback));
+      if (frame.isEndStream()) {
+        frames.add(END_OF_STREAM);
+      }
+      // close() may have drained the queue between the check above and the add.
+      if (closed) {
+        drainFrames();
+      }
+    }
+
+    @Override
+    public void onReset(Stream stream, ResetFrame frame) {
+      fail(new IOException("Stream reset by server, error " + frame.getError()));
+    }
+
+    @Override
+    public boolean onIdleTimeout(Stream stream, Throwable x) {
+      fail(new IOException("Response timed out", x));
+      return true;
+    }
+
+    @Override
+    public void onFailure(Stream stream, int error, String reason, Throwable failure,
+        Callback callback) {
+      fail(new IOException("Stream failed, error " + error + ": " + reason, failure));
+      callback.succeeded();
+    }
+  }
+
+  private static class Frame {
+
+    private final ByteBuffer data;
+    private final Callback callback;
+
+    Frame(ByteBuffer data, Callback callback) {
+      this.data = data;
+      this.callback = callback;
+    }
+  }
+}
@@ -0,0 +1,349 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.api.server.ServerSessionListener;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.frames.GoAwayFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.ResetFrame;
+import org.eclipse.jetty.http2.frames.SettingsFrame;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.FuturePromise;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Long-lived HTTP/2 client keeping a pool of multiplexed TLS sessions per destination host.
+ *
+ * <p>Each request takes one stream on a pooled session, up to maxStreamsPerSession streams per
+ * session (or less, if the server advertises a lower SETTINGS_MAX_CONCURRENT_STREAMS) and
+ * maxSessionsPerHost sessions per host; beyond that, requests wait for a stream to be released.
+ * Sessions closed by the server or failed are dropped and replaced on demand, and sessions idle
+ * for longer than idleTimeoutMillis are closed.
+ */
+public class Http2SessionPool implements Closeable {
+
+  public static final int DEFAULT_MAX_SESSIONS_PER_HOST = 4;
+  public static final int DEFAULT_MAX_STREAMS_PER_SESSION = 100;
+  public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  // Having a low timeout here causes flakyness when used with in transit compression.
+  // Reference: https://github.com/GoogleCloudPlatform/healthcare-dicom-dicomweb-adapter/issues/108
+  private static final long CONNECT_TIMEOUT_SECONDS = 300;
+  private static final long ACQUIRE_TIMEOUT_SECONDS = 300;
+
+  private static Logger log = LoggerFactory.getLogger(Http2SessionPool.class);
+
+  private static Http2SessionPool defaultPool;
+
+  private final int maxSessionsPerHost;
+  private final int maxStreamsPerSession;
+  private final long idleTimeoutMillis;
+  private final boolean tls;
+  private final ConcurrentHashMap<String, HostPool> hostPools = new ConcurrentHashMap<>();
+
+  private HTTP2Client client;
+  private SslContextFactory sslContextFactory;
+  private boolean closed;
+
+  public Http2SessionPool(int maxSessionsPerHost, int maxStreamsPerSession,
+      long idleTimeoutMillis) {
+    this(maxSessionsPerHost, maxStreamsPerSession, idleTimeoutMillis, true);
+  }
+
+  /** @param tls false for cleartext sessions (h2c), as to a local test server. */
+  Http2SessionPool(int maxSessionsPerHost, int maxStreamsPerSession, long idleTimeoutMillis,
+      boolean tls) {
+    if (maxSessionsPerHost <= 0 || maxStreamsPerSession <= 0) {
+      throw new IllegalArgumentException("Session and stream limits must be positive");
+    }
+    this.maxSessionsPerHost = maxSessionsPerHost;
+    this.maxStreamsPerSession = maxStreamsPerSession;
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    this.tls = tls;
+  }
+
+  /** Pool shared by clients that are not given one explicitly. */
+  public static synchronized Http2SessionPool getDefault() {
+    if (defaultPool == null) {
+      defaultPool = new Http2SessionPool(DEFAULT_MAX_SESSIONS_PER_HOST,
+          DEFAULT_MAX_STREAMS_PER_SESSION, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+    return defaultPool;
+  }
+
+  /**
+   * Opens a request stream to host:port. If the stream cannot be opened, e.g. because the session
+   * turns out to be gone or the server refuses more streams, it is retried once on the least loaded
+   * session. Other streams of the session are not affected.
+   *
+   * @return lease of the stream, to be closed once the exchange is complete.
+   */
+  public StreamLease newStream(String host, int port, HeadersFrame headersFrame,
+      Stream.Listener listener) throws IOException, InterruptedException {
+    HostPool hostPool = hostPools.computeIfAbsent(host + ":" + port,
+        key -> new HostPool(new InetSocketAddress(host, port)));
+    for (int attempt = 0; ; attempt++) {
+      PooledSession session = hostPool.reserve();
+      FuturePromise<Stream> streamPromise = new FuturePromise<>();
+      try {
+        session.getSession().newStream(headersFrame, streamPromise, listener);
+        return new StreamLease(session, streamPromise.get(CONNECT_TIMEOUT_SECONDS,
+            TimeUnit.SECONDS));
+      } catch (ExecutionException | TimeoutException | RuntimeException e) {
+        // Only the slot is given back: closing the session would abort the other streams it
+        // multiplexes. A session that failed is dropped from the pool by its listener.
+        session.release();
+        if (attempt > 0) {
+          throw new IOException("Failed to open HTTP/2 stream to " + host, e);
+        }
+        log.debug("Failed to open HTTP/2 stream to {}, retrying", host, e);
+      } catch (InterruptedException e) {
+        session.release();
+        throw e;
+      }
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closed = true;
+    if (client != null) {
+      try {
+        client.stop();
+      } catch (Exception e) {
+        throw new IOException(e);
+      }
+    }
+  }
+
+  private synchronized HTTP2Client startedClient() throws IOException {
+    if (closed) {
+      throw new IOException("HTTP/2 session pool is closed");
+    }
+    if (client == null) {
+      HTTP2Client newClient = new HTTP2Client();
+      SslContextFactory newSslContextFactory = new SslContextFactory.Client();
+      newClient.addBean(newSslContextFactory);
+      newClient.setIdleTimeout(idleTimeoutMillis);
+      try {
+        newClient.start();
+      } catch (Exception e) {
+        throw new IOException("Failed to start HTTP/2 client", e);
+      }
+      client = newClient;
+      sslContextFactory = newSslContextFactory;
+    }
+    return client;
+  }
+
+  /** A stream taken from a pooled session. Closing it frees the slot for another request. */
+  public static final class StreamLease implements AutoCloseable {
+
+    private final PooledSession session;
+    private final Stream stream;
+    private boolean closed;
+
+    private StreamLease(PooledSession session, Stream stream) {
+      this.session = session;
+      this.stream = stream;
+    }
+
+    public Stream getStream() {
+      return stream;
+    }
+
+    /** Resets the stream if the exchange did not complete, and releases its slot. */
+    @Override
+    public synchronized void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (!stream.isClosed()) {
+        stream.reset(new ResetFrame(stream.getId(), ErrorCode.CANCEL_STREAM_ERROR.code),
+            Callback.NOOP);
+      }
+      session.release();
+    }
+  }
+
+  private class HostPool {
+
+    private final InetSocketAddress address;
+    private final List<PooledSession> sessions = new ArrayList<>();
+    private int connecting;
+
+    HostPool(InetSocketAddress address) {
+      this.address = address;
+    }
+
+    PooledSession reserve() throws IOException, InterruptedException {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(ACQUIRE_TIMEOUT_SECONDS);
+      while (true) {
+        synchronized (this) {
+          PooledSession session = reserveExisting();
+          if (session != null) {
+            return session;
+          }
+          if (sessions.size() + connecting >= maxSessionsPerHost) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+              throw new IOException("Timed out waiting for an HTTP/2 stream to " + address);
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            continue;
+          }
+          connecting++;
+        }
+        PooledSession session = null;
+        try {
+          session = connect();
+        } finally {
+          synchronized (this) {
+            connecting--;
+            if (session != null) {
+              sessions.add(session);
+            }
+            notifyAll();
+          }
+        }
+      }
+    }
+
+    // Least loaded live session with a free stream slot.
+    private PooledSession reserveExisting() {
+      PooledSession best = null;
+      for (Iterator<PooledSession> it = sessions.iterator(); it.hasNext(); ) {
+        PooledSession session = it.next();
+        if (session.isClosed()) {
+          it.remove();
+        } else if (session.hasCapacity()
+            && (best == null || session.activeStreams < best.activeStreams)) {
+          best = session;
+        }
+      }
+      if (best != null) {
+        best.activeStreams++;
+      }
+      return best;
+    }
+
+    private PooledSession connect() throws IOException, InterruptedException {
+      HTTP2Client http2Client = startedClient();
+      PooledSession pooledSession = new PooledSession(this);
+      FuturePromise<Session> sessionPromise = new FuturePromise<>();
+      http2Client.connect(tls ? sslContextFactory : null, address, pooledSession, sessionPromise);
+      try {
+        pooledSession.session = sessionPromise.get(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      } catch (ExecutionException | TimeoutException e) {
+        throw new IOException("Failed to connect to " + address, e);
+      }
+      log.debug("Opened HTTP/2 session to {}", address);
+      return pooledSession;
+    }
+
+    synchronized void onStreamReleased() {
+      notifyAll();
+    }
+
+    synchronized void onSessionClosed(PooledSession session) {
+      sessions.remove(session);
+      notifyAll();
+    }
+  }
+
+  private class PooledSession extends ServerSessionListener.Adapter {
+
+    private final HostPool hostPool;
+    private volatile Session session;
+    private volatile boolean closed;
+    private volatile int maxStreams = maxStreamsPerSession;
+    // Guarded by hostPool.
+    private int activeStreams;
+
+    PooledSession(HostPool hostPool) {
+      this.hostPool = hostPool;
+    }
+
+    Session getSession() {
+      return session;
+    }
+
+    boolean isClosed() {
+      return closed || session.isClosed();
+    }
+
+    boolean hasCapacity() {
+      return activeStreams < maxStreams;
+    }
+
+    void release() {
+      synchronized (hostPool) {
+        activeStreams--;
+      }
+      hostPool.onStreamReleased();
+    }
+
+    @Override
+    public void onSettings(Session session, SettingsFrame frame) {
+      Integer remoteMaxStreams = frame.getSettings().get(SettingsFrame.MAX_CONCURRENT_STREAMS);
+      if (remoteMaxStreams != null) {
+        maxStreams = Math.min(maxStreamsPerSession, remoteMaxStreams);
+      }
+    }
+
+    @Override
+    public boolean onIdleTimeout(Session session) {
+      synchronized (hostPool) {
+        if (activeStreams > 0) {
+          return false;
+        }
+        closed = true;
+      }
+      hostPool.onSessionClosed(this);
+      log.debug("Closing idle HTTP/2 session to {}", hostPool.address);
+      return true;
+    }
+
+    @Override
+    public void onClose(Session session, GoAwayFrame frame) {
+      closed = true;
+      hostPool.onSessionClosed(this);
+    }
+
+    @Override
+    public void onFailure(Session session, Throwable failure) {
+      log.debug("HTTP/2 session to {} failed", hostPool.address, failure);
+      closed = true;
+      hostPool.onSessionClosed(this);
+    }
+  }
+}
@@ -15,7 +15,13 @@
 package com.google.cloud.healthcare;
 
 import com.google.api.client.http.HttpStatusCodes;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
 import org.dcm4che3.net.Status;
 import org.json.JSONArray;
 
@@ -27,12 +33,60 @@ public interface IDicomWebClient {
 
   void stowRs(InputStream in) throws DicomWebException;
 
+  /**
+   * Makes a STOW-RS call with a body that is written straight into the request rather than read
+   * from an InputStream. Clients should override this to avoid the in-memory copy made here.
+   *
+   * @param body Writes a single DICOM instance, including its file meta header.
+   */
+  default void stowRs(StowBody body) throws DicomWebException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    try {
+      body.writeTo(buffer);
+    } catch (IOException e) {
+      throw new DicomWebException(e);
+    }
+    stowRs(new ByteArrayInputStream(buffer.toByteArray()));
+  }
+
+  /**
+   * Makes one STOW-RS call storing several instances, each a part of the multipart/related body,
+   * and returns the outcome of each instance. Clients should override this, as done here each
+   * instance is stored by its own call.
+   *
+   * @param instances Bodies writing each DICOM instance, including its file meta header, by SOP
+   * instance UID.
+   * @throws DicomWebException if no instance was stored for a reason common to all of them, such
+   * as authorization or connection errors.
+   */
+  default StowResponse stowRs(Map<String, StowBody> instances) throws DicomWebException {
+    Map<String, Integer> statuses = new HashMap<>();
+    for (Map.Entry<String, StowBody> instance : instances.entrySet()) {
+      try {
+        stowRs(instance.getValue());
+        statuses.put(instance.getKey(), Status.Success);
+      } catch (DicomWebException e) {
+        statuses.put(instance.getKey(), e.getStatus());
+      }
+    }
+    return new StowResponse(statuses, Status.ProcessingFailure);
+  }
+
   Boolean getStowOverwrite();
 
   void delete(String path) throws DicomWebException;
 
   void delete(InputStream stream) throws DicomWebException;
 
+  /**
+   * Producer of a STOW-RS request body.
+   */
+  @FunctionalInterface
+  interface StowBody {
+
+    void writeTo(OutputStream out) throws IOException;
+  }
+
   /**
    * An exception for errors returned by the DicomWeb server.
    */
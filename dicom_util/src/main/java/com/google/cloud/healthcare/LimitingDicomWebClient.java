@@ -0,0 +1,349 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare;
+
+import com.google.api.client.http.HttpStatusCodes;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.dcm4che3.net.Status;
+import org.json.JSONArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Protects a DICOMweb destination from overload by limiting the number of concurrent requests
+ * made through the wrapped client, and by failing requests fast while it is unhealthy.
+ *
+ * <p>The concurrency limit adapts to the destination (additive increase, multiplicative
+ * decrease): it grows by one request for each limit's worth of successful requests, up to
+ * maxConcurrency, and halves when a request fails from overload or takes longer than
+ * maxLatencyMillis. Overload is an answer of HTTP 429 or 5xx, no answer at all (connection
+ * failures and timeouts) or an unexpected exception of the wrapped client. Requests over the limit
+ * wait up to maxWaitMillis for a slot.
+ *
+ * <p>A WADO-RS request holds its slot until the returned stream is closed, but only the time to
+ * the response counts as its latency.
+ *
+ * <p>After breakerFailures consecutive overload failures, the circuit breaker opens: requests
+ * fail at once for breakerOpenMillis, after which a single trial request is let through, closing
+ * the breaker if it succeeds. Requests refused by either fail with HTTP 503 and
+ * {@link Status#OutOfResources}, so that backed up instances are uploaded again later.
+ */
+public class LimitingDicomWebClient implements IDicomWebClient {
+
+  public static final long DEFAULT_MAX_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  public static final long DEFAULT_BREAKER_OPEN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private static Logger log = LoggerFactory.getLogger(LimitingDicomWebClient.class);
+
+  private enum BreakerState {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final IDicomWebClient delegate;
+  private final int maxConcurrency;
+  private final long maxLatencyNanos;
+  private final long maxWaitNanos;
+  private final int breakerFailures;
+  private final long breakerOpenNanos;
+  private final LongSupplier nanoClock;
+
+  // Guarded by this.
+  private double limit;
+  private int inFlight;
+  private long lastDecreaseNanos;
+  private BreakerState breakerState = BreakerState.CLOSED;
+  private int consecutiveFailures;
+  private long openedNanos;
+  private long rejections;
+
+  /**
+   * @param maxConcurrency maximum number of concurrent requests, the initial limit. 0 for no
+   * limit.
+   * @param maxLatencyMillis latency past which a successful request lowers the limit. 0 to only
+   * lower it on failures.
+   * @param maxWaitMillis time a request over the limit waits for a slot before failing.
+   * @param breakerFailures consecutive failures opening the circuit breaker. 0 for no breaker.
+   * @param breakerOpenMillis time during which an open breaker fails requests.
+   */
+  public LimitingDicomWebClient(IDicomWebClient delegate, int maxConcurrency,
+      long maxLatencyMillis, long maxWaitMillis, int breakerFailures, long breakerOpenMillis) {
+    this(delegate, maxConcurrency, maxLatencyMillis, maxWaitMillis, breakerFailures,
+        breakerOpenMillis, System::nanoTime);
+  }
+
+  LimitingDicomWebClient(IDicomWebClient delegate, int maxConcurrency, long maxLatencyMillis,
+      long maxWaitMillis, int breakerFailures, long breakerOpenMillis, LongSupplier nanoClock) {
+    if (maxConcurrency < 0 || maxLatencyMillis < 0 || maxWaitMillis < 0 || breakerFailures < 0
+        || breakerOpenMillis < 0) {
+      throw new IllegalArgumentException("DICOMweb limits must not be negative");
+    }
+    this.delegate = delegate;
+    this.maxConcurrency = maxConcurrency;
+    this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+    this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    this.breakerFailures = breakerFailures;
+    this.breakerOpenNanos = TimeUnit.MILLISECONDS.toNanos(breakerOpenMillis);
+    this.nanoClock = nanoClock;
+    this.limit = maxConcurrency;
+    this.lastDecreaseNanos = nanoClock.getAsLong();
+  }
+
+  @Override
+  public InputStream wadoRs(String path) throws DicomWebException {
+    long startNanos = acquire();
+    InputStream in;
+    try {
+      in = delegate.wadoRs(path);
+    } catch (DicomWebException e) {
+      release(startNanos, nanoClock.getAsLong(), isOverload(e));
+      throw e;
+    } catch (RuntimeException e) {
+      release(startNanos, nanoClock.getAsLong(), true);
+      throw e;
+    }
+    return new ReleasingInputStream(in, startNanos, nanoClock.getAsLong());
+  }
+
+  @Override
+  public JSONArray qidoRs(String path) throws DicomWebException {
+    return call(() -> delegate.qidoRs(path));
+  }
+
+  @Override
+  public void stowRs(InputStream in) throws DicomWebException {
+    call(() -> {
+      delegate.stowRs(in);
+      return null;
+    });
+  }
+
+  @Override
+  public void stowRs(StowBody body) throws DicomWebException {
+    call(() -> {
+      delegate.stowRs(body);
+      return null;
+    });
+  }
+
+  @Override
+  public StowResponse stowRs(Map<String, StowBody> instances) throws DicomWebException {
+    return call(() -> delegate.stowRs(instances));
+  }
+
+  @Override
+  public Boolean getStowOverwrite() {
+    return delegate.getStowOverwrite();
+  }
+
+  @Override
+  public void delete(String path) throws DicomWebException {
+    call(() -> {
+      delegate.delete(path);
+      return null;
+    });
+  }
+
+  @Override
+  public void delete(InputStream stream) throws DicomWebException {
+    call(() -> {
+      delegate.delete(stream);
+      return null;
+    });
+  }
+
+  /** Returns the current concurrency limit, 0 if there is none. */
+  public synchronized int getLimit() {
+    return maxConcurrency > 0 ? currentLimit() : 0;
+  }
+
+  /** Returns the number of requests being made through the wrapped client. */
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  /** Returns whether requests are failed without being made, bar a trial one. */
+  public synchronized boolean isBreakerOpen() {
+    return breakerState != BreakerState.CLOSED;
+  }
+
+  /** Returns the number of requests failed so far by the limit or the circuit breaker. */
+  public synchronized long getRejections() {
+    return rejections;
+  }
+
+  private <T> T call(Request<T> request) throws DicomWebException {
+    long startNanos = acquire();
+    boolean overloaded = false;
+    try {
+      return request.make();
+    } catch (DicomWebException e) {
+      overloaded = isOverload(e);
+      throw e;
+    } catch (RuntimeException e) {
+      overloaded = true;
+      throw e;
+    } finally {
+      release(startNanos, nanoClock.getAsLong(), overloaded);
+    }
+  }
+
+  // Requests failing without an HTTP status got no answer from the destination.
+  private static boolean isOverload(DicomWebException e) {
+    int httpStatus = e.getHttpStatus();
+    return httpStatus == 0 || httpStatus == 429
+        || httpStatus >= HttpStatusCodes.STATUS_CODE_SERVER_ERROR;
+  }
+
+  // Returns the time the request was let through.
+  private synchronized long acquire() throws DicomWebException {
+    long nowNanos = nanoClock.getAsLong();
+    if (breakerState == BreakerState.OPEN && nowNanos - openedNanos >= breakerOpenNanos) {
+      // The trial request is let through even over the limit, which the failures lowered.
+      log.info("Circuit breaker half open, sending a trial request");
+      breakerState = BreakerState.HALF_OPEN;
+      inFlight++;
+      return nowNanos;
+    }
+    if (breakerState != BreakerState.CLOSED) {
+      throw reject("circuit breaker open");
+    }
+    if (maxConcurrency > 0 && inFlight >= currentLimit()) {
+      long deadlineNanos = nowNanos + maxWaitNanos;
+      try {
+        while (inFlight >= currentLimit() && breakerState == BreakerState.CLOSED) {
+          long waitNanos = deadlineNanos - nanoClock.getAsLong();
+          if (waitNanos <= 0) {
+            throw reject("concurrency limit of " + currentLimit() + " reached");
+          }
+          TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new DicomWebException(e, Status.OutOfResources);
+      }
+      if (breakerState != BreakerState.CLOSED) {
+        throw reject("circuit breaker open");
+      }
+    }
+    inFlight++;
+    return nanoClock.getAsLong();
+  }
+
+  private synchronized void release(long startNanos, long responseNanos, boolean overloaded) {
+    inFlight--;
+    long nowNanos = nanoClock.getAsLong();
+    if (maxConcurrency > 0) {
+      boolean slow = maxLatencyNanos > 0 && responseNanos - startNanos > maxLatencyNanos;
+      if (overloaded || slow) {
+        // Only requests made since the last decrease tell whether it was enough.
+        if (startNanos >= lastDecreaseNanos) {
+          limit = Math.max(1, limit / 2);
+          lastDecreaseNanos = nowNanos;
+        }
+      } else {
+        limit = Math.min(maxConcurrency, limit + 1 / limit);
+      }
+    }
+    if (breakerFailures > 0) {
+      if (!overloaded) {
+        consecutiveFailures = 0;
+        if (breakerState == BreakerState.HALF_OPEN) {
+          log.info("Circuit breaker closed");
+          breakerState = BreakerState.CLOSED;
+        }
+      } else if (++consecutiveFailures >= breakerFailures
+          || breakerState == BreakerState.HALF_OPEN) {
+        if (breakerState != BreakerState.OPEN) {
+          log.error("Circuit breaker opened for {} ms after {} consecutive failures",
+              TimeUnit.NANOSECONDS.toMillis(breakerOpenNanos), consecutiveFailures);
+          breakerState = BreakerState.OPEN;
+          openedNanos = nowNanos;
+        }
+      }
+    }
+    notifyAll();
+  }
+
+  private int currentLimit() {
+    return (int) limit;
+  }
+
+  private DicomWebException reject(String reason) {
+    rejections++;
+    return new DicomWebException("DICOMweb request not made: " + reason,
+        HttpStatusCodes.STATUS_CODE_SERVICE_UNAVAILABLE, Status.OutOfResources);
+  }
+
+  // Gives back the slot of a WADO-RS request once its response has been read, counting read
+  // failures as overload.
+  private class ReleasingInputStream extends FilterInputStream {
+
+    private final long startNanos;
+    private final long responseNanos;
+    private boolean failed;
+    private boolean released;
+
+    ReleasingInputStream(InputStream in, long startNanos, long responseNanos) {
+      super(in);
+      this.startNanos = startNanos;
+      this.responseNanos = responseNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+      try {
+        return super.read();
+      } catch (IOException e) {
+        failed = true;
+        throw e;
+      }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      try {
+        return super.read(b, off, len);
+      } catch (IOException e) {
+        failed = true;
+        throw e;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        if (!released) {
+          released = true;
+          release(startNanos, responseNanos, failed);
+        }
+      }
+    }
+  }
+
+  @FunctionalInterface
+  private interface Request<T> {
+
+    T make() throws DicomWebException;
+  }
+}
@@ -0,0 +1,91 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.util.TagUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Outcome of each instance of a STOW-RS request, as the DICOM status its C-STORE would have.
+ */
+public class StowResponse {
+
+  private final Map<String, Integer> statuses;
+  private final int defaultStatus;
+
+  /**
+   * @param statuses DICOM status by SOP instance UID.
+   * @param defaultStatus status of the instances not in statuses.
+   */
+  public StowResponse(Map<String, Integer> statuses, int defaultStatus) {
+    this.statuses = statuses;
+    this.defaultStatus = defaultStatus;
+  }
+
+  /**
+   * Parses the Store Instances Response Module of a STOW-RS response, in which instances are
+   * listed in the Referenced SOP Sequence if stored and in the Failed SOP Sequence otherwise.
+   * Instances listed in neither are stored if the HTTP status is 200 (OK), failed otherwise.
+   *
+   * <p>http://dicom.nema.org/medical/dicom/current/output/html/part18.html#sect_10.5.3
+   *
+   * @param body application/dicom+json response body, may be empty.
+   */
+  public static StowResponse parse(int httpStatus, String body) throws JSONException {
+    Map<String, Integer> statuses = new HashMap<>();
+    if (body != null && !body.isBlank()) {
+      JSONObject json = new JSONObject(body);
+      addStatuses(json, Tag.ReferencedSOPSequence, Tag.WarningReason, Status.Success, statuses);
+      addStatuses(json, Tag.FailedSOPSequence, Tag.FailureReason, Status.ProcessingFailure,
+          statuses);
+    }
+    return new StowResponse(statuses,
+        httpStatus == 200 ? Status.Success : Status.ProcessingFailure);
+  }
+
+  /** Returns the DICOM status of the instance. */
+  public int getStatus(String sopInstanceUID) {
+    return statuses.getOrDefault(sopInstanceUID, defaultStatus);
+  }
+
+  private static void addStatuses(JSONObject json, int sequenceTag, int reasonTag,
+      int defaultStatus, Map<String, Integer> statuses) {
+    JSONArray items = values(json, sequenceTag);
+    if (items == null) {
+      return;
+    }
+    for (int i = 0; i < items.length(); i++) {
+      JSONObject item = items.getJSONObject(i);
+      JSONArray uids = values(item, Tag.ReferencedSOPInstanceUID);
+      if (uids == null || uids.isEmpty()) {
+        continue;
+      }
+      JSONArray reasons = values(item, reasonTag);
+      statuses.put(uids.getString(0),
+          reasons != null && !reasons.isEmpty() ? reasons.getInt(0) : defaultStatus);
+    }
+  }
+
+  private static JSONArray values(JSONObject json, int tag) {
+    JSONObject element = json.optJSONObject(TagUtils.toHexString(tag));
+    return element != null ? element.optJSONArray("Value") : null;
+  }
+}
@@ -0,0 +1,210 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.OAuth2Credentials;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class AuthorizationHeaderProviderTest {
+
+  private static final long TOKEN_LIFETIME_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  // Starts at the real time, which OAuth2Credentials checks token expiry against.
+  private long now = System.currentTimeMillis();
+  private final FakeCredentials credentials = new FakeCredentials();
+  private final RecordingScheduler scheduler = new RecordingScheduler();
+  private final AuthorizationHeaderProvider provider =
+      new AuthorizationHeaderProvider(credentials, scheduler, () -> now);
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void getAuthorizationHeader_reusesToken() throws Exception {
+    assertThat(provider.getAuthorizationHeader()).isEqualTo("Bearer token-1");
+    assertThat(provider.getAuthorizationHeader()).isEqualTo("Bearer token-1");
+    assertThat(credentials.refreshCount).isEqualTo(1);
+  }
+
+  @Test
+  public void getAuthorizationHeader_schedulesRefreshBeforeExpiry() throws Exception {
+    provider.getAuthorizationHeader();
+
+    assertThat(scheduler.lastDelayMillis)
+        .isEqualTo(TOKEN_LIFETIME_MILLIS - AuthorizationHeaderProvider.REFRESH_MARGIN_MILLIS);
+
+    scheduler.lastCommand.run();
+
+    assertThat(credentials.refreshCount).isEqualTo(2);
+    assertThat(provider.getAuthorizationHeader()).isEqualTo("Bearer token-2");
+    assertThat(credentials.refreshCount).isEqualTo(2);
+  }
+
+  @Test
+  public void backgroundRefreshFailure_keepsTokenAndRetries() throws Exception {
+    provider.getAuthorizationHeader();
+    credentials.failRefresh = true;
+
+    scheduler.lastCommand.run();
+
+    assertThat(scheduler.lastDelayMillis).isEqualTo(AuthorizationHeaderProvider.RETRY_DELAY_MILLIS);
+    assertThat(provider.getAuthorizationHeader()).isEqualTo("Bearer token-1");
+  }
+
+  @Test
+  public void getAuthorizationHeader_expiredToken_refreshes() throws Exception {
+    provider.getAuthorizationHeader();
+    now += TOKEN_LIFETIME_MILLIS;
+
+    assertThat(provider.getAuthorizationHeader()).isEqualTo("Bearer token-2");
+  }
+
+  @Test
+  public void getRequestHeaders_includesCredentialsMetadata() throws Exception {
+    Map<String, List<String>> headers = provider.getRequestHeaders();
+
+    assertThat(headers).containsEntry("Authorization", ImmutableList.of("Bearer token-1"));
+    assertThat(headers).containsEntry("x-goog-user-project", ImmutableList.of("quota-project"));
+  }
+
+  @Test
+  public void initialize_setsRequestHeaders() throws Exception {
+    List<MockLowLevelHttpRequest> requests = new ArrayList<>();
+    HttpRequest request = newRequest(requests, 200);
+
+    request.execute();
+
+    assertThat(requests.get(0).getFirstHeaderValue("Authorization")).isEqualTo("Bearer token-1");
+    assertThat(requests.get(0).getFirstHeaderValue("x-goog-user-project"))
+        .isEqualTo("quota-project");
+  }
+
+  @Test
+  public void initialize_unauthorized_retriesOnceWithFreshToken() throws Exception {
+    List<MockLowLevelHttpRequest> requests = new ArrayList<>();
+    HttpRequest request = newRequest(requests, 401);
+
+    try {
+      request.execute();
+      fail("expected HttpResponseException");
+    } catch (HttpResponseException e) {
+      assertThat(e.getStatusCode()).isEqualTo(401);
+    }
+
+    assertThat(requests).hasSize(2);
+    assertThat(requests.get(0).getFirstHeaderValue("Authorization")).isEqualTo("Bearer token-1");
+    assertThat(requests.get(1).getFirstHeaderValue("Authorization")).isEqualTo("Bearer token-2");
+    assertThat(credentials.refreshCount).isEqualTo(2);
+  }
+
+  @Test
+  public void initialize_unauthorized_reusesTokenRefreshedMeanwhile() throws Exception {
+    List<MockLowLevelHttpRequest> requests = new ArrayList<>();
+    HttpRequest request = newRequest(requests, 401);
+    // Refreshed by another request after this one was initialized.
+    now += TOKEN_LIFETIME_MILLIS;
+    provider.getRequestHeaders();
+
+    try {
+      request.execute();
+      fail("expected HttpResponseException");
+    } catch (HttpResponseException expected) {
+    }
+
+    assertThat(requests.get(1).getFirstHeaderValue("Authorization")).isEqualTo("Bearer token-2");
+    assertThat(credentials.refreshCount).isEqualTo(2);
+  }
+
+  // Request answered with statusCode, recording what is sent in requests.
+  private HttpRequest newRequest(List<MockLowLevelHttpRequest> requests, int statusCode)
+      throws IOException {
+    MockHttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) {
+        MockLowLevelHttpRequest request = new MockLowLevelHttpRequest(url);
+        request.setResponse(new MockLowLevelHttpResponse().setStatusCode(statusCode));
+        requests.add(request);
+        return request;
+      }
+    };
+    return transport.createRequestFactory(provider)
+        .buildGetRequest(new GenericUrl("https://healthcare.googleapis.com/v1/studies"));
+  }
+
+  private class FakeCredentials extends OAuth2Credentials {
+
+    private int refreshCount;
+    private boolean failRefresh;
+
+    @Override
+    protected Map<String, List<String>> getAdditionalHeaders() {
+      return ImmutableMap.of("x-goog-user-project", ImmutableList.of("quota-project"));
+    }
+
+    @Override
+    public AccessToken refreshAccessToken() throws IOException {
+      if (failRefresh) {
+        throw new IOException("refresh failed");
+      }
+      refreshCount++;
+      return new AccessToken("token-" + refreshCount, new Date(now + TOKEN_LIFETIME_MILLIS));
+    }
+  }
+
+  // Records scheduled refreshes instead of running them.
+  private static class RecordingScheduler extends ScheduledThreadPoolExecutor {
+
+    private Runnable lastCommand;
+    private long lastDelayMillis;
+
+    RecordingScheduler() {
+      super(1);
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+      lastCommand = command;
+      lastDelayMillis = unit.toMillis(delay);
+      return super.schedule(() -> {}, 1, TimeUnit.DAYS);
+    }
+  }
+}
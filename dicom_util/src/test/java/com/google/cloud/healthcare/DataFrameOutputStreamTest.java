@@ -0,0 +1,130 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.healthcare.util.FakeHttp2Server;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpURI;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.ResetFrame;
+import org.eclipse.jetty.util.Callback;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class DataFrameOutputStreamTest {
+
+  // Far beyond the server's receive windows.
+  private static final int BODY_SIZE = 4 * 1024 * 1024;
+
+  private final AtomicLong received = new AtomicLong();
+  private final CompletableFuture<Void> endOfRequest = new CompletableFuture<>();
+  private final CompletableFuture<Integer> serverReset = new CompletableFuture<>();
+
+  // Whether the server consumes the request body, granting flow control credit.
+  private volatile boolean serverReads = true;
+  private FakeHttp2Server server;
+  private Http2SessionPool pool;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new FakeHttp2Server((stream, request) -> new Stream.Listener.Adapter() {
+      @Override
+      public void onData(Stream stream, DataFrame frame, Callback callback) {
+        if (!serverReads) {
+          return;
+        }
+        received.addAndGet(frame.remaining());
+        callback.succeeded();
+        if (frame.isEndStream()) {
+          endOfRequest.complete(null);
+        }
+      }
+
+      @Override
+      public void onReset(Stream stream, ResetFrame frame) {
+        serverReset.complete(frame.getError());
+      }
+    });
+    pool = new Http2SessionPool(1, 100, TimeUnit.MINUTES.toMillis(1), false);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    pool.close();
+    server.close();
+  }
+
+  @Test
+  public void close_sendsBody() throws Exception {
+    try (Http2SessionPool.StreamLease lease = newStream()) {
+      DataFrameOutputStream out = new DataFrameOutputStream(lease.getStream(), 5_000);
+
+      out.write(new byte[BODY_SIZE]);
+      out.write(1);
+      out.close();
+
+      endOfRequest.get(5, TimeUnit.SECONDS);
+      assertThat(received.get()).isEqualTo(BODY_SIZE + 1);
+    }
+  }
+
+  @Test
+  public void write_serverStopsReading_timesOutAndResets() throws Exception {
+    serverReads = false;
+    try (Http2SessionPool.StreamLease lease = newStream()) {
+      DataFrameOutputStream out = new DataFrameOutputStream(lease.getStream(), 500);
+
+      try {
+        out.write(new byte[BODY_SIZE]);
+        fail("expected IOException");
+      } catch (IOException e) {
+        assertThat(e).hasMessageThat().contains("Timed out");
+      }
+
+      assertThat(serverReset.get(5, TimeUnit.SECONDS))
+          .isEqualTo(ErrorCode.CANCEL_STREAM_ERROR.code);
+      try {
+        out.write(1);
+        fail("expected IOException");
+      } catch (IOException e) {
+        assertThat(e).hasMessageThat().contains("closed");
+      }
+    }
+  }
+
+  private Http2SessionPool.StreamLease newStream() throws Exception {
+    MetaData.Request request = new MetaData.Request("POST",
+        new HttpURI("http://localhost:" + server.getPort() + "/studies"), HttpVersion.HTTP_2,
+        new HttpFields());
+    return pool.newStream("localhost", server.getPort(), new HeadersFrame(request, null, false),
+        new Stream.Listener.Adapter());
+  }
+}
@@ -0,0 +1,220 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.healthcare.DicomWebClientJetty.ResponseListener;
+import com.google.cloud.healthcare.IDicomWebClient.DicomWebException;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.OAuth2Credentials;
+import com.google.cloud.healthcare.util.FakeHttp2Server;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.frames.ResetFrame;
+import org.eclipse.jetty.util.Callback;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class DicomWebClientJettyTest {
+
+  @Test
+  public void responseListener_reset_failsResponse() throws Exception {
+    ResponseListener listener = new ResponseListener();
+
+    listener.onReset(null, new ResetFrame(1, ErrorCode.REFUSED_STREAM_ERROR.code));
+
+    assertThat(listener.isDone()).isTrue();
+    try {
+      listener.checkResponse();
+      fail("expected IOException");
+    } catch (IOException e) {
+      assertThat(e).hasMessageThat().contains("reset");
+    }
+  }
+
+  @Test
+  public void responseListener_idleTimeout_failsResponse() throws Exception {
+    ResponseListener listener = new ResponseListener();
+
+    assertThat(listener.onIdleTimeout(null, new TimeoutException())).isTrue();
+
+    try {
+      listener.readStowResponse();
+      fail("expected IOException");
+    } catch (IOException e) {
+      assertThat(e).hasCauseThat().isInstanceOf(IOException.class);
+    }
+  }
+
+  @Test
+  public void responseListener_failure_failsResponseAndCompletesCallback() throws Exception {
+    ResponseListener listener = new ResponseListener();
+    AtomicBoolean succeeded = new AtomicBoolean();
+
+    listener.onFailure(null, ErrorCode.INTERNAL_ERROR.code, "session failed",
+        new IOException("connection reset"), new Callback() {
+          @Override
+          public void succeeded() {
+            succeeded.set(true);
+          }
+        });
+
+    assertThat(succeeded.get()).isTrue();
+    try {
+      listener.checkResponse();
+      fail("expected IOException");
+    } catch (IOException e) {
+      assertThat(e).hasMessageThat().contains("session failed");
+    }
+  }
+
+  @Test
+  public void qidoRs_overHttp2_returnsJson() throws Exception {
+    LinkedBlockingQueue<MetaData.Request> requests = new LinkedBlockingQueue<>();
+    try (FakeHttp2Server server = new FakeHttp2Server((stream, request) -> {
+          requests.add(request);
+          FakeHttp2Server.respond(stream, 200,
+              "[{\"0020000D\":{\"vr\":\"UI\"}}]".getBytes(StandardCharsets.UTF_8));
+          return null;
+        });
+        Http2SessionPool pool = newPool()) {
+      DicomWebClientJetty client = newClient(server, pool);
+
+      assertThat(client.qidoRs("studies?PatientID=1").length()).isEqualTo(1);
+
+      MetaData.Request request = requests.poll(5, TimeUnit.SECONDS);
+      assertThat(request.getURI().getPath()).isEqualTo("/dicomWeb/studies");
+      assertThat(request.getURI().getQuery()).isEqualTo("PatientID=1");
+      assertThat(request.getFields().get(HttpHeader.ACCEPT)).isEqualTo("application/dicom+json");
+    }
+  }
+
+  @Test
+  public void qidoRs_overHttp2_sendsCredentialsHeaders() throws Exception {
+    LinkedBlockingQueue<MetaData.Request> requests = new LinkedBlockingQueue<>();
+    OAuth2Credentials credentials = new OAuth2Credentials() {
+      @Override
+      public AccessToken refreshAccessToken() {
+        return new AccessToken("token", new Date(System.currentTimeMillis() + 3_600_000));
+      }
+
+      @Override
+      protected Map<String, List<String>> getAdditionalHeaders() {
+        return ImmutableMap.of("x-goog-user-project", ImmutableList.of("quota-project"));
+      }
+    };
+    try (FakeHttp2Server server = new FakeHttp2Server((stream, request) -> {
+          requests.add(request);
+          FakeHttp2Server.respond(stream, 204, null);
+          return null;
+        });
+        Http2SessionPool pool = newPool()) {
+      new DicomWebClientJetty(new AuthorizationHeaderProvider(credentials),
+          "http://localhost:" + server.getPort() + "/dicomWeb", "studies", false, pool)
+          .qidoRs("studies");
+
+      MetaData.Request request = requests.poll(5, TimeUnit.SECONDS);
+      assertThat(request.getFields().get(HttpHeader.AUTHORIZATION)).isEqualTo("Bearer token");
+      assertThat(request.getFields().get("x-goog-user-project")).isEqualTo("quota-project");
+    }
+  }
+
+  @Test
+  public void qidoRs_overHttp2_noContent_emptyArray() throws Exception {
+    try (FakeHttp2Server server = new FakeHttp2Server((stream, request) -> {
+          FakeHttp2Server.respond(stream, 204, null);
+          return null;
+        });
+        Http2SessionPool pool = newPool()) {
+      assertThat(newClient(server, pool).qidoRs("studies").length()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void qidoRs_overHttp2_errorStatus_throws() throws Exception {
+    try (FakeHttp2Server server = new FakeHttp2Server((stream, request) -> {
+          FakeHttp2Server.respond(stream, 404, "no such store".getBytes(StandardCharsets.UTF_8));
+          return null;
+        });
+        Http2SessionPool pool = newPool()) {
+      try {
+        newClient(server, pool).qidoRs("studies");
+        fail("expected DicomWebException");
+      } catch (DicomWebException e) {
+        assertThat(e.getHttpStatus()).isEqualTo(404);
+        assertThat(e).hasMessageThat().contains("no such store");
+      }
+    }
+  }
+
+  @Test
+  public void wadoRs_overHttp2_streamsBody() throws Exception {
+    byte[] body = new byte[100_000];
+    for (int i = 0; i < body.length; i++) {
+      body[i] = (byte) i;
+    }
+    try (FakeHttp2Server server = new FakeHttp2Server((stream, request) -> {
+          FakeHttp2Server.respond(stream, 200, body);
+          return null;
+        });
+        Http2SessionPool pool = newPool()) {
+      try (InputStream in = newClient(server, pool).wadoRs("studies/1/series/2/instances/3")) {
+        assertThat(in.readAllBytes()).isEqualTo(body);
+      }
+    }
+  }
+
+  @Test
+  public void wadoRs_overHttp2_errorStatus_throws() throws Exception {
+    try (FakeHttp2Server server = new FakeHttp2Server((stream, request) -> {
+          FakeHttp2Server.respond(stream, 503, "busy".getBytes(StandardCharsets.UTF_8));
+          return null;
+        });
+        Http2SessionPool pool = newPool()) {
+      try {
+        newClient(server, pool).wadoRs("studies/1/series/2/instances/3");
+        fail("expected DicomWebException");
+      } catch (DicomWebException e) {
+        assertThat(e.getHttpStatus()).isEqualTo(503);
+      }
+    }
+  }
+
+  private static Http2SessionPool newPool() {
+    return new Http2SessionPool(1, 100, TimeUnit.MINUTES.toMillis(1), false);
+  }
+
+  private static DicomWebClientJetty newClient(FakeHttp2Server server, Http2SessionPool pool) {
+    return new DicomWebClientJetty(null, "http://localhost:" + server.getPort() + "/dicomWeb",
+        "studies", false, pool);
+  }
+}
@@ -31,8 +31,10 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.List;
+import org.dcm4che3.net.Status;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.Before;
@@ -46,6 +48,16 @@ public final class DicomWebClientTest {
   private FakeWebServer fakeDicomWebServer;
   private DicomWebClient client;
 
+  // Instance 1.1 stored, 1.2 failed with Out of Resources.
+  private static final String STOW_RESPONSE = "{"
+      + "\"00081199\":{\"vr\":\"SQ\",\"Value\":[{"
+      + "\"00081150\":{\"vr\":\"UI\",\"Value\":[\"1.2.840.10008.5.1.4.1.1.4\"]},"
+      + "\"00081155\":{\"vr\":\"UI\",\"Value\":[\"1.1\"]}}]},"
+      + "\"00081198\":{\"vr\":\"SQ\",\"Value\":[{"
+      + "\"00081150\":{\"vr\":\"UI\",\"Value\":[\"1.2.840.10008.5.1.4.1.1.4\"]},"
+      + "\"00081155\":{\"vr\":\"UI\",\"Value\":[\"1.2\"]},"
+      + "\"00081197\":{\"vr\":\"US\",\"Value\":[42752]}}]}}";
+
   @Before
   public void setUp() {
     fakeDicomWebServer = new FakeWebServer();
@@ -135,6 +147,50 @@ public final class DicomWebClientTest {
     assertThat(StandardCharsets.UTF_8.decode(handler.lastItem).toString()).isEqualTo(data);
   }
 
+  @Test
+  public void testDicomWebClient_StowBatch() throws Exception {
+    fakeDicomWebServer.addJsonResponse(202, STOW_RESPONSE);
+
+    Map<String, IDicomWebClient.StowBody> instances = new LinkedHashMap<>();
+    instances.put("1.1", out -> out.write("first instance".getBytes()));
+    instances.put("1.2", out -> out.write("second instance".getBytes()));
+    instances.put("1.3", out -> out.write("third instance".getBytes()));
+    StowResponse response = client.stowRs(instances);
+
+    FakeWebServer.Request req = fakeDicomWebServer.getRequests().firstElement();
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    req.request.getStreamingContent().writeTo(body);
+    String boundary = new HttpMediaType(req.request.getContentType()).getParameter("boundary");
+    String bodyString = body.toString(StandardCharsets.UTF_8);
+    assertThat(bodyString.split("--" + boundary + "\r\n", -1)).hasLength(4);
+    assertThat(bodyString).contains("first instance");
+    assertThat(bodyString).contains("third instance");
+    assertThat(response.getStatus("1.1")).isEqualTo(Status.Success);
+    assertThat(response.getStatus("1.2")).isEqualTo(0xA700);
+    assertThat(response.getStatus("1.3")).isEqualTo(Status.ProcessingFailure);
+  }
+
+  @Test
+  public void testDicomWebClient_StowBatchConflict_failedInstances() throws Exception {
+    fakeDicomWebServer.addJsonResponse(409, STOW_RESPONSE);
+
+    StowResponse response = client.stowRs(
+        Map.of("1.2", out -> out.write("second instance".getBytes())));
+
+    assertThat(response.getStatus("1.2")).isEqualTo(0xA700);
+  }
+
+  @Test
+  public void testDicomWebClient_StowBatchError() throws Exception {
+    fakeDicomWebServer.addResponseWithStatusCode(503);
+    try {
+      client.stowRs(Map.of("1.1", out -> out.write("first instance".getBytes())));
+      fail("expected DicomWebException");
+    } catch (IDicomWebClient.DicomWebException e) {
+      assertThat(e.getStatus()).isEqualTo(Status.OutOfResources);
+    }
+  }
+
   @Test
   public void testDicomWebClient_StowError() throws Exception {
     fakeDicomWebServer.addResponseWithStatusCode(404);
@@ -0,0 +1,171 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.cloud.healthcare.util.FakeHttp2Server;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpURI;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.ErrorCode;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.ResetFrame;
+import org.eclipse.jetty.util.Callback;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class Http2ResponseStreamTest {
+
+  // Larger than the client's 16 MiB session and 8 MiB stream receive windows.
+  private static final int BODY_SIZE = 20 * 1024 * 1024;
+
+  private final CompletableFuture<Void> bodySent = new CompletableFuture<>();
+  private final CompletableFuture<Integer> serverReset = new CompletableFuture<>();
+
+  private int bodySize = BODY_SIZE;
+  private FakeHttp2Server server;
+  private Http2SessionPool pool;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new FakeHttp2Server((stream, request) -> {
+      respond(stream, bodySize);
+      return new Stream.Listener.Adapter() {
+        @Override
+        public void onReset(Stream stream, ResetFrame frame) {
+          serverReset.complete(frame.getError());
+        }
+      };
+    });
+    pool = new Http2SessionPool(1, 100, TimeUnit.MINUTES.toMillis(1), false);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    pool.close();
+    server.close();
+  }
+
+  @Test
+  public void read_bodyLargerThanWindows_heldBackUntilRead() throws Exception {
+    try (Http2ResponseStream response = get()) {
+      assertThat(response.getStatus()).isEqualTo(200);
+
+      // Flow control stops the server once the unread frames fill the receive window.
+      try {
+        bodySent.get(500, TimeUnit.MILLISECONDS);
+        throw new AssertionError("expected the server to be held back");
+      } catch (TimeoutException expected) {
+      }
+
+      byte[] body = response.readAllBytes();
+      assertThat(body.length).isEqualTo(BODY_SIZE);
+      for (int i = 0; i < body.length; i += 4099) {
+        assertThat(body[i]).isEqualTo((byte) i);
+      }
+      bodySent.get(5, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void close_beforeEndOfBody_resetsStream() throws Exception {
+    Http2ResponseStream response = get();
+    assertThat(response.getStatus()).isEqualTo(200);
+    assertThat(response.read()).isEqualTo(0);
+
+    response.close();
+
+    assertThat(serverReset.get(5, TimeUnit.SECONDS))
+        .isEqualTo(ErrorCode.CANCEL_STREAM_ERROR.code);
+  }
+
+  @Test
+  public void close_beforeEndOfBody_returnsFlowControlCredit() throws Exception {
+    // Each stream fills most of the session window before being closed unread.
+    bodySize = 8 * 1024 * 1024;
+    for (int i = 0; i < 3; i++) {
+      Http2ResponseStream response = get();
+      assertThat(response.getStatus()).isEqualTo(200);
+      assertThat(response.read()).isEqualTo(0);
+      Thread.sleep(100);
+      response.close();
+    }
+
+    try (Http2ResponseStream response = get()) {
+      assertThat(response.readAllBytes().length).isEqualTo(bodySize);
+    }
+  }
+
+  @Test
+  public void onData_afterClose_acknowledged() throws Exception {
+    Http2ResponseStream response = new Http2ResponseStream();
+    response.close();
+    AtomicBoolean succeeded = new AtomicBoolean();
+
+    response.getListener().onData(null,
+        new DataFrame(1, ByteBuffer.allocate(10), false), new Callback() {
+          @Override
+          public void succeeded() {
+            succeeded.set(true);
+          }
+        });
+
+    assertThat(succeeded.get()).isTrue();
+  }
+
+  private Http2ResponseStream get() throws Exception {
+    Http2ResponseStream response = new Http2ResponseStream();
+    MetaData.Request request = new MetaData.Request("GET",
+        new HttpURI("http://localhost:" + server.getPort() + "/instance"), HttpVersion.HTTP_2,
+        new HttpFields());
+    response.setLease(pool.newStream("localhost", server.getPort(),
+        new HeadersFrame(request, null, true), response.getListener()));
+    return response;
+  }
+
+  private void respond(Stream stream, int size) {
+    byte[] body = new byte[size];
+    for (int i = 0; i < body.length; i++) {
+      body[i] = (byte) i;
+    }
+    MetaData.Response response =
+        new MetaData.Response(HttpVersion.HTTP_2, 200, new HttpFields());
+    stream.headers(new HeadersFrame(stream.getId(), response, null, false), Callback.NOOP);
+    stream.data(new DataFrame(stream.getId(), ByteBuffer.wrap(body), true), new Callback() {
+      @Override
+      public void succeeded() {
+        bodySent.complete(null);
+      }
+
+      @Override
+      public void failed(Throwable x) {
+        bodySent.completeExceptionally(x);
+      }
+    });
+  }
+}
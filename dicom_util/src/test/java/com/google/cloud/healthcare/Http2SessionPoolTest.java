@@ -0,0 +1,149 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.healthcare.util.FakeHttp2Server;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpURI;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.frames.ResetFrame;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class Http2SessionPoolTest {
+
+  private final LinkedBlockingQueue<Stream> requests = new LinkedBlockingQueue<>();
+
+  private FakeHttp2Server server;
+  private Http2SessionPool pool;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new FakeHttp2Server((stream, request) -> {
+      requests.add(stream);
+      return null;
+    });
+    pool = new Http2SessionPool(1, 100, TimeUnit.MINUTES.toMillis(1), false);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    pool.close();
+    server.close();
+  }
+
+  @Test
+  public void newStream_respondedStream() throws Exception {
+    ResponseRecorder recorder = new ResponseRecorder();
+
+    try (Http2SessionPool.StreamLease lease = newStream(recorder)) {
+      FakeHttp2Server.respond(requests.poll(5, TimeUnit.SECONDS), 200, null);
+
+      assertThat(recorder.status.get(5, TimeUnit.SECONDS)).isEqualTo(200);
+    }
+  }
+
+  @Test
+  public void newStream_streamFailure_otherStreamsUnaffected() throws Exception {
+    ResponseRecorder open = new ResponseRecorder();
+    try (Http2SessionPool.StreamLease lease = newStream(open)) {
+      Stream serverStream = requests.poll(5, TimeUnit.SECONDS);
+
+      // Fails in the stream, not the session, on both attempts.
+      try {
+        pool.newStream("localhost", server.getPort(), null, new ResponseRecorder());
+        fail("expected IOException");
+      } catch (IOException e) {
+        assertThat(e).hasMessageThat().contains("Failed to open HTTP/2 stream");
+      }
+
+      FakeHttp2Server.respond(serverStream, 200, null);
+      assertThat(open.status.get(5, TimeUnit.SECONDS)).isEqualTo(200);
+      assertThat(open.reset).isFalse();
+    }
+
+    ResponseRecorder next = new ResponseRecorder();
+    try (Http2SessionPool.StreamLease lease = newStream(next)) {
+      FakeHttp2Server.respond(requests.poll(5, TimeUnit.SECONDS), 200, null);
+      assertThat(next.status.get(5, TimeUnit.SECONDS)).isEqualTo(200);
+    }
+    assertThat(server.getSessionCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void newStream_streamFailure_slotReleased() throws Exception {
+    Http2SessionPool singleStreamPool =
+        new Http2SessionPool(1, 1, TimeUnit.MINUTES.toMillis(1), false);
+    try {
+      try {
+        singleStreamPool.newStream("localhost", server.getPort(), null, new ResponseRecorder());
+        fail("expected IOException");
+      } catch (IOException expected) {
+      }
+
+      ResponseRecorder recorder = new ResponseRecorder();
+      try (Http2SessionPool.StreamLease lease = singleStreamPool.newStream("localhost",
+          server.getPort(), headers(), recorder)) {
+        FakeHttp2Server.respond(requests.poll(5, TimeUnit.SECONDS), 200, null);
+        assertThat(recorder.status.get(5, TimeUnit.SECONDS)).isEqualTo(200);
+      }
+      assertThat(server.getSessionCount()).isEqualTo(1);
+    } finally {
+      singleStreamPool.close();
+    }
+  }
+
+  private Http2SessionPool.StreamLease newStream(Stream.Listener listener) throws Exception {
+    return pool.newStream("localhost", server.getPort(), headers(), listener);
+  }
+
+  private HeadersFrame headers() {
+    MetaData.Request request = new MetaData.Request("GET",
+        new HttpURI("http://localhost:" + server.getPort() + "/"), HttpVersion.HTTP_2,
+        new HttpFields());
+    return new HeadersFrame(request, null, true);
+  }
+
+  private static class ResponseRecorder extends Stream.Listener.Adapter {
+
+    private final CompletableFuture<Integer> status = new CompletableFuture<>();
+    private volatile boolean reset;
+
+    @Override
+    public void onHeaders(Stream stream, HeadersFrame frame) {
+      status.complete(((MetaData.Response) frame.getMetaData()).getStatus());
+    }
+
+    @Override
+    public void onReset(Stream stream, ResetFrame frame) {
+      reset = true;
+      status.completeExceptionally(new IOException("reset"));
+    }
+  }
+}
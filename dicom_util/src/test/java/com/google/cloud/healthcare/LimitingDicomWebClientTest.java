@@ -0,0 +1,277 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.healthcare.IDicomWebClient.DicomWebException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.dcm4che3.net.Status;
+import org.json.JSONArray;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class LimitingDicomWebClientTest {
+
+  private final AtomicLong nanos = new AtomicLong();
+  private final FakeClient delegate = new FakeClient();
+
+  @Test
+  public void limit_halvedOnOverloadAndRaisedOnSuccess() throws Exception {
+    LimitingDicomWebClient client = limitingClient(8, 0, 0);
+
+    delegate.httpStatus = 503;
+    qidoRsFails(client, 503);
+    assertThat(client.getLimit()).isEqualTo(4);
+
+    delegate.httpStatus = 0;
+    for (int i = 0; i < 5; i++) {
+      client.qidoRs("studies");
+    }
+    assertThat(client.getLimit()).isEqualTo(5);
+    assertThat(client.getInFlight()).isEqualTo(0);
+  }
+
+  @Test
+  public void limit_clientErrorsDoNotLowerIt() throws Exception {
+    LimitingDicomWebClient client = limitingClient(8, 0, 0);
+
+    delegate.httpStatus = 404;
+    qidoRsFails(client, 404);
+
+    assertThat(client.getLimit()).isEqualTo(8);
+  }
+
+  @Test
+  public void limit_connectionFailureLowersIt() throws Exception {
+    LimitingDicomWebClient client = limitingClient(8, 0, 0);
+
+    delegate.failure = new DicomWebException(new IOException());
+    qidoRsFails(client, 0);
+
+    assertThat(client.getLimit()).isEqualTo(4);
+    assertThat(client.getInFlight()).isEqualTo(0);
+  }
+
+  @Test
+  public void limit_uncheckedExceptionLowersIt() throws Exception {
+    LimitingDicomWebClient client = limitingClient(8, 0, 0);
+
+    delegate.unchecked = new IllegalStateException();
+    try {
+      client.qidoRs("studies");
+      fail("expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    assertThat(client.getLimit()).isEqualTo(4);
+    assertThat(client.getInFlight()).isEqualTo(0);
+  }
+
+  @Test
+  public void limit_wadoRsSlotHeldUntilStreamClosed() throws Exception {
+    LimitingDicomWebClient client = limitingClient(1, 100, 0);
+
+    InputStream in = client.wadoRs("studies/1");
+    assertThat(client.getInFlight()).isEqualTo(1);
+    // Reading the response does not count towards the latency.
+    nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(101));
+    in.close();
+    in.close();
+
+    assertThat(client.getInFlight()).isEqualTo(0);
+    assertThat(client.getLimit()).isEqualTo(1);
+    client.wadoRs("studies/1").close();
+  }
+
+  @Test
+  public void limit_wadoRsFailureReleasesSlot() throws Exception {
+    LimitingDicomWebClient client = limitingClient(8, 0, 0);
+
+    delegate.httpStatus = 503;
+    try {
+      client.wadoRs("studies/1");
+      fail("expected DicomWebException");
+    } catch (DicomWebException e) {
+      assertThat(e.getHttpStatus()).isEqualTo(503);
+    }
+
+    assertThat(client.getInFlight()).isEqualTo(0);
+    assertThat(client.getLimit()).isEqualTo(4);
+  }
+
+  @Test
+  public void limit_slowRequestLowersIt() throws Exception {
+    LimitingDicomWebClient client = limitingClient(8, 100, 0);
+
+    delegate.latencyNanos = TimeUnit.MILLISECONDS.toNanos(101);
+    client.qidoRs("studies");
+
+    assertThat(client.getLimit()).isEqualTo(4);
+  }
+
+  @Test
+  public void limit_requestOverLimitRejected() throws Exception {
+    LimitingDicomWebClient client = limitingClient(1, 0, 0);
+    CountDownLatch release = new CountDownLatch(1);
+    delegate.release = release;
+    Thread first = new Thread(() -> {
+      try {
+        client.qidoRs("studies");
+      } catch (DicomWebException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    first.start();
+    while (client.getInFlight() == 0) {
+      Thread.sleep(1);
+    }
+
+    qidoRsFails(client, 503);
+    release.countDown();
+    first.join();
+
+    assertThat(delegate.calls).isEqualTo(1);
+    assertThat(client.getRejections()).isEqualTo(1);
+  }
+
+  @Test
+  public void breaker_opensAndClosesAfterTrial() throws Exception {
+    LimitingDicomWebClient client = limitingClient(0, 0, 2);
+
+    delegate.httpStatus = 429;
+    qidoRsFails(client, 429);
+    assertThat(client.isBreakerOpen()).isFalse();
+    qidoRsFails(client, 429);
+    assertThat(client.isBreakerOpen()).isTrue();
+
+    delegate.httpStatus = 0;
+    qidoRsFails(client, 503);
+    assertThat(delegate.calls).isEqualTo(2);
+
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    client.qidoRs("studies");
+    assertThat(client.isBreakerOpen()).isFalse();
+    assertThat(delegate.calls).isEqualTo(3);
+    assertThat(client.getRejections()).isEqualTo(1);
+  }
+
+  @Test
+  public void breaker_failedTrialReopensIt() throws Exception {
+    LimitingDicomWebClient client = limitingClient(0, 0, 1);
+
+    delegate.httpStatus = 500;
+    qidoRsFails(client, 500);
+    nanos.addAndGet(TimeUnit.SECONDS.toNanos(1));
+    qidoRsFails(client, 500);
+    qidoRsFails(client, 503);
+
+    assertThat(client.isBreakerOpen()).isTrue();
+    assertThat(delegate.calls).isEqualTo(2);
+  }
+
+  private LimitingDicomWebClient limitingClient(int maxConcurrency, long maxLatencyMillis,
+      int breakerFailures) {
+    return new LimitingDicomWebClient(delegate, maxConcurrency, maxLatencyMillis, 0,
+        breakerFailures, TimeUnit.SECONDS.toMillis(1), nanos::get);
+  }
+
+  private static void qidoRsFails(LimitingDicomWebClient client, int httpStatus) {
+    try {
+      client.qidoRs("studies");
+      fail("expected DicomWebException");
+    } catch (DicomWebException e) {
+      assertThat(e.getHttpStatus()).isEqualTo(httpStatus);
+      if (httpStatus == 503) {
+        assertThat(e.getStatus()).isEqualTo(Status.OutOfResources);
+      }
+    }
+  }
+
+  // Answers QIDO-RS and WADO-RS with httpStatus, failure or unchecked if set, after latencyNanos
+  // of the fake clock.
+  private class FakeClient implements IDicomWebClient {
+
+    private volatile int httpStatus;
+    private volatile DicomWebException failure;
+    private volatile RuntimeException unchecked;
+    private volatile long latencyNanos;
+    private volatile CountDownLatch release;
+    private volatile int calls;
+
+    @Override
+    public JSONArray qidoRs(String path) throws DicomWebException {
+      calls++;
+      nanos.addAndGet(latencyNanos);
+      if (release != null) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new DicomWebException(e);
+        }
+      }
+      throwIfFailing();
+      return new JSONArray();
+    }
+
+    @Override
+    public InputStream wadoRs(String path) throws DicomWebException {
+      calls++;
+      throwIfFailing();
+      return new ByteArrayInputStream(new byte[1]);
+    }
+
+    private void throwIfFailing() throws DicomWebException {
+      if (failure != null) {
+        throw failure;
+      }
+      if (unchecked != null) {
+        throw unchecked;
+      }
+      if (httpStatus != 0) {
+        throw new DicomWebException("failed", httpStatus, Status.ProcessingFailure);
+      }
+    }
+
+    @Override
+    public void stowRs(InputStream in) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Boolean getStowOverwrite() {
+      return false;
+    }
+
+    @Override
+    public void delete(String path) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete(InputStream stream) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
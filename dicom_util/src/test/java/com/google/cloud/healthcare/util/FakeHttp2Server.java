@@ -0,0 +1,99 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http.MetaData;
+import org.eclipse.jetty.http2.api.Session;
+import org.eclipse.jetty.http2.api.Stream;
+import org.eclipse.jetty.http2.api.server.ServerSessionListener;
+import org.eclipse.jetty.http2.frames.DataFrame;
+import org.eclipse.jetty.http2.frames.HeadersFrame;
+import org.eclipse.jetty.http2.server.RawHTTP2ServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.Callback;
+
+/** A local cleartext HTTP/2 (h2c) server passing each request to a handler. */
+public class FakeHttp2Server implements AutoCloseable {
+
+  /** Handles a request stream. */
+  public interface Handler {
+
+    /** @return listener for the rest of the request, or null to discard it. */
+    Stream.Listener onRequest(Stream stream, MetaData.Request request);
+  }
+
+  private final Server server = new Server();
+  private final AtomicInteger sessionCount = new AtomicInteger();
+  private final ServerConnector connector;
+
+  public FakeHttp2Server(Handler handler) throws Exception {
+    connector = new ServerConnector(server,
+        new RawHTTP2ServerConnectionFactory(new HttpConfiguration(),
+            new ServerSessionListener.Adapter() {
+              @Override
+              public void onAccept(Session session) {
+                sessionCount.incrementAndGet();
+              }
+
+              @Override
+              public Stream.Listener onNewStream(Stream stream, HeadersFrame frame) {
+                Stream.Listener listener =
+                    handler.onRequest(stream, (MetaData.Request) frame.getMetaData());
+                return listener != null ? listener : new Stream.Listener.Adapter();
+              }
+            }));
+    server.addConnector(connector);
+    server.start();
+  }
+
+  public int getPort() {
+    return connector.getLocalPort();
+  }
+
+  /** Number of HTTP/2 sessions accepted so far. */
+  public int getSessionCount() {
+    return sessionCount.get();
+  }
+
+  /** Sends the response headers and, if body is not null, the body in one DATA frame. */
+  public static void respond(Stream stream, int status, byte[] body) {
+    respond(stream, status, new HttpFields(), body);
+  }
+
+  public static void respond(Stream stream, int status, HttpFields fields, byte[] body) {
+    MetaData.Response response = new MetaData.Response(HttpVersion.HTTP_2, status, fields);
+    stream.headers(new HeadersFrame(stream.getId(), response, null, body == null),
+        new Callback() {
+          @Override
+          public void succeeded() {
+            if (body != null) {
+              stream.data(new DataFrame(stream.getId(), ByteBuffer.wrap(body), true),
+                  Callback.NOOP);
+            }
+          }
+        });
+  }
+
+  @Override
+  public void close() throws Exception {
+    server.stop();
+  }
+}
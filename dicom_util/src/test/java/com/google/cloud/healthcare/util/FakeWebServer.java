@@ -68,8 +68,12 @@ public class FakeWebServer extends MockHttpTransport {
   }
 
   public void addJsonResponse(String jsonResponse) {
+    addJsonResponse(200, jsonResponse);
+  }
+
+  public void addJsonResponse(int statusCode, String jsonResponse) {
     MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
-    response.setStatusCode(200);
+    response.setStatusCode(statusCode);
     response.setContentType("application/json");
     response.setContent(new ByteArrayInputStream(jsonResponse.getBytes()));
     responses.add(response);
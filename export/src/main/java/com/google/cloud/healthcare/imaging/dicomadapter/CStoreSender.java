@@ -14,7 +14,7 @@
 
 package com.google.cloud.healthcare.imaging.dicomadapter;
 
-import com.google.cloud.healthcare.DicomWebClient;
+import com.google.cloud.healthcare.IDicomWebClient;
 import com.google.cloud.healthcare.imaging.dicomadapter.monitoring.Event;
 import com.google.cloud.healthcare.imaging.dicomadapter.monitoring.MonitoringService;
 import com.google.common.io.CountingInputStream;
@@ -31,19 +31,21 @@ import org.json.JSONArray;
 public class CStoreSender implements DicomSender {
   private static final String SOP_CLASS_UID_TAG = TagUtils.toHexString(Tag.SOPClassUID);
   private static final String SOP_INSTANCE_UID_TAG = TagUtils.toHexString(Tag.SOPInstanceUID);
-  private final ApplicationEntity applicationEntity;
+  private final AssociationPool associationPool;
   private final String dimsePeerAET;
   private final String dimsePeerIP;
   private final int dimsePeerPort;
-  private final DicomWebClient dicomWebClient;
+  private final IDicomWebClient dicomWebClient;
 
   CStoreSender(
       ApplicationEntity applicationEntity,
       String dimsePeerAET,
       String dimsePeerIP,
       int dimsePeerPort,
-      DicomWebClient dicomWebClient) {
-    this.applicationEntity = applicationEntity;
+      IDicomWebClient dicomWebClient) {
+    // Keeps the association to the peer open from one message to the next.
+    this.associationPool =
+        new AssociationPool(applicationEntity, AssociationPool.DEFAULT_IDLE_TIMEOUT_MILLIS);
     this.dimsePeerAET = dimsePeerAET;
     this.dimsePeerIP = dimsePeerIP;
     this.dimsePeerPort = dimsePeerPort;
@@ -70,8 +72,8 @@ public class CStoreSender implements DicomSender {
     InputStream responseStream = dicomWebClient.wadoRs(wadoUri);
 
     CountingInputStream countingStream = new CountingInputStream(responseStream);
-    DicomClient.connectAndCstore(sopClassUid, sopInstanceUid, countingStream,
-        applicationEntity, dimsePeerAET, dimsePeerIP, dimsePeerPort);
+    associationPool.cstore(sopClassUid, sopInstanceUid, countingStream,
+        dimsePeerAET, dimsePeerIP, dimsePeerPort);
     MonitoringService.addEvent(Event.BYTES, countingStream.getCount());
   }
 
@@ -20,8 +20,10 @@ import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.core.ApiService;
 import com.google.auth.http.HttpCredentialsAdapter;
 import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.healthcare.AuthorizationHeaderProvider;
 import com.google.cloud.healthcare.DicomWebClient;
 import com.google.cloud.healthcare.DicomWebClientJetty;
+import com.google.cloud.healthcare.Http2SessionPool;
 import com.google.cloud.healthcare.IDicomWebClient;
 import com.google.cloud.healthcare.LogUtil;
 import com.google.cloud.healthcare.StringUtil;
@@ -59,8 +61,15 @@ public class ExportAdapter {
       credentials = credentials.createScoped(Arrays.asList(flags.oauthScopes.split(",")));
     }
 
-    DicomWebClient dicomWebClient =
-        new DicomWebClient(createHttpRequestFactory(credentials), StringUtil.trim(flags.dicomwebAddr), "studies");
+    IDicomWebClient dicomWebClient;
+    if (flags.useHttp2ForDicomweb) {
+      dicomWebClient =
+          new DicomWebClientJetty(new AuthorizationHeaderProvider(credentials),
+              StringUtil.trim(flags.dicomwebAddr), "studies", false, Http2SessionPool.getDefault());
+    } else {
+      dicomWebClient =
+          new DicomWebClient(createHttpRequestFactory(credentials), StringUtil.trim(flags.dicomwebAddr), "studies");
+    }
 
     // Initialize Monitoring
     if (!flags.monitoringProjectId.isEmpty()) {
@@ -94,6 +94,13 @@ public class Flags {
   )
   public static String subscriptionId = "";
 
+  @Parameter(
+    names = {"--dicomweb_http2"},
+    description = "Whether to read instances to export (QIDO-RS/WADO-RS) over multiplexed HTTP/2 "
+        + "connections instead of HTTP/1.1. False by default."
+  )
+  public static boolean useHttp2ForDicomweb = false;
+
   @Parameter(
     names = {"--oauth_scopes"},
     description = "Comma seperated OAuth scopes used by adapter."
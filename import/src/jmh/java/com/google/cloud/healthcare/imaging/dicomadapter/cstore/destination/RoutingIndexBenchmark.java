@@ -0,0 +1,95 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore.destination;
+
+import com.google.cloud.healthcare.imaging.dicomadapter.DestinationFilter;
+import com.google.cloud.healthcare.imaging.dicomadapter.ImportAdapter.Pair;
+import com.google.common.collect.ImmutableList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Routing of instances by site/modality/station rules, through the routing index and by testing
+ * every filter in order as the destination client factories used to, for all matches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RoutingIndexBenchmark {
+
+  private static final String[] MODALITIES = {"CT", "MR", "US", "CR", "DX", "MG", "PT", "NM"};
+  private static final int SITES = 50;
+  private static final int INSTANCES = 64;
+
+  @Param({"10", "100", "1000", "10000"})
+  public int rules;
+
+  private ImmutableList<Pair<DestinationFilter, Integer>> destinations;
+  private RoutingIndex<Integer> index;
+  private String[] callingAets;
+  private Attributes[] instances;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(0);
+    ImmutableList.Builder<Pair<DestinationFilter, Integer>> builder = ImmutableList.builder();
+    for (int i = 0; i < rules; i++) {
+      String filter;
+      switch (i % 10) {
+        case 0:
+          // Wildcard rules are tested for every instance.
+          filter = "AETitle=SITE" + random.nextInt(SITES) + "&StationName=ST" + random.nextInt(10)
+              + "*";
+          break;
+        case 1:
+          filter = "Modality=" + MODALITIES[random.nextInt(MODALITIES.length)];
+          break;
+        default:
+          filter = "AETitle=SITE" + random.nextInt(SITES)
+              + "&Modality=" + MODALITIES[random.nextInt(MODALITIES.length)]
+              + "&StationName=ST" + random.nextInt(rules);
+      }
+      builder.add(new Pair<>(new DestinationFilter(filter), i));
+    }
+    destinations = builder.build();
+    index = new RoutingIndex<>(destinations);
+
+    callingAets = new String[INSTANCES];
+    instances = new Attributes[INSTANCES];
+    for (int i = 0; i < INSTANCES; i++) {
+      callingAets[i] = "SITE" + random.nextInt(SITES);
+      Attributes attrs = new Attributes();
+      attrs.setString(Tag.Modality, VR.CS, MODALITIES[random.nextInt(MODALITIES.length)]);
+      attrs.setString(Tag.StationName, VR.SH, "ST" + random.nextInt(rules));
+      instances[i] = attrs;
+    }
+  }
+
+  @Benchmark
+  public ImmutableList<Integer> routingIndex() {
+    int i = next++ & (INSTANCES - 1);
+    return index.allMatches(callingAets[i], instances[i]);
+  }
+
+  @Benchmark
+  public ImmutableList<Integer> linearScan() {
+    int i = next++ & (INSTANCES - 1);
+    ImmutableList.Builder<Integer> matches = ImmutableList.builder();
+    for (Pair<DestinationFilter, Integer> destination : destinations) {
+      if (destination.getLeft().matches(callingAets[i], instances[i])) {
+        matches.add(destination.getRight());
+      }
+    }
+    return matches.build();
+  }
+}
@@ -0,0 +1,98 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Transcoding of a 16 bit multi-frame instance to JPEG 2000 Lossless, RLE Lossless and Deflated
+ * Explicit VR Little Endian, frames compressed on the benchmark thread. The compression ratio of
+ * each target is printed on setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TranscodeTargetBenchmark {
+
+  private static final int ROWS = 512;
+  private static final int COLUMNS = 512;
+  private static final int FRAMES = 4;
+
+  @Param({"1.2.840.10008.1.2.4.90", "1.2.840.10008.1.2.5", "1.2.840.10008.1.2.1.99"})
+  public String transferSyntax;
+
+  private FrameTranscoder transcoder;
+  private byte[] instance;
+
+  @Setup
+  public void setUp() throws IOException {
+    transcoder = new FrameTranscoder(Runnable::run, 1);
+    instance = instance();
+    int compressed = transcode();
+    System.out.printf("%n%s: %d -> %d bytes, ratio %.2f%n", transferSyntax, instance.length,
+        compressed, (double) instance.length / compressed);
+  }
+
+  @Benchmark
+  public int transcode() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(instance.length);
+    transcoder.transcode(new ByteArrayInputStream(instance), out, transferSyntax, null);
+    return out.size();
+  }
+
+  // 12 bit CT-like frames: smooth anatomy-like gradients, an air background and some noise.
+  private static byte[] instance() throws IOException {
+    Random random = new Random(0);
+    byte[] pixelData = new byte[FRAMES * ROWS * COLUMNS * 2];
+    int i = 0;
+    for (int frame = 0; frame < FRAMES; frame++) {
+      for (int y = 0; y < ROWS; y++) {
+        for (int x = 0; x < COLUMNS; x++) {
+          int dx = x - COLUMNS / 2;
+          int dy = y - ROWS / 2;
+          boolean body = dx * dx + dy * dy < (ROWS / 3) * (ROWS / 3);
+          int sample = body
+              ? 1000 + (x + y + frame * 7) % 200 + random.nextInt(16)
+              : 0;
+          pixelData[i++] = (byte) sample;
+          pixelData[i++] = (byte) (sample >> 8);
+        }
+      }
+    }
+
+    Attributes dataset = new Attributes();
+    dataset.setString(Tag.SOPClassUID, VR.UI, UID.EnhancedCTImageStorage);
+    dataset.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4");
+    dataset.setInt(Tag.SamplesPerPixel, VR.US, 1);
+    dataset.setString(Tag.PhotometricInterpretation, VR.CS, "MONOCHROME2");
+    dataset.setInt(Tag.NumberOfFrames, VR.IS, FRAMES);
+    dataset.setInt(Tag.Rows, VR.US, ROWS);
+    dataset.setInt(Tag.Columns, VR.US, COLUMNS);
+    dataset.setInt(Tag.BitsAllocated, VR.US, 16);
+    dataset.setInt(Tag.BitsStored, VR.US, 12);
+    dataset.setInt(Tag.HighBit, VR.US, 11);
+    dataset.setInt(Tag.PixelRepresentation, VR.US, 0);
+    dataset.setBytes(Tag.PixelData, VR.OW, pixelData);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DicomOutputStream out = new DicomOutputStream(bytes, UID.ExplicitVRLittleEndian)) {
+      out.writeDataset(dataset.createFileMetaInformation(UID.ExplicitVRLittleEndian), dataset);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -21,8 +21,17 @@ import com.google.cloud.healthcare.imaging.dicomadapter.monitoring.Event;
 import com.google.cloud.healthcare.imaging.dicomadapter.monitoring.MonitoringService;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
@@ -43,18 +52,42 @@ import org.slf4j.LoggerFactory;
 public class CMoveService extends BasicCMoveSCP {
 
   private static Logger log = LoggerFactory.getLogger(CMoveService.class);
+
   private final IDicomWebClient dicomWebClient;
   private final AetDictionary aets;
   private final ISenderFactory senderFactory;
+  private final int parallelSubOperations;
+  private final Executor subOperationExecutor;
 
   CMoveService(
       IDicomWebClient dicomWebClient,
       AetDictionary aets,
       ISenderFactory senderFactory) {
+    this(dicomWebClient, aets, senderFactory, 1, Runnable::run);
+  }
+
+  /**
+   * @param parallelSubOperations maximum number of instances of a single C-MOVE being retrieved
+   * (WADO-RS) and sent (C-STORE) at the same time. With more than 1, the sender must be thread-safe.
+   * @param subOperationExecutor runs the sub-operations of C-MOVEs with parallelSubOperations
+   * above 1, shared by all C-MOVEs. Those it rejects fail with
+   * {@link Status#OutOfResourcesUnableToPerformSubOperations}.
+   */
+  CMoveService(
+      IDicomWebClient dicomWebClient,
+      AetDictionary aets,
+      ISenderFactory senderFactory,
+      int parallelSubOperations,
+      Executor subOperationExecutor) {
     super(UID.StudyRootQueryRetrieveInformationModelMove);
+    if (parallelSubOperations < 1) {
+      throw new IllegalArgumentException("parallelSubOperations must be at least 1");
+    }
     this.dicomWebClient = dicomWebClient;
     this.aets = aets;
     this.senderFactory = senderFactory;
+    this.parallelSubOperations = parallelSubOperations;
+    this.subOperationExecutor = subOperationExecutor;
   }
 
   @Override
@@ -73,6 +106,9 @@ public class CMoveService extends BasicCMoveSCP {
   private class CMoveTask extends DimseTask {
 
     private final Attributes keys;
+    // Counters of sub-operations, guarded by this.
+    private int remainingInstances;
+    private int successfullInstances;
 
     private CMoveTask(Association as, PresentationContext pc,
         Attributes cmd, Attributes keys) {
@@ -83,7 +119,8 @@ public class CMoveService extends BasicCMoveSCP {
 
     @Override
     public void run() {
-      List<String> failedInstanceUids = new ArrayList<>();
+      List<String> failedInstanceUids = Collections.synchronizedList(new ArrayList<>());
+      List<Future<?>> subOperations = new ArrayList<>();
       ISender sender = null;
       try {
         if (canceled) {
@@ -127,41 +164,57 @@ public class CMoveService extends BasicCMoveSCP {
         }
 
         sender = senderFactory.create();
+        Set<String> sopClassUids = new LinkedHashSet<>();
+        for (Object instance : qidoResult) {
+          sopClassUids.add(AttributesUtil.getTagValue((JSONObject) instance,
+              TagUtils.toHexString(Tag.SOPClassUID)));
+        }
+        sender.expectSopClasses(cstoreTarget, sopClassUids);
 
-        int successfullInstances = 0;
-        int remainingInstances = qidoResult.length();
+        synchronized (this) {
+          remainingInstances = qidoResult.length();
+        }
+        // Sub-operations run on the task thread when not parallel, so that cancellation
+        // interrupts them directly.
+        Executor executor = parallelSubOperations > 1 ? subOperationExecutor : Runnable::run;
+        Semaphore permits = new Semaphore(parallelSubOperations);
         for (Object instance : qidoResult) {
-          sendPendingResponse(remainingInstances, successfullInstances, failedInstanceUids.size());
+          permits.acquire();
+          sendPendingResponse(failedInstanceUids);
 
           if (canceled) {
+            permits.release();
             throw new CancellationException();
           }
 
-          JSONObject instanceJson = (JSONObject) instance;
-          String studyUid = AttributesUtil.getTagValue(instanceJson,
-              TagUtils.toHexString(Tag.StudyInstanceUID));
-          String seriesUid = AttributesUtil.getTagValue(instanceJson,
-              TagUtils.toHexString(Tag.SeriesInstanceUID));
-          String instanceUid = AttributesUtil.getTagValue(instanceJson,
-              TagUtils.toHexString(Tag.SOPInstanceUID));
-          String classUid = AttributesUtil.getTagValue(instanceJson,
-              TagUtils.toHexString(Tag.SOPClassUID));
-
+          ISender subOperationSender = sender;
+          FutureTask<Void> subOperation = new FutureTask<>(() -> {
+            try {
+              moveInstance(subOperationSender, cstoreTarget, (JSONObject) instance,
+                  failedInstanceUids);
+            } finally {
+              permits.release();
+            }
+            return null;
+          });
+          subOperations.add(subOperation);
+          executor.execute(subOperation);
+        }
+        for (Future<?> subOperation : subOperations) {
           try {
-            MonitoringService.addEvent(Event.CMOVE_CSTORE_REQUEST);
-            long bytesSent = sender.cmove(cstoreTarget, studyUid, seriesUid,
-                instanceUid, classUid);
-            successfullInstances++;
-            MonitoringService.addEvent(Event.CMOVE_CSTORE_BYTES, bytesSent);
-          } catch (IDicomWebClient.DicomWebException | IOException e) {
-            MonitoringService.addEvent(Event.CMOVE_CSTORE_ERROR);
-            log.error("Failed CStore within CMove", e);
-            failedInstanceUids.add(instanceUid);
+            subOperation.get();
+          } catch (ExecutionException e) {
+            throw e.getCause();
           }
-
-          remainingInstances--;
+        }
+        if (canceled) {
+          throw new CancellationException();
         }
 
+        int successfullInstances;
+        synchronized (this) {
+          successfullInstances = this.successfullInstances;
+        }
         if (failedInstanceUids.isEmpty()) {
           as.tryWriteDimseRSP(pc, Commands.mkCMoveRSP(cmd, Status.Success));
         } else {
@@ -171,9 +224,17 @@ public class CMoveService extends BasicCMoveSCP {
         }
       } catch (CancellationException | InterruptedException e) {
         log.info("Canceled CMove", e);
-        sendErrorResponse(Status.Cancel, failedInstanceUids);
+        cancel(subOperations);
+        sendErrorResponse(Status.Cancel, copyOf(failedInstanceUids));
+      } catch (RejectedExecutionException e) {
+        log.error("CMove sub-operation rejected", e);
+        cancel(subOperations);
+        sendErrorResponse(Status.OutOfResourcesUnableToPerformSubOperations, e.getMessage(),
+            copyOf(failedInstanceUids));
       } catch (Throwable e) {
         log.error("Failure processing CMove", e);
+        // The C-MOVE fails as a whole, so the sub-operations still in flight are of no use.
+        cancel(subOperations);
         sendErrorResponse(Status.ProcessingFailure, e.getMessage());
       } finally {
         synchronized (this) {
@@ -192,20 +253,70 @@ public class CMoveService extends BasicCMoveSCP {
       }
     }
 
+    private void moveInstance(ISender sender, AetDictionary.Aet cstoreTarget,
+        JSONObject instanceJson, List<String> failedInstanceUids) {
+      String studyUid = AttributesUtil.getTagValue(instanceJson,
+          TagUtils.toHexString(Tag.StudyInstanceUID));
+      String seriesUid = AttributesUtil.getTagValue(instanceJson,
+          TagUtils.toHexString(Tag.SeriesInstanceUID));
+      String instanceUid = AttributesUtil.getTagValue(instanceJson,
+          TagUtils.toHexString(Tag.SOPInstanceUID));
+      String classUid = AttributesUtil.getTagValue(instanceJson,
+          TagUtils.toHexString(Tag.SOPClassUID));
+
+      boolean success = false;
+      try {
+        MonitoringService.addEvent(Event.CMOVE_CSTORE_REQUEST);
+        long bytesSent = sender.cmove(cstoreTarget, studyUid, seriesUid,
+            instanceUid, classUid);
+        success = true;
+        MonitoringService.addEvent(Event.CMOVE_CSTORE_BYTES, bytesSent);
+      } catch (IDicomWebClient.DicomWebException | IOException e) {
+        MonitoringService.addEvent(Event.CMOVE_CSTORE_ERROR);
+        log.error("Failed CStore within CMove", e);
+      } catch (InterruptedException e) {
+        // Cancels the whole C-MOVE, the instance is neither completed nor failed.
+        canceled = true;
+        Thread.currentThread().interrupt();
+        return;
+      }
+
+      synchronized (this) {
+        remainingInstances--;
+        if (success) {
+          successfullInstances++;
+        } else {
+          failedInstanceUids.add(instanceUid);
+        }
+      }
+    }
+
+    private void cancel(List<Future<?>> subOperations) {
+      for (Future<?> subOperation : subOperations) {
+        subOperation.cancel(true);
+      }
+    }
+
+    private List<String> copyOf(List<String> failedInstanceUids) {
+      synchronized (failedInstanceUids) {
+        return new ArrayList<>(failedInstanceUids);
+      }
+    }
+
     // It seems WEASIS (at least, GINKGO/AESKULAP don't cancel at all) doesn't just send cancel-rq,
     // when it wants to cancel.
     // Instead it replies with cancel-rq to any move-rsp, including pending
     // (which I can spam as much as I want).
     // Which while not contradicting the standard, is weird (Pending responses are optional).
-    private void sendPendingResponse(
-        int remainingInstances,
-        int successfullInstances,
-        int failedInstances)
+    private void sendPendingResponse(List<String> failedInstanceUids)
         throws CancellationException {
       Attributes attributes = new Attributes();
-      attributes.setInt(Tag.NumberOfRemainingSuboperations, VR.US, remainingInstances);
-      attributes.setInt(Tag.NumberOfCompletedSuboperations, VR.US, successfullInstances);
-      attributes.setInt(Tag.NumberOfFailedSuboperations, VR.US, failedInstances);
+      // Snapshot under the lock, so the three counters always add up to the total.
+      synchronized (this) {
+        attributes.setInt(Tag.NumberOfRemainingSuboperations, VR.US, remainingInstances);
+        attributes.setInt(Tag.NumberOfCompletedSuboperations, VR.US, successfullInstances);
+        attributes.setInt(Tag.NumberOfFailedSuboperations, VR.US, failedInstanceUids.size());
+      }
       // no code path for warnings
       attributes.setInt(Tag.NumberOfWarningSuboperations, VR.US, 0);
       as.tryWriteDimseRSP(pc, Commands.mkCMoveRSP(cmd, Status.Pending), attributes);
@@ -15,37 +15,45 @@
 package com.google.cloud.healthcare.imaging.dicomadapter;
 
 import com.google.cloud.healthcare.IDicomWebClient.DicomWebException;
-import com.google.cloud.healthcare.deid.redactor.DicomRedactor;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.DicomStreamUtil;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.StowBatcher;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.TranscodePolicy;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.destination.DestinationHolder;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.destination.IDestinationClientFactory;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.multipledest.IMultipleDestinationUploadService;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.multipledest.IMultipleDestinationUploadService.MultipleDestinationUploadServiceException;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline.FrameTranscoder;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline.RedactProcessor;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline.StreamPipeline;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline.StreamProcessor;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline.TranscodeScheduler;
 import com.google.cloud.healthcare.imaging.dicomadapter.monitoring.Event;
 import com.google.cloud.healthcare.imaging.dicomadapter.monitoring.MonitoringService;
 import com.google.common.io.CountingInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.SequenceInputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.VR;
-import org.dcm4che3.imageio.codec.Transcoder;
+import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Commands;
+import org.dcm4che3.net.Dimse;
 import org.dcm4che3.net.PDVInputStream;
 import org.dcm4che3.net.Status;
 import org.dcm4che3.net.pdu.PresentationContext;
 import org.dcm4che3.net.service.BasicCStoreSCP;
 import org.dcm4che3.net.service.DicomServiceException;
-import org.dcm4che3.util.StreamUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,17 +62,50 @@ import org.slf4j.LoggerFactory;
  */
 public class CStoreService extends BasicCStoreSCP {
 
+  public static final long DEFAULT_MAX_BUFFERED_BYTES = 512L * 1024 * 1024;
+
+  private static final int BUFFER_CHUNK_SIZE = 64 * 1024;
+
   private static Logger log = LoggerFactory.getLogger(CStoreService.class);
 
   private final IDestinationClientFactory destinationClientFactory;
   private final IMultipleDestinationUploadService multipleSendService;
-  private final DicomRedactor redactor;
+  private final RedactProcessor redactor;
   private final String transcodeToSyntax;
+  private final StreamPipeline streamPipeline;
+  private final Executor storeExecutor;
+  private final Executor pipelineExecutor;
+  private final FrameTranscoder frameTranscoder;
+  private final TranscodeScheduler transcodeScheduler;
+  private final TranscodePolicy transcodePolicy;
+  private final StowBatcher stowBatcher;
+  private final long maxBufferedBytes;
+
+  private final Object bufferedBytesLock = new Object();
+  // Guarded by bufferedBytesLock.
+  private long bufferedBytes;
 
   CStoreService(IDestinationClientFactory destinationClientFactory,
-                DicomRedactor redactor,
+                RedactProcessor redactor,
                 String transcodeToSyntax,
                 IMultipleDestinationUploadService multipleSendService) {
+    this(destinationClientFactory, redactor, transcodeToSyntax, multipleSendService,
+        new Options());
+  }
+
+  CStoreService(IDestinationClientFactory destinationClientFactory,
+                RedactProcessor redactor,
+                String transcodeToSyntax,
+                IMultipleDestinationUploadService multipleSendService,
+                Options options) {
+    this.streamPipeline = options.streamPipeline;
+    this.frameTranscoder = options.frameTranscoder;
+    this.transcodeScheduler = options.transcodeScheduler;
+    this.transcodePolicy = options.transcodePolicy;
+    this.stowBatcher = options.stowBatcher;
+    this.maxBufferedBytes = options.maxBufferedBytes;
+    this.storeExecutor = options.storeExecutor;
+    this.pipelineExecutor = options.pipelineExecutor;
     this.destinationClientFactory = destinationClientFactory;
     this.redactor = redactor;
     this.transcodeToSyntax = transcodeToSyntax != null && transcodeToSyntax.length() > 0 ? transcodeToSyntax : null;
@@ -75,6 +116,125 @@ public class CStoreService extends BasicCStoreSCP {
     }
   }
 
+  @Override
+  public void onDimseRQ(Association association, PresentationContext presentationContext,
+      Dimse dimse, Attributes request, PDVInputStream data) throws IOException {
+    // Without an asynchronous operations window (C-STOREs the calling AE may invoke without
+    // waiting for their C-STORE-RSP), the instance is streamed rather than received in memory.
+    if (storeExecutor == null || dimse != Dimse.C_STORE_RQ
+        || association.getAAssociateAC().getMaxOpsInvoked() == 1) {
+      super.onDimseRQ(association, presentationContext, dimse, request, data);
+      return;
+    }
+
+    // Only the dataset is read on the PDU reader thread, which then goes on with the next
+    // request of the asynchronous operations window while this one is uploaded.
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    if (!bufferDataset(data, buffer)) {
+      // Past the budget of received instances: stored while the association waits, streaming
+      // the rest of the dataset after the part already read.
+      MonitoringService.addEvent(Event.CSTORE_BUFFER_OVERFLOWS);
+      Attributes response = Commands.mkCStoreRSP(request, Status.Success);
+      storeInstance(association, presentationContext, request,
+          new SequenceInputStream(new ByteArrayInputStream(buffer.toByteArray()), data), response,
+          null);
+      association.tryWriteDimseRSP(presentationContext, response);
+      return;
+    }
+    byte[] dataset = buffer.toByteArray();
+    try {
+      storeExecutor.execute(() -> storeAsync(association, presentationContext, request, dataset));
+    } catch (RejectedExecutionException e) {
+      releaseBuffered(dataset.length);
+      reportError(e, Event.CSTORE_ERROR);
+      association.tryWriteDimseRSP(presentationContext,
+          Commands.mkCStoreRSP(request, Status.OutOfResources));
+    }
+  }
+
+  /**
+   * Reads the dataset into buffer, reserving its size from the budget of received instances.
+   *
+   * @return false, with nothing reserved, if the budget ran out before the end of the dataset.
+   */
+  private boolean bufferDataset(InputStream data, ByteArrayOutputStream buffer)
+      throws IOException {
+    byte[] chunk = new byte[BUFFER_CHUNK_SIZE];
+    try {
+      int read;
+      while ((read = data.read(chunk)) != -1) {
+        buffer.write(chunk, 0, read);
+        if (!reserveBuffered(read)) {
+          releaseBuffered(buffer.size() - read);
+          return false;
+        }
+      }
+      return true;
+    } catch (IOException e) {
+      releaseBuffered(buffer.size());
+      throw e;
+    }
+  }
+
+  private boolean reserveBuffered(long bytes) {
+    synchronized (bufferedBytesLock) {
+      if (maxBufferedBytes > 0 && bufferedBytes + bytes > maxBufferedBytes) {
+        return false;
+      }
+      bufferedBytes += bytes;
+      return true;
+    }
+  }
+
+  private void releaseBuffered(long bytes) {
+    synchronized (bufferedBytesLock) {
+      bufferedBytes -= bytes;
+    }
+  }
+
+  /** Returns the size of the instances received in memory and not yet stored. */
+  long getBufferedBytes() {
+    synchronized (bufferedBytesLock) {
+      return bufferedBytes;
+    }
+  }
+
+  private void storeAsync(Association association, PresentationContext presentationContext,
+      Attributes request, byte[] dataset) {
+    Attributes response = Commands.mkCStoreRSP(request, Status.Success);
+    CompletableFuture<Integer> batchedStatus = null;
+    try {
+      batchedStatus = storeInstance(association, presentationContext,
+          request, new ByteArrayInputStream(dataset), response, stowBatcher);
+      if (batchedStatus != null) {
+        batchedStatus.thenAccept(status -> {
+          if (status != Status.Success) {
+            MonitoringService.addEvent(Event.CSTORE_ERROR);
+          }
+          response.setInt(Tag.Status, VR.US, status);
+          association.tryWriteDimseRSP(presentationContext, response);
+        });
+        return;
+      }
+      association.tryWriteDimseRSP(presentationContext, response);
+    } catch (DicomServiceException e) {
+      association.tryWriteDimseRSP(presentationContext,
+          e.mkRSP(Dimse.C_STORE_RSP.commandField(), request.getInt(Tag.MessageID, 0)),
+          e.getDataset());
+    } catch (IOException e) {
+      log.error("Failed to store instance", e);
+      association.tryWriteDimseRSP(presentationContext,
+          Commands.mkCStoreRSP(request, Status.ProcessingFailure));
+    } finally {
+      // A batched instance stays in memory until its batch is sent.
+      if (batchedStatus != null) {
+        batchedStatus.whenComplete((status, e) -> releaseBuffered(dataset.length));
+      } else {
+        releaseBuffered(dataset.length);
+      }
+    }
+  }
+
   @Override
   protected void store(
       Association association,
@@ -83,6 +243,24 @@ public class CStoreService extends BasicCStoreSCP {
       PDVInputStream inPdvStream,
       Attributes response)
       throws IOException {
+    storeInstance(association, presentationContext, request, inPdvStream, response, null);
+  }
+
+  /**
+   * Stores the instance, or adds it to a STOW-RS batch if stowBatcher is not null and the instance
+   * goes to a single destination.
+   *
+   * @return the DICOM status of the batched instance once its batch is sent, null if the instance
+   * was not batched and response holds its status.
+   */
+  private CompletableFuture<Integer> storeInstance(
+      Association association,
+      PresentationContext presentationContext,
+      Attributes request,
+      InputStream inPdvStream,
+      Attributes response,
+      StowBatcher stowBatcher)
+      throws IOException {
     try {
       MonitoringService.addEvent(Event.CSTORE_REQUEST);
 
@@ -93,24 +271,47 @@ public class CStoreService extends BasicCStoreSCP {
       validateParam(sopClassUID, "AffectedSOPClassUID");
       validateParam(sopInstanceUID, "AffectedSOPInstanceUID");
 
+      String callingAet = association.getAAssociateAC().getCallingAET();
       DestinationHolder destinationHolder =
-          destinationClientFactory.create(association.getAAssociateAC().getCallingAET(), transferSyntax, inPdvStream);
+          destinationClientFactory.create(callingAet, transferSyntax, inPdvStream);
+      String targetSyntax = selectTargetSyntax(
+          callingAet, sopClassUID, transferSyntax, destinationHolder.getAttributes());
+
+      if (redactor == null && targetSyntax == null && multipleSendService == null) {
+        if (stowBatcher != null) {
+          byte[] dataset = destinationHolder.getInputStream().readAllBytes();
+          MonitoringService.addEvent(Event.CSTORE_BYTES, dataset.length);
+          byte[] header =
+              DicomStreamUtil.fileMetaHeader(sopInstanceUID, sopClassUID, transferSyntax);
+          return stowBatcher.add(association, destinationHolder.getSingleDestination(),
+              sopInstanceUID, header.length + dataset.length, out -> {
+                out.write(header);
+                out.write(dataset);
+              });
+        }
+        long datasetBytes = passThrough(destinationHolder, sopInstanceUID, sopClassUID, transferSyntax);
+        response.setInt(Tag.Status, VR.US, Status.Success);
+        MonitoringService.addEvent(Event.CSTORE_BYTES, datasetBytes);
+        return null;
+      }
 
       final CountingInputStream countingStream = destinationHolder.getCountingInputStream();
 
       List<StreamProcessor> processorList = new ArrayList<>();
-      if (redactor != null) {
-        processorList.add(redactor::redact);
-      }
+      AtomicReference<CompletableFuture<Integer>> batchedStatus = new AtomicReference<>();
+      if (redactor != null && targetSyntax != null && redactor.canRedactDataset()) {
+        // Redacts the dataset parsed for transcoding, instead of parsing the instance twice.
+        processorList.add((inputStream, outputStream) -> transcode(
+            association, inputStream, outputStream, targetSyntax, redactor));
+      } else {
+        if (redactor != null) {
+          processorList.add(redactor);
+        }
 
-      if(transcodeToSyntax != null && !transcodeToSyntax.equals(transferSyntax)) {
-        processorList.add((inputStream, outputStream) -> {
-          try (Transcoder transcoder = new Transcoder(inputStream)) {
-            transcoder.setIncludeFileMetaInformation(true);
-            transcoder.setDestinationTransferSyntax(transcodeToSyntax);
-            transcoder.transcode((transcoder1, dataset) -> outputStream);
-          }
-        });
+        if (targetSyntax != null) {
+          processorList.add((inputStream, outputStream) -> transcode(
+              association, inputStream, outputStream, targetSyntax, null));
+        }
       }
 
       if (multipleSendService != null) {
@@ -124,6 +325,16 @@ public class CStoreService extends BasicCStoreSCP {
               association.getSerialNo()
             );
         });
+      } else if (stowBatcher != null) {
+        processorList.add((inputStream, outputStream) -> {
+          byte[] instance = inputStream.readAllBytes();
+          // Redaction may replace the SOP instance UID the STOW-RS response refers to.
+          String storedSopInstanceUID =
+              redactor != null ? readSopInstanceUID(instance, sopInstanceUID) : sopInstanceUID;
+          batchedStatus.set(stowBatcher.add(association,
+              destinationHolder.getSingleDestination(), storedSopInstanceUID, instance.length,
+              out -> out.write(instance)));
+        });
       } else {
         processorList.add((inputStream, outputStream) -> {
           destinationHolder.getSingleDestination().stowRs(inputStream);
@@ -132,20 +343,23 @@ public class CStoreService extends BasicCStoreSCP {
 
       try(InputStream inWithHeader = DicomStreamUtil.dicomStreamWithFileMetaHeader(
               sopInstanceUID, sopClassUID, transferSyntax, countingStream)) {
-        processStream(association.getApplicationEntity().getDevice().getExecutor(),
-            inWithHeader, processorList);
+        streamPipeline.process(pipelineExecutor(association), inWithHeader, processorList);
       } catch (IOException e) {
         throw new DicomServiceException(Status.ProcessingFailure, e);
       }
 
       response.setInt(Tag.Status, VR.US, Status.Success);
       MonitoringService.addEvent(Event.CSTORE_BYTES, countingStream.getCount());
+      return batchedStatus.get();
     } catch (DicomWebException e) {
       reportError(e, Event.CSTORE_ERROR);
       throw new DicomServiceException(e.getStatus(), e);
     } catch (DicomServiceException e) {
       reportError(e, Event.CSTORE_ERROR);
       throw e;
+    } catch (RejectedExecutionException e) {
+      reportError(e, Event.CSTORE_ERROR);
+      throw new DicomServiceException(Status.OutOfResources, e);
     } catch (MultipleDestinationUploadServiceException me) {
       reportError(me, null);
       throw new DicomServiceException(me.getDicomStatus() != null ? me.getDicomStatus() : Status.ProcessingFailure, me);
@@ -163,6 +377,95 @@ public class CStoreService extends BasicCStoreSCP {
     }
   }
 
+  /**
+   * Returns the transfer syntax to transcode the instance to, or null if it is stored in the one it
+   * was received in.
+   */
+  private String selectTargetSyntax(String callingAet, String sopClassUID, String transferSyntax,
+      Attributes attrs) {
+    String targetSyntax = transcodeToSyntax;
+    if (transcodePolicy != null) {
+      String selected = transcodePolicy.select(callingAet, sopClassUID, transferSyntax, attrs);
+      if (selected != null) {
+        targetSyntax = selected.equals(TranscodePolicy.PASS_THROUGH) ? null : selected;
+      }
+    }
+    return targetSyntax != null && !targetSyntax.equals(transferSyntax) ? targetSyntax : null;
+  }
+
+  /**
+   * Redacts, then transcodes the instance in a second stage of its own, for instances whose
+   * elements the transcoder cannot all redact while transcoding.
+   */
+  private void redactThenTranscode(Association association, InputStream inputStream,
+      OutputStream outputStream, String targetSyntax, RedactProcessor redactor) throws Exception {
+    List<StreamProcessor> stages = new ArrayList<>();
+    stages.add(redactor);
+    stages.add((in, out) -> frameTranscoder.transcode(in, outputStream, targetSyntax));
+    try {
+      streamPipeline.process(pipelineExecutor(association), inputStream, stages);
+    } catch (Exception | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new IOException(e);
+    }
+  }
+
+  private Executor pipelineExecutor(Association association) {
+    return pipelineExecutor != null
+        ? pipelineExecutor : association.getApplicationEntity().getDevice().getExecutor();
+  }
+
+  /**
+   * Transcodes the instance, redacting it too if redactor is not null. If the transcode queue is
+   * full and saturated instances are passed through, only redacts it.
+   */
+  private void transcode(Association association, InputStream inputStream,
+      OutputStream outputStream, String targetSyntax, RedactProcessor redactor) throws Exception {
+    StreamProcessor redactThenTranscode = redactor != null
+        ? (in, out) -> redactThenTranscode(association, in, out, targetSyntax, redactor) : null;
+    if (transcodeScheduler == null) {
+      frameTranscoder.transcode(
+          inputStream, outputStream, targetSyntax, redactor, redactThenTranscode);
+      return;
+    }
+    boolean transcoded = transcodeScheduler.run(association.getSerialNo(), () ->
+        frameTranscoder.transcode(
+            inputStream, outputStream, targetSyntax, redactor, redactThenTranscode));
+    if (!transcoded) {
+      log.warn("Transcode queue full, storing instance in its received transfer syntax");
+      if (redactor != null) {
+        redactor.process(inputStream, outputStream);
+      } else {
+        inputStream.transferTo(outputStream);
+      }
+    }
+  }
+
+  /**
+   * Sends the instance to the single destination with no processing stages in between, so that
+   * each byte is copied once, from the PDV into the request body.
+   *
+   * @return number of dataset bytes sent.
+   */
+  private long passThrough(DestinationHolder destinationHolder, String sopInstanceUID,
+      String sopClassUID, String transferSyntax) throws DicomWebException {
+    long[] datasetBytes = new long[1];
+    destinationHolder.getSingleDestination().stowRs(out ->
+        datasetBytes[0] = DicomStreamUtil.writeDicomStreamWithFileMetaHeader(
+            sopInstanceUID, sopClassUID, transferSyntax, destinationHolder.getInputStream(), out));
+    return datasetBytes[0];
+  }
+
+  // SOP instance UID in the file meta header of the instance, defaultUID if there is none.
+  private static String readSopInstanceUID(byte[] instance, String defaultUID)
+      throws IOException {
+    try (DicomInputStream dis = new DicomInputStream(new ByteArrayInputStream(instance))) {
+      Attributes fmi = dis.getFileMetaInformation();
+      return fmi != null ? fmi.getString(Tag.MediaStorageSOPInstanceUID, defaultUID) : defaultUID;
+    }
+  }
+
   private void reportError(Throwable e, Event event) {
     if (event != null) {
       MonitoringService.addEvent(event);
@@ -176,78 +479,84 @@ public class CStoreService extends BasicCStoreSCP {
     }
   }
 
-  private void processStream(Executor underlyingExecutor, InputStream inputStream,
-      List<StreamProcessor> processorList) throws Throwable {
-    if (processorList.size() == 1) {
-      StreamProcessor singleProcessor = processorList.get(0);
-      singleProcessor.process(inputStream, null);
-    } else if (processorList.size() > 1) {
-      List<StreamCallable> callableList = new ArrayList<>();
-
-      PipedOutputStream pdvPipeOut = new PipedOutputStream();
-      InputStream nextInputStream = new PipedInputStream(pdvPipeOut);
-      for(int i=0; i < processorList.size(); i++){
-        StreamProcessor processor = processorList.get(i);
-        InputStream processorInput = nextInputStream;
-        OutputStream processorOutput = null;
+  /**
+   * Optional collaborators of the service, left to their defaults unless set.
+   */
+  static class Options {
 
-        if(i < processorList.size() - 1) {
-          PipedOutputStream pipeOut = new PipedOutputStream();
-          processorOutput = pipeOut;
-          nextInputStream = new PipedInputStream(pipeOut);
-        }
+    private StreamPipeline streamPipeline = new StreamPipeline();
+    private Executor storeExecutor;
+    private Executor pipelineExecutor;
+    private FrameTranscoder frameTranscoder = new FrameTranscoder();
+    private TranscodeScheduler transcodeScheduler;
+    private TranscodePolicy transcodePolicy;
+    private StowBatcher stowBatcher;
+    private long maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
 
-        callableList.add(new StreamCallable(processorInput, processorOutput, processor));
-      }
+    Options streamPipeline(StreamPipeline streamPipeline) {
+      this.streamPipeline = streamPipeline;
+      return this;
+    }
 
-      ExecutorCompletionService<Void> ecs = new ExecutorCompletionService<>(underlyingExecutor);
-      for(StreamCallable callable : callableList){
-        ecs.submit(callable);
-      }
+    /**
+     * If set, instances are uploaded by this executor once received and their C-STORE-RSP sent
+     * when done, while the association goes on receiving the next ones.
+     */
+    Options storeExecutor(Executor storeExecutor) {
+      this.storeExecutor = storeExecutor;
+      return this;
+    }
 
-      try (pdvPipeOut) {
-        // PDVInputStream is thread-locked
-        StreamUtils.copy(inputStream, pdvPipeOut);
-      } catch (IOException e) {
-        // causes or is caused by exception in callables, no need to throw this up
-        log.trace("Error copying inputStream to pdvPipeOut", e);
-      }
+    /**
+     * Runs the processing stages of instances, the device executor if not set. Instances it
+     * rejects are answered with {@link Status#OutOfResources}.
+     */
+    Options pipelineExecutor(Executor pipelineExecutor) {
+      this.pipelineExecutor = pipelineExecutor;
+      return this;
+    }
 
-      try {
-        for (int i = 0; i < callableList.size(); i++) {
-          ecs.take().get();
-        }
-      } catch (ExecutionException e) {
-        throw e.getCause();
-      }
+    /** Transcodes instances to their target transfer syntax. */
+    Options frameTranscoder(FrameTranscoder frameTranscoder) {
+      this.frameTranscoder = frameTranscoder;
+      return this;
     }
-  }
 
-  @FunctionalInterface
-  private interface StreamProcessor {
-    void process(InputStream inputStream, OutputStream outputStream) throws Exception;
-  }
+    /**
+     * If set, runs transcoding on its own threads rather than on the pipeline thread of the stage.
+     */
+    Options transcodeScheduler(TranscodeScheduler transcodeScheduler) {
+      this.transcodeScheduler = transcodeScheduler;
+      return this;
+    }
 
-  private static class StreamCallable implements Callable<Void> {
-    private final InputStream inputStream;
-    private final OutputStream outputStream;
-    private final StreamProcessor processor;
+    /**
+     * If set, chooses the transfer syntax of each instance, instances matching none of its rules
+     * being transcoded to transcodeToSyntax.
+     */
+    Options transcodePolicy(TranscodePolicy transcodePolicy) {
+      this.transcodePolicy = transcodePolicy;
+      return this;
+    }
 
-    public StreamCallable(InputStream inputStream, OutputStream outputStream,
-        StreamProcessor processor) {
-      this.inputStream = inputStream;
-      this.outputStream = outputStream;
-      this.processor = processor;
+    /**
+     * If set along with the store executor, instances of an association sent to a single
+     * destination are stored by multipart STOW-RS requests of several instances, their
+     * C-STORE-RSP sent once their request is answered.
+     */
+    Options stowBatcher(StowBatcher stowBatcher) {
+      this.stowBatcher = stowBatcher;
+      return this;
     }
 
-    @Override
-    public Void call() throws Exception {
-      try (inputStream) {
-        try (outputStream) {
-          processor.process(inputStream, outputStream);
-        }
-      }
-      return null;
+    /**
+     * Maximum size of the instances received in memory by the store executor and not yet stored,
+     * 0 for no limit. Instances past it are stored before the association goes on, like without
+     * a store executor.
+     */
+    Options maxBufferedBytes(long maxBufferedBytes) {
+      this.maxBufferedBytes = maxBufferedBytes;
+      return this;
     }
   }
 }
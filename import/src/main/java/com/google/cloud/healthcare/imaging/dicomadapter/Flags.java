@@ -16,8 +16,17 @@ package com.google.cloud.healthcare.imaging.dicomadapter;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
+import com.google.cloud.healthcare.Http2SessionPool;
+import com.google.cloud.healthcare.LimitingDicomWebClient;
+import com.google.cloud.healthcare.deid.redactor.DicomRedactor;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.StowBatcher;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.destination.RoutingKeyExtractor;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline.FrameTranscoder;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline.StreamPipeline;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline.TranscodeScheduler.SaturationPolicy;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.Deflater;
 
 @Parameters(separators = "= ")
 public class Flags {
@@ -34,6 +43,134 @@ public class Flags {
   )
   String dimseCmoveAET = "";
 
+  @Parameter(
+      names = {"--cmove_parallel_sub_operations"},
+      description = "Number of instances of a C-MOVE that are retrieved and sent to the move "
+          + "destination at the same time. 1 (sequential) by default."
+  )
+  Integer cmoveParallelSubOperations = 1;
+
+  @Parameter(
+      names = {"--cmove_sub_operation_threads"},
+      description = "maximum number of threads running the sub-operations of all C-MOVEs, with "
+          + "--cmove_parallel_sub_operations above 1."
+  )
+  Integer cmoveSubOperationThreads = 64;
+
+  @Parameter(
+      names = {"--cmove_sub_operation_queue_size"},
+      description = "maximum number of C-MOVE sub-operations waiting for a thread. C-MOVEs past "
+          + "it fail with Status.OutOfResourcesUnableToPerformSubOperations."
+  )
+  Integer cmoveSubOperationQueueSize = 1024;
+
+  @Parameter(
+      names = {"--association_idle_timeout"},
+      description = "time after which an idle outbound association (C-STORE within C-MOVE or to "
+          + "DICOM destinations) is released (ms). 30000 by default."
+  )
+  Long associationIdleTimeout = AssociationPool.DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+  @Parameter(
+      names = {"--max_ops_invoked"},
+      description = "maximum number of C-STOREs outstanding at once on an outbound association "
+          + "(asynchronous operations window proposed to the peer). 1 (synchronous) by default."
+  )
+  Integer maxOpsInvoked = AssociationPool.DEFAULT_MAX_OPS_INVOKED;
+
+  @Parameter(
+      names = {"--max_associations_per_peer"},
+      description = "maximum number of outbound associations open at once to a DICOM peer. "
+          + "C-STOREs past it wait for an operation slot. 0 (no limit) by default."
+  )
+  Integer maxAssociationsPerPeer = AssociationPool.DEFAULT_MAX_ASSOCIATIONS_PER_PEER;
+
+  @Parameter(
+      names = {"--max_ops_performed"},
+      description = "maximum number of C-STOREs a calling AE may have outstanding at once on an "
+          + "inbound association (asynchronous operations window). Above 1, each instance is "
+          + "received in memory and uploaded in the background. 1 (synchronous) by default."
+  )
+  Integer maxOpsPerformed = 1;
+
+  @Parameter(
+      names = {"--max_buffered_bytes"},
+      description = "maximum size in bytes of the instances received in memory with "
+          + "--max_ops_performed above 1 and not yet uploaded. Past it, instances are uploaded "
+          + "before the association goes on. 0 for no limit, 512 MiB by default."
+  )
+  Long maxBufferedBytes = CStoreService.DEFAULT_MAX_BUFFERED_BYTES;
+
+  @Parameter(
+      names = {"--stow_batch_max_instances"},
+      description = "maximum number of instances of an inbound association stored by one "
+          + "multipart STOW-RS request, when sent to a single destination. Above 1, requires "
+          + "--max_ops_performed above 1, which also caps batches. 1 (no batching) by default."
+  )
+  Integer stowBatchMaxInstances = StowBatcher.DEFAULT_MAX_INSTANCES;
+
+  @Parameter(
+      names = {"--stow_batch_max_bytes"},
+      description = "maximum size in bytes of the instances of a STOW-RS batch, past which it is "
+          + "sent. 64 MiB by default."
+  )
+  Long stowBatchMaxBytes = StowBatcher.DEFAULT_MAX_BYTES;
+
+  @Parameter(
+      names = {"--stow_batch_max_delay"},
+      description = "time after which a STOW-RS batch is sent even if not full (ms). 100 by "
+          + "default."
+  )
+  Long stowBatchMaxDelay = StowBatcher.DEFAULT_MAX_DELAY_MILLIS;
+
+  @Parameter(
+      names = {"--max_associations"},
+      description = "maximum number of open inbound associations. Further association requests "
+          + "are rejected with A-ASSOCIATE-RJ. 0 (no limit) by default."
+  )
+  Integer maxAssociations = 0;
+
+  @Parameter(
+      names = {"--association_threads"},
+      description = "maximum number of threads serving inbound associations: one per open "
+          + "association, plus one per outstanding C-STORE with --max_ops_performed above 1. "
+          + "Requests past the limit get Status.OutOfResources or have their association aborted. "
+          + "0 (no limit) by default."
+  )
+  Integer associationThreads = 0;
+
+  @Parameter(
+      names = {"--pipeline_threads"},
+      description = "maximum number of threads running C-STORE processing stages (redaction, "
+          + "transcoding, upload), one per stage of each instance in flight. Instances that "
+          + "find no free thread are answered with Status.OutOfResources. 0 (no limit) by default."
+  )
+  Integer pipelineThreads = 0;
+
+  @Parameter(
+      names = {"--upload_threads"},
+      description = "maximum number of threads uploading backed up instances to their "
+          + "destinations."
+  )
+  Integer uploadThreads = 64;
+
+  @Parameter(
+      names = {"--upload_queue_size"},
+      description = "maximum number of backed up instances waiting for an upload thread. "
+          + "Instances past it are answered with Status.OutOfResources."
+  )
+  Integer uploadQueueSize = 1024;
+
+  @Parameter(
+      names = {"--virtual_threads"},
+      description = "run inbound associations, C-STORE processing stages, uploads and C-MOVE "
+          + "sub-operations on virtual threads. Requires Java 21 or later. "
+          + "--association_threads, --pipeline_threads, --upload_threads and "
+          + "--cmove_sub_operation_threads then limit "
+          + "concurrent tasks rather than threads, and may be raised to thousands."
+  )
+  Boolean virtualThreads = false;
+
   @Parameter(
       names = {"--dimse_port"},
       description = "Port the server is listening to for incoming DIMSE requests."
@@ -70,6 +207,70 @@ public class Flags {
           "Whether to use HTTP 2.0 for StowRS (i.e. StoreInstances) requests. True by default.")
   Boolean useHttp2ForStow = false;
 
+  @Parameter(
+      names = {"--dicomweb_http2"},
+      description =
+          "Whether to use HTTP 2.0 for QidoRS and WadoRS requests made for C-FIND, C-MOVE and"
+              + " storage commitment, multiplexed over pooled connections. False by default.")
+  Boolean useHttp2ForDicomweb = false;
+
+  @Parameter(
+      names = {"--http2_max_sessions_per_host"},
+      description = "maximum number of HTTP/2 connections kept open per DICOMweb host. 4 by default."
+  )
+  Integer http2MaxSessionsPerHost = Http2SessionPool.DEFAULT_MAX_SESSIONS_PER_HOST;
+
+  @Parameter(
+      names = {"--http2_max_streams_per_session"},
+      description = "maximum number of concurrent requests multiplexed on one HTTP/2 connection. "
+          + "Capped by the server's limit. 100 by default."
+  )
+  Integer http2MaxStreamsPerSession = Http2SessionPool.DEFAULT_MAX_STREAMS_PER_SESSION;
+
+  @Parameter(
+      names = {"--http2_idle_timeout"},
+      description = "time after which an idle HTTP/2 connection is closed (ms). 300000 by default."
+  )
+  Long http2IdleTimeout = Http2SessionPool.DEFAULT_IDLE_TIMEOUT_MILLIS;
+
+  @Parameter(
+      names = {"--dicomweb_max_concurrency"},
+      description = "maximum number of concurrent requests to each DICOMweb destination. The "
+          + "limit starts there, halves when the destination answers HTTP 429 or 5xx, does not "
+          + "answer or is slower than --dicomweb_max_latency, and grows back as requests "
+          + "succeed. 0 (no limit) by default."
+  )
+  Integer dicomwebMaxConcurrency = 0;
+
+  @Parameter(
+      names = {"--dicomweb_max_latency"},
+      description = "latency past which a DICOMweb request lowers the concurrency limit of its "
+          + "destination (ms). 0 (only failures lower it) by default."
+  )
+  Long dicomwebMaxLatency = 0L;
+
+  @Parameter(
+      names = {"--dicomweb_max_wait"},
+      description = "time a DICOMweb request over the concurrency limit waits before failing "
+          + "with Status.OutOfResources (ms). 30000 by default."
+  )
+  Long dicomwebMaxWait = LimitingDicomWebClient.DEFAULT_MAX_WAIT_MILLIS;
+
+  @Parameter(
+      names = {"--dicomweb_breaker_failures"},
+      description = "number of consecutive HTTP 429, 5xx or connection failures after which "
+          + "requests to a DICOMweb destination fail at once with Status.OutOfResources, retried "
+          + "later if backed up, until a trial request succeeds. 0 (no circuit breaker) by default."
+  )
+  Integer dicomwebBreakerFailures = 0;
+
+  @Parameter(
+      names = {"--dicomweb_breaker_open_time"},
+      description = "time requests fail at once after the circuit breaker opens, before a trial "
+          + "request (ms). 30000 by default."
+  )
+  Long dicomwebBreakerOpenTime = LimitingDicomWebClient.DEFAULT_BREAKER_OPEN_MILLIS;
+
   @Parameter(
       names = {"--stow_overwrite"},
       description =
@@ -130,6 +331,21 @@ public class Flags {
               + " be present. Values: CHC_BASIC")
   String tagsProfile = "";
 
+  @Parameter(
+      names = {"--redact_streaming"},
+      description =
+          "Redact while streaming the instance, only holding the elements before Pixel Data in"
+              + " memory. Pixel Data is copied through in bounded chunks.")
+  Boolean redactStreaming = false;
+
+  @Parameter(
+      names = {"--redact_uid_cache_size"},
+      description =
+          "Number of replaced Study, Series and SOP Instance UIDs remembered during redaction, so"
+              + " that UIDs shared by the instances of a study are regenerated once. 0 disables"
+              + " the cache. 10000 by default.")
+  Integer redactUidCacheSize = DicomRedactor.DEFAULT_UID_CACHE_SIZE;
+
   @Parameter(
       names = { "--help", "-h" },
       help = true,
@@ -159,6 +375,63 @@ public class Flags {
               + " supported syntaxes.")
   String transcodeToSyntax = "";
 
+  @Parameter(
+      names = {"--transcode_threads"},
+      description = "number of threads compressing the frames of multi-frame instances in "
+          + "parallel during C-STORE transcoding. Number of processors by default."
+  )
+  Integer transcodeThreads = Runtime.getRuntime().availableProcessors();
+
+  @Parameter(
+      names = {"--transcode_max_frames_in_memory"},
+      description = "maximum number of uncompressed frames of an instance held in memory at once "
+          + "while its frames are compressed in parallel. Twice the number of processors by "
+          + "default."
+  )
+  Integer transcodeMaxFramesInMemory = FrameTranscoder.DEFAULT_MAX_FRAMES_IN_MEMORY;
+
+  @Parameter(
+      names = {"--transcode_deflate_level"},
+      description = "compression level, 0 to 9 or -1 for the default, of instances transcoded to "
+          + "Deflated Explicit VR Little Endian (1.2.840.10008.1.2.1.99). 1 trades size for the "
+          + "least CPU."
+  )
+  Integer transcodeDeflateLevel = Deflater.DEFAULT_COMPRESSION;
+
+  @Parameter(
+      names = {"--transcode_queue_size"},
+      description = "maximum number of instances waiting for a transcoding thread. Transcoding "
+          + "runs on --transcode_threads threads of its own, taking waiting instances from one "
+          + "association after another. 0, the default, transcodes on the processing stage's "
+          + "thread instead."
+  )
+  Integer transcodeQueueSize = 0;
+
+  @Parameter(
+      names = {"--transcode_saturation_policy"},
+      description = "what is done with instances to transcode while --transcode_queue_size "
+          + "instances are waiting: REJECT answers them with Status.OutOfResources, "
+          + "PASS_THROUGH stores them in the transfer syntax they were received in. "
+          + "PASS_THROUGH by default."
+  )
+  SaturationPolicy transcodeSaturationPolicy = SaturationPolicy.PASS_THROUGH;
+
+  @Parameter(
+      names = {"--transcode_policy_inline"},
+      description = "json array of rules choosing the transfer syntax of each instance, by "
+          + "sop_class_uids, source_transfer_syntaxes, calling_aets, min_pixels and max_pixels. "
+          + "The first matching rule gives its transfer_syntax, PASS_THROUGH keeping the received "
+          + "one. Instances matching no rule use --store_compress_to_transfer_syntax."
+  )
+  String transcodePolicyInline = null;
+
+  @Parameter(
+      names = {"--transcode_policy_path"},
+      description = "path to json array of transcode policy rules, "
+          + "see --transcode_policy_inline."
+  )
+  String transcodePolicyPath = null;
+
   @Parameter(
       names = {"--fuzzy_matching"},
       description = "negotiate fuzzy semantic person name attribute matching. False by default."
@@ -216,6 +489,28 @@ public class Flags {
               + " destination.")
   Boolean sendToAllMatchingDestinations = false;
 
+  @Parameter(
+      names = {"--routing_max_header_bytes"},
+      description = "maximum bytes of an instance read to find the attributes destination filters"
+          + " and the transcode policy depend on. Instances whose attributes are not found within"
+          + " them are rejected with Out of Resources."
+  )
+  Integer routingMaxHeaderBytes = RoutingKeyExtractor.DEFAULT_MAX_HEADER_BYTES;
+
+  @Parameter(
+      names = {"--pipeline_chunk_size"},
+      description = "size in bytes of the buffers passed between C-STORE processing stages "
+          + "(redaction, transcoding, upload). 65536 by default."
+  )
+  Integer pipelineChunkSize = StreamPipeline.DEFAULT_CHUNK_SIZE;
+
+  @Parameter(
+      names = {"--pipeline_queue_depth"},
+      description = "maximum number of buffers queued between two C-STORE processing stages "
+          + "before the upstream stage blocks. 16 by default."
+  )
+  Integer pipelineQueueDepth = StreamPipeline.DEFAULT_QUEUE_DEPTH;
+
   public Flags() {
   }
 }
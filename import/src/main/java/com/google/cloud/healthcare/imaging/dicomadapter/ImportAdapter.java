@@ -17,36 +17,50 @@ package com.google.cloud.healthcare.imaging.dicomadapter;
 import com.beust.jcommander.JCommander;
 import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.auth.http.HttpCredentialsAdapter;
 import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.healthcare.AuthorizationHeaderProvider;
 import com.google.cloud.healthcare.DicomWebClient;
 import com.google.cloud.healthcare.DicomWebClientJetty;
 import com.google.cloud.healthcare.DicomWebValidation;
+import com.google.cloud.healthcare.Http2SessionPool;
 import com.google.cloud.healthcare.IDicomWebClient;
+import com.google.cloud.healthcare.LimitingDicomWebClient;
 import com.google.cloud.healthcare.LogUtil;
 import com.google.cloud.healthcare.StringUtil;
 import com.google.cloud.healthcare.deid.redactor.DicomRedactor;
+import com.google.cloud.healthcare.deid.redactor.UIDCache;
 import com.google.cloud.healthcare.deid.redactor.protos.DicomConfigProtos;
 import com.google.cloud.healthcare.deid.redactor.protos.DicomConfigProtos.DicomConfig;
 import com.google.cloud.healthcare.deid.redactor.protos.DicomConfigProtos.DicomConfig.TagFilterProfile;
 import com.google.cloud.healthcare.imaging.dicomadapter.cmove.CMoveSenderFactory;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.StowBatcher;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.TranscodePolicy;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.backup.BackupUploadService;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.backup.DelayCalculator;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.backup.GcpBackupUploader;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.backup.IBackupUploader;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.backup.LocalBackupUploader;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.destination.DestinationClientFactory;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.destination.IDestinationClientFactory;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.destination.MultipleDestinationClientFactory;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.destination.SingleDestinationClientFactory;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.multipledest.MultipleDestinationUploadService;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.multipledest.sender.CStoreSenderFactory;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline.FrameTranscoder;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline.RedactProcessor;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline.StreamPipeline;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline.TranscodeScheduler;
 import com.google.cloud.healthcare.imaging.dicomadapter.monitoring.Event;
 import com.google.cloud.healthcare.imaging.dicomadapter.monitoring.MonitoringService;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 import org.dcm4che3.net.Device;
 import org.dcm4che3.net.service.BasicCEchoSCP;
 import org.dcm4che3.net.service.DicomServiceRegistry;
@@ -62,6 +76,10 @@ public class ImportAdapter {
   private static final String GCP_PATH_PREFIX = "gs://";
   private static final String FILTER = "filter";
 
+  // Clients wrapped by configureLimits, whose state is reported summed over all of them.
+  private static final List<LimitingDicomWebClient> limitedClients =
+      new CopyOnWriteArrayList<>();
+
   public static void main(String[] args) throws IOException, GeneralSecurityException {
     Flags flags = new Flags();
     JCommander jCommander = new JCommander(flags);
@@ -83,8 +101,11 @@ public class ImportAdapter {
       credentials = credentials.createScoped(Arrays.asList(flags.oauthScopes.split(",")));
     }
 
+    // One token cache, refreshed in the background, for all DICOMweb clients.
+    AuthorizationHeaderProvider authorizationProvider = new AuthorizationHeaderProvider(credentials);
+
     HttpRequestFactory requestFactory =
-        new NetHttpTransport().createRequestFactory(new HttpCredentialsAdapter(credentials));
+        new NetHttpTransport().createRequestFactory(authorizationProvider);
 
     // Initialize Monitoring
     if (!flags.monitoringProjectId.isEmpty()) {
@@ -93,6 +114,7 @@ public class ImportAdapter {
     } else {
       MonitoringService.disable();
     }
+    monitorLimits();
 
     // Dicom service handlers.
     DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
@@ -113,40 +135,101 @@ public class ImportAdapter {
       throw new IllegalArgumentException("--dimse_aet flag must be set.");
     }
 
-    IDicomWebClient defaultCstoreDicomWebClient = configureDefaultDicomWebClient(
-        requestFactory, cstoreDicomwebAddr, cstoreDicomwebStowPath, credentials, flags);
+    Http2SessionPool http2SessionPool = new Http2SessionPool(
+        flags.http2MaxSessionsPerHost, flags.http2MaxStreamsPerSession, flags.http2IdleTimeout);
+
+    IDicomWebClient defaultCstoreDicomWebClient = configureLimits(configureDefaultDicomWebClient(
+        requestFactory, cstoreDicomwebAddr, cstoreDicomwebStowPath, authorizationProvider,
+        http2SessionPool,
+        flags), flags);
 
-    DicomRedactor redactor = configureRedactor(flags);
+    RedactProcessor redactor = configureRedactor(flags);
+
+    if (flags.virtualThreads && !VirtualThreadExecutor.isSupported()) {
+      throw new IllegalArgumentException("--virtual_threads requires Java 21 or later");
+    }
+
+    // Bounded pools if limits are set, so that a burst of associations is turned away instead of
+    // exhausting memory.
+    Executor associationPool = configureWorkerPool(flags, "association",
+        flags.associationThreads, 0, Event.ASSOCIATION_POOL_ACTIVE_THREADS,
+        Event.ASSOCIATION_POOL_QUEUE_SIZE, Event.ASSOCIATION_POOL_REJECTIONS);
+    // No queue: a queued stage would leave the stages it feeds blocked on a full pipe.
+    Executor pipelinePool = configureWorkerPool(flags, "pipeline",
+        flags.pipelineThreads, 0, Event.PIPELINE_POOL_ACTIVE_THREADS,
+        Event.PIPELINE_POOL_QUEUE_SIZE, Event.PIPELINE_POOL_REJECTIONS);
+    // Compression is CPU bound, so platform threads even with --virtual_threads. The queue holds
+    // the frames in flight of every instance being transcoded.
+    FrameTranscoder frameTranscoder = new FrameTranscoder(
+        WorkerPools.newBoundedPool("transcode", flags.transcodeThreads,
+            flags.pipelineThreads > 0
+                ? flags.pipelineThreads * flags.transcodeMaxFramesInMemory
+                : Integer.MAX_VALUE),
+        flags.transcodeMaxFramesInMemory, flags.transcodeDeflateLevel);
+    TranscodeScheduler transcodeScheduler = flags.transcodeQueueSize > 0
+        ? new TranscodeScheduler(flags.transcodeThreads, flags.transcodeQueueSize,
+            flags.transcodeSaturationPolicy)
+        : null;
+
+    TranscodePolicy transcodePolicy =
+        new TranscodePolicy(flags.transcodePolicyInline, flags.transcodePolicyPath);
+    if (transcodePolicy.isEmpty()) {
+      transcodePolicy = null;
+    }
 
     BackupUploadService backupUploadService = configureBackupUploadService(flags, credentials);
 
     IDestinationClientFactory destinationClientFactory = configureDestinationClientFactory(
-      defaultCstoreDicomWebClient, credentials, flags, backupUploadService != null);
+      defaultCstoreDicomWebClient, authorizationProvider, http2SessionPool, flags,
+        backupUploadService != null,
+        transcodePolicy != null ? transcodePolicy.getAttributeTags() : ImmutableSet.of());
 
     MultipleDestinationUploadService multipleDestinationSendService = configureMultipleDestinationUploadService(
         flags, cstoreSubAet, backupUploadService);
 
     CStoreService cStoreService =
-        new CStoreService(destinationClientFactory, redactor, flags.transcodeToSyntax, multipleDestinationSendService);
+        new CStoreService(destinationClientFactory, redactor, flags.transcodeToSyntax, multipleDestinationSendService,
+            new CStoreService.Options()
+                .streamPipeline(
+                    new StreamPipeline(flags.pipelineChunkSize, flags.pipelineQueueDepth))
+                .storeExecutor(flags.maxOpsPerformed > 1 ? associationPool : null)
+                .maxBufferedBytes(flags.maxBufferedBytes)
+                .pipelineExecutor(pipelinePool)
+                .frameTranscoder(frameTranscoder)
+                .transcodeScheduler(transcodeScheduler)
+                .transcodePolicy(transcodePolicy)
+                .stowBatcher(configureStowBatcher(flags, associationPool)));
     serviceRegistry.addDicomService(cStoreService);
 
     // Handle C-FIND
-    IDicomWebClient dicomWebClient =
-        new DicomWebClient(requestFactory, dicomwebAddress, STUDIES);
+    IDicomWebClient dicomWebClient;
+    if (flags.useHttp2ForDicomweb) {
+      dicomWebClient = new DicomWebClientJetty(
+          authorizationProvider, dicomwebAddress, STUDIES, false, http2SessionPool);
+    } else {
+      dicomWebClient = new DicomWebClient(requestFactory, dicomwebAddress, STUDIES);
+    }
+    dicomWebClient = configureLimits(dicomWebClient, flags);
     CFindService cFindService = new CFindService(dicomWebClient, flags);
     serviceRegistry.addDicomService(cFindService);
 
     // Handle C-MOVE
-    CMoveSenderFactory cMoveSenderFactory = new CMoveSenderFactory(cstoreSubAet, dicomWebClient);
+    CMoveSenderFactory cMoveSenderFactory = new CMoveSenderFactory(cstoreSubAet, dicomWebClient,
+        flags.associationIdleTimeout, flags.maxOpsInvoked, flags.maxAssociationsPerPeer);
     AetDictionary aetDict = new AetDictionary(flags.aetDictionaryInline, flags.aetDictionaryPath);
-    CMoveService cMoveService = new CMoveService(dicomWebClient, aetDict, cMoveSenderFactory);
+    Executor cmoveSubOperationPool = configureWorkerPool(flags, "cmove-sub-operation",
+        flags.cmoveSubOperationThreads, flags.cmoveSubOperationQueueSize,
+        Event.CMOVE_POOL_ACTIVE_THREADS, Event.CMOVE_POOL_QUEUE_SIZE, Event.CMOVE_POOL_REJECTIONS);
+    CMoveService cMoveService = new CMoveService(dicomWebClient, aetDict, cMoveSenderFactory,
+        flags.cmoveParallelSubOperations, cmoveSubOperationPool);
     serviceRegistry.addDicomService(cMoveService);
 
     // Handle Storage Commitment N-ACTION
     serviceRegistry.addDicomService(new StorageCommitmentService(dicomWebClient, aetDict));
 
     // Start DICOM server
-    Device device = DeviceUtil.createServerDevice(flags.dimseAET, flags.dimsePort, serviceRegistry);
+    Device device = DeviceUtil.createServerDevice(flags.dimseAET, flags.dimsePort, serviceRegistry,
+        flags.maxOpsPerformed, associationPool, flags.maxAssociations);
     device.bindConnections();
   }
 
@@ -154,13 +237,15 @@ public class ImportAdapter {
       HttpRequestFactory requestFactory,
       String cstoreDicomwebAddr,
       String cstoreDicomwebStowPath,
-      GoogleCredentials credentials,
+      AuthorizationHeaderProvider authorizationProvider,
+      Http2SessionPool http2SessionPool,
       Flags flags) {
     IDicomWebClient defaultCstoreDicomWebClient;
     if (flags.useHttp2ForStow) {
       defaultCstoreDicomWebClient =
           new DicomWebClientJetty(
-              credentials, StringUtil.joinPath(cstoreDicomwebAddr, cstoreDicomwebStowPath), flags.useStowOverwrite);
+              authorizationProvider, StringUtil.joinPath(cstoreDicomwebAddr, cstoreDicomwebStowPath), flags.useStowOverwrite,
+              http2SessionPool);
     } else {
       defaultCstoreDicomWebClient =
           new DicomWebClient(
@@ -171,9 +256,11 @@ public class ImportAdapter {
 
   private static IDestinationClientFactory configureDestinationClientFactory(
       IDicomWebClient defaultCstoreDicomWebClient,
-      GoogleCredentials credentials,
-      Flags flags, boolean backupServicePresent) throws IOException {
-    IDestinationClientFactory destinationClientFactory;
+      AuthorizationHeaderProvider authorizationProvider,
+      Http2SessionPool http2SessionPool,
+      Flags flags, boolean backupServicePresent, ImmutableSet<Integer> attributeTags)
+      throws IOException {
+    DestinationClientFactory destinationClientFactory;
     if (flags.sendToAllMatchingDestinations) {
       if (backupServicePresent == false) {
         throw new IllegalArgumentException(
@@ -186,10 +273,10 @@ public class ImportAdapter {
           flags.destinationConfigInline,
           flags.destinationConfigPath,
           DestinationsConfig.ENV_DESTINATION_CONFIG_JSON,
-          credentials, flags.useStowOverwrite);
+          authorizationProvider, flags.useStowOverwrite, http2SessionPool);
 
       destinationClientFactory = new MultipleDestinationClientFactory(
-          multipleDestinations.getLeft(),
+          limitDestinations(multipleDestinations.getLeft(), flags),
           multipleDestinations.getRight(),
           defaultCstoreDicomWebClient);
     } else { // with or without backup usage.
@@ -200,13 +287,58 @@ public class ImportAdapter {
                 + " providing a destination config.");
       }
       destinationClientFactory = new SingleDestinationClientFactory(
-          configureDestinationMap(
-              flags.destinationConfigInline, flags.destinationConfigPath, credentials, flags.useStowOverwrite),
+          limitDestinations(configureDestinationMap(
+              flags.destinationConfigInline, flags.destinationConfigPath, authorizationProvider,
+              flags.useStowOverwrite,
+              http2SessionPool), flags),
           defaultCstoreDicomWebClient);
     }
+    // Rules of the transcode policy may depend on attributes of the instance.
+    destinationClientFactory.addAttributeKeys(attributeTags);
+    destinationClientFactory.setMaxHeaderBytes(flags.routingMaxHeaderBytes);
     return destinationClientFactory;
   }
 
+  /**
+   * Wraps the client of a DICOMweb destination in an adaptive concurrency limit and circuit
+   * breaker, if configured.
+   */
+  private static IDicomWebClient configureLimits(IDicomWebClient client, Flags flags) {
+    if (flags.dicomwebMaxConcurrency == 0 && flags.dicomwebBreakerFailures == 0) {
+      return client;
+    }
+    LimitingDicomWebClient limitedClient = new LimitingDicomWebClient(client,
+        flags.dicomwebMaxConcurrency, flags.dicomwebMaxLatency, flags.dicomwebMaxWait,
+        flags.dicomwebBreakerFailures, flags.dicomwebBreakerOpenTime);
+    limitedClients.add(limitedClient);
+    return limitedClient;
+  }
+
+  private static ImmutableList<Pair<DestinationFilter, IDicomWebClient>> limitDestinations(
+      ImmutableList<Pair<DestinationFilter, IDicomWebClient>> destinations, Flags flags) {
+    if (destinations == null) {
+      return null;
+    }
+    ImmutableList.Builder<Pair<DestinationFilter, IDicomWebClient>> builder =
+        ImmutableList.builder();
+    for (Pair<DestinationFilter, IDicomWebClient> destination : destinations) {
+      builder.add(
+          new Pair<>(destination.getLeft(), configureLimits(destination.getRight(), flags)));
+    }
+    return builder.build();
+  }
+
+  private static void monitorLimits() {
+    MonitoringService.addGauge(Event.DICOMWEB_CONCURRENCY_LIMIT,
+        () -> limitedClients.stream().mapToLong(LimitingDicomWebClient::getLimit).sum());
+    MonitoringService.addGauge(Event.DICOMWEB_REQUESTS_IN_FLIGHT,
+        () -> limitedClients.stream().mapToLong(LimitingDicomWebClient::getInFlight).sum());
+    MonitoringService.addGauge(Event.DICOMWEB_OPEN_BREAKERS,
+        () -> limitedClients.stream().filter(LimitingDicomWebClient::isBreakerOpen).count());
+    MonitoringService.addCounter(Event.DICOMWEB_REJECTIONS,
+        () -> limitedClients.stream().mapToLong(LimitingDicomWebClient::getRejections).sum());
+  }
+
   private static MultipleDestinationUploadService configureMultipleDestinationUploadService(
       Flags flags, String cstoreSubAet, BackupUploadService backupUploadService) {
     if (flags.autoAckCStore) {
@@ -221,7 +353,8 @@ public class ImportAdapter {
     }
     if (backupUploadService != null) {
       return new MultipleDestinationUploadService(
-          new CStoreSenderFactory(cstoreSubAet),
+          new CStoreSenderFactory(cstoreSubAet, flags.associationIdleTimeout,
+              flags.maxOpsInvoked, flags.maxAssociationsPerPeer),
           backupUploadService,
           flags.persistentFileUploadRetryAmount,
           flags.autoAckCStore);
@@ -229,6 +362,36 @@ public class ImportAdapter {
     return null;
   }
 
+  private static StowBatcher configureStowBatcher(Flags flags, Executor associationPool) {
+    if (flags.stowBatchMaxInstances <= 1) {
+      return null;
+    }
+    if (flags.maxOpsPerformed <= 1) {
+      throw new IllegalArgumentException(
+          "--stow_batch_max_instances above 1 requires --max_ops_performed above 1");
+    }
+    return new StowBatcher(flags.stowBatchMaxInstances, flags.stowBatchMaxBytes,
+        flags.stowBatchMaxDelay, associationPool);
+  }
+
+  /**
+   * Creates a pool of up to maxThreads threads queueing up to queueSize tasks or, with
+   * --virtual_threads, running up to maxThreads + queueSize tasks on virtual threads. With
+   * maxThreads 0, the pool runs any number of tasks at once.
+   */
+  private static Executor configureWorkerPool(Flags flags, String name, int maxThreads,
+      int queueSize, Event activeThreadsEvent, Event queueSizeEvent, Event rejectionsEvent) {
+    if (flags.virtualThreads) {
+      int maxTasks = maxThreads > 0 ? maxThreads + queueSize : Integer.MAX_VALUE;
+      return WorkerPools.monitor(new VirtualThreadExecutor(name, maxTasks),
+          activeThreadsEvent, queueSizeEvent, rejectionsEvent);
+    }
+    ThreadPoolExecutor pool = maxThreads > 0
+        ? WorkerPools.newBoundedPool(name, maxThreads, queueSize)
+        : WorkerPools.newUnboundedPool(name);
+    return WorkerPools.monitor(pool, activeThreadsEvent, queueSizeEvent, rejectionsEvent);
+  }
+
   private static BackupUploadService configureBackupUploadService(
       Flags flags, GoogleCredentials credentials) throws IOException {
     String uploadPath = flags.persistentFileStorageLocation;
@@ -249,12 +412,15 @@ public class ImportAdapter {
           backupUploader,
           flags.persistentFileUploadRetryAmount,
           ImmutableList.copyOf(flags.httpErrorCodesToRetry),
-          new DelayCalculator(flags.minUploadDelay, flags.maxWaitingTimeBetweenUploads));
+          new DelayCalculator(flags.minUploadDelay, flags.maxWaitingTimeBetweenUploads),
+          configureWorkerPool(flags, "upload", flags.uploadThreads, flags.uploadQueueSize,
+              Event.UPLOAD_POOL_ACTIVE_THREADS, Event.UPLOAD_POOL_QUEUE_SIZE,
+              Event.UPLOAD_POOL_REJECTIONS));
     }
     return null;
   }
 
-  private static DicomRedactor configureRedactor(Flags flags) throws IOException{
+  private static RedactProcessor configureRedactor(Flags flags) throws IOException{
     DicomRedactor redactor = null;
     int tagEditFlags = (flags.tagsToRemove.isEmpty() ? 0 : 1) +
         (flags.tagsToKeep.isEmpty() ? 0 : 1) +
@@ -277,20 +443,27 @@ public class ImportAdapter {
       }
 
       try {
-        redactor = new DicomRedactor(configBuilder.build());
+        redactor = new DicomRedactor(configBuilder.build(), flags.redactUidCacheSize);
       } catch (Exception e) {
         throw new IOException("Failure creating DICOM redactor", e);
       }
     }
 
-    return redactor;
+    if (redactor == null) {
+      return null;
+    }
+    UIDCache uidCache = redactor.getUIDCache();
+    MonitoringService.addCounter(Event.REDACT_UID_CACHE_HITS, uidCache::getHitCount);
+    MonitoringService.addCounter(Event.REDACT_UID_CACHE_MISSES, uidCache::getMissCount);
+    return new RedactProcessor(redactor, flags.redactStreaming);
   }
 
   private static ImmutableList<Pair<DestinationFilter, IDicomWebClient>> configureDestinationMap(
     String destinationJsonInline,
     String destinationsJsonPath,
-    GoogleCredentials credentials,
-    Boolean useStowOverwrite) throws IOException {
+    AuthorizationHeaderProvider authorizationProvider,
+    Boolean useStowOverwrite,
+    Http2SessionPool http2SessionPool) throws IOException {
   DestinationsConfig conf = new DestinationsConfig(destinationJsonInline, destinationsJsonPath);
 
   ImmutableList.Builder<Pair<DestinationFilter, IDicomWebClient>> filterPairBuilder = ImmutableList.builder();
@@ -299,7 +472,8 @@ public class ImportAdapter {
     filterPairBuilder.add(
         new Pair(
             new DestinationFilter(filterString),
-            new DicomWebClientJetty(credentials, filterPath.endsWith(STUDIES)? filterPath : StringUtil.joinPath(filterPath, STUDIES), useStowOverwrite)
+            new DicomWebClientJetty(authorizationProvider, filterPath.endsWith(STUDIES)? filterPath : StringUtil.joinPath(filterPath, STUDIES), useStowOverwrite,
+                http2SessionPool)
     ));
   }
   ImmutableList resultList = filterPairBuilder.build();
@@ -313,6 +487,19 @@ public class ImportAdapter {
       String jsonEnvKey,
       GoogleCredentials credentials,
       Boolean useStowOverwrite) throws IOException {
+    return configureMultipleDestinationTypesMap(destinationJsonInline, jsonPath, jsonEnvKey,
+        credentials != null ? new AuthorizationHeaderProvider(credentials) : null,
+        useStowOverwrite, Http2SessionPool.getDefault());
+  }
+
+  public static Pair<ImmutableList<Pair<DestinationFilter, IDicomWebClient>>,
+                     ImmutableList<Pair<DestinationFilter, AetDictionary.Aet>>> configureMultipleDestinationTypesMap(
+      String destinationJsonInline,
+      String jsonPath,
+      String jsonEnvKey,
+      AuthorizationHeaderProvider authorizationProvider,
+      Boolean useStowOverwrite,
+      Http2SessionPool http2SessionPool) throws IOException {
 
     ImmutableList.Builder<Pair<DestinationFilter, AetDictionary.Aet>> dicomDestinationFiltersBuilder = ImmutableList.builder();
     ImmutableList.Builder<Pair<DestinationFilter, IDicomWebClient>> healthDestinationFiltersBuilder = ImmutableList.builder();
@@ -340,7 +527,8 @@ public class ImportAdapter {
           healthDestinationFiltersBuilder.add(
               new Pair(
                   destinationFilter,
-                  new DicomWebClientJetty(credentials, filterPath.endsWith(STUDIES)? filterPath : StringUtil.joinPath(filterPath, STUDIES), useStowOverwrite)));
+                  new DicomWebClientJetty(authorizationProvider, filterPath.endsWith(STUDIES)? filterPath : StringUtil.joinPath(filterPath, STUDIES), useStowOverwrite,
+                      http2SessionPool)));
         }
       }
     }
@@ -16,12 +16,12 @@ package com.google.cloud.healthcare.imaging.dicomadapter.cmove;
 
 import com.google.cloud.healthcare.IDicomWebClient;
 import com.google.cloud.healthcare.imaging.dicomadapter.AetDictionary;
+import com.google.cloud.healthcare.imaging.dicomadapter.AssociationPool;
 import com.google.cloud.healthcare.imaging.dicomadapter.CMoveService;
-import com.google.cloud.healthcare.imaging.dicomadapter.DicomClient;
 import com.google.common.io.CountingInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import org.dcm4che3.net.ApplicationEntity;
+import java.util.Collection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,14 +29,20 @@ public class CMoveSender implements ISender {
 
   private static Logger log = LoggerFactory.getLogger(CMoveService.class);
 
-  private final ApplicationEntity applicationEntity;
+  private final AssociationPool associationPool;
   private final IDicomWebClient dicomWebClient;
 
-  public CMoveSender(ApplicationEntity applicationEntity, IDicomWebClient dicomWebClient) {
-    this.applicationEntity = applicationEntity;
+  public CMoveSender(AssociationPool associationPool, IDicomWebClient dicomWebClient) {
+    this.associationPool = associationPool;
     this.dicomWebClient = dicomWebClient;
   }
 
+  @Override
+  public void expectSopClasses(AetDictionary.Aet target, Collection<String> sopClassUids) {
+    associationPool.addPresentationContexts(
+        target.getName(), target.getHost(), target.getPort(), sopClassUids);
+  }
+
   @Override
   public long cmove(AetDictionary.Aet target,
       String studyUid,
@@ -48,16 +54,16 @@ public class CMoveSender implements ISender {
         String.format("studies/%s/series/%s/instances/%s", studyUid, seriesUid, sopInstanceUid);
     log.info("CStore wadoUri : " + wadoUri);
 
-    InputStream responseStream = dicomWebClient.wadoRs(wadoUri);
-
-    CountingInputStream countingStream = new CountingInputStream(responseStream);
-    DicomClient.connectAndCstore(sopClassUid, sopInstanceUid, countingStream,
-        applicationEntity, target.getName(), target.getHost(), target.getPort());
-    return countingStream.getCount();
+    try (InputStream responseStream = dicomWebClient.wadoRs(wadoUri)) {
+      CountingInputStream countingStream = new CountingInputStream(responseStream);
+      associationPool.cstore(sopClassUid, sopInstanceUid, countingStream,
+          target.getName(), target.getHost(), target.getPort());
+      return countingStream.getCount();
+    }
   }
 
   @Override
   public void close() throws IOException {
-    applicationEntity.getDevice().unbindConnections();
+    // Associations stay pooled for the next C-MOVE to the same destination.
   }
 }
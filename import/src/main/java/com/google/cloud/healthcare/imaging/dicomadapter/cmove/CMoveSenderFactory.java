@@ -15,6 +15,7 @@
 package com.google.cloud.healthcare.imaging.dicomadapter.cmove;
 
 import com.google.cloud.healthcare.IDicomWebClient;
+import com.google.cloud.healthcare.imaging.dicomadapter.AssociationPool;
 import com.google.cloud.healthcare.imaging.dicomadapter.DeviceUtil;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Connection;
@@ -25,22 +26,28 @@ public class CMoveSenderFactory implements ISenderFactory {
 
   private static Logger log = LoggerFactory.getLogger(CMoveSenderFactory.class);
 
-  private final String cstoreSubAet;
+  private final AssociationPool associationPool;
   private final IDicomWebClient dicomWebClient;
 
-
   public CMoveSenderFactory(String cstoreSubAet, IDicomWebClient dicomWebClient) {
-    this.cstoreSubAet = cstoreSubAet;
-    this.dicomWebClient = dicomWebClient;
+    this(cstoreSubAet, dicomWebClient, AssociationPool.DEFAULT_IDLE_TIMEOUT_MILLIS,
+        AssociationPool.DEFAULT_MAX_OPS_INVOKED, AssociationPool.DEFAULT_MAX_ASSOCIATIONS_PER_PEER);
   }
 
-  @Override
-  public ISender create() {
+  public CMoveSenderFactory(String cstoreSubAet, IDicomWebClient dicomWebClient,
+      long associationIdleTimeoutMillis, int maxOpsInvoked, int maxAssociationsPerPeer) {
     ApplicationEntity subApplicationEntity = new ApplicationEntity(cstoreSubAet);
     Connection conn = new Connection();
     DeviceUtil.createClientDevice(subApplicationEntity, conn);
     subApplicationEntity.addConnection(conn);
 
-    return new CMoveSender(subApplicationEntity, dicomWebClient);
+    this.associationPool = new AssociationPool(subApplicationEntity, associationIdleTimeoutMillis,
+        maxOpsInvoked, maxAssociationsPerPeer);
+    this.dicomWebClient = dicomWebClient;
+  }
+
+  @Override
+  public ISender create() {
+    return new CMoveSender(associationPool, dicomWebClient);
   }
 }
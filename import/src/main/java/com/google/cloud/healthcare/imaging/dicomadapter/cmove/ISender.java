@@ -18,9 +18,17 @@ import com.google.cloud.healthcare.IDicomWebClient;
 import com.google.cloud.healthcare.imaging.dicomadapter.AetDictionary;
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collection;
 
 public interface ISender extends Closeable {
 
+  /**
+   * Announces the SOP classes of the instances about to be sent to target, so they can be
+   * negotiated at once.
+   */
+  default void expectSopClasses(AetDictionary.Aet target, Collection<String> sopClassUids) {
+  }
+
   /**
    * Sends instance via c-store (or test stub) to target AET, returns bytes sent
    */
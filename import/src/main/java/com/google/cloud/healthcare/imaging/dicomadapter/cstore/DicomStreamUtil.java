@@ -14,19 +14,19 @@
 
 package com.google.cloud.healthcare.imaging.dicomadapter.cstore;
 
+import com.google.common.io.CountingOutputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.SequenceInputStream;
-import org.dcm4che3.data.Attributes;
-import org.dcm4che3.data.UID;
-import org.dcm4che3.io.DicomOutputStream;
 import org.dcm4che3.net.PDVInputStream;
 
 /** Provides utilities for handling DICOM streams. */
 public class DicomStreamUtil {
 
+  private static final FileMetaHeaderEncoder fileMetaHeaderEncoder = new FileMetaHeaderEncoder();
+
   // Adds the DICOM meta header to input stream.
   public static InputStream dicomStreamWithFileMetaHeader(
       String sopInstanceUID,
@@ -34,17 +34,40 @@ public class DicomStreamUtil {
       String transferSyntax,
       InputStream inDicomStream) // PDVInputStream
       throws IOException {
-    // File meta header (group 0002 tags), always in Explicit VR Little Endian.
-    // http://dicom.nema.org/dicom/2013/output/chtml/part10/chapter_7.html
-    ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
-    DicomOutputStream fmiStream = new DicomOutputStream(outBuffer, UID.ExplicitVRLittleEndian);
-    Attributes fmi =
-        Attributes.createFileMetaInformation(sopInstanceUID, sopClassUID, transferSyntax);
-    fmiStream.writeFileMetaInformation(fmi);
-
     // Add the file meta header + DICOM dataset (other groups) as a sequence of input streams.
     return new SequenceInputStream(
-        new ByteArrayInputStream(outBuffer.toByteArray()), inDicomStream);
+        new ByteArrayInputStream(fileMetaHeader(sopInstanceUID, sopClassUID, transferSyntax)),
+        inDicomStream);
+  }
+
+  // Writes the DICOM meta header followed by the dataset read from input stream. Returns the
+  // number of dataset bytes written.
+  public static long writeDicomStreamWithFileMetaHeader(
+      String sopInstanceUID,
+      String sopClassUID,
+      String transferSyntax,
+      InputStream inDicomStream, // PDVInputStream
+      OutputStream out)
+      throws IOException {
+    fileMetaHeaderEncoder.writeTo(out, sopInstanceUID, sopClassUID, transferSyntax);
+    CountingOutputStream countingOut = new CountingOutputStream(out);
+    if (inDicomStream instanceof PDVInputStream) {
+      // Writes straight from the PDU buffer.
+      ((PDVInputStream) inDicomStream).copyTo(countingOut);
+    } else {
+      inDicomStream.transferTo(countingOut);
+    }
+    return countingOut.getCount();
+  }
+
+  // File meta header (group 0002 tags), always in Explicit VR Little Endian.
+  // http://dicom.nema.org/dicom/2013/output/chtml/part10/chapter_7.html
+  public static byte[] fileMetaHeader(
+      String sopInstanceUID,
+      String sopClassUID,
+      String transferSyntax)
+      throws IOException {
+    return fileMetaHeaderEncoder.encode(sopInstanceUID, sopClassUID, transferSyntax);
   }
 
   private DicomStreamUtil() {}
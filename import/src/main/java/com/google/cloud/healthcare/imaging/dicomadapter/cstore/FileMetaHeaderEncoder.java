@@ -0,0 +1,284 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.io.DicomOutputStream;
+
+/**
+ * Encodes file meta headers from templates cached per SOP class and transfer syntax, in which
+ * only the SOP instance UID and the group length change from one instance to the next. The
+ * headers are the same bytes as dcm4che writes for
+ * {@link Attributes#createFileMetaInformation(String, String, String)}.
+ */
+public final class FileMetaHeaderEncoder {
+
+  // Beyond it, headers of new SOP class and transfer syntax pairs are encoded without templates.
+  static final int MAX_TEMPLATES = 1024;
+
+  private static final int PREAMBLE_LENGTH = 128 + 4;
+  // Explicit VR Little Endian header of the File Meta Information Group Length element.
+  private static final int GROUP_LENGTH_VALUE_OFFSET = PREAMBLE_LENGTH + 8;
+  private static final int GROUP_START = GROUP_LENGTH_VALUE_OFFSET + 4;
+  private static final int UI_HEADER_LENGTH = 8;
+  private static final int MAX_UID_LENGTH = 64;
+  // Encoded in the template in place of the SOP instance UID.
+  private static final String PLACEHOLDER_UID = "1";
+
+  // Cached for pairs whose header is not laid out as expected, so that it is not parsed again.
+  private static final Template NO_TEMPLATE = new Template(new byte[0], new byte[0]);
+
+  private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[512]);
+
+  private final ConcurrentHashMap<TemplateKey, Template> templates = new ConcurrentHashMap<>();
+
+  /** Returns the file meta header, preamble included. */
+  public byte[] encode(String sopInstanceUID, String sopClassUID, String transferSyntax)
+      throws IOException {
+    Template template = template(sopInstanceUID, sopClassUID, transferSyntax);
+    if (template == null) {
+      return encodeWithAttributes(sopInstanceUID, sopClassUID, transferSyntax);
+    }
+    byte[] header = new byte[template.length(sopInstanceUID)];
+    template.encode(sopInstanceUID, header);
+    return header;
+  }
+
+  /** Writes the file meta header, preamble included, assembled in a buffer of the thread. */
+  public void writeTo(OutputStream out, String sopInstanceUID, String sopClassUID,
+      String transferSyntax) throws IOException {
+    Template template = template(sopInstanceUID, sopClassUID, transferSyntax);
+    if (template == null) {
+      out.write(encodeWithAttributes(sopInstanceUID, sopClassUID, transferSyntax));
+      return;
+    }
+    int length = template.length(sopInstanceUID);
+    byte[] buffer = buffers.get();
+    if (buffer.length < length) {
+      buffer = new byte[length];
+      buffers.set(buffer);
+    }
+    template.encode(sopInstanceUID, buffer);
+    out.write(buffer, 0, length);
+  }
+
+  /** Encodes the header through dcm4che, as done before templates. */
+  static byte[] encodeWithAttributes(String sopInstanceUID, String sopClassUID,
+      String transferSyntax) throws IOException {
+    ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
+    DicomOutputStream fmiStream = new DicomOutputStream(outBuffer, UID.ExplicitVRLittleEndian);
+    Attributes fmi =
+        Attributes.createFileMetaInformation(sopInstanceUID, sopClassUID, transferSyntax);
+    fmiStream.writeFileMetaInformation(fmi);
+    return outBuffer.toByteArray();
+  }
+
+  /** Number of SOP class and transfer syntax pairs whose headers are encoded from templates. */
+  int getTemplateCount() {
+    return (int) templates.values().stream().filter(template -> template != NO_TEMPLATE).count();
+  }
+
+  // Returns null for headers not encoded from templates.
+  private Template template(String sopInstanceUID, String sopClassUID, String transferSyntax)
+      throws IOException {
+    if (!isPlainUid(sopInstanceUID) || sopClassUID == null || transferSyntax == null) {
+      return null;
+    }
+    TemplateKey key = new TemplateKey(sopClassUID, transferSyntax);
+    Template template = templates.get(key);
+    if (template == null && templates.size() < MAX_TEMPLATES) {
+      template = Template.create(sopClassUID, transferSyntax);
+      templates.putIfAbsent(key, template != null ? template : NO_TEMPLATE);
+    }
+    return template != NO_TEMPLATE ? template : null;
+  }
+
+  // UIDs encoded as their characters, one byte each.
+  private static boolean isPlainUid(String uid) {
+    if (uid == null || uid.isEmpty() || uid.length() > MAX_UID_LENGTH) {
+      return false;
+    }
+    for (int i = 0; i < uid.length(); i++) {
+      char c = uid.charAt(i);
+      if (c <= ' ' || c >= 0x7F || c == '\\') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Header split around the SOP instance UID element. */
+  private static final class Template {
+
+    private final byte[] prefix;
+    private final byte[] suffix;
+
+    private Template(byte[] prefix, byte[] suffix) {
+      this.prefix = prefix;
+      this.suffix = suffix;
+    }
+
+    // Returns null if the header is not laid out as expected.
+    static Template create(String sopClassUID, String transferSyntax) throws IOException {
+      byte[] header = encodeWithAttributes(PLACEHOLDER_UID, sopClassUID, transferSyntax);
+      if (header.length < GROUP_START
+          || readTag(header, PREAMBLE_LENGTH) != Tag.FileMetaInformationGroupLength) {
+        return null;
+      }
+      int offset = GROUP_START;
+      while (offset + 8 <= header.length) {
+        int tag = readTag(header, offset);
+        int headerLength;
+        int valueLength;
+        if (hasLongLength(header[offset + 4], header[offset + 5])) {
+          headerLength = 12;
+          valueLength = readInt(header, offset + 8);
+        } else {
+          headerLength = 8;
+          valueLength = readShort(header, offset + 6);
+        }
+        int end = offset + headerLength + valueLength;
+        if (valueLength < 0 || end > header.length) {
+          return null;
+        }
+        if (tag == Tag.MediaStorageSOPInstanceUID) {
+          return new Template(Arrays.copyOf(header, offset),
+              Arrays.copyOfRange(header, end, header.length));
+        }
+        offset = end;
+      }
+      return null;
+    }
+
+    int length(String sopInstanceUID) {
+      return prefix.length + UI_HEADER_LENGTH + paddedLength(sopInstanceUID) + suffix.length;
+    }
+
+    void encode(String sopInstanceUID, byte[] header) {
+      int valueLength = paddedLength(sopInstanceUID);
+      System.arraycopy(prefix, 0, header, 0, prefix.length);
+      int offset = prefix.length;
+      writeTag(header, offset, Tag.MediaStorageSOPInstanceUID);
+      header[offset + 4] = 'U';
+      header[offset + 5] = 'I';
+      header[offset + 6] = (byte) valueLength;
+      header[offset + 7] = (byte) (valueLength >> 8);
+      offset += UI_HEADER_LENGTH;
+      for (int i = 0; i < sopInstanceUID.length(); i++) {
+        header[offset++] = (byte) sopInstanceUID.charAt(i);
+      }
+      if ((sopInstanceUID.length() & 1) != 0) {
+        header[offset++] = 0;
+      }
+      System.arraycopy(suffix, 0, header, offset, suffix.length);
+      int length = offset + suffix.length;
+      writeInt(header, GROUP_LENGTH_VALUE_OFFSET, length - GROUP_START);
+    }
+
+    private static int paddedLength(String uid) {
+      return (uid.length() + 1) & ~1;
+    }
+
+    // VRs of 4 byte value lengths in Explicit VR, PS3.5 7.1.2.
+    private static boolean hasLongLength(byte vr0, byte vr1) {
+      switch ("" + (char) vr0 + (char) vr1) {
+        case "OB":
+        case "OD":
+        case "OF":
+        case "OL":
+        case "OV":
+        case "OW":
+        case "SQ":
+        case "SV":
+        case "UC":
+        case "UN":
+        case "UR":
+        case "UT":
+        case "UV":
+          return true;
+        default:
+          return false;
+      }
+    }
+
+    // Tags are encoded as their group then their element number, each a little endian short.
+    private static int readTag(byte[] bytes, int offset) {
+      return readShort(bytes, offset) << 16 | readShort(bytes, offset + 2);
+    }
+
+    private static void writeTag(byte[] bytes, int offset, int tag) {
+      writeShort(bytes, offset, tag >>> 16);
+      writeShort(bytes, offset + 2, tag);
+    }
+
+    private static int readShort(byte[] bytes, int offset) {
+      return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+    }
+
+    private static void writeShort(byte[] bytes, int offset, int value) {
+      bytes[offset] = (byte) value;
+      bytes[offset + 1] = (byte) (value >> 8);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+      return (bytes[offset] & 0xFF)
+          | (bytes[offset + 1] & 0xFF) << 8
+          | (bytes[offset + 2] & 0xFF) << 16
+          | (bytes[offset + 3] & 0xFF) << 24;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+      bytes[offset] = (byte) value;
+      bytes[offset + 1] = (byte) (value >> 8);
+      bytes[offset + 2] = (byte) (value >> 16);
+      bytes[offset + 3] = (byte) (value >> 24);
+    }
+  }
+
+  private static final class TemplateKey {
+
+    private final String sopClassUID;
+    private final String transferSyntax;
+
+    TemplateKey(String sopClassUID, String transferSyntax) {
+      this.sopClassUID = sopClassUID;
+      this.transferSyntax = transferSyntax;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof TemplateKey)) {
+        return false;
+      }
+      TemplateKey that = (TemplateKey) o;
+      return sopClassUID.equals(that.sopClassUID) && transferSyntax.equals(that.transferSyntax);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * sopClassUID.hashCode() + transferSyntax.hashCode();
+    }
+  }
+}
@@ -0,0 +1,240 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore;
+
+import com.google.cloud.healthcare.IDicomWebClient;
+import com.google.cloud.healthcare.IDicomWebClient.DicomWebException;
+import com.google.cloud.healthcare.IDicomWebClient.StowBody;
+import com.google.cloud.healthcare.StowResponse;
+import com.google.cloud.healthcare.imaging.dicomadapter.monitoring.Event;
+import com.google.cloud.healthcare.imaging.dicomadapter.monitoring.MonitoringService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the instances an association stores to the same destination into multipart STOW-RS
+ * requests, and completes each instance with the DICOM status the response gives it.
+ *
+ * <p>A batch is sent by the thread adding the instance that fills it, up to the maximum number
+ * of instances or bytes, or the number of operations the association may have outstanding, past
+ * which no further instance would come before a C-STORE-RSP. Otherwise it is sent once its first
+ * instance has waited for the maximum delay.
+ */
+public class StowBatcher {
+
+  public static final int DEFAULT_MAX_INSTANCES = 1;
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+  public static final long DEFAULT_MAX_DELAY_MILLIS = 100;
+
+  private static Logger log = LoggerFactory.getLogger(StowBatcher.class);
+
+  private final int maxInstances;
+  private final long maxBytes;
+  private final long maxDelayMillis;
+  private final Executor sendExecutor;
+  private final ScheduledExecutorService timer;
+
+  // Guarded by this.
+  private final Map<BatchKey, Batch> batches = new HashMap<>();
+
+  /**
+   * @param sendExecutor sends the batches whose delay ran out.
+   */
+  public StowBatcher(int maxInstances, long maxBytes, long maxDelayMillis,
+      Executor sendExecutor) {
+    this(maxInstances, maxBytes, maxDelayMillis, sendExecutor,
+        Executors.newSingleThreadScheduledExecutor(runnable -> {
+          Thread thread = new Thread(runnable, "stow-batch-timer");
+          thread.setDaemon(true);
+          return thread;
+        }));
+  }
+
+  StowBatcher(int maxInstances, long maxBytes, long maxDelayMillis, Executor sendExecutor,
+      ScheduledExecutorService timer) {
+    if (maxInstances < 1 || maxBytes < 1 || maxDelayMillis < 0) {
+      throw new IllegalArgumentException("Invalid STOW-RS batch limits: " + maxInstances
+          + " instances, " + maxBytes + " bytes, " + maxDelayMillis + " ms");
+    }
+    this.maxInstances = maxInstances;
+    this.maxBytes = maxBytes;
+    this.maxDelayMillis = maxDelayMillis;
+    this.sendExecutor = sendExecutor;
+    this.timer = timer;
+  }
+
+  /**
+   * Adds an instance to the batch of the association and client, and returns its DICOM status
+   * once the batch is sent.
+   *
+   * @param body writes the instance, including its file meta header. Called once, possibly from
+   * another thread.
+   * @param size bytes written by body.
+   */
+  public CompletableFuture<Integer> add(Association association, IDicomWebClient client,
+      String sopInstanceUID, long size, StowBody body) {
+    BatchKey key = new BatchKey(association.getSerialNo(), client);
+    // Operations the calling AE may invoke without waiting for their C-STORE-RSP, 0 if unlimited.
+    int window = association.getAAssociateAC().getMaxOpsInvoked();
+    int limit = window > 0 ? Math.min(maxInstances, window) : maxInstances;
+    Part part = new Part(sopInstanceUID, body);
+    List<Batch> full = new ArrayList<>(2);
+    synchronized (this) {
+      Batch batch = batches.get(key);
+      if (batch != null && batch.parts.containsKey(sopInstanceUID)) {
+        // Sent again before its C-STORE-RSP: stored after the first one, as without batching.
+        full.add(detach(key, batch));
+        batch = null;
+      }
+      if (batch == null) {
+        Batch newBatch = new Batch(client);
+        newBatch.timeout = timer.schedule(() -> sendLater(key, newBatch), maxDelayMillis,
+            TimeUnit.MILLISECONDS);
+        batches.put(key, newBatch);
+        batch = newBatch;
+      }
+      batch.parts.put(sopInstanceUID, part);
+      batch.bytes += size;
+      if (batch.parts.size() >= limit || batch.bytes >= maxBytes) {
+        full.add(detach(key, batch));
+      }
+    }
+    for (Batch batch : full) {
+      send(batch);
+    }
+    return part.status;
+  }
+
+  // Caller holds the lock.
+  private Batch detach(BatchKey key, Batch batch) {
+    batches.remove(key);
+    batch.timeout.cancel(false);
+    return batch;
+  }
+
+  private void sendLater(BatchKey key, Batch batch) {
+    synchronized (this) {
+      if (batches.get(key) != batch) {
+        // Already sent, filled before its delay ran out.
+        return;
+      }
+      batches.remove(key);
+    }
+    try {
+      sendExecutor.execute(() -> send(batch));
+    } catch (RejectedExecutionException e) {
+      log.error("STOW-RS batch of " + batch.parts.size() + " instances rejected", e);
+      for (Part part : batch.parts.values()) {
+        part.status.complete(Status.OutOfResources);
+      }
+    }
+  }
+
+  private void send(Batch batch) {
+    Map<String, StowBody> bodies = new LinkedHashMap<>();
+    for (Part part : batch.parts.values()) {
+      bodies.put(part.sopInstanceUID, part.body);
+    }
+    MonitoringService.addEvent(Event.CSTORE_STOW_BATCHES);
+    StowResponse response = null;
+    int batchStatus = Status.ProcessingFailure;
+    try {
+      response = batch.client.stowRs(bodies);
+    } catch (DicomWebException e) {
+      log.error("STOW-RS batch of " + bodies.size() + " instances failed", e);
+      batchStatus = e.getStatus();
+    } catch (RuntimeException e) {
+      log.error("STOW-RS batch of " + bodies.size() + " instances failed", e);
+    } finally {
+      // Also reached when an Error is thrown, so that no C-STORE waits forever for its status.
+      for (Part part : batch.parts.values()) {
+        int status = response != null ? response.getStatus(part.sopInstanceUID) : batchStatus;
+        if (status != Status.Success && response != null) {
+          log.error("STOW-RS of instance {} failed with status {}", part.sopInstanceUID,
+              Integer.toHexString(status));
+        }
+        part.status.complete(status);
+      }
+    }
+  }
+
+  private static class Batch {
+
+    private final IDicomWebClient client;
+    // By SOP instance UID, in the order received.
+    private final Map<String, Part> parts = new LinkedHashMap<>();
+    private long bytes;
+    private ScheduledFuture<?> timeout;
+
+    Batch(IDicomWebClient client) {
+      this.client = client;
+    }
+  }
+
+  private static class Part {
+
+    private final String sopInstanceUID;
+    private final StowBody body;
+    private final CompletableFuture<Integer> status = new CompletableFuture<>();
+
+    Part(String sopInstanceUID, StowBody body) {
+      this.sopInstanceUID = sopInstanceUID;
+      this.body = body;
+    }
+  }
+
+  private static class BatchKey {
+
+    private final int associationSerialNo;
+    private final IDicomWebClient client;
+
+    BatchKey(int associationSerialNo, IDicomWebClient client) {
+      this.associationSerialNo = associationSerialNo;
+      this.client = client;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof BatchKey)) {
+        return false;
+      }
+      BatchKey that = (BatchKey) o;
+      return associationSerialNo == that.associationSerialNo && client == that.client;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(associationSerialNo, System.identityHashCode(client));
+    }
+  }
+}
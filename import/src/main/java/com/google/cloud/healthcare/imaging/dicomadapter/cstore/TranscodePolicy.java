@@ -0,0 +1,158 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore;
+
+import com.google.cloud.healthcare.imaging.dicomadapter.JsonUtil;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.util.Set;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rules choosing the transfer syntax each instance is stored in, so that instances that gain
+ * little from it (small objects, already compressed ones) are not transcoded.
+ *
+ * <p>Configured as a json array of rules, the first rule matching an instance deciding:
+ * <pre>
+ * [{"sop_class_uids": ["1.2.840.10008.5.1.4.1.1.88.22"], "transfer_syntax": "PASS_THROUGH"},
+ *  {"source_transfer_syntaxes": ["1.2.840.10008.1.2.4.50"], "transfer_syntax": "PASS_THROUGH"},
+ *  {"calling_aets": ["CT1"], "min_pixels": 1000000,
+ *   "transfer_syntax": "1.2.840.10008.1.2.4.90"}]
+ * </pre>
+ * A rule matches instances matching all of its conditions, pixels being Rows x Columns x Number
+ * of Frames. "PASS_THROUGH" stores instances in the transfer syntax they were received in.
+ */
+public class TranscodePolicy {
+
+  public static final String ENV_TRANSCODE_POLICY_JSON = "ENV_TRANSCODE_POLICY_JSON";
+  public static final String PASS_THROUGH = "PASS_THROUGH";
+
+  private static final Set<String> RULE_KEYS = ImmutableSet.of("sop_class_uids",
+      "source_transfer_syntaxes", "calling_aets", "min_pixels", "max_pixels", "transfer_syntax");
+
+  private static Logger log = LoggerFactory.getLogger(TranscodePolicy.class);
+
+  private final ImmutableList<Rule> rules;
+
+  /**
+   * Creates TranscodePolicy based on provided json or path to json, or if both are absent on
+   * ENV_TRANSCODE_POLICY_JSON.
+   * @param jsonInline checked 1st
+   * @param jsonPath checked 2nd
+   */
+  public TranscodePolicy(String jsonInline, String jsonPath) throws IOException {
+    this(JsonUtil.parseConfig(jsonInline, jsonPath, ENV_TRANSCODE_POLICY_JSON));
+  }
+
+  TranscodePolicy(JSONArray jsonArray) {
+    ImmutableList.Builder<Rule> rulesBuilder = ImmutableList.builder();
+    if (jsonArray != null) {
+      for (Object elem : jsonArray) {
+        rulesBuilder.add(new Rule((JSONObject) elem));
+      }
+    }
+    this.rules = rulesBuilder.build();
+    log.info("TranscodePolicy rules = {}", jsonArray);
+  }
+
+  public boolean isEmpty() {
+    return rules.isEmpty();
+  }
+
+  /** Tags of the attributes rules depend on, to be parsed for {@link #select}. */
+  public ImmutableSet<Integer> getAttributeTags() {
+    for (Rule rule : rules) {
+      if (rule.dependsOnPixels()) {
+        return ImmutableSet.of(Tag.Rows, Tag.Columns, Tag.NumberOfFrames);
+      }
+    }
+    return ImmutableSet.of();
+  }
+
+  /**
+   * Returns the transfer syntax of the first rule matching the instance, {@link #PASS_THROUGH}, or
+   * null if no rule matches.
+   *
+   * @param attrs attributes of the instance including those of {@link #getAttributeTags()}, or
+   * null if not parsed, in which case rules on pixels do not match.
+   */
+  public String select(String callingAet, String sopClassUID, String transferSyntax,
+      Attributes attrs) {
+    for (Rule rule : rules) {
+      if (rule.matches(callingAet, sopClassUID, transferSyntax, attrs)) {
+        return rule.transferSyntax;
+      }
+    }
+    return null;
+  }
+
+  private static class Rule {
+
+    private final ImmutableSet<String> sopClassUIDs;
+    private final ImmutableSet<String> sourceTransferSyntaxes;
+    private final ImmutableSet<String> callingAets;
+    private final long minPixels;
+    private final long maxPixels;
+    private final String transferSyntax;
+
+    Rule(JSONObject json) {
+      for (String key : json.keySet()) {
+        if (!RULE_KEYS.contains(key)) {
+          throw new IllegalArgumentException("Invalid key in transcode policy rule: " + key);
+        }
+      }
+      this.sopClassUIDs = stringSet(json, "sop_class_uids");
+      this.sourceTransferSyntaxes = stringSet(json, "source_transfer_syntaxes");
+      this.callingAets = stringSet(json, "calling_aets");
+      this.minPixels = json.optLong("min_pixels", 0);
+      this.maxPixels = json.optLong("max_pixels", Long.MAX_VALUE);
+      this.transferSyntax = json.getString("transfer_syntax");
+    }
+
+    boolean matches(String callingAet, String sopClassUID, String transferSyntax,
+        Attributes attrs) {
+      if (!matches(callingAets, callingAet)
+          || !matches(sopClassUIDs, sopClassUID)
+          || !matches(sourceTransferSyntaxes, transferSyntax)) {
+        return false;
+      }
+      if (!dependsOnPixels()) {
+        return true;
+      }
+      if (attrs == null) {
+        return false;
+      }
+      long pixels = (long) attrs.getInt(Tag.Rows, 0) * attrs.getInt(Tag.Columns, 0)
+          * attrs.getInt(Tag.NumberOfFrames, 1);
+      return pixels >= minPixels && pixels <= maxPixels;
+    }
+
+    boolean dependsOnPixels() {
+      return minPixels != 0 || maxPixels != Long.MAX_VALUE;
+    }
+
+    // An absent condition matches every instance.
+    private static boolean matches(ImmutableSet<String> values, String value) {
+      return values == null || values.contains(value);
+    }
+
+    private static ImmutableSet<String> stringSet(JSONObject json, String key) {
+      if (!json.has(key)) {
+        return null;
+      }
+      JSONArray array = json.optJSONArray(key);
+      if (array == null) {
+        throw new IllegalArgumentException("Transcode policy " + key + " must be an array");
+      }
+      ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+      for (int i = 0; i < array.length(); i++) {
+        builder.add(array.getString(i));
+      }
+      return builder.build();
+    }
+  }
+}
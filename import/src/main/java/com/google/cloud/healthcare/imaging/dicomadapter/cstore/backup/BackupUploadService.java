@@ -16,12 +16,15 @@ import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import org.dcm4che3.net.Status;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class BackupUploadService implements IBackupUploadService {
-  private final static Executor uploadThreadPool = Executors.newCachedThreadPool();
+  private final static Executor defaultUploadThreadPool = Executors.newCachedThreadPool();
+  private final Executor uploadThreadPool;
   private final DelayCalculator delayCalculator;
   private final IBackupUploader backupUploader;
   private final ImmutableList<Integer> httpErrorCodesToRetry;
@@ -36,6 +39,17 @@ public class BackupUploadService implements IBackupUploadService {
    */
   public BackupUploadService(IBackupUploader backupUploader, Integer attemptsAmount, ImmutableList<Integer> httpErrorCodesToRetry,
       DelayCalculator delayCalculator) {
+    this(backupUploader, attemptsAmount, httpErrorCodesToRetry, delayCalculator,
+        defaultUploadThreadPool);
+  }
+
+  /**
+   * Create BackupUploadService instance running uploads on the given executor. Uploads it rejects
+   * fail with {@link Status#OutOfResources}.
+   */
+  public BackupUploadService(IBackupUploader backupUploader, Integer attemptsAmount, ImmutableList<Integer> httpErrorCodesToRetry,
+      DelayCalculator delayCalculator, Executor uploadThreadPool) {
+    this.uploadThreadPool = uploadThreadPool;
     this.backupUploader = backupUploader;
     this.attemptsAmount = attemptsAmount;
     this.httpErrorCodesToRetry = httpErrorCodesToRetry;
@@ -50,26 +64,24 @@ public class BackupUploadService implements IBackupUploadService {
 
   @Override
   public CompletableFuture startUploading(IDicomWebClient webClient, BackupState backupState) throws BackupException {
-    return scheduleUploadWithDelay(
+    return scheduleUpload(
         backupState,
         new HealthcareDestinationUploadAsyncJob(
             webClient,
-            backupState),
-        0);
+            backupState));
   }
 
   @Override
   public CompletableFuture startUploading(CStoreSender cStoreSender, AetDictionary.Aet target, String sopInstanceUid, String sopClassUid,
                                           BackupState backupState) throws BackupException {
-    return scheduleUploadWithDelay(
+    return scheduleUpload(
         backupState,
         new DicomDestinationUploadAsyncJob(
             cStoreSender,
             backupState,
             target,
             sopInstanceUid,
-            sopClassUid),
-        0);
+            sopClassUid));
   }
 
 
@@ -147,7 +159,7 @@ public class BackupUploadService implements IBackupUploadService {
 
         if (backupState.getAttemptsCountdown() > 0) {
           try {
-            scheduleUploadWithDelay(
+            retryUploadWithDelay(
                 backupState,
                 new DicomDestinationUploadAsyncJob(
                     cStoreSender,
@@ -213,7 +225,7 @@ public class BackupUploadService implements IBackupUploadService {
         if (filterHttpCode(httpCode) || isHttpConflictAndRetry) {
           if (backupState.getAttemptsCountdown() > 0) {
             try {
-              scheduleUploadWithDelay(
+              retryUploadWithDelay(
                   backupState,
                   new HealthcareDestinationUploadAsyncJob(webClient, backupState),
                   delayCalculator.getExponentialDelayMillis(backupState.getAttemptsCountdown(), attemptsAmount))
@@ -234,19 +246,35 @@ public class BackupUploadService implements IBackupUploadService {
     }
   }
 
-  private CompletableFuture scheduleUploadWithDelay(BackupState backupState, Runnable uploadJob, long delayMillis) throws BackupException {
+  private CompletableFuture scheduleUpload(BackupState backupState, Runnable uploadJob) throws BackupException {
+    decrementAttempts(backupState);
+    try {
+      return CompletableFuture.runAsync(uploadJob, uploadThreadPool);
+    } catch (RejectedExecutionException e) {
+      MonitoringService.addEvent(Event.CSTORE_ERROR);
+      String errorMessage = "fileName=" + backupState.getUniqueFileName() + ". Upload rejected, upload pool is full.";
+      log.error(errorMessage);
+      throw new BackupException(Status.OutOfResources, e, errorMessage);
+    }
+  }
+
+  /**
+   * Runs the next attempt on the thread of the failed one once the delay has passed, so that an
+   * upload holds a single upload thread whatever the number of attempts.
+   */
+  private CompletableFuture retryUploadWithDelay(BackupState backupState, Runnable uploadJob, long delayMillis)
+      throws BackupException, InterruptedException {
+    decrementAttempts(backupState);
+    TimeUnit.MILLISECONDS.sleep(delayMillis);
+    return CompletableFuture.runAsync(uploadJob, Runnable::run);
+  }
+
+  private void decrementAttempts(BackupState backupState) throws BackupException {
     String uniqueFileName = backupState.getUniqueFileName();
     log.info("Trying to send data, fileName={}, attempt № {}. ",
         uniqueFileName,
         2 + attemptsAmount - backupState.getAttemptsCountdown());
-    if (backupState.decrement()) {
-      return CompletableFuture.runAsync(
-          uploadJob,
-          CompletableFuture.delayedExecutor(
-            delayMillis,
-            TimeUnit.MILLISECONDS,
-            uploadThreadPool));
-    } else {
+    if (!backupState.decrement()) {
       MonitoringService.addEvent(Event.CSTORE_ERROR);
       throw getNoResendAttemptLeftException(null, uniqueFileName);
     }
@@ -3,25 +3,29 @@ package com.google.cloud.healthcare.imaging.dicomadapter.cstore.destination;
 import com.google.cloud.healthcare.IDicomWebClient;
 import com.google.cloud.healthcare.imaging.dicomadapter.DestinationFilter;
 import com.google.cloud.healthcare.imaging.dicomadapter.ImportAdapter.Pair;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.TranscodePolicy;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import org.dcm4che3.data.Attributes;
-import org.dcm4che3.data.Tag;
 import org.dcm4che3.io.DicomInputStream;
 import java.io.BufferedInputStream;
 import java.io.InputStream;
 import java.io.IOException;
+import java.util.Collection;
 
 public abstract class DestinationClientFactory implements IDestinationClientFactory {
 
   protected final ImmutableList<Pair<DestinationFilter, IDicomWebClient>> healthcareDestinations;
   private final IDicomWebClient defaultDicomWebClient;
   private boolean dicomDestinationsNotEmpty;
+  private final RoutingKeyExtractor routingKeyExtractor =
+      new RoutingKeyExtractor(RoutingKeyExtractor.DEFAULT_MAX_HEADER_BYTES);
 
   public DestinationClientFactory(ImmutableList<Pair<DestinationFilter, IDicomWebClient>> healthcareDestinations,
                                   IDicomWebClient defaultDicomWebClient) {
     this.healthcareDestinations = healthcareDestinations;
     this.defaultDicomWebClient = defaultDicomWebClient;
+    addFilterKeys(healthcareDestinations);
   }
 
   public DestinationClientFactory(ImmutableList<Pair<DestinationFilter, IDicomWebClient>> healthcareDestinations,
@@ -30,15 +34,52 @@ public abstract class DestinationClientFactory implements IDestinationClientFact
     this.dicomDestinationsNotEmpty = dicomDestinationsNotEmpty;
   }
 
+  /**
+   * Limits the bytes of the instance header read to find the attributes routing depends on,
+   * instances with more failing with OutOfResources.
+   */
+  public void setMaxHeaderBytes(int maxHeaderBytes) {
+    routingKeyExtractor.setMaxHeaderBytes(maxHeaderBytes);
+  }
+
+  /**
+   * Adds tags of attributes parsed for {@link DestinationHolder#getAttributes()} besides those
+   * destinations are filtered on, e.g. for a {@link TranscodePolicy}.
+   */
+  public void addAttributeKeys(Collection<Integer> tags) {
+    for (int tag : tags) {
+      routingKeyExtractor.addKeys(tag);
+    }
+  }
+
+  /** Adds the tags the filters of destinations match attributes of. */
+  protected void addFilterKeys(ImmutableList<? extends Pair<DestinationFilter, ?>> destinations) {
+    if (destinations != null) {
+      for (Pair<DestinationFilter, ?> destination : destinations) {
+        routingKeyExtractor.addKeys(destination.getLeft().getFilterAttrs().tags());
+      }
+    }
+  }
+
   @Override
   public DestinationHolder create(String callingAet, String transferSyntax, InputStream inputStream) throws IOException {
     DestinationHolder destinationHolder;
     
-    if ((healthcareDestinations != null && !healthcareDestinations.isEmpty()) || dicomDestinationsNotEmpty) {
-      DicomInputStream inDicomStream = createDicomInputStream(transferSyntax, inputStream);
-      Attributes attrs = getFilteringAttributes(inDicomStream);
-      
-      destinationHolder = new DestinationHolder(inDicomStream, defaultDicomWebClient);
+    if ((healthcareDestinations != null && !healthcareDestinations.isEmpty()) || dicomDestinationsNotEmpty
+        || routingKeyExtractor.hasKeys()) {
+      Attributes attrs;
+      if (routingKeyExtractor.hasKeys()) {
+        try (RoutingKeyExtractor.HeaderRecorder recorder =
+            routingKeyExtractor.record(inputStream)) {
+          attrs = routingKeyExtractor.readKeys(createDicomInputStream(transferSyntax, recorder));
+          destinationHolder = new DestinationHolder(recorder.replay(), defaultDicomWebClient);
+        }
+      } else {
+        // Filters on the calling AE title only.
+        attrs = new Attributes();
+        destinationHolder = new DestinationHolder(inputStream, defaultDicomWebClient);
+      }
+      destinationHolder.setAttributes(attrs);
       selectAndPutDestinationClients(destinationHolder, callingAet, attrs);
     } else {
       destinationHolder = new DestinationHolder(inputStream, defaultDicomWebClient);
@@ -52,12 +93,5 @@ public abstract class DestinationClientFactory implements IDestinationClientFact
     return new DicomInputStream(new BufferedInputStream(inputStream), transferSyntax);
   }
 
-  private Attributes getFilteringAttributes(DicomInputStream inDicomStream) throws IOException {
-    inDicomStream.mark(Integer.MAX_VALUE);
-    Attributes attrs = inDicomStream.readDataset(-1, Tag.PixelData);
-    inDicomStream.reset();
-    return attrs;
-  }
-
   protected abstract void selectAndPutDestinationClients(DestinationHolder destinationHolder, String callingAet, Attributes attrs);
 }
@@ -5,16 +5,19 @@ import com.google.cloud.healthcare.imaging.dicomadapter.AetDictionary;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.CountingInputStream;
 import java.io.InputStream;
+import org.dcm4che3.data.Attributes;
 
 public class DestinationHolder {
 
   private IDicomWebClient singleDestination;
   private ImmutableList<IDicomWebClient> healthcareDestinations;
   private ImmutableList<AetDictionary.Aet> dicomDestinations;
+  private final InputStream inputStream;
   private CountingInputStream countingInputStream;
+  private Attributes attributes;
 
   public DestinationHolder(InputStream destinationInputStream, IDicomWebClient defaultDestination) {
-    this.countingInputStream = new CountingInputStream(destinationInputStream);
+    this.inputStream = destinationInputStream;
     //default values
     this.singleDestination = defaultDestination;
     this.healthcareDestinations = ImmutableList.of(defaultDestination);
@@ -22,9 +25,29 @@ public class DestinationHolder {
   }
 
   public CountingInputStream getCountingInputStream() {
+    if (countingInputStream == null) {
+      countingInputStream = new CountingInputStream(inputStream);
+    }
     return countingInputStream;
   }
 
+  /** The stream to read the instance from, without counting; for pass-through copying. */
+  public InputStream getInputStream() {
+    return inputStream;
+  }
+
+  /**
+   * Attributes of the instance destinations and the transcode policy depend on, or null if they
+   * were not parsed.
+   */
+  public Attributes getAttributes() {
+    return attributes;
+  }
+
+  public void setAttributes(Attributes attributes) {
+    this.attributes = attributes;
+  }
+
   public void setSingleDestination(IDicomWebClient dicomWebClient) {
     this.singleDestination = dicomWebClient;
   }
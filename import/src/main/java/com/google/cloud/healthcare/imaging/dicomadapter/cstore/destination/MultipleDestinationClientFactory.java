@@ -9,35 +9,27 @@ import org.dcm4che3.data.Attributes;
 
 public class MultipleDestinationClientFactory extends DestinationClientFactory {
 
-  private ImmutableList<Pair<DestinationFilter, Aet>> dicomDestinations;
+  private final RoutingIndex<IDicomWebClient> healthcareRoutingIndex;
+  private final RoutingIndex<Aet> dicomRoutingIndex;
 
   public MultipleDestinationClientFactory(ImmutableList<Pair<DestinationFilter, IDicomWebClient>> healthcareDestinations,
                                           ImmutableList<Pair<DestinationFilter, Aet>> dicomDestinations,
                                           IDicomWebClient defaultDicomWebClient) {
     super(healthcareDestinations, defaultDicomWebClient, dicomDestinations != null && !dicomDestinations.isEmpty());
-    this.dicomDestinations = dicomDestinations;
+    this.healthcareRoutingIndex = new RoutingIndex<>(healthcareDestinations);
+    this.dicomRoutingIndex = dicomDestinations != null ? new RoutingIndex<>(dicomDestinations) : null;
+    addFilterKeys(dicomDestinations);
   }
 
   @Override
   protected void selectAndPutDestinationClients(DestinationHolder destinationHolder, String callingAet, Attributes attrs) {
-    ImmutableList.Builder<IDicomWebClient> filteredHealthcareWebClientsBuilder = ImmutableList.builder();
     if (healthcareDestinations != null) {
-      for (Pair<DestinationFilter, IDicomWebClient> filterToDestination : healthcareDestinations) {
-        if (filterToDestination.getLeft().matches(callingAet, attrs)) {
-          filteredHealthcareWebClientsBuilder.add(filterToDestination.getRight());
-        }
-      }
-      destinationHolder.setHealthcareDestinations(filteredHealthcareWebClientsBuilder.build());
+      destinationHolder.setHealthcareDestinations(
+          healthcareRoutingIndex.allMatches(callingAet, attrs));
     }
 
-    if (dicomDestinations != null) {
-      ImmutableList.Builder<Aet> filteredDicomDestinationsBuilder = ImmutableList.builder();
-      for (Pair<DestinationFilter, Aet> filterToDestination : dicomDestinations) {
-        if (filterToDestination.getLeft().matches(callingAet, attrs)) {
-          filteredDicomDestinationsBuilder.add(filterToDestination.getRight());
-        }
-      }
-      destinationHolder.setDicomDestinations(filteredDicomDestinationsBuilder.build());
+    if (dicomRoutingIndex != null) {
+      destinationHolder.setDicomDestinations(dicomRoutingIndex.allMatches(callingAet, attrs));
     }
   }
 }
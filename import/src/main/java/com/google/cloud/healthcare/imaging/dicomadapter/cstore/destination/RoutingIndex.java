@@ -0,0 +1,152 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore.destination;
+
+import com.google.cloud.healthcare.imaging.dicomadapter.DestinationFilter;
+import com.google.cloud.healthcare.imaging.dicomadapter.ImportAdapter.Pair;
+import com.google.common.collect.ImmutableList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.dcm4che3.data.Attributes;
+
+/**
+ * Destinations compiled from their filters, so that routing an instance only tests the filters
+ * that may match it instead of every filter in order.
+ *
+ * <p>Filters are grouped by AE title, filters without one applying to every calling AE, then
+ * hashed by the value of one of their attributes matched exactly, i.e. having a single value
+ * without wildcards. Filters without such an attribute are tested for every instance of their AE
+ * title. Candidate filters are tested with {@link DestinationFilter#matches} in the order of the
+ * destinations, so that the first match and all matches are the same as testing every filter.
+ */
+public class RoutingIndex<T> {
+
+  private final ImmutableList<Pair<DestinationFilter, T>> destinations;
+  private final Map<String, Bucket> bucketsByAet = new HashMap<>();
+  private final Bucket anyAetBucket = new Bucket();
+
+  public RoutingIndex(ImmutableList<Pair<DestinationFilter, T>> destinations) {
+    this.destinations = destinations != null ? destinations : ImmutableList.of();
+    for (int i = 0; i < this.destinations.size(); i++) {
+      DestinationFilter filter = this.destinations.get(i).getLeft();
+      Bucket bucket = filter.getAeTitle() == null
+          ? anyAetBucket
+          : bucketsByAet.computeIfAbsent(filter.getAeTitle(), aet -> new Bucket());
+      bucket.add(i, filter.getFilterAttrs());
+    }
+  }
+
+  public boolean isEmpty() {
+    return destinations.isEmpty();
+  }
+
+  /** Returns the destination of the first filter matching, or null if none does. */
+  public T firstMatch(String callingAet, Attributes attrs) {
+    for (int index : candidates(callingAet, attrs)) {
+      Pair<DestinationFilter, T> destination = destinations.get(index);
+      if (destination.getLeft().matches(callingAet, attrs)) {
+        return destination.getRight();
+      }
+    }
+    return null;
+  }
+
+  /** Returns the destinations of all filters matching, in the order of the destinations. */
+  public ImmutableList<T> allMatches(String callingAet, Attributes attrs) {
+    ImmutableList.Builder<T> matches = ImmutableList.builder();
+    for (int index : candidates(callingAet, attrs)) {
+      Pair<DestinationFilter, T> destination = destinations.get(index);
+      if (destination.getLeft().matches(callingAet, attrs)) {
+        matches.add(destination.getRight());
+      }
+    }
+    return matches.build();
+  }
+
+  // Indices of the filters that may match, ascending and distinct.
+  private int[] candidates(String callingAet, Attributes attrs) {
+    IntList candidates = new IntList();
+    anyAetBucket.collect(attrs, candidates);
+    Bucket aetBucket = callingAet != null ? bucketsByAet.get(callingAet) : null;
+    if (aetBucket != null) {
+      aetBucket.collect(attrs, candidates);
+    }
+    return candidates.sortedDistinct();
+  }
+
+  private static class Bucket {
+
+    // Tag -> value -> indices of the filters matching that value exactly.
+    private final Map<Integer, Map<String, IntList>> exact = new HashMap<>();
+    private final IntList scanned = new IntList();
+
+    void add(int index, Attributes filterAttrs) {
+      for (int tag : filterAttrs.tags()) {
+        String[] values = filterAttrs.getStrings(tag);
+        if (values != null && values.length == 1 && isExact(values[0])) {
+          exact.computeIfAbsent(tag, t -> new HashMap<>())
+              .computeIfAbsent(values[0], v -> new IntList())
+              .add(index);
+          return;
+        }
+      }
+      scanned.add(index);
+    }
+
+    void collect(Attributes attrs, IntList candidates) {
+      candidates.addAll(scanned);
+      if (attrs == null) {
+        return;
+      }
+      for (Map.Entry<Integer, Map<String, IntList>> entry : exact.entrySet()) {
+        String[] values = attrs.getStrings(entry.getKey());
+        if (values == null) {
+          continue;
+        }
+        for (String value : values) {
+          IntList indices = value != null ? entry.getValue().get(value) : null;
+          if (indices != null) {
+            candidates.addAll(indices);
+          }
+        }
+      }
+    }
+
+    // Values that Attributes.matches compares for equality.
+    private static boolean isExact(String value) {
+      return !value.isEmpty() && value.indexOf('*') < 0 && value.indexOf('?') < 0
+          && value.indexOf('\\') < 0;
+    }
+  }
+
+  private static class IntList {
+
+    private int[] values = new int[8];
+    private int size;
+
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, 2 * size);
+      }
+      values[size++] = value;
+    }
+
+    void addAll(IntList other) {
+      if (size + other.size > values.length) {
+        values = Arrays.copyOf(values, Math.max(2 * values.length, size + other.size));
+      }
+      System.arraycopy(other.values, 0, values, size, other.size);
+      size += other.size;
+    }
+
+    int[] sortedDistinct() {
+      Arrays.sort(values, 0, size);
+      int distinct = 0;
+      for (int i = 0; i < size; i++) {
+        if (distinct == 0 || values[i] != values[distinct - 1]) {
+          values[distinct++] = values[i];
+        }
+      }
+      return Arrays.copyOf(values, distinct);
+    }
+  }
+}
@@ -0,0 +1,275 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore.destination;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.service.DicomServiceException;
+
+/**
+ * Parses the attributes instances are routed by, only up to the highest tag routing depends on,
+ * instead of up to Pixel Data.
+ *
+ * <p>The bytes consumed by parsing are recorded in a buffer reused by the thread and limited to
+ * maxHeaderBytes, then replayed in front of the rest of the instance, so that the memory routing
+ * takes is bounded whatever the size of the header.
+ */
+public class RoutingKeyExtractor {
+
+  public static final int DEFAULT_MAX_HEADER_BYTES = 4 * 1024 * 1024;
+
+  private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+  // Buffers grown above this are not kept for reuse, so that an idle thread holds little memory.
+  private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+  private static final int MAX_SKIP_SIZE = 8 * 1024;
+
+  private static final ThreadLocal<byte[]> buffers =
+      ThreadLocal.withInitial(() -> new byte[INITIAL_BUFFER_SIZE]);
+
+  private int maxHeaderBytes;
+  private int maxTag = -1;
+  private boolean hasKeys;
+
+  public RoutingKeyExtractor(int maxHeaderBytes) {
+    setMaxHeaderBytes(maxHeaderBytes);
+  }
+
+  public void setMaxHeaderBytes(int maxHeaderBytes) {
+    if (maxHeaderBytes <= 0) {
+      throw new IllegalArgumentException("maxHeaderBytes must be positive: " + maxHeaderBytes);
+    }
+    this.maxHeaderBytes = maxHeaderBytes;
+  }
+
+  /** Adds top-level tags of attributes to parse. */
+  public void addKeys(int... tags) {
+    for (int tag : tags) {
+      if (!hasKeys || Integer.compareUnsigned(tag, maxTag) > 0) {
+        maxTag = tag;
+      }
+      hasKeys = true;
+    }
+  }
+
+  /** Whether any attributes are parsed at all. */
+  public boolean hasKeys() {
+    return hasKeys;
+  }
+
+  /** Tag parsing stops at: the one following the highest key, but no further than Pixel Data. */
+  public int getStopTag() {
+    return Integer.compareUnsigned(maxTag, Tag.PixelData) < 0 ? maxTag + 1 : Tag.PixelData;
+  }
+
+  /**
+   * Starts recording the bytes read from inputStream, to replay them after parsing. The recorder
+   * is to be closed once done with, whether replayed or not.
+   */
+  public HeaderRecorder record(InputStream inputStream) {
+    return new HeaderRecorder(inputStream, maxHeaderBytes);
+  }
+
+  /**
+   * Reads the keys from dis, a stream over the recorder. Attributes following the keys in the
+   * header are not parsed.
+   */
+  public Attributes readKeys(DicomInputStream dis) throws IOException {
+    return dis.readDataset(-1, getStopTag());
+  }
+
+  /**
+   * Records the bytes read, failing with OutOfResources once more than the limit are read.
+   * Closing it gives its buffer back to the thread, but leaves the underlying stream open.
+   */
+  public static class HeaderRecorder extends FilterInputStream {
+
+    private final int limit;
+    private byte[] buffer;
+    private int count;
+
+    HeaderRecorder(InputStream in, int limit) {
+      super(in);
+      this.limit = limit;
+      // Taken from the thread until replayed, so that no other recorder shares it.
+      this.buffer = buffers.get();
+      buffers.remove();
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        ensureCapacity(1);
+        buffer[count++] = (byte) b;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        ensureCapacity(n);
+        System.arraycopy(b, off, buffer, count, n);
+        count += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      if (n <= 0) {
+        return 0;
+      }
+      // Skipped bytes are read straight into the recording, past the limit by one byte at most so
+      // that exceeding it fails.
+      int len = (int) Math.min(Math.min(n, MAX_SKIP_SIZE), Math.max(limit - count, 1));
+      ensureCapacity(len);
+      int read = in.read(buffer, count, len);
+      if (read <= 0) {
+        return 0;
+      }
+      count += read;
+      return read;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    /** Number of bytes recorded so far. */
+    public int getCount() {
+      return count;
+    }
+
+    /**
+     * Stops recording and returns a stream of the bytes recorded followed by the rest of the
+     * underlying stream. The recorder is not to be read anymore.
+     */
+    public InputStream replay() {
+      if (buffer == null) {
+        throw new IllegalStateException("Recording already replayed or closed");
+      }
+      // The replay reads the recording in place and gives the buffer back to the thread.
+      InputStream replay = new Replay(in, buffer, count);
+      buffer = null;
+      return replay;
+    }
+
+    /** Stops recording, if not replayed yet. The underlying stream is not closed. */
+    @Override
+    public void close() {
+      if (buffer == null) {
+        return;
+      }
+      releaseBuffer(buffer);
+      buffer = null;
+    }
+
+    private void ensureCapacity(int n) throws DicomServiceException {
+      if (count + n > limit) {
+        throw new DicomServiceException(Status.OutOfResources,
+            "Routing attributes not found in the first " + limit + " bytes of the instance");
+      }
+      if (count + n > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.min(limit, Math.max(count + n, 2 * buffer.length)));
+      }
+    }
+  }
+
+  private static void releaseBuffer(byte[] buffer) {
+    if (buffer.length <= MAX_RETAINED_BUFFER_SIZE) {
+      buffers.set(buffer);
+    }
+  }
+
+  /**
+   * Recorded bytes followed by the rest of the underlying stream. The recording buffer is given
+   * back to the thread as soon as its bytes are read, or when the replay is closed.
+   */
+  private static class Replay extends FilterInputStream {
+
+    private final int count;
+    private byte[] buffer;
+    private int pos;
+
+    Replay(InputStream in, byte[] buffer, int count) {
+      super(in);
+      this.buffer = buffer;
+      this.count = count;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (buffer != null) {
+        if (pos < count) {
+          int b = buffer[pos++] & 0xff;
+          releaseIfReplayed();
+          return b;
+        }
+        releaseIfReplayed();
+      }
+      return in.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (buffer != null && len > 0) {
+        if (pos < count) {
+          int n = Math.min(len, count - pos);
+          System.arraycopy(buffer, pos, b, off, n);
+          pos += n;
+          releaseIfReplayed();
+          return n;
+        }
+        releaseIfReplayed();
+      }
+      return in.read(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      if (buffer != null && n > 0) {
+        if (pos < count) {
+          int skipped = (int) Math.min(n, count - pos);
+          pos += skipped;
+          releaseIfReplayed();
+          return skipped;
+        }
+        releaseIfReplayed();
+      }
+      return in.skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+      return buffer != null ? count - pos : in.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (buffer != null) {
+        releaseBuffer(buffer);
+        buffer = null;
+      }
+      in.close();
+    }
+
+    private void releaseIfReplayed() {
+      if (pos >= count) {
+        releaseBuffer(buffer);
+        buffer = null;
+      }
+    }
+  }
+}
@@ -7,17 +7,19 @@ import com.google.common.collect.ImmutableList;
 import org.dcm4che3.data.Attributes;
 
 public class SingleDestinationClientFactory extends DestinationClientFactory {
+
+  private final RoutingIndex<IDicomWebClient> healthcareRoutingIndex;
+
   public SingleDestinationClientFactory(ImmutableList<Pair<DestinationFilter, IDicomWebClient>> healthDestinationPairList, IDicomWebClient defaultDicomWebClient) {
     super(healthDestinationPairList, defaultDicomWebClient);
+    this.healthcareRoutingIndex = new RoutingIndex<>(healthDestinationPairList);
   }
 
   @Override
   protected void selectAndPutDestinationClients(DestinationHolder destinationHolder, String callingAet, Attributes attrs) {
-    for (Pair<DestinationFilter, IDicomWebClient> filterToDestination: healthcareDestinations) {
-      if (filterToDestination.getLeft().matches(callingAet, attrs)) {
-        destinationHolder.setSingleDestination(filterToDestination.getRight());
-        return;
-      }
+    IDicomWebClient destination = healthcareRoutingIndex.firstMatch(callingAet, attrs);
+    if (destination != null) {
+      destinationHolder.setSingleDestination(destination);
     }
   }
 }
@@ -1,18 +1,17 @@
 package com.google.cloud.healthcare.imaging.dicomadapter.cstore.multipledest.sender;
 
 import com.google.cloud.healthcare.imaging.dicomadapter.AetDictionary.Aet;
-import com.google.cloud.healthcare.imaging.dicomadapter.DicomClient;
+import com.google.cloud.healthcare.imaging.dicomadapter.AssociationPool;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import org.dcm4che3.net.ApplicationEntity;
 
 public class CStoreSender implements Closeable {
 
-  private final ApplicationEntity applicationEntity;
+  private final AssociationPool associationPool;
 
-  public CStoreSender(ApplicationEntity applicationEntity) {
-    this.applicationEntity = applicationEntity;
+  public CStoreSender(AssociationPool associationPool) {
+    this.associationPool = associationPool;
   }
 
   public void cstore(Aet target,
@@ -20,11 +19,10 @@ public class CStoreSender implements Closeable {
                     String sopClassUid,
                     InputStream inputStream)
       throws IOException, InterruptedException {
-    DicomClient.connectAndCstore(
+    associationPool.cstore(
         sopClassUid,
         sopInstanceUid,
         inputStream,
-        applicationEntity,
         target.getName(),
         target.getHost(),
         target.getPort());
@@ -32,6 +30,6 @@ public class CStoreSender implements Closeable {
 
   @Override
   public void close() {
-    applicationEntity.getDevice().unbindConnections();
+    // Associations are shared with other senders and closed by the pool once idle.
   }
 }
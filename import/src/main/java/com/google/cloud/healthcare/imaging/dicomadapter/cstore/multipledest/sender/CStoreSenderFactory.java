@@ -1,23 +1,31 @@
 package com.google.cloud.healthcare.imaging.dicomadapter.cstore.multipledest.sender;
 
+import com.google.cloud.healthcare.imaging.dicomadapter.AssociationPool;
 import com.google.cloud.healthcare.imaging.dicomadapter.DeviceUtil;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Connection;
 
 public class CStoreSenderFactory {
 
-  private final String cstoreSubAet;
+  private final AssociationPool associationPool;
 
   public CStoreSenderFactory(String cstoreSubAet) {
-    this.cstoreSubAet = cstoreSubAet;
+    this(cstoreSubAet, AssociationPool.DEFAULT_IDLE_TIMEOUT_MILLIS,
+        AssociationPool.DEFAULT_MAX_OPS_INVOKED, AssociationPool.DEFAULT_MAX_ASSOCIATIONS_PER_PEER);
   }
 
-  public CStoreSender create() {
+  public CStoreSenderFactory(String cstoreSubAet, long associationIdleTimeoutMillis,
+      int maxOpsInvoked, int maxAssociationsPerPeer) {
     ApplicationEntity subApplicationEntity = new ApplicationEntity(cstoreSubAet);
     Connection conn = new Connection();
     DeviceUtil.createClientDevice(subApplicationEntity, conn);
     subApplicationEntity.addConnection(conn);
 
-    return new CStoreSender(subApplicationEntity);
+    this.associationPool = new AssociationPool(subApplicationEntity, associationIdleTimeoutMillis,
+        maxOpsInvoked, maxAssociationsPerPeer);
+  }
+
+  public CStoreSender create() {
+    return new CStoreSender(associationPool);
   }
 }
@@ -0,0 +1,282 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline;
+
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline.ChunkPool.Chunk;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded, single producer / single consumer byte pipe between two pipeline stages.
+ *
+ * <p>The writing stage fills pooled chunks and hands them over through a queue holding at most
+ * queueDepth chunks, blocking once the reader falls behind (backpressure). Unlike
+ * PipedInputStream/PipedOutputStream there is no per-byte handoff and no polling for a dead
+ * writer: the writer either closes the pipe (end of stream) or aborts it with the failure that is
+ * then rethrown to the reader, and a reader that closes early fails the writer on its next write.
+ */
+public class ChunkPipe {
+
+  private static final Chunk END_OF_STREAM = new Chunk(new byte[0]);
+  private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+  private final ChunkPool pool;
+  private final ArrayBlockingQueue<Chunk> queue;
+  private final Sink sink = new Sink();
+  private final Source source = new Source();
+
+  private volatile boolean sourceClosed;
+  private volatile Throwable sinkFailure;
+
+  public ChunkPipe(ChunkPool pool, int queueDepth) {
+    this.pool = pool;
+    this.queue = new ArrayBlockingQueue<>(Math.max(1, queueDepth));
+  }
+
+  public Sink sink() {
+    return sink;
+  }
+
+  public Source source() {
+    return source;
+  }
+
+  /** Writing end of the pipe. */
+  public class Sink extends OutputStream {
+
+    private Chunk current;
+    private boolean closed;
+
+    @Override
+    public void write(int b) throws IOException {
+      ensureChunk();
+      current.data[current.length++] = (byte) b;
+      if (current.isFull()) {
+        publishCurrent();
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        ensureChunk();
+        int count = Math.min(len, current.data.length - current.length);
+        System.arraycopy(b, off, current.data, current.length, count);
+        current.length += count;
+        off += count;
+        len -= count;
+        if (current.isFull()) {
+          publishCurrent();
+        }
+      }
+    }
+
+    /**
+     * Reads the given stream until its end straight into pipe chunks, avoiding the intermediate
+     * buffer of a regular copy.
+     *
+     * @return number of bytes transferred.
+     */
+    public long transferFrom(InputStream in) throws IOException {
+      long total = 0;
+      while (true) {
+        ensureChunk();
+        int read = in.read(current.data, current.length, current.data.length - current.length);
+        if (read == -1) {
+          return total;
+        }
+        current.length += read;
+        total += read;
+        if (current.isFull()) {
+          publishCurrent();
+        }
+      }
+    }
+
+    /** Partial chunks are handed over on close only, to keep chunks full. */
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        if (current != null && current.length > 0) {
+          publishCurrent();
+        }
+      } finally {
+        pool.release(current);
+        current = null;
+        offerEndOfStream();
+      }
+    }
+
+    /**
+     * Terminates the stream with a failure, which is rethrown to the reader instead of a regular
+     * end of stream.
+     */
+    public void abort(Throwable cause) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      sinkFailure = cause;
+      pool.release(current);
+      current = null;
+      try {
+        offerEndOfStream();
+      } catch (InterruptedIOException e) {
+        // reader is failed through sinkFailure once it reaches the end of queued data
+      }
+    }
+
+    private void ensureChunk() throws IOException {
+      if (closed) {
+        throw new IOException("Pipe closed by writer");
+      }
+      if (current == null) {
+        current = pool.acquire();
+      }
+    }
+
+    private void publishCurrent() throws IOException {
+      Chunk chunk = current;
+      current = null;
+      boolean queued;
+      try {
+        while (!(queued = queue.offer(chunk, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))) {
+          if (sourceClosed) {
+            break;
+          }
+        }
+      } catch (InterruptedException e) {
+        pool.release(chunk);
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted writing to pipe");
+      }
+      if (sourceClosed) {
+        if (!queued) {
+          pool.release(chunk);
+        }
+        // The reader may have drained the queue before the chunk was queued.
+        releaseQueued();
+        throw new PipeBrokenException("Pipe closed by reader", null);
+      }
+    }
+
+    private void offerEndOfStream() throws InterruptedIOException {
+      try {
+        while (!sourceClosed
+            && !queue.offer(END_OF_STREAM, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+          // waiting for the reader to make room
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted closing pipe");
+      }
+    }
+  }
+
+  /** Reading end of the pipe. */
+  public class Source extends InputStream {
+
+    private Chunk current;
+    private int position;
+    private boolean endOfStream;
+
+    @Override
+    public int read() throws IOException {
+      if (!nextChunk()) {
+        return -1;
+      }
+      return current.data[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!nextChunk()) {
+        return -1;
+      }
+      int count = Math.min(len, current.length - position);
+      System.arraycopy(current.data, position, b, off, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return current == null ? 0 : current.length - position;
+    }
+
+    @Override
+    public void close() {
+      if (sourceClosed) {
+        return;
+      }
+      sourceClosed = true;
+      pool.release(current);
+      current = null;
+      releaseQueued();
+    }
+
+    private boolean nextChunk() throws IOException {
+      if (sourceClosed) {
+        throw new PipeBrokenException("Pipe closed by reader", null);
+      }
+      while (current == null || position == current.length) {
+        if (endOfStream) {
+          return false;
+        }
+        pool.release(current);
+        current = null;
+        Chunk chunk;
+        try {
+          chunk = queue.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted reading from pipe");
+        }
+        if (chunk == END_OF_STREAM) {
+          endOfStream = true;
+          Throwable failure = sinkFailure;
+          if (failure != null) {
+            throw new PipeBrokenException("Upstream pipeline stage failed", failure);
+          }
+          return false;
+        }
+        current = chunk;
+        position = 0;
+      }
+      return true;
+    }
+  }
+
+  private void releaseQueued() {
+    Chunk chunk;
+    while ((chunk = queue.poll()) != null) {
+      if (chunk != END_OF_STREAM) {
+        pool.release(chunk);
+      }
+    }
+  }
+
+  /**
+   * Signals that the other end of the pipe went away, so the failure is a consequence of a failure
+   * in another stage rather than of this one.
+   */
+  public static class PipeBrokenException extends IOException {
+
+    public PipeBrokenException(String message, Throwable cause) {
+      super(message, cause);
+    }
+  }
+}
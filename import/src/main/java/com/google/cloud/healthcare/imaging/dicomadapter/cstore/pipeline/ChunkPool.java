@@ -0,0 +1,61 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pool of fixed size byte chunks shared by all {@link ChunkPipe}s of a {@link StreamPipeline}.
+ * Chunks are allocated on demand and at most maxPooledChunks of them are retained for reuse.
+ */
+public class ChunkPool {
+
+  private final int chunkSize;
+  private final ArrayBlockingQueue<Chunk> freeChunks;
+
+  public ChunkPool(int chunkSize, int maxPooledChunks) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+    }
+    this.chunkSize = chunkSize;
+    this.freeChunks = new ArrayBlockingQueue<>(Math.max(1, maxPooledChunks));
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  public Chunk acquire() {
+    Chunk chunk = freeChunks.poll();
+    if (chunk == null) {
+      chunk = new Chunk(new byte[chunkSize]);
+    }
+    chunk.length = 0;
+    return chunk;
+  }
+
+  public void release(Chunk chunk) {
+    if (chunk != null && chunk.data.length == chunkSize) {
+      // Dropped if the pool is already full.
+      freeChunks.offer(chunk);
+    }
+  }
+
+  /** Number of idle chunks currently held by the pool. */
+  public int getPooledCount() {
+    return freeChunks.size();
+  }
+
+  /** A reusable block of bytes, of which the first length are valid. */
+  public static final class Chunk {
+
+    final byte[] data;
+    int length;
+
+    Chunk(byte[] data) {
+      this.data = data;
+    }
+
+    boolean isFull() {
+      return length == data.length;
+    }
+  }
+}
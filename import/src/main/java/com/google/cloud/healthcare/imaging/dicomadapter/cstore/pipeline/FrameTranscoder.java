@@ -0,0 +1,448 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline;
+
+import com.google.common.io.CountingOutputStream;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.imageio.codec.ImageWriterFactory;
+import org.dcm4che3.imageio.codec.ImageWriterFactory.ImageWriterParam;
+import org.dcm4che3.imageio.codec.Transcoder;
+import org.dcm4che3.imageio.codec.TransferSyntaxType;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.util.Property;
+import org.dcm4che3.util.StreamUtils;
+
+/**
+ * Transcodes instances to another transfer syntax, compressing the frames of multi-frame
+ * instances in parallel.
+ *
+ * <p>Frames of uncompressed 8 or 16 bit monochrome instances being compressed to JPEG 2000, RLE
+ * Lossless or JPEG-LS Lossless are read one after another, compressed on the executor and written
+ * as fragments in frame order, with at most maxFramesInMemory read and not yet written at any
+ * time. Explicit VR Little Endian instances being deflated are copied through a Deflater without
+ * being parsed. Other instances are transcoded frame after frame by the dcm4che
+ * {@link Transcoder}.
+ */
+public class FrameTranscoder {
+
+  public static final int DEFAULT_MAX_FRAMES_IN_MEMORY = 2 * Runtime.getRuntime()
+      .availableProcessors();
+
+  private final Executor executor;
+  private final int maxFramesInMemory;
+  private final int deflateLevel;
+
+  /** Compresses frames on the common fork-join pool, of about as many threads as processors. */
+  public FrameTranscoder() {
+    this(ForkJoinPool.commonPool(), DEFAULT_MAX_FRAMES_IN_MEMORY);
+  }
+
+  /**
+   * @param executor compresses frames, typically a pool of about as many threads as processors.
+   * @param maxFramesInMemory maximum number of frames of an instance held in memory at once.
+   */
+  public FrameTranscoder(Executor executor, int maxFramesInMemory) {
+    this(executor, maxFramesInMemory, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * @param executor compresses frames, typically a pool of about as many threads as processors.
+   * @param maxFramesInMemory maximum number of frames of an instance held in memory at once.
+   * @param deflateLevel {@link Deflater} compression level of instances deflated here.
+   */
+  public FrameTranscoder(Executor executor, int maxFramesInMemory, int deflateLevel) {
+    if (maxFramesInMemory <= 0) {
+      throw new IllegalArgumentException(
+          "maxFramesInMemory must be positive: " + maxFramesInMemory);
+    }
+    if (deflateLevel < Deflater.DEFAULT_COMPRESSION || deflateLevel > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("Invalid deflate level: " + deflateLevel);
+    }
+    this.executor = executor;
+    this.maxFramesInMemory = maxFramesInMemory;
+    this.deflateLevel = deflateLevel;
+  }
+
+  /**
+   * Reads an instance with file meta information from inputStream and writes it, with file meta
+   * information, in transferSyntax to outputStream.
+   */
+  public void transcode(InputStream inputStream, OutputStream outputStream, String transferSyntax)
+      throws Exception {
+    transcode(inputStream, outputStream, transferSyntax, null, null);
+  }
+
+  /**
+   * Reads an instance with file meta information from inputStream and writes it, with file meta
+   * information, in transferSyntax to outputStream.
+   *
+   * @param redactor if not null, redacts the dataset before it is written, in which case the
+   * file meta information is created from the redacted dataset.
+   * @param redactThenTranscode required with a redactor, which it is to apply before transcoding
+   * the instance. Given the instance if its frames are not compressed here, as the dcm4che
+   * {@link Transcoder} copies the elements following Pixel Data without letting them be redacted.
+   */
+  public void transcode(InputStream inputStream, OutputStream outputStream, String transferSyntax,
+      RedactProcessor redactor, StreamProcessor redactThenTranscode) throws Exception {
+    if (redactor != null && redactThenTranscode == null) {
+      throw new IllegalArgumentException("Redacting requires a redactThenTranscode fallback");
+    }
+    // Everything the header is parsed from is recorded, to be replayed to the Transcoder if frames
+    // cannot be compressed here.
+    RecordingInputStream recordingStream = new RecordingInputStream(inputStream);
+    DicomInputStream dis = new DicomInputStream(recordingStream);
+    if (transferSyntax.equals(UID.DeflatedExplicitVRLittleEndian)) {
+      Attributes fmi = dis.getFileMetaInformation();
+      if (redactor != null || fmi == null
+          || !UID.ExplicitVRLittleEndian.equals(dis.getTransferSyntax())) {
+        transcodeSequentially(recordingStream.replay(), outputStream, transferSyntax, redactor,
+            redactThenTranscode);
+        return;
+      }
+      recordingStream.stopRecording();
+      deflate(dis, fmi, outputStream);
+      return;
+    }
+    Attributes dataset = dis.readDataset(-1, Tag.PixelData);
+    FrameLayout layout = FrameLayout.of(dis, dataset, transferSyntax);
+    if (layout == null) {
+      transcodeSequentially(recordingStream.replay(), outputStream, transferSyntax, redactor,
+          redactThenTranscode);
+      return;
+    }
+    recordingStream.stopRecording();
+
+    if (redactor != null) {
+      redactor.redactDataset(dataset);
+    }
+    if (transferSyntax.equals(UID.JPEG2000)) {
+      dataset.setString(Tag.LossyImageCompression, VR.CS, "01");
+      dataset.setString(Tag.LossyImageCompressionMethod, VR.CS, "ISO_15444_1");
+    }
+    Attributes fmi = redactor != null
+        ? dataset.createFileMetaInformation(transferSyntax)
+        : new Attributes(dis.getFileMetaInformation());
+    fmi.setString(Tag.TransferSyntaxUID, VR.UI, transferSyntax);
+
+    DicomOutputStream dos = new DicomOutputStream(outputStream, UID.ExplicitVRLittleEndian);
+    dos.writeDataset(fmi, dataset);
+    dos.writeHeader(Tag.PixelData, VR.OB, -1);
+    // Empty Basic Offset Table.
+    dos.writeHeader(Tag.Item, null, 0);
+    compressFrames(dis, dos, layout, transferSyntax);
+    dos.writeHeader(Tag.SequenceDelimitationItem, null, 0);
+
+    Attributes trailing = dis.readDataset(-1, -1);
+    if (redactor != null) {
+      redactor.redactDataset(trailing);
+    }
+    dos.writeDataset(null, trailing);
+    dos.finish();
+  }
+
+  // The dataset is encoded the same in Explicit VR Little Endian and deflated, so its bytes are
+  // deflated as they are, behind file meta information with the new transfer syntax.
+  private void deflate(DicomInputStream dis, Attributes fmi, OutputStream outputStream)
+      throws IOException {
+    Attributes deflatedFmi = new Attributes(fmi);
+    deflatedFmi.remove(Tag.FileMetaInformationGroupLength);
+    deflatedFmi.setString(Tag.TransferSyntaxUID, VR.UI, UID.DeflatedExplicitVRLittleEndian);
+    DicomOutputStream dos = new DicomOutputStream(outputStream, UID.ExplicitVRLittleEndian);
+    dos.write(new byte[128]);
+    dos.write(new byte[]{'D', 'I', 'C', 'M'});
+    deflatedFmi.writeGroupTo(dos, Tag.FileMetaInformationGroupLength);
+    dos.flush();
+
+    CountingOutputStream countingStream = new CountingOutputStream(outputStream);
+    Deflater deflater = new Deflater(deflateLevel, true /* nowrap */);
+    try {
+      DeflaterOutputStream deflaterStream = new DeflaterOutputStream(countingStream, deflater);
+      dis.transferTo(deflaterStream);
+      deflaterStream.finish();
+    } finally {
+      deflater.end();
+    }
+    // The deflated stream is padded to an even length.
+    if (countingStream.getCount() % 2 != 0) {
+      countingStream.write(0);
+    }
+    countingStream.flush();
+  }
+
+  // Submits frames as they are read and writes them in order, waiting for the oldest frame once
+  // maxFramesInMemory are in flight.
+  private void compressFrames(DicomInputStream dis, DicomOutputStream dos, FrameLayout layout,
+      String transferSyntax) throws IOException {
+    ImageWriterParam writerParam = ImageWriterFactory.getImageWriterParam(transferSyntax);
+    Deque<CompletableFuture<byte[]>> inFlight = new ArrayDeque<>();
+    try {
+      for (int i = 0; i < layout.frames; i++) {
+        if (inFlight.size() == maxFramesInMemory) {
+          writeFragment(dos, inFlight.removeFirst());
+        }
+        byte[] frame = new byte[layout.frameLength];
+        StreamUtils.readFully(dis, frame, 0, frame.length);
+        inFlight.addLast(CompletableFuture.supplyAsync(() -> {
+          try {
+            return compress(layout.toImage(frame), writerParam);
+          } catch (IOException e) {
+            throw new CompletionException(e);
+          }
+        }, executor));
+      }
+      while (!inFlight.isEmpty()) {
+        writeFragment(dos, inFlight.removeFirst());
+      }
+    } finally {
+      inFlight.forEach(future -> future.cancel(false));
+    }
+  }
+
+  private static void writeFragment(DicomOutputStream dos, CompletableFuture<byte[]> frame)
+      throws IOException {
+    byte[] fragment;
+    try {
+      fragment = frame.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while compressing frames", e);
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof IOException
+          ? (IOException) e.getCause() : new IOException(e.getCause());
+    }
+    dos.writeHeader(Tag.Item, null, fragment.length);
+    dos.write(fragment);
+  }
+
+  private static byte[] compress(BufferedImage image, ImageWriterParam writerParam)
+      throws IOException {
+    // ImageWriters are not thread-safe, so each frame gets its own.
+    ImageWriter writer = ImageWriterFactory.getImageWriter(writerParam);
+    try {
+      ImageWriteParam writeParam = writer.getDefaultWriteParam();
+      Property[] properties = writerParam.getImageWriteParams();
+      if (properties.length > 0) {
+        writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        for (Property property : properties) {
+          property.setAt(writeParam);
+        }
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ImageOutputStream ios = new MemoryCacheImageOutputStream(bytes)) {
+        writer.setOutput(ios);
+        writer.write(null, new IIOImage(image, null, null), writeParam);
+      }
+      // Fragments have an even length.
+      if (bytes.size() % 2 != 0) {
+        bytes.write(0);
+      }
+      return bytes.toByteArray();
+    } finally {
+      writer.dispose();
+    }
+  }
+
+  private static void transcodeSequentially(InputStream inputStream, OutputStream outputStream,
+      String transferSyntax, RedactProcessor redactor, StreamProcessor redactThenTranscode)
+      throws Exception {
+    if (redactor != null) {
+      redactThenTranscode.process(inputStream, outputStream);
+      return;
+    }
+    try (Transcoder transcoder = new Transcoder(inputStream)) {
+      transcoder.setDestinationTransferSyntax(transferSyntax);
+      transcoder.setIncludeFileMetaInformation(true);
+      transcoder.transcode((transcoder1, dataset) -> outputStream);
+    }
+  }
+
+  /** Pixel Data layout of instances whose frames can be compressed in parallel. */
+  private static class FrameLayout {
+
+    private final int frames;
+    private final int frameLength;
+    private final int rows;
+    private final int columns;
+    private final int bitsAllocated;
+    private final int bitsStored;
+    private final boolean signed;
+    private final boolean bigEndian;
+
+    private FrameLayout(int frames, int rows, int columns, int bitsAllocated, int bitsStored,
+        boolean signed, boolean bigEndian) {
+      this.frames = frames;
+      this.rows = rows;
+      this.columns = columns;
+      this.bitsAllocated = bitsAllocated;
+      this.bitsStored = bitsStored;
+      this.signed = signed;
+      this.bigEndian = bigEndian;
+      this.frameLength = rows * columns * (bitsAllocated / 8);
+    }
+
+    /**
+     * Returns the layout of the Pixel Data element dis stopped at, or null if the instance is not
+     * an uncompressed multi-frame 8 or 16 bit monochrome instance being compressed to JPEG 2000,
+     * RLE Lossless or JPEG-LS Lossless.
+     */
+    static FrameLayout of(DicomInputStream dis, Attributes dataset, String transferSyntax) {
+      if (dis.tag() != Tag.PixelData
+          || TransferSyntaxType.forUID(dis.getTransferSyntax()) != TransferSyntaxType.NATIVE
+          || !isParallelTarget(transferSyntax)
+          || dataset.getInt(Tag.SamplesPerPixel, 1) != 1) {
+        return null;
+      }
+      int frames = dataset.getInt(Tag.NumberOfFrames, 1);
+      int bitsAllocated = dataset.getInt(Tag.BitsAllocated, 8);
+      FrameLayout layout = new FrameLayout(frames,
+          dataset.getInt(Tag.Rows, 0),
+          dataset.getInt(Tag.Columns, 0),
+          bitsAllocated,
+          dataset.getInt(Tag.BitsStored, bitsAllocated),
+          dataset.getInt(Tag.PixelRepresentation, 0) == 1,
+          dis.bigEndian());
+      if (frames <= 1
+          || (bitsAllocated != 8 && bitsAllocated != 16)
+          || (bitsAllocated == 8 && layout.signed)
+          || layout.bitsStored > bitsAllocated
+          || layout.frameLength <= 0
+          || (long) layout.frameLength * frames != (dis.length() & 0xFFFFFFFFL)) {
+        return null;
+      }
+      return layout;
+    }
+
+    private static boolean isParallelTarget(String transferSyntax) {
+      TransferSyntaxType type = TransferSyntaxType.forUID(transferSyntax);
+      return type == TransferSyntaxType.JPEG_2000 || type == TransferSyntaxType.RLE
+          || transferSyntax.equals(UID.JPEGLSLossless);
+    }
+
+    /** Image of one frame, with bits above Bits Stored cleared or sign extended. */
+    BufferedImage toImage(byte[] frame) {
+      int pixels = rows * columns;
+      int dataType;
+      DataBuffer dataBuffer;
+      if (bitsAllocated == 8) {
+        int mask = (1 << bitsStored) - 1;
+        for (int i = 0; i < pixels; i++) {
+          frame[i] = (byte) clip(frame[i] & 0xFF, mask);
+        }
+        dataType = DataBuffer.TYPE_BYTE;
+        dataBuffer = new DataBufferByte(frame, pixels);
+      } else {
+        int mask = (1 << bitsStored) - 1;
+        short[] samples = new short[pixels];
+        for (int i = 0; i < pixels; i++) {
+          int lo = frame[2 * i] & 0xFF;
+          int hi = frame[2 * i + 1] & 0xFF;
+          samples[i] = (short) clip(bigEndian ? (lo << 8) | hi : (hi << 8) | lo, mask);
+        }
+        dataType = signed ? DataBuffer.TYPE_SHORT : DataBuffer.TYPE_USHORT;
+        dataBuffer = signed
+            ? new DataBufferShort(samples, pixels) : new DataBufferUShort(samples, pixels);
+      }
+      ComponentColorModel colorModel = new ComponentColorModel(
+          ColorSpace.getInstance(ColorSpace.CS_GRAY), new int[]{bitsStored},
+          false /* hasAlpha */, false /* isAlphaPremultiplied */, Transparency.OPAQUE, dataType);
+      PixelInterleavedSampleModel sampleModel = new PixelInterleavedSampleModel(
+          dataType, columns, rows, 1, columns, new int[]{0});
+      return new BufferedImage(colorModel,
+          Raster.createWritableRaster(sampleModel, dataBuffer, null), false, null);
+    }
+
+    private int clip(int value, int mask) {
+      value &= mask;
+      if (signed && (value & (1 << (bitsStored - 1))) != 0) {
+        value |= ~mask;
+      }
+      return value;
+    }
+  }
+
+  /** Keeps a copy of the bytes read until recording stops, so that they can be read again. */
+  private static class RecordingInputStream extends FilterInputStream {
+
+    private ByteArrayOutputStream recorded = new ByteArrayOutputStream();
+
+    RecordingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0 && recorded != null) {
+        recorded.write(b);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0 && recorded != null) {
+        recorded.write(b, off, n);
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // Skipped bytes are read, to be recorded.
+      return Math.max(read(new byte[(int) Math.min(n, 8192)]), 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+      // So that DicomInputStream buffers it rather than resetting it, which would record bytes
+      // twice.
+      return false;
+    }
+
+    void stopRecording() {
+      recorded = null;
+    }
+
+    /** The whole stream again, the recorded bytes followed by the ones not read yet. */
+    InputStream replay() {
+      InputStream replay =
+          new SequenceInputStream(new ByteArrayInputStream(recorded.toByteArray()), in);
+      recorded = null;
+      return replay;
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline;
+
+import com.google.cloud.healthcare.deid.redactor.DicomRedactor;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+
+/**
+ * Redaction stage of a {@link StreamPipeline}. Can also redact an already parsed dataset, so that
+ * a transcoding stage redacts instances itself instead of parsing the output of this one.
+ */
+public class RedactProcessor implements StreamProcessor {
+
+  private final DicomRedactor redactor;
+  private final boolean streaming;
+
+  /**
+   * @param streaming whether instances are redacted with {@link DicomRedactor#redactStreaming},
+   * copying Pixel Data through rather than holding it in memory.
+   */
+  public RedactProcessor(DicomRedactor redactor, boolean streaming) {
+    this.redactor = redactor;
+    this.streaming = streaming;
+  }
+
+  @Override
+  public void process(InputStream inputStream, OutputStream outputStream) throws Exception {
+    if (streaming) {
+      redactor.redactStreaming(inputStream, outputStream);
+    } else {
+      redactor.redact(inputStream, outputStream);
+    }
+  }
+
+  /**
+   * Whether {@link #redactDataset} redacts instances entirely, which it does not when Pixel Data is
+   * removed, as the caller goes on to write it.
+   */
+  public boolean canRedactDataset() {
+    return !redactor.isRedacted(Tag.PixelData);
+  }
+
+  /** Redacts the elements of a dataset parsed up to Pixel Data, in place. */
+  public void redactDataset(Attributes dataset) {
+    redactor.redactDataset(dataset);
+  }
+}
@@ -0,0 +1,173 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline;
+
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline.ChunkPipe.PipeBrokenException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a chain of {@link StreamProcessor}s concurrently, each stage on its own executor thread,
+ * connected by bounded {@link ChunkPipe}s that share one {@link ChunkPool}.
+ *
+ * <p>The calling thread copies the source stream into the first pipe, so reading from it stays on
+ * the thread that owns it (PDVInputStream is thread-locked) and blocks once the pipeline is
+ * queueDepth chunks behind.
+ */
+public class StreamPipeline {
+
+  public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+  public static final int DEFAULT_QUEUE_DEPTH = 16;
+
+  // Enough retained chunks for a handful of fully backed up concurrent pipelines.
+  private static final int POOLED_CHUNKS_PER_QUEUE_SLOT = 16;
+
+  private static Logger log = LoggerFactory.getLogger(StreamPipeline.class);
+
+  private final ChunkPool chunkPool;
+  private final int queueDepth;
+
+  public StreamPipeline() {
+    this(DEFAULT_CHUNK_SIZE, DEFAULT_QUEUE_DEPTH);
+  }
+
+  public StreamPipeline(int chunkSize, int queueDepth) {
+    if (queueDepth <= 0) {
+      throw new IllegalArgumentException("queueDepth must be positive: " + queueDepth);
+    }
+    this.chunkPool = new ChunkPool(chunkSize, queueDepth * POOLED_CHUNKS_PER_QUEUE_SLOT);
+    this.queueDepth = queueDepth;
+  }
+
+  public ChunkPool getChunkPool() {
+    return chunkPool;
+  }
+
+  /**
+   * Feeds inputStream through processorList and waits for all stages to finish.
+   *
+   * @throws Throwable first failure of any stage, unwrapped.
+   */
+  public void process(Executor executor, InputStream inputStream,
+      List<StreamProcessor> processorList) throws Throwable {
+    if (processorList.size() == 1) {
+      processorList.get(0).process(inputStream, null);
+      return;
+    } else if (processorList.isEmpty()) {
+      return;
+    }
+
+    ChunkPipe headPipe = new ChunkPipe(chunkPool, queueDepth);
+    List<Stage> stages = new ArrayList<>();
+    ChunkPipe inputPipe = headPipe;
+    for (int i = 0; i < processorList.size(); i++) {
+      ChunkPipe outputPipe = null;
+      if (i < processorList.size() - 1) {
+        outputPipe = new ChunkPipe(chunkPool, queueDepth);
+      }
+      stages.add(new Stage(processorList.get(i), inputPipe.source(),
+          outputPipe != null ? outputPipe.sink() : null));
+      inputPipe = outputPipe;
+    }
+
+    ChunkPipe.Sink headSink = headPipe.sink();
+    List<FutureTask<Void>> tasks = new ArrayList<>();
+    try {
+      for (Stage stage : stages) {
+        FutureTask<Void> task = new FutureTask<>(stage);
+        tasks.add(task);
+        executor.execute(task);
+      }
+    } catch (RuntimeException e) {
+      // stages already started terminate through the broken head pipe
+      headSink.abort(e);
+      throw e;
+    }
+
+    try {
+      headSink.transferFrom(inputStream);
+      headSink.close();
+    } catch (IOException e) {
+      // causes or is caused by exception in stages, reported from there
+      log.trace("Error copying inputStream to pipeline", e);
+      headSink.abort(e);
+    }
+
+    // A failing stage breaks both of its pipes, so every stage terminates.
+    Throwable failure = null;
+    try {
+      for (FutureTask<Void> task : tasks) {
+        try {
+          task.get();
+        } catch (ExecutionException e) {
+          failure = pickFailure(failure, e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      for (FutureTask<Void> task : tasks) {
+        task.cancel(true);
+      }
+      throw e;
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Prefers the failure that broke the pipeline over the ones it induced in neighbouring stages.
+   */
+  private static Throwable pickFailure(Throwable current, Throwable candidate) {
+    if (current == null || (isInduced(current) && !isInduced(candidate))) {
+      return candidate;
+    }
+    return current;
+  }
+
+  private static boolean isInduced(Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof PipeBrokenException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static class Stage implements Callable<Void> {
+
+    private final StreamProcessor processor;
+    private final ChunkPipe.Source input;
+    private final ChunkPipe.Sink output;
+
+    Stage(StreamProcessor processor, ChunkPipe.Source input, ChunkPipe.Sink output) {
+      this.processor = processor;
+      this.input = input;
+      this.output = output;
+    }
+
+    @Override
+    public Void call() throws Exception {
+      try {
+        processor.process(input, output);
+        if (output != null) {
+          output.close();
+        }
+      } catch (Exception e) {
+        if (output != null) {
+          output.abort(e);
+        }
+        throw e;
+      } finally {
+        // unblocks upstream stage if this one stopped reading early
+        input.close();
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,14 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Single stage of a {@link StreamPipeline}. Reads its input until the end and writes its result
+ * to outputStream, which is null for the last stage.
+ */
+@FunctionalInterface
+public interface StreamProcessor {
+
+  void process(InputStream inputStream, OutputStream outputStream) throws Exception;
+}
@@ -0,0 +1,197 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline;
+
+import com.google.cloud.healthcare.imaging.dicomadapter.WorkerPools;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.cloud.healthcare.imaging.dicomadapter.monitoring.Event;
+import com.google.cloud.healthcare.imaging.dicomadapter.monitoring.MonitoringService;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs transcoding jobs on their own pool of threads, so that CPU bound compression does not hold
+ * up the threads reading PDUs and uploading instances.
+ *
+ * <p>Jobs wait in a bounded queue, taken from one association after another so that an
+ * association storing many instances does not starve the others. Jobs submitted while the queue is
+ * full are handled according to the {@link SaturationPolicy}.
+ */
+public class TranscodeScheduler {
+
+  /** What is done with jobs submitted while the queue is full. */
+  public enum SaturationPolicy {
+    /** Instances are stored in the transfer syntax they were received in. */
+    PASS_THROUGH,
+    /** Instances are answered with Status.OutOfResources. */
+    REJECT
+  }
+
+  /** Transcoding of one instance. */
+  @FunctionalInterface
+  public interface Job {
+
+    void run() throws Exception;
+  }
+
+  private final Executor executor;
+  private final int queueSize;
+  private final SaturationPolicy saturationPolicy;
+
+  // Queued jobs of each association, and the associations with queued jobs in turn.
+  private final Map<Object, Deque<QueuedJob>> queues = new HashMap<>();
+  private final Deque<Object> turns = new ArrayDeque<>();
+  private int queuedJobs;
+
+  /**
+   * @param threads number of transcoding threads, about the number of processors.
+   * @param queueSize maximum number of jobs waiting for a thread.
+   */
+  public TranscodeScheduler(int threads, int queueSize, SaturationPolicy saturationPolicy) {
+    // Holds one dispatch task per queued job, so never more than queueSize.
+    this(WorkerPools.newBoundedPool("transcode-scheduler", threads, queueSize), queueSize,
+        saturationPolicy);
+  }
+
+  TranscodeScheduler(Executor executor, int queueSize, SaturationPolicy saturationPolicy) {
+    if (queueSize <= 0) {
+      throw new IllegalArgumentException("Transcode queue size must be positive: " + queueSize);
+    }
+    this.executor = executor;
+    this.queueSize = queueSize;
+    this.saturationPolicy = saturationPolicy;
+    MonitoringService.addGauge(Event.TRANSCODE_QUEUE_SIZE, this::getQueuedJobs);
+  }
+
+  /**
+   * Runs job on a transcoding thread and waits for it to finish.
+   *
+   * @param associationKey identifies the association the job is for, jobs of different
+   * associations being taken in turn.
+   * @return false, without running job, if the queue is full and the policy is
+   * {@link SaturationPolicy#PASS_THROUGH}.
+   * @throws RejectedExecutionException if the queue is full and the policy is
+   * {@link SaturationPolicy#REJECT}.
+   * @throws InterruptedException if interrupted before job started, job then never running.
+   * @throws Exception thrown by job.
+   */
+  public boolean run(Object associationKey, Job job) throws Exception {
+    QueuedJob queuedJob = new QueuedJob(job);
+    synchronized (this) {
+      if (queuedJobs >= queueSize) {
+        MonitoringService.addEvent(Event.TRANSCODE_QUEUE_SATURATIONS);
+        if (saturationPolicy == SaturationPolicy.PASS_THROUGH) {
+          return false;
+        }
+        throw new RejectedExecutionException(
+            "Transcode queue of " + queueSize + " instances is full");
+      }
+      queues.computeIfAbsent(associationKey, key -> {
+        turns.addLast(key);
+        return new ArrayDeque<>();
+      }).addLast(queuedJob);
+      queuedJobs++;
+    }
+    // Runs whichever job is next in turn, not necessarily this one.
+    try {
+      executor.execute(this::runNext);
+    } catch (RuntimeException | Error e) {
+      if (dequeue(associationKey, queuedJob)) {
+        throw e;
+      }
+      // Another thread took this job, leaving a job without a dispatch: run it here.
+      runNext();
+    }
+
+    try {
+      awaitResult(associationKey, queuedJob);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw (Error) e.getCause();
+    }
+    return true;
+  }
+
+  /** Number of jobs waiting for a thread. */
+  public synchronized long getQueuedJobs() {
+    return queuedJobs;
+  }
+
+  // Waits for queuedJob to run. If interrupted while it is still queued, it is taken off the queue
+  // and never runs; once running, it is waited for, as it uses the caller's streams.
+  private void awaitResult(Object associationKey, QueuedJob queuedJob)
+      throws InterruptedException, ExecutionException {
+    try {
+      queuedJob.result.get();
+    } catch (InterruptedException e) {
+      if (dequeue(associationKey, queuedJob)) {
+        throw e;
+      }
+      try {
+        Uninterruptibles.getUninterruptibly(queuedJob.result);
+      } finally {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  // Takes queuedJob off the queue, if no thread has taken it yet.
+  private synchronized boolean dequeue(Object associationKey, QueuedJob queuedJob) {
+    Deque<QueuedJob> queue = queues.get(associationKey);
+    if (queue == null || !queue.remove(queuedJob)) {
+      return false;
+    }
+    if (queue.isEmpty()) {
+      queues.remove(associationKey);
+      turns.remove(associationKey);
+    }
+    queuedJobs--;
+    return true;
+  }
+
+  private void runNext() {
+    QueuedJob queuedJob;
+    synchronized (this) {
+      // Nothing left if the job this was dispatched for has been dequeued.
+      if (turns.isEmpty()) {
+        return;
+      }
+      Object associationKey = turns.removeFirst();
+      Deque<QueuedJob> queue = queues.get(associationKey);
+      queuedJob = queue.removeFirst();
+      if (queue.isEmpty()) {
+        queues.remove(associationKey);
+      } else {
+        turns.addLast(associationKey);
+      }
+      queuedJobs--;
+    }
+    MonitoringService.addEvent(Event.TRANSCODE_JOBS);
+    MonitoringService.addEvent(Event.TRANSCODE_QUEUE_WAIT_MILLIS,
+        (System.nanoTime() - queuedJob.queuedNanos) / 1_000_000);
+
+    try {
+      queuedJob.job.run();
+      queuedJob.result.complete(null);
+    } catch (Throwable e) {
+      queuedJob.result.completeExceptionally(e);
+    }
+  }
+
+  private static class QueuedJob {
+
+    private final Job job;
+    private final long queuedNanos = System.nanoTime();
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+    QueuedJob(Job job) {
+      this.job = job;
+    }
+  }
+}
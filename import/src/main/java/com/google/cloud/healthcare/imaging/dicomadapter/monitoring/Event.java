@@ -21,6 +21,8 @@ public enum Event implements IMonitoringEvent {
   CSTORE_ERROR(Constants.prefix + "cstore_errors"),
   CSTORE_BACKUP_ERROR(Constants.prefix + "cstore_backup_errors"),
   CSTORE_BYTES(Constants.prefix + "cstore_bytes"),
+  CSTORE_STOW_BATCHES(Constants.prefix + "cstore_stow_batches"),
+  CSTORE_BUFFER_OVERFLOWS(Constants.prefix + "cstore_buffer_overflows"),
 
   CFIND_REQUEST(Constants.prefix + "cfind_requests"),
   CFIND_ERROR(Constants.prefix + "cfind_errors"),
@@ -40,7 +42,33 @@ public enum Event implements IMonitoringEvent {
 
   COMMITMENT_REQUEST(Constants.prefix + "commitment_requests"),
   COMMITMENT_ERROR(Constants.prefix + "commitment_errors"),
-  COMMITMENT_QIDORS_ERROR(Constants.prefix + "commitment_qidors_errors");
+  COMMITMENT_QIDORS_ERROR(Constants.prefix + "commitment_qidors_errors"),
+
+  ASSOCIATION_POOL_ACTIVE_THREADS(Constants.prefix + "association_pool_active_threads"),
+  ASSOCIATION_POOL_QUEUE_SIZE(Constants.prefix + "association_pool_queue_size"),
+  ASSOCIATION_POOL_REJECTIONS(Constants.prefix + "association_pool_rejections"),
+  PIPELINE_POOL_ACTIVE_THREADS(Constants.prefix + "pipeline_pool_active_threads"),
+  PIPELINE_POOL_QUEUE_SIZE(Constants.prefix + "pipeline_pool_queue_size"),
+  PIPELINE_POOL_REJECTIONS(Constants.prefix + "pipeline_pool_rejections"),
+  UPLOAD_POOL_ACTIVE_THREADS(Constants.prefix + "upload_pool_active_threads"),
+  UPLOAD_POOL_QUEUE_SIZE(Constants.prefix + "upload_pool_queue_size"),
+  UPLOAD_POOL_REJECTIONS(Constants.prefix + "upload_pool_rejections"),
+  CMOVE_POOL_ACTIVE_THREADS(Constants.prefix + "cmove_pool_active_threads"),
+  CMOVE_POOL_QUEUE_SIZE(Constants.prefix + "cmove_pool_queue_size"),
+  CMOVE_POOL_REJECTIONS(Constants.prefix + "cmove_pool_rejections"),
+
+  DICOMWEB_CONCURRENCY_LIMIT(Constants.prefix + "dicomweb_concurrency_limit"),
+  DICOMWEB_REQUESTS_IN_FLIGHT(Constants.prefix + "dicomweb_requests_in_flight"),
+  DICOMWEB_OPEN_BREAKERS(Constants.prefix + "dicomweb_open_breakers"),
+  DICOMWEB_REJECTIONS(Constants.prefix + "dicomweb_rejections"),
+
+  REDACT_UID_CACHE_HITS(Constants.prefix + "redact_uid_cache_hits"),
+  REDACT_UID_CACHE_MISSES(Constants.prefix + "redact_uid_cache_misses"),
+
+  TRANSCODE_JOBS(Constants.prefix + "transcode_jobs"),
+  TRANSCODE_QUEUE_WAIT_MILLIS(Constants.prefix + "transcode_queue_wait_millis"),
+  TRANSCODE_QUEUE_SIZE(Constants.prefix + "transcode_queue_size"),
+  TRANSCODE_QUEUE_SATURATIONS(Constants.prefix + "transcode_queue_saturations");
 
   private final String metricName;
 
@@ -0,0 +1,247 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.dicomadapter.transcoder;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.IOException;
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Writes images as a DICOM RLE Lossless frame (PS3.5 Annex G): a 64 byte header followed by one
+ * PackBits encoded segment per byte of each sample, most significant byte first.
+ *
+ * <p>Buffers are kept between images, so that a writer compressing the frames of an instance one
+ * after another allocates once.
+ */
+public class RLEImageWriter extends ImageWriter {
+
+  static final int MAX_SEGMENTS = 15;
+
+  private static final int HEADER_LENGTH = 64;
+  private static final int MAX_RUN = 128;
+
+  private final byte[] header = new byte[HEADER_LENGTH];
+  private byte[] plane = new byte[0];
+  private byte[] encoded = new byte[0];
+  private int[] row = new int[0];
+
+  public RLEImageWriter(ImageWriterSpi originatingProvider) {
+    super(originatingProvider);
+  }
+
+  @Override
+  public IIOMetadata getDefaultStreamMetadata(ImageWriteParam param) {
+    return null;
+  }
+
+  @Override
+  public IIOMetadata getDefaultImageMetadata(ImageTypeSpecifier imageType,
+      ImageWriteParam param) {
+    return null;
+  }
+
+  @Override
+  public IIOMetadata convertStreamMetadata(IIOMetadata inData, ImageWriteParam param) {
+    return null;
+  }
+
+  @Override
+  public IIOMetadata convertImageMetadata(IIOMetadata inData, ImageTypeSpecifier imageType,
+      ImageWriteParam param) {
+    return null;
+  }
+
+  @Override
+  public void write(IIOMetadata streamMetadata, IIOImage image, ImageWriteParam param)
+      throws IOException {
+    if (!(getOutput() instanceof ImageOutputStream)) {
+      throw new IllegalStateException("Output not set");
+    }
+    ImageOutputStream ios = (ImageOutputStream) getOutput();
+    Raster raster = toRaster(image);
+    int width = raster.getWidth();
+    int height = raster.getHeight();
+    int bands = raster.getNumBands();
+    int bytesPerSample = bytesPerSample(raster.getTransferType());
+    if (bytesPerSample == 0) {
+      throw new IIOException("Unsupported transfer type: " + raster.getTransferType());
+    }
+    int segments = bands * bytesPerSample;
+    if (segments > MAX_SEGMENTS) {
+      throw new IIOException("Too many RLE segments: " + segments);
+    }
+
+    int pixels = width * height;
+    // Literal runs of at most 128 bytes, each with its header byte, plus padding.
+    int maxSegmentLength = height * (width + (width + MAX_RUN - 1) / MAX_RUN) + 1;
+    plane = ensureCapacity(plane, pixels);
+    encoded = ensureCapacity(encoded, segments * maxSegmentLength);
+    if (row.length < width) {
+      row = new int[width];
+    }
+
+    writeIntLE(header, 0, segments);
+    int length = 0;
+    int segment = 0;
+    for (int band = 0; band < bands; band++) {
+      for (int shift = 8 * (bytesPerSample - 1); shift >= 0; shift -= 8) {
+        writeIntLE(header, 4 * (segment + 1), HEADER_LENGTH + length);
+        extractPlane(raster, band, shift);
+        for (int y = 0; y < height; y++) {
+          // Runs do not cross rows.
+          length = encodeRow(plane, y * width, width, encoded, length);
+        }
+        if (length % 2 != 0) {
+          encoded[length++] = 0;
+        }
+        segment++;
+      }
+    }
+    for (int i = segment + 1; i <= MAX_SEGMENTS; i++) {
+      writeIntLE(header, 4 * i, 0);
+    }
+    ios.write(header);
+    ios.write(encoded, 0, length);
+  }
+
+  /** Returns 1 or 2, or 0 if samples of dataType cannot be encoded. */
+  static int bytesPerSample(int dataType) {
+    switch (dataType) {
+      case DataBuffer.TYPE_BYTE:
+        return 1;
+      case DataBuffer.TYPE_USHORT:
+      case DataBuffer.TYPE_SHORT:
+        return 2;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Encodes length bytes of src from start as PackBits replicate and literal runs into dst from
+   * pos, returning the position following them.
+   */
+  static int encodeRow(byte[] src, int start, int length, byte[] dst, int pos) {
+    int end = start + length;
+    int i = start;
+    while (i < end) {
+      int run = 1;
+      int maxRun = Math.min(MAX_RUN, end - i);
+      while (run < maxRun && src[i + run] == src[i]) {
+        run++;
+      }
+      if (run >= 3) {
+        dst[pos++] = (byte) (1 - run);
+        dst[pos++] = src[i];
+        i += run;
+        continue;
+      }
+      // Literal run up to the next 3 equal bytes, 2 equal bytes costing the same either way.
+      int literalStart = i;
+      int literalEnd = Math.min(end, i + MAX_RUN);
+      i++;
+      while (i < literalEnd
+          && !(i + 2 < end && src[i] == src[i + 1] && src[i] == src[i + 2])) {
+        i++;
+      }
+      int literal = i - literalStart;
+      dst[pos++] = (byte) (literal - 1);
+      System.arraycopy(src, literalStart, dst, pos, literal);
+      pos += literal;
+    }
+    return pos;
+  }
+
+  // Copies the byte at shift of each sample of band to plane, reading the data buffer directly
+  // for the rasters of images created from pixel data.
+  private void extractPlane(Raster raster, int band, int shift) {
+    int width = raster.getWidth();
+    int height = raster.getHeight();
+    SampleModel sampleModel = raster.getSampleModel();
+    DataBuffer dataBuffer = raster.getDataBuffer();
+    if (sampleModel instanceof ComponentSampleModel
+        && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0) {
+      ComponentSampleModel componentModel = (ComponentSampleModel) sampleModel;
+      int bank = componentModel.getBankIndices()[band];
+      int offset = dataBuffer.getOffsets()[bank] + componentModel.getBandOffsets()[band];
+      int pixelStride = componentModel.getPixelStride();
+      int scanlineStride = componentModel.getScanlineStride();
+      if (dataBuffer instanceof DataBufferByte) {
+        byte[] data = ((DataBufferByte) dataBuffer).getData(bank);
+        for (int y = 0, i = 0; y < height; y++) {
+          for (int x = 0, j = offset + y * scanlineStride; x < width; x++, j += pixelStride) {
+            plane[i++] = data[j];
+          }
+        }
+        return;
+      }
+      short[] data = dataBuffer instanceof DataBufferUShort
+          ? ((DataBufferUShort) dataBuffer).getData(bank)
+          : dataBuffer instanceof DataBufferShort
+              ? ((DataBufferShort) dataBuffer).getData(bank)
+              : null;
+      if (data != null) {
+        for (int y = 0, i = 0; y < height; y++) {
+          for (int x = 0, j = offset + y * scanlineStride; x < width; x++, j += pixelStride) {
+            plane[i++] = (byte) (data[j] >> shift);
+          }
+        }
+        return;
+      }
+    }
+    for (int y = 0, i = 0; y < height; y++) {
+      raster.getSamples(raster.getMinX(), raster.getMinY() + y, width, 1, band, row);
+      for (int x = 0; x < width; x++) {
+        plane[i++] = (byte) (row[x] >> shift);
+      }
+    }
+  }
+
+  private static Raster toRaster(IIOImage image) {
+    if (image.hasRaster()) {
+      return image.getRaster();
+    }
+    RenderedImage renderedImage = image.getRenderedImage();
+    return renderedImage instanceof BufferedImage
+        ? ((BufferedImage) renderedImage).getRaster()
+        : renderedImage.getData();
+  }
+
+  private static byte[] ensureCapacity(byte[] buffer, int length) {
+    return buffer.length >= length ? buffer : new byte[length];
+  }
+
+  private static void writeIntLE(byte[] b, int off, int value) {
+    b[off] = (byte) value;
+    b[off + 1] = (byte) (value >> 8);
+    b[off + 2] = (byte) (value >> 16);
+    b[off + 3] = (byte) (value >> 24);
+  }
+}
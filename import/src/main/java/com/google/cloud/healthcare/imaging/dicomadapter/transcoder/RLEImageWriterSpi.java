@@ -0,0 +1,59 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.dicomadapter.transcoder;
+
+import java.awt.image.SampleModel;
+import java.util.Locale;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Provides {@link RLEImageWriter}, registered through META-INF/services under the "rle" format
+ * name that ImageWriterFactory.properties maps RLE Lossless to.
+ */
+public class RLEImageWriterSpi extends ImageWriterSpi {
+
+  private static final String[] NAMES = {"rle"};
+  private static final String[] SUFFIXES = {"rle"};
+  private static final String[] MIME_TYPES = {};
+  private static final Class<?>[] OUTPUT_TYPES = {ImageOutputStream.class};
+
+  public RLEImageWriterSpi() {
+    super("Google LLC", "1.0", NAMES, SUFFIXES, MIME_TYPES, RLEImageWriter.class.getName(),
+        OUTPUT_TYPES, null /* readerSpiNames */,
+        false, null, null, null, null,
+        false, null, null, null, null);
+  }
+
+  @Override
+  public boolean canEncodeImage(ImageTypeSpecifier type) {
+    SampleModel sampleModel = type.getSampleModel();
+    int bytesPerSample = RLEImageWriter.bytesPerSample(sampleModel.getDataType());
+    return bytesPerSample > 0
+        && sampleModel.getNumBands() * bytesPerSample <= RLEImageWriter.MAX_SEGMENTS;
+  }
+
+  @Override
+  public ImageWriter createWriterInstance(Object extension) {
+    return new RLEImageWriter(this);
+  }
+
+  @Override
+  public String getDescription(Locale locale) {
+    return "DICOM RLE Lossless Image Writer";
+  }
+}
@@ -14,6 +14,8 @@
 
 package com.google.cloud.healthcare.imaging.dicomadapter;
 
+import static com.google.common.truth.Truth.assertThat;
+
 import com.google.cloud.healthcare.IDicomWebClient;
 import com.google.cloud.healthcare.LogUtil;
 import com.google.cloud.healthcare.imaging.dicomadapter.cmove.ISender;
@@ -21,7 +23,10 @@ import com.google.cloud.healthcare.imaging.dicomadapter.cmove.ISenderFactory;
 import com.google.cloud.healthcare.imaging.dicomadapter.util.DimseRSPAssert;
 import com.google.cloud.healthcare.imaging.dicomadapter.util.PortUtil;
 import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
@@ -233,6 +238,94 @@ public final class CMoveServiceTest {
         , moveDestinationAET);
   }
 
+  @Test
+  public void testCMoveService_parallelSubOperations() throws Exception {
+    CountDownLatch bothInFlight = new CountDownLatch(2);
+    AtomicInteger attempts = new AtomicInteger();
+    basicCMoveServiceTest(
+        new TestUtils.DicomWebClientTestBase() {
+          @Override
+          public JSONArray qidoRs(String path) throws DicomWebException {
+            JSONArray instances = new JSONArray();
+            for (int i = 0; i < 4; i++) {
+              instances.put(TestUtils.dummyQidorsInstance());
+            }
+            return instances;
+          }
+        },
+        () -> new ISender() {
+          @Override
+          public long cmove(AetDictionary.Aet target, String studyUid, String seriesUid,
+              String sopInstanceUid, String sopClassUid)
+              throws IDicomWebClient.DicomWebException, IOException, InterruptedException {
+            // Only completes if two sub-operations run at the same time.
+            bothInFlight.countDown();
+            if (!bothInFlight.await(10, TimeUnit.SECONDS)) {
+              throw new IOException("Sub-operations not run in parallel");
+            }
+            if (attempts.incrementAndGet() == 4) {
+              throw new IDicomWebClient.DicomWebException("CStore Fail");
+            }
+            return 0;
+          }
+
+          @Override
+          public void close() throws IOException {
+
+          }
+        }
+        , 2
+        , Status.OneOrMoreFailures
+        , moveDestinationAET);
+  }
+
+  @Test
+  public void testCMoveService_subOperationThrows_siblingsCanceled() throws Exception {
+    CountDownLatch bothInFlight = new CountDownLatch(2);
+    CountDownLatch siblingInterrupted = new CountDownLatch(1);
+    AtomicInteger attempts = new AtomicInteger();
+    basicCMoveServiceTest(
+        new TestUtils.DicomWebClientTestBase() {
+          @Override
+          public JSONArray qidoRs(String path) throws DicomWebException {
+            JSONArray instances = new JSONArray();
+            for (int i = 0; i < 2; i++) {
+              instances.put(TestUtils.dummyQidorsInstance());
+            }
+            return instances;
+          }
+        },
+        () -> new ISender() {
+          @Override
+          public long cmove(AetDictionary.Aet target, String studyUid, String seriesUid,
+              String sopInstanceUid, String sopClassUid)
+              throws IDicomWebClient.DicomWebException, IOException, InterruptedException {
+            bothInFlight.countDown();
+            bothInFlight.await(10, TimeUnit.SECONDS);
+            if (attempts.incrementAndGet() == 1) {
+              throw new IllegalStateException("CStore Fail");
+            }
+            try {
+              Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+              siblingInterrupted.countDown();
+              throw e;
+            }
+            return 0;
+          }
+
+          @Override
+          public void close() throws IOException {
+
+          }
+        }
+        , 2
+        , Status.ProcessingFailure
+        , moveDestinationAET);
+
+    assertThat(siblingInterrupted.await(5, TimeUnit.SECONDS)).isTrue();
+  }
+
   public void basicCMoveServiceTest(IDicomWebClient serverDicomWebClient,
       int expectedStatus) throws Exception {
     basicCMoveServiceTest(serverDicomWebClient,
@@ -245,8 +338,18 @@ public final class CMoveServiceTest {
       ISenderFactory senderFactory,
       int expectedStatus,
       String moveDestinationAET) throws Exception {
+    basicCMoveServiceTest(serverDicomWebClient, senderFactory, 1, expectedStatus,
+        moveDestinationAET);
+  }
+
+  public void basicCMoveServiceTest(IDicomWebClient serverDicomWebClient,
+      ISenderFactory senderFactory,
+      int parallelSubOperations,
+      int expectedStatus,
+      String moveDestinationAET) throws Exception {
     // Create C-STORE DICOM server.
-    int serverPort = createDicomServer(serverDicomWebClient, senderFactory);
+    int serverPort =
+        createDicomServer(serverDicomWebClient, senderFactory, parallelSubOperations);
 
     // Associate with peer AE.
     Association association =
@@ -289,7 +392,8 @@ public final class CMoveServiceTest {
   // Creates a DICOM service and returns the port it is listening on.
   private int createDicomServer(
       IDicomWebClient dicomWebClient,
-      ISenderFactory senderFactory) throws Exception {
+      ISenderFactory senderFactory,
+      int parallelSubOperations) throws Exception {
     int serverPort = PortUtil.getFreePort();
     DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
     serviceRegistry.addDicomService(new BasicCEchoSCP());
@@ -297,7 +401,8 @@ public final class CMoveServiceTest {
     AetDictionary aetDict = new AetDictionary(new AetDictionary.Aet[]{
         new AetDictionary.Aet(moveDestinationAET, moveDestinationHostname, 0)});
 
-    CMoveService cMoveService = new CMoveService(dicomWebClient, aetDict, senderFactory);
+    CMoveService cMoveService = new CMoveService(dicomWebClient, aetDict, senderFactory,
+        parallelSubOperations, Executors.newCachedThreadPool());
     serviceRegistry.addDicomService(cMoveService);
     Device serverDevice = DeviceUtil.createServerDevice(serverAET, serverPort, serviceRegistry);
     serverDevice.bindConnections();
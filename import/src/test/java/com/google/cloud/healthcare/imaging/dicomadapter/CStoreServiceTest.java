@@ -14,8 +14,10 @@
 
 package com.google.cloud.healthcare.imaging.dicomadapter;
 
+import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.doNothing;
@@ -27,7 +29,11 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.api.client.http.HttpStatusCodes;
+import com.google.cloud.healthcare.deid.redactor.DicomRedactor;
+import com.google.cloud.healthcare.deid.redactor.protos.DicomConfigProtos.DicomConfig;
 import com.google.cloud.healthcare.IDicomWebClient;
+import com.google.cloud.healthcare.StowResponse;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.StowBatcher;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.backup.BackupUploadService;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.backup.DelayCalculator;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.backup.IBackupUploader;
@@ -38,19 +44,33 @@ import com.google.cloud.healthcare.imaging.dicomadapter.cstore.destination.Singl
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.multipledest.MultipleDestinationUploadService;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.multipledest.sender.CStoreSender;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.multipledest.sender.CStoreSenderFactory;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline.RedactProcessor;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline.StreamPipeline;
 import com.google.cloud.healthcare.imaging.dicomadapter.util.DimseRSPAssert;
 import com.google.cloud.healthcare.imaging.dicomadapter.util.PortUtil;
 import com.google.cloud.healthcare.util.TestUtils;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import com.google.common.collect.ImmutableList;
+import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
 import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Association;
 import org.dcm4che3.net.Connection;
@@ -226,6 +246,370 @@ public final class CStoreServiceTest {
         null);
   }
 
+  @Test
+  public void testCStoreService_passThrough_writesFileMetaHeaderAndDataset() throws Exception {
+    ByteArrayOutputStream stowBody = new ByteArrayOutputStream();
+    MockStowClient stowClient = new MockStowClient(false, HttpStatusCodes.STATUS_CODE_OK) {
+      @Override
+      public void stowRs(StowBody body) throws DicomWebException {
+        try {
+          body.writeTo(stowBody);
+        } catch (IOException e) {
+          throw new DicomWebException(e);
+        }
+      }
+    };
+
+    basicCStoreServiceTest(
+        Status.Success,
+        null,
+        stowClient,
+        null);
+
+    DicomInputStream in = new DicomInputStream(new ByteArrayInputStream(stowBody.toByteArray()));
+    Attributes fmi = in.getFileMetaInformation();
+    Attributes dataset = in.readDataset(-1, -1);
+    assertThat(fmi.getString(Tag.MediaStorageSOPInstanceUID)).isEqualTo(SOP_INSTANCE_UID);
+    assertThat(fmi.getString(Tag.MediaStorageSOPClassUID)).isEqualTo(UID.MRImageStorage);
+    Attributes expectedDataset =
+        ((DicomInputStream) TestUtils.streamDICOMStripHeaders(TestUtils.TEST_MR_FILE))
+            .readDataset(-1, -1);
+    assertThat(dataset).isEqualTo(expectedDataset);
+  }
+
+  @Test
+  public void testCStoreService_asyncOperations_uploadsConcurrently() throws Exception {
+    // Both uploads only complete if the second instance is received while the first one is
+    // still being uploaded.
+    CountDownLatch bothUploading = new CountDownLatch(2);
+    MockStowClient stowClient = new MockStowClient(false, HttpStatusCodes.STATUS_CODE_OK) {
+      @Override
+      public void stowRs(InputStream in) throws DicomWebException {
+        super.stowRs(in);
+        bothUploading.countDown();
+        try {
+          if (!bothUploading.await(10, TimeUnit.SECONDS)) {
+            throw new DicomWebException("Instances not uploaded concurrently");
+          }
+        } catch (InterruptedException e) {
+          throw new DicomWebException(e);
+        }
+      }
+    };
+
+    int serverPort = PortUtil.getFreePort();
+    DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
+    serviceRegistry.addDicomService(new CStoreService(
+        new SingleDestinationClientFactory(ImmutableList.of(), stowClient),
+        null,
+        null,
+        null,
+        new CStoreService.Options().storeExecutor(Executors.newCachedThreadPool())));
+    Device serverDevice =
+        DeviceUtil.createServerDevice(serverAET, serverPort, serviceRegistry, 4);
+    serverDevice.bindConnections();
+
+    DicomInputStream in =
+        (DicomInputStream) TestUtils.streamDICOMStripHeaders(TestUtils.TEST_MR_FILE);
+    AAssociateRQ rq = new AAssociateRQ();
+    rq.addPresentationContext(
+        new PresentationContext(1, UID.MRImageStorage, in.getTransferSyntax()));
+    rq.setCalledAET(serverAET);
+    rq.setMaxOpsInvoked(4);
+    rq.setMaxOpsPerformed(1);
+    Connection remoteConn = new Connection();
+    remoteConn.setHostname(serverHostname);
+    remoteConn.setPort(serverPort);
+    Association association = clientAE.connect(remoteConn, rq);
+
+    DimseRSPAssert[] rspAsserts = new DimseRSPAssert[2];
+    for (int i = 0; i < rspAsserts.length; i++) {
+      DicomInputStream instance =
+          (DicomInputStream) TestUtils.streamDICOMStripHeaders(TestUtils.TEST_MR_FILE);
+      rspAsserts[i] = new DimseRSPAssert(association, Status.Success);
+      association.cstore(UID.MRImageStorage, SOP_INSTANCE_UID, 1,
+          new InputStreamDataWriter(instance), instance.getTransferSyntax(), rspAsserts[i]);
+    }
+    association.waitForOutstandingRSP();
+    association.release();
+    association.waitForSocketClose();
+
+    for (DimseRSPAssert rspAssert : rspAsserts) {
+      rspAssert.assertResult();
+    }
+  }
+
+  @Test
+  public void testCStoreService_noAsyncWindow_streamedOnReaderThread() throws Exception {
+    AtomicInteger executed = new AtomicInteger();
+    Executor storeExecutor = countingExecutor(executed);
+    CStoreService cStoreService = new CStoreService(
+        new SingleDestinationClientFactory(ImmutableList.of(),
+            new MockStowClient(false, HttpStatusCodes.STATUS_CODE_OK)),
+        null,
+        null,
+        null,
+        new CStoreService.Options().storeExecutor(storeExecutor));
+
+    storeTwice(cStoreService, 1);
+
+    assertThat(executed.get()).isEqualTo(0);
+  }
+
+  @Test
+  public void testCStoreService_bufferBudgetExceeded_storedOnReaderThread() throws Exception {
+    AtomicInteger executed = new AtomicInteger();
+    Executor storeExecutor = countingExecutor(executed);
+    CStoreService cStoreService = new CStoreService(
+        new SingleDestinationClientFactory(ImmutableList.of(),
+            new MockStowClient(false, HttpStatusCodes.STATUS_CODE_OK)),
+        null,
+        null,
+        null,
+        new CStoreService.Options().storeExecutor(storeExecutor).maxBufferedBytes(1024));
+
+    storeTwice(cStoreService, 4);
+
+    assertThat(executed.get()).isEqualTo(0);
+    assertThat(cStoreService.getBufferedBytes()).isEqualTo(0);
+  }
+
+  @Test
+  public void testCStoreService_bufferBudget_releasedOnceStored() throws Exception {
+    AtomicInteger executed = new AtomicInteger();
+    Executor storeExecutor = countingExecutor(executed);
+    CStoreService cStoreService = new CStoreService(
+        new SingleDestinationClientFactory(ImmutableList.of(),
+            new MockStowClient(false, HttpStatusCodes.STATUS_CODE_OK)),
+        null,
+        null,
+        null,
+        new CStoreService.Options().storeExecutor(storeExecutor));
+
+    storeTwice(cStoreService, 4);
+
+    assertThat(executed.get()).isEqualTo(2);
+    // Released just after the C-STORE-RSP is sent.
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (cStoreService.getBufferedBytes() != 0 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertThat(cStoreService.getBufferedBytes()).isEqualTo(0);
+  }
+
+  // Counts the tasks it runs, each on a new thread.
+  private static Executor countingExecutor(AtomicInteger executed) {
+    Executor pool = Executors.newCachedThreadPool();
+    return task -> {
+      executed.incrementAndGet();
+      pool.execute(task);
+    };
+  }
+
+  // Stores the test instance twice on an association proposing an asynchronous operations window
+  // of maxOpsInvoked, expecting success.
+  private void storeTwice(CStoreService cStoreService, int maxOpsInvoked) throws Exception {
+    int serverPort = PortUtil.getFreePort();
+    DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
+    serviceRegistry.addDicomService(cStoreService);
+    Device serverDevice =
+        DeviceUtil.createServerDevice(serverAET, serverPort, serviceRegistry, 4);
+    serverDevice.bindConnections();
+
+    DicomInputStream in =
+        (DicomInputStream) TestUtils.streamDICOMStripHeaders(TestUtils.TEST_MR_FILE);
+    AAssociateRQ rq = new AAssociateRQ();
+    rq.addPresentationContext(
+        new PresentationContext(1, UID.MRImageStorage, in.getTransferSyntax()));
+    rq.setCalledAET(serverAET);
+    rq.setMaxOpsInvoked(maxOpsInvoked);
+    rq.setMaxOpsPerformed(1);
+    Connection remoteConn = new Connection();
+    remoteConn.setHostname(serverHostname);
+    remoteConn.setPort(serverPort);
+    Association association = clientAE.connect(remoteConn, rq);
+
+    DimseRSPAssert[] rspAsserts = new DimseRSPAssert[2];
+    for (int i = 0; i < rspAsserts.length; i++) {
+      DicomInputStream instance =
+          (DicomInputStream) TestUtils.streamDICOMStripHeaders(TestUtils.TEST_MR_FILE);
+      rspAsserts[i] = new DimseRSPAssert(association, Status.Success);
+      association.cstore(UID.MRImageStorage, SOP_INSTANCE_UID, 1,
+          new InputStreamDataWriter(instance), instance.getTransferSyntax(), rspAsserts[i]);
+    }
+    association.waitForOutstandingRSP();
+    association.release();
+    association.waitForSocketClose();
+
+    for (DimseRSPAssert rspAssert : rspAsserts) {
+      rspAssert.assertResult();
+    }
+  }
+
+  @Test
+  public void testCStoreService_stowBatching_statusPerInstance() throws Exception {
+    List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+    MockStowClient stowClient = new MockStowClient(false, HttpStatusCodes.STATUS_CODE_OK) {
+      @Override
+      public StowResponse stowRs(Map<String, StowBody> instances) throws DicomWebException {
+        batchSizes.add(instances.size());
+        try {
+          for (StowBody body : instances.values()) {
+            body.writeTo(OutputStream.nullOutputStream());
+          }
+        } catch (IOException e) {
+          throw new DicomWebException(e);
+        }
+        return new StowResponse(Map.of("1.0.0.2", Status.OutOfResources), Status.Success);
+      }
+    };
+
+    int serverPort = PortUtil.getFreePort();
+    DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
+    serviceRegistry.addDicomService(new CStoreService(
+        new SingleDestinationClientFactory(ImmutableList.of(), stowClient),
+        null,
+        null,
+        null,
+        new CStoreService.Options()
+            .storeExecutor(Executors.newCachedThreadPool())
+            .stowBatcher(new StowBatcher(3, StowBatcher.DEFAULT_MAX_BYTES,
+                TimeUnit.MINUTES.toMillis(1), Executors.newCachedThreadPool()))));
+    Device serverDevice =
+        DeviceUtil.createServerDevice(serverAET, serverPort, serviceRegistry, 4);
+    serverDevice.bindConnections();
+
+    DicomInputStream in =
+        (DicomInputStream) TestUtils.streamDICOMStripHeaders(TestUtils.TEST_MR_FILE);
+    AAssociateRQ rq = new AAssociateRQ();
+    rq.addPresentationContext(
+        new PresentationContext(1, UID.MRImageStorage, in.getTransferSyntax()));
+    rq.setCalledAET(serverAET);
+    rq.setMaxOpsInvoked(4);
+    rq.setMaxOpsPerformed(1);
+    Connection remoteConn = new Connection();
+    remoteConn.setHostname(serverHostname);
+    remoteConn.setPort(serverPort);
+    Association association = clientAE.connect(remoteConn, rq);
+
+    String[] sopInstanceUIDs = {"1.0.0.1", "1.0.0.2", "1.0.0.3"};
+    int[] expectedStatuses = {Status.Success, Status.OutOfResources, Status.Success};
+    DimseRSPAssert[] rspAsserts = new DimseRSPAssert[sopInstanceUIDs.length];
+    for (int i = 0; i < rspAsserts.length; i++) {
+      DicomInputStream instance =
+          (DicomInputStream) TestUtils.streamDICOMStripHeaders(TestUtils.TEST_MR_FILE);
+      rspAsserts[i] = new DimseRSPAssert(association, expectedStatuses[i]);
+      association.cstore(UID.MRImageStorage, sopInstanceUIDs[i], 1,
+          new InputStreamDataWriter(instance), instance.getTransferSyntax(), rspAsserts[i]);
+    }
+    association.waitForOutstandingRSP();
+    association.release();
+    association.waitForSocketClose();
+
+    for (DimseRSPAssert rspAssert : rspAsserts) {
+      rspAssert.assertResult();
+    }
+    assertThat(batchSizes).containsExactly(3);
+  }
+
+  @Test
+  public void testCStoreService_pipelinePoolFull_outOfResources() throws Exception {
+    int serverPort = PortUtil.getFreePort();
+    DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
+    serviceRegistry.addDicomService(new CStoreService(
+        new SingleDestinationClientFactory(ImmutableList.of(),
+            new MockStowClient(false, HttpStatusCodes.STATUS_CODE_OK)),
+        null,
+        UID.DeflatedExplicitVRLittleEndian,
+        null,
+        new CStoreService.Options()
+            .pipelineExecutor(WorkerPools.newBoundedPool("pipeline", 1, 0))));
+    Device serverDevice = DeviceUtil.createServerDevice(serverAET, serverPort, serviceRegistry);
+    serverDevice.bindConnections();
+
+    DicomInputStream in =
+        (DicomInputStream) TestUtils.streamDICOMStripHeaders(TestUtils.TEST_MR_FILE);
+    Association association =
+        associate(serverHostname, serverPort, UID.MRImageStorage, in.getTransferSyntax());
+    DimseRSPAssert rspAssert = new DimseRSPAssert(association, Status.OutOfResources);
+    association.cstore(UID.MRImageStorage, SOP_INSTANCE_UID, 1,
+        new InputStreamDataWriter(in), in.getTransferSyntax(), rspAssert);
+    association.waitForOutstandingRSP();
+    association.release();
+    association.waitForSocketClose();
+
+    rspAssert.assertResult();
+  }
+
+  @Test
+  public void testCStoreService_redactAndTranscode_trailingElementsRedacted() throws Exception {
+    ByteArrayOutputStream stowBody = new ByteArrayOutputStream();
+    MockStowClient stowClient = new MockStowClient(false, HttpStatusCodes.STATUS_CODE_OK) {
+      @Override
+      public void stowRs(InputStream in) throws DicomWebException {
+        try {
+          in.transferTo(stowBody);
+        } catch (IOException e) {
+          throw new DicomWebException(e);
+        }
+      }
+    };
+    DicomRedactor redactor = new DicomRedactor(DicomConfig.newBuilder().setRemoveList(
+        DicomConfig.TagFilterList.newBuilder().addTags("PatientName")
+            .addTags("DigitalSignaturesSequence")).build());
+    StreamPipeline streamPipeline = spy(new StreamPipeline());
+    DicomInputStream in =
+        (DicomInputStream) TestUtils.streamDICOMStripHeaders(TestUtils.TEST_MR_FILE);
+    String transferSyntax = in.getTransferSyntax();
+    Attributes original = in.readDataset(-1, -1);
+    // Follows Pixel Data, so that the transcoder copies it without parsing it.
+    Attributes signature = new Attributes();
+    signature.setString(Tag.DigitalSignatureUID, VR.UI, "1.2.3.4");
+    Attributes signed = new Attributes(original);
+    signed.newSequence(Tag.DigitalSignaturesSequence, 1).add(signature);
+    ByteArrayOutputStream instance = new ByteArrayOutputStream();
+    try (DicomOutputStream dos = new DicomOutputStream(instance, transferSyntax)) {
+      dos.writeDataset(null, signed);
+    }
+
+    int serverPort = PortUtil.getFreePort();
+    DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
+    serviceRegistry.addDicomService(new CStoreService(
+        new SingleDestinationClientFactory(ImmutableList.of(), stowClient),
+        new RedactProcessor(redactor, false),
+        UID.DeflatedExplicitVRLittleEndian,
+        null,
+        new CStoreService.Options().streamPipeline(streamPipeline)));
+    Device serverDevice = DeviceUtil.createServerDevice(serverAET, serverPort, serviceRegistry);
+    serverDevice.bindConnections();
+
+    Association association =
+        associate(serverHostname, serverPort, UID.MRImageStorage, transferSyntax);
+    DimseRSPAssert rspAssert = new DimseRSPAssert(association, Status.Success);
+    association.cstore(UID.MRImageStorage, SOP_INSTANCE_UID, 1,
+        new InputStreamDataWriter(new ByteArrayInputStream(instance.toByteArray())),
+        transferSyntax, rspAssert);
+    association.waitForOutstandingRSP();
+    association.release();
+    association.waitForSocketClose();
+    rspAssert.assertResult();
+
+    // Transcoding, which falls back to redacting in a stage of its own, then uploading.
+    verify(streamPipeline, times(2))
+        .process(any(), any(), argThat(processors -> processors.size() == 2));
+    DicomInputStream out = new DicomInputStream(new ByteArrayInputStream(stowBody.toByteArray()));
+    Attributes fmi = out.getFileMetaInformation();
+    Attributes dataset = out.readDataset(-1, -1);
+    assertThat(fmi.getString(Tag.TransferSyntaxUID)).isEqualTo(UID.DeflatedExplicitVRLittleEndian);
+    assertThat(dataset.getString(Tag.SOPInstanceUID))
+        .isNotEqualTo(original.getString(Tag.SOPInstanceUID));
+    assertThat(fmi.getString(Tag.MediaStorageSOPInstanceUID))
+        .isEqualTo(dataset.getString(Tag.SOPInstanceUID));
+    assertThat(dataset.getString(Tag.PatientName, "")).isEmpty();
+    assertThat(dataset.contains(Tag.DigitalSignaturesSequence)).isFalse();
+    assertThat(dataset.getBytes(Tag.PixelData)).isEqualTo(original.getBytes(Tag.PixelData));
+  }
+
   @Test
   public void testCStoreService_map_success() throws Exception {
     basicCStoreServiceTest(
@@ -19,6 +19,8 @@ import static com.google.common.truth.Truth.assertThat;
 import com.google.api.client.util.IOUtils;
 import com.google.cloud.healthcare.imaging.dicomadapter.cstore.DicomStreamUtil;
 import com.google.cloud.healthcare.util.TestUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -49,6 +51,26 @@ public final class DicomStreamUtilTest {
     assertThat(attrs.getString(Tag.TransferSyntaxUID)).isEqualTo(transferSyntax);
   }
 
+  @Test
+  public void testWriteDicomStreamWithFileMetaHeader_sameAsStreamWithFileMetaHeader()
+      throws Exception {
+    byte[] dataset = TestUtils.streamDICOMStripHeaders(TestUtils.TEST_MR_FILE).readAllBytes();
+    String sopClassUID = UID.MRImageStorage;
+    String sopInstanceUID = "1.0.0.0";
+    String transferSyntax = UID.ExplicitVRLittleEndian;
+    ByteArrayOutputStream written = new ByteArrayOutputStream();
+    long datasetBytes =
+        DicomStreamUtil.writeDicomStreamWithFileMetaHeader(
+            sopInstanceUID, sopClassUID, transferSyntax,
+            new FakePDVInputStream(new ByteArrayInputStream(dataset)), written);
+    byte[] expected =
+        DicomStreamUtil.dicomStreamWithFileMetaHeader(
+            sopInstanceUID, sopClassUID, transferSyntax, new ByteArrayInputStream(dataset))
+            .readAllBytes();
+    assertThat(written.toByteArray()).isEqualTo(expected);
+    assertThat(datasetBytes).isEqualTo((long) dataset.length);
+  }
+
   // FakePDVInputStream is an implementation that reads from injected input stream, instead of
   // reading from network for DICOM.
   public static class FakePDVInputStream extends PDVInputStream {
@@ -0,0 +1,201 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.dicomadapter;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.cloud.healthcare.IDicomWebClient;
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.destination.SingleDestinationClientFactory;
+import com.google.cloud.healthcare.imaging.dicomadapter.util.DimseRSPAssert;
+import com.google.cloud.healthcare.imaging.dicomadapter.util.PortUtil;
+import com.google.cloud.healthcare.util.TestUtils;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.InputStreamDataWriter;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.service.DicomServiceRegistry;
+import org.json.JSONArray;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Stores one instance on each of many concurrent associations, with uploads blocking for a while,
+ * and compares the peak number of platform threads with platform and virtual thread executors.
+ *
+ * <p>Only runs on Java 21 or later with -Ddicomadapter.loadTest=true, as it opens thousands of
+ * sockets.
+ */
+@RunWith(JUnit4.class)
+public final class VirtualThreadsLoadTest {
+
+  private static final int ASSOCIATIONS = 1000;
+  private static final long UPLOAD_MILLIS = 500;
+
+  private static final String serverAET = "SERVER";
+  private static final String serverHostname = "localhost";
+
+  private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+  @Before
+  public void setUp() {
+    assumeTrue(Boolean.getBoolean("dicomadapter.loadTest"));
+    assumeTrue(VirtualThreadExecutor.isSupported());
+  }
+
+  @Test
+  public void concurrentAssociations_virtualThreadsUseFewPlatformThreads() throws Exception {
+    ThreadPoolExecutor platformPool =
+        WorkerPools.newBoundedPool("association", 2 * ASSOCIATIONS, 0);
+    int platformPeak;
+    try {
+      platformPeak = runLoad(platformPool);
+    } finally {
+      platformPool.shutdown();
+    }
+    int virtualPeak = runLoad(new VirtualThreadExecutor("association", 2 * ASSOCIATIONS));
+
+    System.out.printf("%d associations: peak platform threads %d with platform threads, "
+        + "%d with virtual threads%n", ASSOCIATIONS, platformPeak, virtualPeak);
+    assertThat(virtualPeak * 4).isLessThan(platformPeak);
+  }
+
+  // Returns the peak number of live platform threads while storing on all associations at once.
+  private int runLoad(Executor serverExecutor) throws Exception {
+    int serverPort = PortUtil.getFreePort();
+    DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
+    serviceRegistry.addDicomService(new CStoreService(
+        new SingleDestinationClientFactory(ImmutableList.of(), new SlowStowClient()),
+        null,
+        null,
+        null));
+    Device serverDevice = DeviceUtil.createServerDevice(serverAET, serverPort, serviceRegistry,
+        1, serverExecutor, 0);
+    serverDevice.bindConnections();
+
+    // Client associations always run on virtual threads, so that only the server side differs.
+    Executor clientExecutor = new VirtualThreadExecutor("client", Integer.MAX_VALUE);
+    ApplicationEntity clientAE = new ApplicationEntity("LOADCLIENT");
+    Connection conn = new Connection();
+    Device clientDevice = new Device("LOADCLIENT");
+    clientDevice.addConnection(conn);
+    clientDevice.addApplicationEntity(clientAE);
+    clientAE.addConnection(conn);
+    clientDevice.setExecutor(clientExecutor);
+    clientDevice.setScheduledExecutor(Executors.newSingleThreadScheduledExecutor());
+
+    try {
+      threadBean.resetPeakThreadCount();
+      List<CompletableFuture<Void>> stores = new ArrayList<>();
+      for (int i = 0; i < ASSOCIATIONS; i++) {
+        String sopInstanceUid = "1.0.0." + i;
+        stores.add(CompletableFuture.runAsync(() -> {
+          try {
+            cstore(clientAE, serverPort, sopInstanceUid);
+          } catch (Exception e) {
+            throw new CompletionException(e);
+          }
+        }, clientExecutor));
+      }
+      CompletableFuture.allOf(stores.toArray(new CompletableFuture[0])).get();
+      return threadBean.getPeakThreadCount();
+    } finally {
+      serverDevice.unbindConnections();
+      clientDevice.getScheduledExecutor().shutdown();
+    }
+  }
+
+  private void cstore(ApplicationEntity clientAE, int serverPort, String sopInstanceUid)
+      throws Exception {
+    DicomInputStream in =
+        (DicomInputStream) TestUtils.streamDICOMStripHeaders(TestUtils.TEST_MR_FILE);
+    AAssociateRQ rq = new AAssociateRQ();
+    rq.addPresentationContext(
+        new PresentationContext(1, UID.MRImageStorage, in.getTransferSyntax()));
+    rq.setCalledAET(serverAET);
+    Connection remoteConn = new Connection();
+    remoteConn.setHostname(serverHostname);
+    remoteConn.setPort(serverPort);
+    Association association = clientAE.connect(remoteConn, rq);
+
+    DimseRSPAssert rspAssert = new DimseRSPAssert(association, Status.Success);
+    association.cstore(UID.MRImageStorage, sopInstanceUid, 1,
+        new InputStreamDataWriter(in), in.getTransferSyntax(), rspAssert);
+    association.waitForOutstandingRSP();
+    association.release();
+    association.waitForSocketClose();
+    rspAssert.assertResult();
+  }
+
+  // Uploads that take a while, as against a remote DICOMweb server.
+  private static class SlowStowClient implements IDicomWebClient {
+
+    @Override
+    public void stowRs(InputStream in) throws DicomWebException {
+      try {
+        in.transferTo(OutputStream.nullOutputStream());
+        Thread.sleep(UPLOAD_MILLIS);
+      } catch (IOException | InterruptedException e) {
+        throw new DicomWebException(e);
+      }
+    }
+
+    @Override
+    public InputStream wadoRs(String path) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public JSONArray qidoRs(String path) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Boolean getStowOverwrite() {
+      return false;
+    }
+
+    @Override
+    public void delete(String path) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete(InputStream stream) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
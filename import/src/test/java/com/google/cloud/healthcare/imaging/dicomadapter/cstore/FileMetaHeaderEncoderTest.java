@@ -0,0 +1,88 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import org.dcm4che3.data.UID;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class FileMetaHeaderEncoderTest {
+
+  private static final String[] SOP_CLASS_UIDS = {
+      UID.MRImageStorage, UID.CTImageStorage, UID.BasicTextSRStorage};
+  private static final String[] TRANSFER_SYNTAXES = {
+      UID.ImplicitVRLittleEndian, UID.ExplicitVRLittleEndian, UID.JPEG2000Lossless,
+      UID.DeflatedExplicitVRLittleEndian};
+  private static final String[] SOP_INSTANCE_UIDS = {
+      "1.0.0.0", "1.0.0.10", "1.2.826.0.1.3680043.8.498.12345678901234567890123456789012345678",
+      "2.25.329800735698586629295641978511506172918"};
+
+  private final FileMetaHeaderEncoder encoder = new FileMetaHeaderEncoder();
+
+  @Test
+  public void encode_sameAsAttributes() throws Exception {
+    // Twice, the second time from the cached templates.
+    for (int pass = 0; pass < 2; pass++) {
+      for (String cuid : SOP_CLASS_UIDS) {
+        for (String ts : TRANSFER_SYNTAXES) {
+          for (String iuid : SOP_INSTANCE_UIDS) {
+            assertThat(encoder.encode(iuid, cuid, ts))
+                .isEqualTo(FileMetaHeaderEncoder.encodeWithAttributes(iuid, cuid, ts));
+          }
+        }
+      }
+    }
+
+    assertThat(encoder.getTemplateCount())
+        .isEqualTo(SOP_CLASS_UIDS.length * TRANSFER_SYNTAXES.length);
+  }
+
+  @Test
+  public void encode_reusesTemplate() throws Exception {
+    encoder.encode("1.0.0.0", UID.MRImageStorage, UID.ExplicitVRLittleEndian);
+    encoder.encode("1.0.0.1", UID.MRImageStorage, UID.ExplicitVRLittleEndian);
+    encoder.encode("1.0.0.2", UID.CTImageStorage, UID.ExplicitVRLittleEndian);
+
+    assertThat(encoder.getTemplateCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void writeTo_sameAsAttributes() throws Exception {
+    for (String iuid : SOP_INSTANCE_UIDS) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      encoder.writeTo(out, iuid, UID.MRImageStorage, UID.ExplicitVRLittleEndian);
+
+      assertThat(out.toByteArray()).isEqualTo(FileMetaHeaderEncoder.encodeWithAttributes(
+          iuid, UID.MRImageStorage, UID.ExplicitVRLittleEndian));
+    }
+  }
+
+  @Test
+  public void encode_uidNotFromTemplate_sameAsAttributes() throws Exception {
+    String longUid = "1.2.826.0.1.3680043.8.498.1234567890123456789012345678901234567890123";
+    String spacedUid = "1.2.3 ";
+
+    for (String iuid : new String[] {longUid, spacedUid}) {
+      assertThat(encoder.encode(iuid, UID.MRImageStorage, UID.ExplicitVRLittleEndian))
+          .isEqualTo(FileMetaHeaderEncoder.encodeWithAttributes(
+              iuid, UID.MRImageStorage, UID.ExplicitVRLittleEndian));
+    }
+  }
+}
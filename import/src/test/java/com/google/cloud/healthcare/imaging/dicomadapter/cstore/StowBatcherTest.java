@@ -0,0 +1,198 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.cloud.healthcare.IDicomWebClient.DicomWebException;
+import com.google.cloud.healthcare.IDicomWebClient.StowBody;
+import com.google.cloud.healthcare.StowResponse;
+import com.google.cloud.healthcare.imaging.dicomadapter.TestUtils.DicomWebClientTestBase;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.pdu.AAssociateAC;
+import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class StowBatcherTest {
+
+  private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+  private final BatchClient client = new BatchClient();
+
+  @After
+  public void tearDown() {
+    timer.shutdownNow();
+  }
+
+  @Test
+  public void add_sentWhenFull_statusPerInstance() throws Exception {
+    client.statuses = Map.of("1.1", Status.Success, "1.2", Status.OutOfResources);
+    StowBatcher batcher = new StowBatcher(3, 1024, TimeUnit.MINUTES.toMillis(1), Runnable::run,
+        timer);
+    Association association = association(1, 0);
+
+    CompletableFuture<Integer> first = batcher.add(association, client, "1.1", 5, body("first"));
+    CompletableFuture<Integer> second = batcher.add(association, client, "1.2", 6, body("second"));
+    assertThat(client.batches).isEmpty();
+    CompletableFuture<Integer> third = batcher.add(association, client, "1.3", 5, body("third"));
+
+    assertThat(client.batches).containsExactly(List.of("first", "second", "third"));
+    assertThat(first.getNow(null)).isEqualTo(Status.Success);
+    assertThat(second.getNow(null)).isEqualTo(Status.OutOfResources);
+    assertThat(third.getNow(null)).isEqualTo(Status.ProcessingFailure);
+  }
+
+  @Test
+  public void add_batchesPerAssociationUpToWindowAndBytes() throws Exception {
+    StowBatcher batcher = new StowBatcher(10, 10, TimeUnit.MINUTES.toMillis(1), Runnable::run,
+        timer);
+    Association windowOfTwo = association(1, 2);
+    Association other = association(2, 0);
+
+    batcher.add(windowOfTwo, client, "1.1", 1, body("a1"));
+    batcher.add(other, client, "2.1", 1, body("b1"));
+    batcher.add(windowOfTwo, client, "1.2", 1, body("a2"));
+    batcher.add(other, client, "2.2", 10, body("b2"));
+
+    assertThat(client.batches)
+        .containsExactly(List.of("a1", "a2"), List.of("b1", "b2")).inOrder();
+  }
+
+  @Test
+  public void add_sameInstanceTwice_sentInSeparateBatches() throws Exception {
+    StowBatcher batcher = new StowBatcher(2, 1024, TimeUnit.MINUTES.toMillis(1), Runnable::run,
+        timer);
+    Association association = association(1, 0);
+
+    batcher.add(association, client, "1.1", 1, body("first"));
+    batcher.add(association, client, "1.1", 1, body("again"));
+    batcher.add(association, client, "1.2", 1, body("second"));
+
+    assertThat(client.batches)
+        .containsExactly(List.of("first"), List.of("again", "second")).inOrder();
+  }
+
+  @Test
+  public void add_sentAfterDelay() throws Exception {
+    StowBatcher batcher = new StowBatcher(10, 1024, 10, Runnable::run, timer);
+
+    CompletableFuture<Integer> status =
+        batcher.add(association(1, 0), client, "1.1", 1, body("first"));
+
+    assertThat(status.get(10, TimeUnit.SECONDS)).isEqualTo(Status.Success);
+    assertThat(client.batches).containsExactly(List.of("first"));
+  }
+
+  @Test
+  public void add_requestFailed_statusOfAllInstances() throws Exception {
+    client.error = new DicomWebException("unavailable", 503, Status.ProcessingFailure);
+    StowBatcher batcher = new StowBatcher(2, 1024, TimeUnit.MINUTES.toMillis(1), Runnable::run,
+        timer);
+    Association association = association(1, 0);
+
+    CompletableFuture<Integer> first = batcher.add(association, client, "1.1", 1, body("first"));
+    CompletableFuture<Integer> second = batcher.add(association, client, "1.2", 1, body("second"));
+
+    assertThat(first.getNow(null)).isEqualTo(Status.OutOfResources);
+    assertThat(second.getNow(null)).isEqualTo(Status.OutOfResources);
+  }
+
+  @Test
+  public void add_requestThrewError_allInstancesCompleted() throws Exception {
+    client.fatal = new StackOverflowError();
+    StowBatcher batcher = new StowBatcher(2, 1024, TimeUnit.MINUTES.toMillis(1), Runnable::run,
+        timer);
+    Association association = association(1, 0);
+
+    CompletableFuture<Integer> first = batcher.add(association, client, "1.1", 1, body("first"));
+    try {
+      batcher.add(association, client, "1.2", 1, body("second"));
+      fail("expected StackOverflowError");
+    } catch (StackOverflowError e) {
+      // expected
+    }
+
+    assertThat(first.getNow(null)).isEqualTo(Status.ProcessingFailure);
+  }
+
+  private static Association association(int serialNo, int maxOpsInvoked) {
+    AAssociateAC ac = new AAssociateAC();
+    ac.setMaxOpsInvoked(maxOpsInvoked);
+    Association association = mock(Association.class);
+    when(association.getSerialNo()).thenReturn(serialNo);
+    when(association.getAAssociateAC()).thenReturn(ac);
+    return association;
+  }
+
+  private static StowBody body(String content) {
+    return out -> out.write(content.getBytes());
+  }
+
+  // Records the bodies of each batch, and answers with statuses, the others failed, unless it
+  // throws error or fatal.
+  private static class BatchClient extends DicomWebClientTestBase {
+
+    private final List<List<String>> batches = new ArrayList<>();
+    private Map<String, Integer> statuses;
+    private DicomWebException error;
+    private Error fatal;
+
+    @Override
+    public JSONArray qidoRs(String path) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public synchronized StowResponse stowRs(Map<String, StowBody> instances)
+        throws DicomWebException {
+      List<String> batch = new ArrayList<>();
+      for (StowBody body : instances.values()) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+          body.writeTo(out);
+        } catch (IOException e) {
+          throw new DicomWebException(e);
+        }
+        batch.add(out.toString());
+      }
+      batches.add(batch);
+      if (error != null) {
+        throw error;
+      }
+      if (fatal != null) {
+        throw fatal;
+      }
+      return statuses != null
+          ? new StowResponse(statuses, Status.ProcessingFailure)
+          : new StowResponse(Map.of(), Status.Success);
+    }
+  }
+}
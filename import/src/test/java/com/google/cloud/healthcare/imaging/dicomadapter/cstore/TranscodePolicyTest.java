@@ -0,0 +1,80 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.json.JSONArray;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TranscodePolicyTest {
+
+  private static final String JPEG_2000_LOSSLESS = "1.2.840.10008.1.2.4.90";
+
+  private static final String JSON = "["
+      + "{'sop_class_uids': ['" + UID.BasicTextSRStorage + "'], 'transfer_syntax': 'PASS_THROUGH'},"
+      + "{'source_transfer_syntaxes': ['" + UID.JPEGBaseline8Bit + "'],"
+      + " 'transfer_syntax': 'PASS_THROUGH'},"
+      + "{'calling_aets': ['CT1'], 'min_pixels': 1000, 'transfer_syntax': '" + JPEG_2000_LOSSLESS
+      + "'},"
+      + "{'max_pixels': 999, 'transfer_syntax': '" + UID.DeflatedExplicitVRLittleEndian + "'}"
+      + "]";
+
+  private final TranscodePolicy policy = new TranscodePolicy(new JSONArray(JSON));
+
+  @Test
+  public void select_firstMatchingRule() {
+    assertThat(policy.select("CT1", UID.BasicTextSRStorage, UID.ExplicitVRLittleEndian,
+        image(100, 100))).isEqualTo(TranscodePolicy.PASS_THROUGH);
+    assertThat(policy.select("CT1", UID.CTImageStorage, UID.JPEGBaseline8Bit, image(100, 100)))
+        .isEqualTo(TranscodePolicy.PASS_THROUGH);
+    assertThat(policy.select("CT1", UID.CTImageStorage, UID.ExplicitVRLittleEndian,
+        image(100, 100))).isEqualTo(JPEG_2000_LOSSLESS);
+  }
+
+  @Test
+  public void select_pixelBounds() {
+    assertThat(policy.select("CT1", UID.CTImageStorage, UID.ExplicitVRLittleEndian,
+        image(10, 10))).isEqualTo(UID.DeflatedExplicitVRLittleEndian);
+    assertThat(policy.select("MR1", UID.CTImageStorage, UID.ExplicitVRLittleEndian,
+        image(100, 100))).isNull();
+  }
+
+  @Test
+  public void select_noAttributes_pixelRulesDoNotMatch() {
+    assertThat(policy.select("CT1", UID.CTImageStorage, UID.ExplicitVRLittleEndian, null))
+        .isNull();
+  }
+
+  @Test
+  public void getAttributeTags_onlyForPixelRules() {
+    assertThat(policy.getAttributeTags())
+        .containsExactly(Tag.Rows, Tag.Columns, Tag.NumberOfFrames);
+    assertThat(new TranscodePolicy(new JSONArray(
+        "[{'calling_aets': ['CT1'], 'transfer_syntax': 'PASS_THROUGH'}]")).getAttributeTags())
+        .isEmpty();
+  }
+
+  @Test
+  public void invalidKey_exceptionThrown() {
+    try {
+      new TranscodePolicy(new JSONArray("[{'modality': 'CT', 'transfer_syntax': 'PASS_THROUGH'}]"));
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessageThat().contains("modality");
+    }
+  }
+
+  private static Attributes image(int rows, int columns) {
+    Attributes attrs = new Attributes();
+    attrs.setInt(Tag.Rows, VR.US, rows);
+    attrs.setInt(Tag.Columns, VR.US, columns);
+    return attrs;
+  }
+}
@@ -29,6 +29,7 @@ import static org.mockito.Mockito.spy;
 
 public class DestinationClientFactoryTest {
 
+  private final String SOP_INSTANCE_UID = "1.0.0.0";
   private final String DEFAULT_DESTINATION_CONFIG_FILTER = "SOPInstanceUID=1.0.0.0&StudyDate=18921109";
   private final String DESTINATION_CONFIG_FILTER_WITH_AE_TITLE_FIRST = "AETitle=testCallingAet1&SOPInstanceUID=1.0.0.0";
   private final String DESTINATION_CONFIG_FILTER_WITH_AE_TITLE_SECOND = "AETitle=testCallingAet2&SOPInstanceUID=1.0.0.0";
@@ -92,6 +93,8 @@ public class DestinationClientFactoryTest {
 
     doReturn(dicomInputStreamMock).when(destinationFactorySpy).createDicomInputStream(anyString(), any(InputStream.class));
     doReturn(attributesMock).when(dicomInputStreamMock).readDataset(anyInt(), anyInt());
+    // Values the routing index looks filters up by.
+    doReturn(new String[] {SOP_INSTANCE_UID}).when(attributesMock).getStrings(anyInt());
     doReturn(true).when(attributesMock).matches(any(Attributes.class), anyBoolean(), anyBoolean());
 
     DestinationHolder destinationHolder = destinationFactorySpy.create(CALLING_AE_TITLE_FIRST, DEFAULT_TRANSFER_SYNTAX, inputStream);
@@ -140,6 +143,8 @@ public class DestinationClientFactoryTest {
 
     doReturn(dicomInputStreamMock).when(destinationFactorySpy).createDicomInputStream(anyString(), any(InputStream.class));
     doReturn(attributesMock).when(dicomInputStreamMock).readDataset(anyInt(), anyInt());
+    // Values the routing index looks filters up by.
+    doReturn(new String[] {SOP_INSTANCE_UID}).when(attributesMock).getStrings(anyInt());
     doReturn(true).when(attributesMock).matches(any(Attributes.class), anyBoolean(), anyBoolean());
 
     DestinationHolder destinationHolder = destinationFactorySpy.create(CALLING_AE_TITLE_FIRST, DEFAULT_TRANSFER_SYNTAX, inputStream);
@@ -163,6 +168,8 @@ public class DestinationClientFactoryTest {
 
     doReturn(dicomInputStreamMock).when(destinationFactorySpy).createDicomInputStream(anyString(), any(InputStream.class));
     doReturn(attributesMock).when(dicomInputStreamMock).readDataset(anyInt(), anyInt());
+    // Values the routing index looks filters up by.
+    doReturn(new String[] {SOP_INSTANCE_UID}).when(attributesMock).getStrings(anyInt());
     doReturn(false)
         .doReturn(true).when(attributesMock).matches(any(Attributes.class), anyBoolean(), anyBoolean());
 
@@ -188,6 +195,8 @@ public class DestinationClientFactoryTest {
 
     doReturn(dicomInputStreamMock).when(destinationFactorySpy).createDicomInputStream(anyString(), any(InputStream.class));
     doReturn(attributesMock).when(dicomInputStreamMock).readDataset(anyInt(), anyInt());
+    // Values the routing index looks filters up by.
+    doReturn(new String[] {SOP_INSTANCE_UID}).when(attributesMock).getStrings(anyInt());
     doReturn(false)
         .doReturn(true).when(attributesMock).matches(any(Attributes.class), anyBoolean(), anyBoolean());
 
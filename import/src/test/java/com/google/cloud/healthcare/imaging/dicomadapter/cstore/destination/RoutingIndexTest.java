@@ -0,0 +1,107 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore.destination;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.cloud.healthcare.imaging.dicomadapter.DestinationFilter;
+import com.google.cloud.healthcare.imaging.dicomadapter.ImportAdapter.Pair;
+import com.google.common.collect.ImmutableList;
+import java.util.Random;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class RoutingIndexTest {
+
+  private static final String[] AETS = {"CT1", "MR1", "US1"};
+  private static final String[] MODALITIES = {"CT", "MR", "US", "OT"};
+  private static final String[] STATIONS = {"STATION1", "STATION2", "STATION3"};
+
+  @Test
+  public void firstMatch_exactWildcardAndAetFilters() {
+    RoutingIndex<String> index = new RoutingIndex<>(ImmutableList.of(
+        new Pair<>(new DestinationFilter("AETitle=CT1&Modality=MR"), "ct1-mr"),
+        new Pair<>(new DestinationFilter("StationName=STATION*"), "station"),
+        new Pair<>(new DestinationFilter("Modality=CT"), "ct"),
+        new Pair<>(new DestinationFilter(""), "default")));
+
+    assertThat(index.firstMatch("CT1", attrs("MR", "STATION1"))).isEqualTo("ct1-mr");
+    assertThat(index.firstMatch("MR1", attrs("MR", "STATION1"))).isEqualTo("station");
+    assertThat(index.firstMatch("MR1", attrs("CT", "OTHER"))).isEqualTo("ct");
+    assertThat(index.firstMatch("MR1", attrs("US", "OTHER"))).isEqualTo("default");
+  }
+
+  @Test
+  public void allMatches_inDestinationOrder() {
+    RoutingIndex<String> index = new RoutingIndex<>(ImmutableList.of(
+        new Pair<>(new DestinationFilter("Modality=CT&StationName=STATION1"), "first"),
+        new Pair<>(new DestinationFilter("AETitle=CT1"), "second"),
+        new Pair<>(new DestinationFilter("Modality=CT"), "third"),
+        new Pair<>(new DestinationFilter("Modality=MR"), "fourth"),
+        new Pair<>(new DestinationFilter("Modality=CT"), "third")));
+
+    assertThat(index.allMatches("CT1", attrs("CT", "STATION1")))
+        .containsExactly("first", "second", "third", "third").inOrder();
+    assertThat(index.firstMatch("US1", attrs("OT", "STATION1"))).isNull();
+  }
+
+  @Test
+  public void randomFilters_sameAsTestingEveryFilter() {
+    Random random = new Random(0);
+    ImmutableList.Builder<Pair<DestinationFilter, Integer>> builder = ImmutableList.builder();
+    for (int i = 0; i < 200; i++) {
+      builder.add(new Pair<>(new DestinationFilter(randomFilter(random)), i));
+    }
+    ImmutableList<Pair<DestinationFilter, Integer>> destinations = builder.build();
+    RoutingIndex<Integer> index = new RoutingIndex<>(destinations);
+
+    for (int i = 0; i < 500; i++) {
+      String callingAet = AETS[random.nextInt(AETS.length)];
+      Attributes attrs = attrs(MODALITIES[random.nextInt(MODALITIES.length)],
+          STATIONS[random.nextInt(STATIONS.length)]);
+      ImmutableList.Builder<Integer> expected = ImmutableList.builder();
+      for (Pair<DestinationFilter, Integer> destination : destinations) {
+        if (destination.getLeft().matches(callingAet, attrs)) {
+          expected.add(destination.getRight());
+        }
+      }
+
+      ImmutableList<Integer> matches = index.allMatches(callingAet, attrs);
+
+      assertThat(matches).containsExactlyElementsIn(expected.build()).inOrder();
+      assertThat(index.firstMatch(callingAet, attrs))
+          .isEqualTo(matches.isEmpty() ? null : matches.get(0));
+    }
+  }
+
+  private static String randomFilter(Random random) {
+    StringBuilder filter = new StringBuilder();
+    if (random.nextBoolean()) {
+      filter.append("AETitle=").append(AETS[random.nextInt(AETS.length)]).append('&');
+    }
+    if (random.nextBoolean()) {
+      filter.append("Modality=").append(MODALITIES[random.nextInt(MODALITIES.length)]).append('&');
+    }
+    switch (random.nextInt(3)) {
+      case 0:
+        filter.append("StationName=").append(STATIONS[random.nextInt(STATIONS.length)]);
+        break;
+      case 1:
+        filter.append("StationName=STATION?");
+        break;
+      default:
+        break;
+    }
+    return filter.toString().replaceAll("&$", "");
+  }
+
+  private static Attributes attrs(String modality, String stationName) {
+    Attributes attrs = new Attributes();
+    attrs.setString(Tag.Modality, VR.CS, modality);
+    attrs.setString(Tag.StationName, VR.SH, stationName);
+    return attrs;
+  }
+}
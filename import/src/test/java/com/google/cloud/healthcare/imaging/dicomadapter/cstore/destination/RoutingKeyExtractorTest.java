@@ -0,0 +1,158 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore.destination;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.service.DicomServiceException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class RoutingKeyExtractorTest {
+
+  private static final int PRIVATE_TAG = 0x00091010;
+  private static final int PRIVATE_LENGTH = 1024 * 1024;
+
+  @Test
+  public void getStopTag_followsHighestKey() {
+    RoutingKeyExtractor extractor = new RoutingKeyExtractor(1024);
+    extractor.addKeys(Tag.PatientID, Tag.StudyDate);
+
+    assertThat(extractor.hasKeys()).isTrue();
+    assertThat(extractor.getStopTag()).isEqualTo(Tag.PatientID + 1);
+
+    extractor.addKeys(Tag.PixelData);
+
+    assertThat(extractor.getStopTag()).isEqualTo(Tag.PixelData);
+  }
+
+  @Test
+  public void readKeys_stopsBeforeLargeHeader_replaysInstance() throws Exception {
+    byte[] instance = instance();
+    RoutingKeyExtractor extractor = new RoutingKeyExtractor(64 * 1024);
+    extractor.addKeys(Tag.StudyDate);
+
+    RoutingKeyExtractor.HeaderRecorder recorder =
+        extractor.record(new ByteArrayInputStream(instance));
+    Attributes attrs = extractor.readKeys(dicomInputStream(recorder));
+    InputStream replayed = recorder.replay();
+
+    assertThat(attrs.getString(Tag.StudyDate)).isEqualTo("18921109");
+    assertThat(attrs.contains(Tag.PatientID)).isFalse();
+    assertThat(recorder.getCount()).isLessThan(PRIVATE_LENGTH);
+    assertThat(replayed.readAllBytes()).isEqualTo(instance);
+  }
+
+  @Test
+  public void readKeys_keysBeyondLimit_outOfResources() throws Exception {
+    RoutingKeyExtractor extractor = new RoutingKeyExtractor(64 * 1024);
+    extractor.addKeys(Tag.PatientID);
+
+    RoutingKeyExtractor.HeaderRecorder recorder =
+        extractor.record(new ByteArrayInputStream(instance()));
+    try {
+      extractor.readKeys(dicomInputStream(recorder));
+      fail("expected exception");
+    } catch (DicomServiceException e) {
+      assertThat(e.getStatus()).isEqualTo(Status.OutOfResources);
+    }
+  }
+
+  @Test
+  public void skip_recordsSkippedBytes() throws Exception {
+    byte[] bytes = new byte[32 * 1024];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) i;
+    }
+    RoutingKeyExtractor extractor = new RoutingKeyExtractor(64 * 1024);
+
+    try (RoutingKeyExtractor.HeaderRecorder recorder =
+        extractor.record(new ByteArrayInputStream(bytes))) {
+      long skipped = 0;
+      while (skipped < 20000) {
+        skipped += recorder.skip(20000 - skipped);
+      }
+
+      assertThat(recorder.getCount()).isEqualTo(20000);
+      assertThat(recorder.replay().readAllBytes()).isEqualTo(bytes);
+    }
+  }
+
+  @Test
+  public void replay_readsRecordingThenRest() throws Exception {
+    byte[] bytes = new byte[200];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) i;
+    }
+    RoutingKeyExtractor extractor = new RoutingKeyExtractor(1024);
+
+    try (RoutingKeyExtractor.HeaderRecorder recorder =
+        extractor.record(new ByteArrayInputStream(bytes))) {
+      assertThat(recorder.readNBytes(100)).hasLength(100);
+      InputStream replayed = recorder.replay();
+
+      assertThat(replayed.skip(50)).isEqualTo(50);
+      assertThat(replayed.read()).isEqualTo(50);
+      byte[] rest = new byte[200];
+      // Reads stop at the end of the recording, then go on with the underlying stream.
+      assertThat(replayed.read(rest, 0, rest.length)).isEqualTo(49);
+      assertThat(replayed.readAllBytes()).hasLength(100);
+      assertThat(replayed.read()).isEqualTo(-1);
+      try {
+        recorder.replay();
+        fail("expected IllegalStateException");
+      } catch (IllegalStateException expected) {
+      }
+    }
+  }
+
+  @Test
+  public void skip_beyondLimit_outOfResources() throws Exception {
+    RoutingKeyExtractor extractor = new RoutingKeyExtractor(16);
+
+    try (RoutingKeyExtractor.HeaderRecorder recorder =
+        extractor.record(new ByteArrayInputStream(new byte[32]))) {
+      assertThat(recorder.skip(32)).isEqualTo(16);
+      try {
+        recorder.skip(1);
+        fail("expected exception");
+      } catch (DicomServiceException e) {
+        assertThat(e.getStatus()).isEqualTo(Status.OutOfResources);
+      }
+    }
+  }
+
+  private static DicomInputStream dicomInputStream(InputStream in) throws IOException {
+    return new DicomInputStream(new BufferedInputStream(in), UID.ExplicitVRLittleEndian);
+  }
+
+  // Dataset with a large private attribute between StudyDate and PatientID.
+  private static byte[] instance() throws IOException {
+    Attributes dataset = new Attributes();
+    dataset.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4");
+    dataset.setString(Tag.StudyDate, VR.DA, "18921109");
+    dataset.setString(0x00090010, VR.LO, "TEST");
+    dataset.setBytes(PRIVATE_TAG, VR.OB, new byte[PRIVATE_LENGTH]);
+    dataset.setString(Tag.PatientID, VR.LO, "patient");
+    dataset.setBytes(Tag.PixelData, VR.OB, new byte[16]);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DicomOutputStream out = new DicomOutputStream(bytes, UID.ExplicitVRLittleEndian)) {
+      out.writeDataset(null, dataset);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,87 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline.ChunkPool.Chunk;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ChunkPipeTest {
+
+  private static final int CHUNK_SIZE = 16;
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void readerClosesMidStream_chunksReturnedToPool() throws Exception {
+    RecordingPool pool = new RecordingPool();
+    ChunkPipe pipe = new ChunkPipe(pool, 2);
+    ChunkPipe.Sink sink = pipe.sink();
+    ChunkPipe.Source source = pipe.source();
+
+    sink.write(new byte[CHUNK_SIZE]);
+    assertThat(source.read()).isEqualTo(0);
+    source.close();
+    try {
+      sink.write(new byte[CHUNK_SIZE]);
+      fail("expected PipeBrokenException");
+    } catch (ChunkPipe.PipeBrokenException e) {
+      sink.abort(e);
+    }
+
+    assertThat(pool.getPooledCount()).isEqualTo(pool.acquired.size());
+  }
+
+  @Test
+  public void readerReadsToEnd_chunksReturnedToPool() throws Exception {
+    RecordingPool pool = new RecordingPool();
+    ChunkPipe pipe = new ChunkPipe(pool, 2);
+    Future<?> writer = executor.submit(() -> {
+      try (ChunkPipe.Sink sink = pipe.sink()) {
+        sink.write(new byte[CHUNK_SIZE * 5 + 3]);
+      }
+      return null;
+    });
+
+    ChunkPipe.Source source = pipe.source();
+    assertThat(source.readAllBytes()).hasLength(CHUNK_SIZE * 5 + 3);
+    source.close();
+    writer.get(10, TimeUnit.SECONDS);
+
+    assertThat(pool.getPooledCount()).isEqualTo(pool.acquired.size());
+  }
+
+  // Remembers every chunk handed out, so that all of them can be expected back.
+  private static class RecordingPool extends ChunkPool {
+
+    private final Set<Chunk> acquired = Collections.synchronizedSet(
+        Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    RecordingPool() {
+      super(CHUNK_SIZE, 100);
+    }
+
+    @Override
+    public Chunk acquire() {
+      Chunk chunk = super.acquire();
+      acquired.add(chunk);
+      return chunk;
+    }
+  }
+}
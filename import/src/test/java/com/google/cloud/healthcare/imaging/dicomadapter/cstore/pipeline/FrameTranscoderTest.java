@@ -0,0 +1,188 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class FrameTranscoderTest {
+
+  private static final String JPEG_2000_LOSSLESS = "1.2.840.10008.1.2.4.90";
+  private static final int ROWS = 16;
+  private static final int COLUMNS = 12;
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void transcode_multiFrame_fragmentsInFrameOrder() throws Exception {
+    int frames = 9;
+    FrameTranscoder transcoder = new FrameTranscoder(executor, 2);
+
+    Attributes dataset = transcode(transcoder, instance(frames));
+
+    Fragments fragments = (Fragments) dataset.getValue(Tag.PixelData);
+    // Basic Offset Table, then one fragment per frame.
+    assertThat(fragments).hasSize(frames + 1);
+    for (int frame = 0; frame < frames; frame++) {
+      Raster raster = decodeJpeg2000((byte[]) fragments.get(frame + 1));
+      for (int i = 0; i < ROWS * COLUMNS; i++) {
+        assertThat(raster.getSample(i % COLUMNS, i / COLUMNS, 0)).isEqualTo(pixel(frame, i));
+      }
+    }
+    assertThat(dataset.getString(Tag.SOPInstanceUID)).isEqualTo("1.2.3.4");
+  }
+
+  @Test
+  public void transcode_singleFrame_transcodedSequentially() throws Exception {
+    FrameTranscoder transcoder = new FrameTranscoder(executor, 2);
+
+    Attributes dataset = transcode(transcoder, instance(1));
+
+    Fragments fragments = (Fragments) dataset.getValue(Tag.PixelData);
+    assertThat(fragments).hasSize(2);
+    Raster raster = decodeJpeg2000((byte[]) fragments.get(1));
+    assertThat(raster.getSample(3, 1, 0)).isEqualTo(pixel(0, COLUMNS + 3));
+  }
+
+  @Test
+  public void transcode_multiFrameRle_fragmentsInFrameOrder() throws Exception {
+    int frames = 3;
+    FrameTranscoder transcoder = new FrameTranscoder(executor, 2);
+
+    Attributes dataset = transcode(transcoder, instance(frames), UID.RLELossless);
+
+    Fragments fragments = (Fragments) dataset.getValue(Tag.PixelData);
+    assertThat(fragments).hasSize(frames + 1);
+    for (int frame = 0; frame < frames; frame++) {
+      byte[] fragment = (byte[]) fragments.get(frame + 1);
+      // 2 segments, the high then the low bytes of the 16 bit samples.
+      assertThat(fragment[0]).isEqualTo(2);
+      byte[] highBytes = decodeRleSegment(fragment, 0);
+      byte[] lowBytes = decodeRleSegment(fragment, 1);
+      for (int i = 0; i < ROWS * COLUMNS; i++) {
+        assertThat((highBytes[i] & 0xFF) << 8 | (lowBytes[i] & 0xFF)).isEqualTo(pixel(frame, i));
+      }
+    }
+  }
+
+  @Test
+  public void transcode_deflate_datasetUnchanged() throws Exception {
+    FrameTranscoder transcoder = new FrameTranscoder(executor, 2, Deflater.BEST_SPEED);
+    byte[] instance = instance(2);
+
+    Attributes dataset = transcode(transcoder, instance, UID.DeflatedExplicitVRLittleEndian);
+
+    DicomInputStream in = new DicomInputStream(new ByteArrayInputStream(instance));
+    in.getFileMetaInformation();
+    assertThat(dataset).isEqualTo(in.readDataset(-1, -1));
+  }
+
+  private static Attributes transcode(FrameTranscoder transcoder, byte[] instance)
+      throws Exception {
+    return transcode(transcoder, instance, JPEG_2000_LOSSLESS);
+  }
+
+  private static Attributes transcode(FrameTranscoder transcoder, byte[] instance,
+      String transferSyntax) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    transcoder.transcode(new ByteArrayInputStream(instance), out, transferSyntax);
+
+    DicomInputStream in = new DicomInputStream(new ByteArrayInputStream(out.toByteArray()));
+    assertThat(in.getFileMetaInformation().getString(Tag.TransferSyntaxUID))
+        .isEqualTo(transferSyntax);
+    return in.readDataset(-1, -1);
+  }
+
+  private static byte[] decodeRleSegment(byte[] fragment, int segment) {
+    ByteBuffer header = ByteBuffer.wrap(fragment).order(ByteOrder.LITTLE_ENDIAN);
+    int offset = header.getInt(4 * (segment + 1));
+    byte[] decoded = new byte[ROWS * COLUMNS];
+    int pos = 0;
+    while (pos < decoded.length) {
+      int n = fragment[offset++];
+      if (n >= 0) {
+        System.arraycopy(fragment, offset, decoded, pos, n + 1);
+        offset += n + 1;
+        pos += n + 1;
+      } else if (n != -128) {
+        Arrays.fill(decoded, pos, pos + 1 - n, fragment[offset++]);
+        pos += 1 - n;
+      }
+    }
+    return decoded;
+  }
+
+  // 12 bit unsigned samples, distinct for each frame and pixel.
+  private static int pixel(int frame, int i) {
+    return (frame * 397 + i * 13) & 0xFFF;
+  }
+
+  private static byte[] instance(int frames) throws Exception {
+    Attributes dataset = new Attributes();
+    dataset.setString(Tag.SOPClassUID, VR.UI, UID.EnhancedMRImageStorage);
+    dataset.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4");
+    dataset.setInt(Tag.SamplesPerPixel, VR.US, 1);
+    dataset.setString(Tag.PhotometricInterpretation, VR.CS, "MONOCHROME2");
+    dataset.setInt(Tag.NumberOfFrames, VR.IS, frames);
+    dataset.setInt(Tag.Rows, VR.US, ROWS);
+    dataset.setInt(Tag.Columns, VR.US, COLUMNS);
+    dataset.setInt(Tag.BitsAllocated, VR.US, 16);
+    dataset.setInt(Tag.BitsStored, VR.US, 12);
+    dataset.setInt(Tag.HighBit, VR.US, 11);
+    dataset.setInt(Tag.PixelRepresentation, VR.US, 0);
+    byte[] pixelData = new byte[frames * ROWS * COLUMNS * 2];
+    for (int frame = 0; frame < frames; frame++) {
+      for (int i = 0; i < ROWS * COLUMNS; i++) {
+        int offset = 2 * (frame * ROWS * COLUMNS + i);
+        pixelData[offset] = (byte) pixel(frame, i);
+        pixelData[offset + 1] = (byte) (pixel(frame, i) >> 8);
+      }
+    }
+    dataset.setBytes(Tag.PixelData, VR.OW, pixelData);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DicomOutputStream out = new DicomOutputStream(bytes, UID.ExplicitVRLittleEndian)) {
+      out.writeDataset(dataset.createFileMetaInformation(UID.ExplicitVRLittleEndian), dataset);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static Raster decodeJpeg2000(byte[] fragment) throws Exception {
+    Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("jpeg2000");
+    ImageReader reader = readers.next();
+    try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(fragment))) {
+      reader.setInput(in);
+      return reader.readRaster(0, null);
+    } finally {
+      reader.dispose();
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class StreamPipelineTest {
+
+  private static final int CHUNK_SIZE = 1024;
+  private static final int QUEUE_DEPTH = 2;
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void process_passesBytesThroughAllStages() throws Throwable {
+    byte[] data = randomBytes(CHUNK_SIZE * 10 + 17);
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    StreamPipeline pipeline = new StreamPipeline(CHUNK_SIZE, QUEUE_DEPTH);
+
+    pipeline.process(executor, new ByteArrayInputStream(data), Arrays.asList(
+        (in, out) -> in.transferTo(out),
+        (in, out) -> {
+          int b;
+          while ((b = in.read()) != -1) {
+            out.write(b);
+          }
+        },
+        (in, out) -> in.transferTo(result)));
+
+    assertThat(result.toByteArray()).isEqualTo(data);
+    assertThat(pipeline.getChunkPool().getPooledCount()).isGreaterThan(0);
+  }
+
+  @Test
+  public void process_emptyInput() throws Throwable {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+
+    new StreamPipeline(CHUNK_SIZE, QUEUE_DEPTH).process(executor,
+        new ByteArrayInputStream(new byte[0]), Arrays.asList(
+            (in, out) -> in.transferTo(out),
+            (in, out) -> in.transferTo(result)));
+
+    assertThat(result.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void process_lastStageFails_throwsItsException() throws Throwable {
+    IllegalStateException expected = new IllegalStateException("upload failed");
+    StreamPipeline pipeline = new StreamPipeline(CHUNK_SIZE, QUEUE_DEPTH);
+
+    try {
+      // input is much larger than the pipes can hold, so the head copy must be unblocked
+      pipeline.process(executor, new ByteArrayInputStream(randomBytes(CHUNK_SIZE * 100)),
+          Arrays.asList(
+              (in, out) -> in.transferTo(out),
+              (in, out) -> {
+                throw expected;
+              }));
+      fail("expected exception");
+    } catch (IllegalStateException e) {
+      assertThat(e).isSameInstanceAs(expected);
+    }
+  }
+
+  @Test
+  public void process_firstStageFails_throwsItsException() throws Throwable {
+    IOException expected = new IOException("redaction failed");
+    StreamPipeline pipeline = new StreamPipeline(CHUNK_SIZE, QUEUE_DEPTH);
+
+    try {
+      pipeline.process(executor, new ByteArrayInputStream(randomBytes(CHUNK_SIZE * 100)),
+          Arrays.asList(
+              (in, out) -> {
+                in.readNBytes(CHUNK_SIZE);
+                throw expected;
+              },
+              (in, out) -> in.transferTo(new ByteArrayOutputStream())));
+      fail("expected exception");
+    } catch (IOException e) {
+      assertThat(e).isSameInstanceAs(expected);
+    }
+  }
+
+  @Test
+  public void process_sourceFails_propagatesToStages() throws Throwable {
+    IOException expected = new IOException("association aborted");
+    InputStream failingInput = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw expected;
+      }
+    };
+
+    try {
+      new StreamPipeline(CHUNK_SIZE, QUEUE_DEPTH).process(executor, failingInput, Arrays.asList(
+          (in, out) -> in.transferTo(out),
+          (in, out) -> in.transferTo(new ByteArrayOutputStream())));
+      fail("expected exception");
+    } catch (ChunkPipe.PipeBrokenException e) {
+      assertThat(e).hasCauseThat().isSameInstanceAs(expected);
+    }
+  }
+
+  @Test
+  public void process_singleStage_runsOnCallingThread() throws Throwable {
+    Thread caller = Thread.currentThread();
+    Thread[] runner = new Thread[1];
+
+    new StreamPipeline(CHUNK_SIZE, QUEUE_DEPTH).process(executor,
+        new ByteArrayInputStream(new byte[1]), Arrays.asList(
+            (in, out) -> runner[0] = Thread.currentThread()));
+
+    assertThat(runner[0]).isSameInstanceAs(caller);
+  }
+
+  private static byte[] randomBytes(int size) {
+    byte[] data = new byte[size];
+    new Random(size).nextBytes(data);
+    return data;
+  }
+}
@@ -0,0 +1,170 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.cloud.healthcare.imaging.dicomadapter.cstore.pipeline.TranscodeScheduler.SaturationPolicy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TranscodeSchedulerTest {
+
+  // One transcoding thread, kept busy by a first job until released.
+  private final ExecutorService transcodeThread = Executors.newSingleThreadExecutor();
+  private final ExecutorService submitters = Executors.newCachedThreadPool();
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final List<String> ran = Collections.synchronizedList(new ArrayList<>());
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    transcodeThread.shutdownNow();
+    submitters.shutdownNow();
+  }
+
+  @Test
+  public void run_takesAssociationsInTurn() throws Exception {
+    TranscodeScheduler scheduler =
+        new TranscodeScheduler(transcodeThread, 10, SaturationPolicy.REJECT);
+    CompletableFuture<Boolean> blocking = submitBlocking(scheduler);
+    List<CompletableFuture<Boolean>> jobs = new ArrayList<>();
+    jobs.add(submit(scheduler, 1, "A2", 1));
+    jobs.add(submit(scheduler, 1, "A3", 2));
+    jobs.add(submit(scheduler, 1, "A4", 3));
+    jobs.add(submit(scheduler, 2, "B1", 4));
+
+    release.countDown();
+    assertThat(blocking.get(10, TimeUnit.SECONDS)).isTrue();
+    for (CompletableFuture<Boolean> job : jobs) {
+      assertThat(job.get(10, TimeUnit.SECONDS)).isTrue();
+    }
+    assertThat(ran).containsExactly("A1", "A2", "B1", "A3", "A4").inOrder();
+  }
+
+  @Test
+  public void run_queueFull_reject() throws Exception {
+    TranscodeScheduler scheduler =
+        new TranscodeScheduler(transcodeThread, 1, SaturationPolicy.REJECT);
+    submitBlocking(scheduler);
+    submit(scheduler, 2, "B1", 1);
+
+    try {
+      scheduler.run(3, () -> ran.add("C1"));
+      fail("Expected RejectedExecutionException");
+    } catch (RejectedExecutionException expected) {
+    }
+    assertThat(ran).doesNotContain("C1");
+  }
+
+  @Test
+  public void run_queueFull_passThrough() throws Exception {
+    TranscodeScheduler scheduler =
+        new TranscodeScheduler(transcodeThread, 1, SaturationPolicy.PASS_THROUGH);
+    submitBlocking(scheduler);
+    submit(scheduler, 2, "B1", 1);
+
+    assertThat(scheduler.run(3, () -> ran.add("C1"))).isFalse();
+    assertThat(ran).doesNotContain("C1");
+  }
+
+  @Test
+  public void run_jobFails_exceptionThrown() throws Exception {
+    TranscodeScheduler scheduler =
+        new TranscodeScheduler(transcodeThread, 1, SaturationPolicy.REJECT);
+
+    try {
+      scheduler.run(1, () -> {
+        throw new IllegalStateException("bad frame");
+      });
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessageThat().isEqualTo("bad frame");
+    }
+  }
+
+  @Test
+  public void run_executorRejects_jobDequeued() throws Exception {
+    TranscodeScheduler scheduler = new TranscodeScheduler(command -> {
+      throw new RejectedExecutionException("no thread");
+    }, 1, SaturationPolicy.REJECT);
+
+    try {
+      scheduler.run(1, () -> ran.add("A1"));
+      fail("Expected RejectedExecutionException");
+    } catch (RejectedExecutionException expected) {
+    }
+    assertThat(scheduler.getQueuedJobs()).isEqualTo(0);
+    assertThat(ran).isEmpty();
+  }
+
+  @Test
+  public void run_interruptedWhileQueued_jobDequeued() throws Exception {
+    TranscodeScheduler scheduler =
+        new TranscodeScheduler(transcodeThread, 1, SaturationPolicy.REJECT);
+    CompletableFuture<Boolean> blocking = submitBlocking(scheduler);
+    Future<Boolean> interrupted = submitters.submit(() -> scheduler.run(2, () -> ran.add("B1")));
+    waitForQueuedJobs(scheduler, 1);
+
+    interrupted.cancel(true);
+    waitForQueuedJobs(scheduler, 0);
+    release.countDown();
+
+    assertThat(blocking.get(10, TimeUnit.SECONDS)).isTrue();
+    assertThat(scheduler.run(3, () -> ran.add("C1"))).isTrue();
+    assertThat(ran).containsExactly("A1", "C1").inOrder();
+  }
+
+  // Submits job A1 of association 1, which holds the transcoding thread until released.
+  private CompletableFuture<Boolean> submitBlocking(TranscodeScheduler scheduler)
+      throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CompletableFuture<Boolean> result = CompletableFuture.supplyAsync(
+        () -> run(scheduler, 1, () -> {
+          ran.add("A1");
+          started.countDown();
+          release.await();
+        }), submitters);
+    assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+    return result;
+  }
+
+  // Submits a job and waits until it is queued, as the queuedJobs-th waiting job.
+  private CompletableFuture<Boolean> submit(TranscodeScheduler scheduler, int association,
+      String name, int queuedJobs) throws Exception {
+    CompletableFuture<Boolean> result = CompletableFuture.supplyAsync(
+        () -> run(scheduler, association, () -> ran.add(name)), submitters);
+    waitForQueuedJobs(scheduler, queuedJobs);
+    return result;
+  }
+
+  private static void waitForQueuedJobs(TranscodeScheduler scheduler, int queuedJobs)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (scheduler.getQueuedJobs() != queuedJobs) {
+      assertThat(System.currentTimeMillis()).isLessThan(deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  private static boolean run(TranscodeScheduler scheduler, int association,
+      TranscodeScheduler.Job job) {
+    try {
+      return scheduler.run(association, job);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package com.google.cloud.healthcare.imaging.dicomadapter.transcoder;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class RLEImageWriterTest {
+
+  private static final int WIDTH = 300;
+  private static final int HEIGHT = 5;
+
+  @Test
+  public void imageWriter_registeredAsRle() {
+    Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("rle");
+
+    assertThat(writers.hasNext()).isTrue();
+    assertThat(writers.next()).isInstanceOf(RLEImageWriter.class);
+  }
+
+  @Test
+  public void write_16bit_segmentPerByte() throws Exception {
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_USHORT_GRAY);
+    fill(image.getRaster());
+
+    byte[] frame = write(image);
+
+    assertThat(readInt(frame, 0)).isEqualTo(2);
+    // Most significant byte first.
+    assertThat(decodeSegment(frame, 0)).isEqualTo(plane(image.getRaster(), 0, 8));
+    assertThat(decodeSegment(frame, 1)).isEqualTo(plane(image.getRaster(), 0, 0));
+  }
+
+  @Test
+  public void write_rgb_segmentPerSample() throws Exception {
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+    fill(image.getRaster());
+
+    byte[] frame = write(image);
+
+    assertThat(readInt(frame, 0)).isEqualTo(3);
+    for (int band = 0; band < 3; band++) {
+      assertThat(decodeSegment(frame, band)).isEqualTo(plane(image.getRaster(), band, 0));
+    }
+  }
+
+  @Test
+  public void write_uniformImage_replicateRuns() throws Exception {
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_GRAY);
+
+    byte[] frame = write(image);
+
+    // Runs of at most 128 bytes, not crossing rows: 3 runs of 2 bytes per row.
+    assertThat(frame).hasLength(64 + HEIGHT * 3 * 2);
+    assertThat(decodeSegment(frame, 0)).isEqualTo(new byte[WIDTH * HEIGHT]);
+  }
+
+  // Runs of equal samples, broken up by noise.
+  private static void fill(WritableRaster raster) {
+    for (int band = 0; band < raster.getNumBands(); band++) {
+      for (int y = 0; y < HEIGHT; y++) {
+        for (int x = 0; x < WIDTH; x++) {
+          int sample = x % 11 == 0 ? (x * 7919 + y) & 0xFFFF : (x / 20) * 300 + band;
+          raster.setSample(x, y, band, sample);
+        }
+      }
+    }
+  }
+
+  private static byte[] plane(WritableRaster raster, int band, int shift) {
+    byte[] plane = new byte[WIDTH * HEIGHT];
+    for (int i = 0; i < plane.length; i++) {
+      plane[i] = (byte) (raster.getSample(i % WIDTH, i / WIDTH, band) >> shift);
+    }
+    return plane;
+  }
+
+  private static byte[] write(BufferedImage image) throws Exception {
+    ImageWriter writer = new RLEImageWriterSpi().createWriterInstance(null);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ImageOutputStream ios = new MemoryCacheImageOutputStream(bytes)) {
+      writer.setOutput(ios);
+      writer.write(null, new IIOImage(image, null, null), null);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] decodeSegment(byte[] frame, int segment) {
+    int offset = readInt(frame, 4 * (segment + 1));
+    assertThat(offset % 2).isEqualTo(0);
+    byte[] decoded = new byte[WIDTH * HEIGHT];
+    int pos = 0;
+    while (pos < decoded.length) {
+      int header = frame[offset++];
+      if (header >= 0) {
+        System.arraycopy(frame, offset, decoded, pos, header + 1);
+        offset += header + 1;
+        pos += header + 1;
+      } else if (header != -128) {
+        Arrays.fill(decoded, pos, pos + 1 - header, frame[offset++]);
+        pos += 1 - header;
+      }
+    }
+    return decoded;
+  }
+
+  private static int readInt(byte[] b, int off) {
+    return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16
+        | (b[off + 3] & 0xFF) << 24;
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2019 Google LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.healthcare.deid.redactor;
+
+import com.google.cloud.healthcare.deid.redactor.protos.DicomConfigProtos.DicomConfig;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Redaction of headers with thousands of elements, and the tag lookup it does per element: boxed
+ * List and HashSet lookups as the redactor used to do, against binary search in sorted int arrays.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RedactorTagMatchingBenchmark {
+
+  private static final int REMOVED_TAGS = 200;
+
+  @Param({"1000", "5000"})
+  public int elements;
+
+  private DicomRedactor redactor;
+  private Attributes header;
+  private int[] headerTags;
+
+  private List<Integer> boxedReplaceUIDs;
+  private Set<Integer> boxedTagSet;
+  private int[] replaceUIDs;
+  private int[] sortedTags;
+
+  @Setup
+  public void setUp() throws Exception {
+    header = new Attributes();
+    header.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3");
+    header.setString(Tag.StudyInstanceUID, VR.UI, "1.2.4");
+    header.setString(Tag.SeriesInstanceUID, VR.UI, "1.2.5");
+    header.setString(Tag.PatientName, VR.PN, "Person^Name");
+    // Private elements, REMOVED_TAGS of which are on the remove list.
+    DicomConfig.TagFilterList.Builder removeList = DicomConfig.TagFilterList.newBuilder()
+        .addTags("PatientName");
+    for (int i = 0; i < elements; i++) {
+      int tag = 0x00190000 | (0x1000 + i);
+      header.setString(tag, VR.LO, "Value " + i);
+      if (i % (elements / REMOVED_TAGS) == 0) {
+        removeList.addTags(String.format("%08X", tag));
+      }
+    }
+    redactor = new DicomRedactor(DicomConfig.newBuilder().setRemoveList(removeList).build());
+
+    headerTags = header.tags();
+    boxedReplaceUIDs =
+        new ArrayList<>(Arrays.asList(0x00080018, 0x0020000D, 0x0020000E, 0x00020003));
+    replaceUIDs = new int[]{0x00020003, 0x00080018, 0x0020000D, 0x0020000E};
+    boxedTagSet = new HashSet<>();
+    for (String tag : removeList.getTagsList()) {
+      boxedTagSet.add(tag.equals("PatientName") ? Tag.PatientName : Integer.parseInt(tag, 16));
+    }
+    sortedTags = boxedTagSet.stream().mapToInt(Integer::intValue).sorted().toArray();
+  }
+
+  @Benchmark
+  public Attributes redactHeader() {
+    Attributes copy = new Attributes(header);
+    redactor.redactDataset(copy);
+    return copy;
+  }
+
+  @Benchmark
+  public int boxedTagLookup() {
+    int matches = 0;
+    for (int tag : headerTags) {
+      if (boxedReplaceUIDs.contains(tag) || boxedTagSet.contains(tag)) {
+        matches++;
+      }
+    }
+    return matches;
+  }
+
+  @Benchmark
+  public int sortedArrayTagLookup() {
+    int matches = 0;
+    for (int tag : headerTags) {
+      if (Arrays.binarySearch(replaceUIDs, tag) >= 0 || Arrays.binarySearch(sortedTags, tag) >= 0) {
+        matches++;
+      }
+    }
+    return matches;
+  }
+}
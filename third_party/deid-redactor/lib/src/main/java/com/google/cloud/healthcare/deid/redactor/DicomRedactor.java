@@ -19,15 +19,12 @@ package com.google.cloud.healthcare.deid.redactor;
 import com.google.cloud.healthcare.deid.redactor.protos.DicomConfigProtos.DicomConfig;
 import com.google.protobuf.TextFormat;
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Attributes.Visitor;
 import org.dcm4che3.data.StandardElementDictionary;
@@ -46,42 +43,66 @@ public class DicomRedactor {
 
   /** RedactorSettings holds the settings for DICOM redaction. */
   private final class RedactorSettings {
-    public Set<Integer> tagSet;
+    // Sorted, for binary search.
+    public int[] tags;
     public boolean isKeepList;
   }
 
   private final RedactorSettings settings;
-  // Replace SOPInstanceUID, StudyInstanceUID, SeriesInstanceUID, and MediaStorageSOPInstanceUID.
-  private static final List<Integer> replaceUIDs =
-      new ArrayList<>(Arrays.asList(0x00080018, 0x0020000D, 0x0020000E, 0x00020003));
+  // Stateless, shared by all redactions.
+  private final RedactVisitor visitor = new RedactVisitor();
+  // Replace MediaStorageSOPInstanceUID, SOPInstanceUID, StudyInstanceUID, and SeriesInstanceUID.
+  // Sorted, for binary search.
+  private static final int[] replaceUIDs = {0x00020003, 0x00080018, 0x0020000D, 0x0020000E};
   private static final String CHC_BASIC_FILE = "chc_basic.textproto";
+  // Size of the chunks Pixel Data is copied in by redactStreaming.
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+  /** Default number of replaced UIDs remembered, see {@link #getUIDCache()}. */
+  public static final int DEFAULT_UID_CACHE_SIZE = 10000;
+
+  private final UIDCache uidCache;
 
    /**
-   *  Iterates over all tags in a DICOM file and redacts based on tagSet. If isKeepList is true, the
-   *  tags in the tagSet are kept untouched and all others are removed. If isKeepList is false, the
-   *  tags in the tagSet are removed and all others are kept untouched.
+   *  Iterates over all tags in a DICOM file and redacts based on the configured tags. If isKeepList
+   *  is true, the configured tags are kept untouched and all others are removed. If isKeepList is
+   *  false, the configured tags are removed and all others are kept untouched.
    */
   private class RedactVisitor implements Visitor {
     @Override
     public boolean visit(Attributes attrs, int tag, VR vr, Object value) {
-      if (replaceUIDs.contains(tag)) {
+      if (Arrays.binarySearch(replaceUIDs, tag) >= 0) {
         DicomRedactor.this.regenUID(attrs, tag);
         return true;
       }
-      if ((settings.isKeepList && !settings.tagSet.contains(tag))
-              || (!settings.isKeepList && settings.tagSet.contains(tag))) {
+      if (isRedacted(tag)) {
         attrs.setNull(tag, vr);
       }
       return true;
     }
   }
 
+  /** Whether the value of tag is removed. */
+  public boolean isRedacted(int tag) {
+    return settings.isKeepList != (Arrays.binarySearch(settings.tags, tag) >= 0);
+  }
+
   /**
    * Constructs a DicomRedactor for the provided config.
    * @throws IllegalArgumentException if the configuration structure is invalid.
    */
   public DicomRedactor(DicomConfig config) throws Exception {
+    this(config, DEFAULT_UID_CACHE_SIZE);
+  }
+
+  /**
+   * Constructs a DicomRedactor for the provided config, remembering up to uidCacheSize replaced
+   * UIDs. A uidCacheSize of 0 regenerates UIDs on every instance.
+   * @throws IllegalArgumentException if the configuration structure is invalid.
+   */
+  public DicomRedactor(DicomConfig config, int uidCacheSize) throws Exception {
     this.settings = parseConfig(config);
+    this.uidCache = new UIDCache(uidCacheSize,
+        uid -> UIDUtils.createNameBasedUID(uid.getBytes()));
   }
 
   /**
@@ -141,11 +162,7 @@ public class DicomRedactor {
       default:
         throw new IllegalArgumentException("Config does not specify a tag filtration method.");
     }
-    ret.tagSet = new HashSet<Integer>();
-    for (String tag : tags.getTagsList()) {
-      int tagID = this.toTagID(tag);
-      ret.tagSet.add(tagID);
-    }
+    ret.tags = tags.getTagsList().stream().mapToInt(this::toTagID).sorted().distinct().toArray();
     return ret;
   }
 
@@ -171,10 +188,15 @@ public class DicomRedactor {
 
   /** Regenerates UID for the given tag. Does not check VR of tag to ensure it is a UID. */
   private void regenUID(Attributes attrs, int tag) {
-    String newUID = UIDUtils.createNameBasedUID(attrs.getString(tag).getBytes());
+    String newUID = uidCache.get(attrs.getString(tag));
     attrs.setString(tag, VR.UI, newUID);
   }
 
+  /** Returns the cache of replaced UIDs, for its hit and miss counts. */
+  public UIDCache getUIDCache() {
+    return uidCache;
+  }
+
   /**
    * Redact the given DICOM input stream, and write the result to the given output stream.
    * @throws IOException if the input stream cannot be read or the output stream cannot be written.
@@ -193,12 +215,7 @@ public class DicomRedactor {
       throw new IOException("Failed to read input DICOM object", e);
     }
 
-    try {
-      RedactVisitor visitor = new RedactVisitor();
-      dataset.accept(visitor, false /* visitNestedDatasets */);
-    } catch (Exception e) {
-      throw new IllegalArgumentException("Failed to redact one or more tags", e);
-    }
+    redactDataset(dataset);
 
     // Update UID in metadata.
     regenUID(metadata, Tag.MediaStorageSOPInstanceUID);
@@ -218,4 +235,125 @@ public class DicomRedactor {
       throw new IOException("Failed to write output DICOM object", e);
     }
   }
+
+  /**
+   * Redact the given DICOM input stream like {@link #redact}, only holding the elements before
+   * Pixel Data in memory. Pixel Data, native or encapsulated, is copied from the input stream to
+   * the output stream in chunks of bounded size, so memory use does not depend on its size.
+   * @throws IOException if the input stream cannot be read or the output stream cannot be written.
+   * @throws IllegalArgumentException if there is an error redacting the object.
+   */
+  public void redactStreaming(InputStream inStream, OutputStream outStream)
+      throws IOException, IllegalArgumentException {
+    try (DicomInputStream dicomInputStream = new DicomInputStream(inStream)) {
+      Attributes metadata, dataset;
+      try {
+        metadata = dicomInputStream.getFileMetaInformation();
+        // Stops once the Pixel Data header is read, before its value.
+        dataset = dicomInputStream.readDataset(-1 /* len */, Tag.PixelData);
+      } catch (Exception e) {
+        throw new IOException("Failed to read input DICOM object", e);
+      }
+      boolean hasPixelData = dicomInputStream.tag() == Tag.PixelData;
+      boolean removePixelData = hasPixelData && isRedacted(Tag.PixelData);
+
+      redactDataset(dataset);
+
+      // Update UID in metadata.
+      regenUID(metadata, Tag.MediaStorageSOPInstanceUID);
+
+      // Overwrite transfer syntax if PixelData is removed.
+      String ts = metadata.getString(Tag.TransferSyntaxUID);
+      if (removePixelData && (TransferSyntaxType.forUID(ts) != TransferSyntaxType.NATIVE)) {
+        metadata.setString(Tag.TransferSyntaxUID, VR.UI, UID.ExplicitVRLittleEndian);
+      }
+
+      try (DicomOutputStream dicomOutputStream =
+          new DicomOutputStream(outStream, UID.ExplicitVRLittleEndian)) {
+        dicomOutputStream.writeDataset(metadata, dataset);
+        if (hasPixelData) {
+          copyPixelData(dicomInputStream, dicomOutputStream, removePixelData);
+
+          // Elements after Pixel Data, such as Data Set Trailing Padding.
+          Attributes trailingDataset = dicomInputStream.readDataset(-1 /* len */, -1 /* stop tag */);
+          redactDataset(trailingDataset);
+          dicomOutputStream.writeDataset(null /* fmi */, trailingDataset);
+        }
+      } catch (IOException e) {
+        throw new IOException("Failed to stream DICOM object", e);
+      }
+    }
+  }
+
+  /**
+   * Redacts the given dataset in place, for callers that parse and write the DICOM stream
+   * themselves. File meta information is left to the caller.
+   * @throws IllegalArgumentException if there is an error redacting the object.
+   */
+  public void redactDataset(Attributes dataset) throws IllegalArgumentException {
+    try {
+      dataset.accept(visitor, false /* visitNestedDatasets */);
+    } catch (Exception e) {
+      throw new IllegalArgumentException("Failed to redact one or more tags", e);
+    }
+  }
+
+  /**
+   * Copies the value of the Pixel Data element whose header was just read, or writes an empty
+   * Pixel Data element in its place if remove is true.
+   */
+  private static void copyPixelData(DicomInputStream in, DicomOutputStream out, boolean remove)
+      throws IOException {
+    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+    VR vr = in.vr();
+    if (in.length() != -1) {
+      // Native pixel data.
+      long length = in.length() & 0xffffffffL;
+      if (remove) {
+        copy(in, null, length, buffer);
+        out.writeHeader(Tag.PixelData, vr, 0);
+      } else {
+        out.writeHeader(Tag.PixelData, vr, in.length());
+        copy(in, out, length, buffer);
+      }
+      return;
+    }
+
+    // Encapsulated pixel data: offset table and fragment items up to a sequence delimiter.
+    if (!remove) {
+      out.writeHeader(Tag.PixelData, vr, -1);
+    }
+    while (in.readHeader() && in.tag() == Tag.Item) {
+      long length = in.length() & 0xffffffffL;
+      if (remove) {
+        copy(in, null, length, buffer);
+      } else {
+        out.writeHeader(Tag.Item, null, in.length());
+        copy(in, out, length, buffer);
+      }
+    }
+    if (in.tag() != Tag.SequenceDelimitationItem) {
+      throw new IOException("Encapsulated Pixel Data not terminated by a sequence delimiter");
+    }
+    if (remove) {
+      out.writeHeader(Tag.PixelData, VR.OB, 0);
+    } else {
+      out.writeHeader(Tag.SequenceDelimitationItem, null, 0);
+    }
+  }
+
+  /** Copies length bytes from in to out, or skips them if out is null. */
+  private static void copy(InputStream in, OutputStream out, long length, byte[] buffer)
+      throws IOException {
+    while (length > 0) {
+      int count = in.read(buffer, 0, (int) Math.min(length, buffer.length));
+      if (count < 0) {
+        throw new EOFException("Pixel Data truncated");
+      }
+      if (out != null) {
+        out.write(buffer, 0, count);
+      }
+      length -= count;
+    }
+  }
 }
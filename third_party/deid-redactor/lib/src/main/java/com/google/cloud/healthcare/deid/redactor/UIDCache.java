@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019 Google LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.healthcare.deid.redactor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * UIDCache is a bounded, thread-safe LRU cache of UIDs to their replacements, so that Study and
+ * Series UIDs shared by the instances of a study are only regenerated once. Replacements must be a
+ * deterministic function of the original UID, as two threads missing on the same UID both
+ * compute it.
+ */
+public class UIDCache {
+
+  private final int capacity;
+  private final UnaryOperator<String> generator;
+  private final Map<String, String> entries;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Constructs a UIDCache holding up to capacity UIDs, replaced with generator. A capacity of 0
+   * disables caching.
+   * @throws IllegalArgumentException if capacity is negative.
+   */
+  public UIDCache(int capacity, UnaryOperator<String> generator) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("UID cache capacity must not be negative: " + capacity);
+    }
+    this.capacity = capacity;
+    this.generator = generator;
+    this.entries = new LinkedHashMap<String, String>(16, 0.75f, true /* accessOrder */) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        return size() > UIDCache.this.capacity;
+      }
+    };
+  }
+
+  /** Returns the replacement for uid, generating and caching it if absent. */
+  public String get(String uid) {
+    if (capacity == 0) {
+      misses.increment();
+      return generator.apply(uid);
+    }
+    String replacement;
+    synchronized (entries) {
+      replacement = entries.get(uid);
+    }
+    if (replacement != null) {
+      hits.increment();
+      return replacement;
+    }
+    misses.increment();
+    // Generated outside the lock, as it is the costly part.
+    replacement = generator.apply(uid);
+    synchronized (entries) {
+      entries.put(uid, replacement);
+    }
+    return replacement;
+  }
+
+  /** Number of lookups answered from the cache. */
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  /** Number of lookups that generated a replacement. */
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /** Number of UIDs cached. */
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+}
@@ -66,6 +66,28 @@ public final class DicomRedactorTest {
     Assert.assertTrue(FileUtils.contentEquals(outFile, expectedFile));
   }
 
+  private void redactStreamingAndVerify(Attributes metadata, Attributes inData,
+      Attributes expectedMetadata, Attributes expectedData, DicomRedactor redactor)
+      throws Exception {
+    File inFile = folder.newFile("in.dcm");
+    File outFile = folder.newFile("out.dcm");
+    File expectedFile = folder.newFile("exp.dcm");
+
+    writeDataset(inFile, metadata, inData);
+    writeDataset(expectedFile, expectedMetadata, expectedData);
+
+    InputStream is = new BufferedInputStream(new FileInputStream(inFile));
+    OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+
+    redactor.redactStreaming(is, os);
+    Assert.assertTrue(FileUtils.contentEquals(outFile, expectedFile));
+  }
+
+  private DicomConfig removePatientNameConfig() {
+    return DicomConfig.newBuilder().setRemoveList(
+        DicomConfig.TagFilterList.newBuilder().addTags("PatientName")).build();
+  }
+
   private Attributes getTestMetadataHeader(String transferSyntaxUID) {
     Attributes metadata = new Attributes();
     metadata.setBytes(Tag.FileMetaInformationVersion, VR.OB, new byte[]{0x00, 0x01});
@@ -520,5 +542,118 @@ public final class DicomRedactorTest {
 
     redactAndVerify(metadata, dataset, expectedMetadata, expected, new DicomRedactor(config));
   }
-}
 
+  @Test
+  public void streamingUncompressedPixelData() throws Exception {
+    Attributes metadata = getTestMetadataHeader(UID.ExplicitVRLittleEndian);
+    Attributes dataset = new Attributes();
+    dataset.setString(Tag.PatientName, VR.PN, "Person^Name");
+    dataset.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3");
+    dataset.setBytes(Tag.PixelData, VR.OB,
+        new byte[]{(byte) 0xAB, (byte) 0xCD, (byte) 0xEF, (byte) 0x01});
+
+    Attributes expectedMetadata = getTestMetadataHeaderWithUIDReplaced(UID.ExplicitVRLittleEndian);
+    Attributes expected = new Attributes();
+    expected.setString(Tag.PatientName, VR.PN, "");
+    expected.setString(Tag.SOPInstanceUID, VR.UI, "2.25.235153174557024093797895412215599142974");
+    expected.setBytes(Tag.PixelData, VR.OB,
+        new byte[]{(byte) 0xAB, (byte) 0xCD, (byte) 0xEF, (byte) 0x01});
+
+    redactStreamingAndVerify(metadata, dataset, expectedMetadata, expected,
+        new DicomRedactor(removePatientNameConfig()));
+  }
+
+  @Test
+  public void streamingFragmentsPixelData() throws Exception {
+    Attributes metadata = getTestMetadataHeader(UID.JPEGBaseline1);
+    Attributes dataset = new Attributes();
+    dataset.setString(Tag.PatientName, VR.PN, "Person^Name");
+    Fragments fragments = dataset.newFragments(Tag.PixelData, VR.OB, 3);
+    fragments.add(Value.NULL);
+    fragments.add(new byte[]{(byte) 0xAB, (byte) 0xCD});
+    fragments.add(new byte[]{(byte) 0xEF, (byte) 0x01});
+
+    Attributes expectedMetadata = getTestMetadataHeaderWithUIDReplaced(UID.JPEGBaseline1);
+    Attributes expected = new Attributes();
+    expected.setString(Tag.PatientName, VR.PN, "");
+    Fragments expectedFragments = expected.newFragments(Tag.PixelData, VR.OB, 3);
+    expectedFragments.add(Value.NULL);
+    expectedFragments.add(new byte[]{(byte) 0xAB, (byte) 0xCD});
+    expectedFragments.add(new byte[]{(byte) 0xEF, (byte) 0x01});
+
+    redactStreamingAndVerify(metadata, dataset, expectedMetadata, expected,
+        new DicomRedactor(removePatientNameConfig()));
+  }
+
+  @Test
+  public void streamingFragmentsPixelDataRemoved() throws Exception {
+    Attributes metadata = getTestMetadataHeader(UID.JPEGBaseline1);
+    Attributes dataset = new Attributes();
+    Fragments fragments = dataset.newFragments(Tag.PixelData, VR.OB, 2);
+    fragments.add(Value.NULL);
+    fragments.add(new byte[]{(byte) 0xAB, (byte) 0xCD});
+
+    DicomConfig config = DicomConfig.newBuilder().setRemoveList(
+        DicomConfig.TagFilterList.newBuilder().addTags("PixelData")).build();
+
+    Attributes expectedMetadata = getTestMetadataHeaderWithUIDReplaced(UID.ExplicitVRLittleEndian);
+    Attributes expected = new Attributes();
+    expected.setBytes(Tag.PixelData, VR.OB, new byte[]{});
+
+    redactStreamingAndVerify(metadata, dataset, expectedMetadata, expected,
+        new DicomRedactor(config));
+  }
+
+  @Test
+  public void streamingElementsAfterPixelData() throws Exception {
+    Attributes metadata = getTestMetadataHeader(UID.ImplicitVRLittleEndian);
+    Attributes dataset = new Attributes();
+    dataset.setString(Tag.PatientName, VR.PN, "Person^Name");
+    dataset.setBytes(Tag.PixelData, VR.OW,
+        new byte[]{(byte) 0xAB, (byte) 0xCD, (byte) 0xEF, (byte) 0x01});
+    dataset.setBytes(Tag.DataSetTrailingPadding, VR.OB, new byte[]{0, 0});
+
+    Attributes expectedMetadata = getTestMetadataHeaderWithUIDReplaced(UID.ImplicitVRLittleEndian);
+    Attributes expected = new Attributes();
+    expected.setString(Tag.PatientName, VR.PN, "");
+    expected.setBytes(Tag.PixelData, VR.OW,
+        new byte[]{(byte) 0xAB, (byte) 0xCD, (byte) 0xEF, (byte) 0x01});
+    expected.setBytes(Tag.DataSetTrailingPadding, VR.OB, new byte[]{0, 0});
+
+    redactStreamingAndVerify(metadata, dataset, expectedMetadata, expected,
+        new DicomRedactor(removePatientNameConfig()));
+  }
+
+  @Test
+  public void uidReplacementsCachedAcrossInstances() throws Exception {
+    DicomRedactor redactor = new DicomRedactor(removePatientNameConfig());
+    for (String sopInstanceUID : new String[]{"1.2.3.1", "1.2.3.2"}) {
+      Attributes dataset = new Attributes();
+      dataset.setString(Tag.StudyInstanceUID, VR.UI, "1.2.3");
+      dataset.setString(Tag.SOPInstanceUID, VR.UI, sopInstanceUID);
+      redactor.redactDataset(dataset);
+      Assert.assertEquals("2.25.235153174557024093797895412215599142974",
+          dataset.getString(Tag.StudyInstanceUID));
+    }
+
+    // Study UID generated once, then reused. Each SOP Instance UID generated.
+    Assert.assertEquals(1, redactor.getUIDCache().getHitCount());
+    Assert.assertEquals(3, redactor.getUIDCache().getMissCount());
+  }
+
+  @Test
+  public void uidCacheDisabled() throws Exception {
+    DicomRedactor redactor = new DicomRedactor(removePatientNameConfig(), 0);
+    for (int i = 0; i < 2; i++) {
+      Attributes dataset = new Attributes();
+      dataset.setString(Tag.StudyInstanceUID, VR.UI, "1.2.3");
+      redactor.redactDataset(dataset);
+      Assert.assertEquals("2.25.235153174557024093797895412215599142974",
+          dataset.getString(Tag.StudyInstanceUID));
+    }
+
+    Assert.assertEquals(0, redactor.getUIDCache().getHitCount());
+    Assert.assertEquals(2, redactor.getUIDCache().getMissCount());
+    Assert.assertEquals(0, redactor.getUIDCache().size());
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2019 Google LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.healthcare.deid.redactor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Test the LRU cache of replaced UIDs. */
+@RunWith(JUnit4.class)
+public final class UIDCacheTest {
+
+  private final AtomicInteger generated = new AtomicInteger();
+
+  private String generate(String uid) {
+    generated.incrementAndGet();
+    return "9." + uid;
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    UIDCache cache = new UIDCache(2, this::generate);
+    Assert.assertEquals("9.1", cache.get("1"));
+    Assert.assertEquals("9.2", cache.get("2"));
+    cache.get("1");
+    // Evicts 2, the least recently used.
+    Assert.assertEquals("9.3", cache.get("3"));
+    Assert.assertEquals(2, cache.size());
+
+    cache.get("1");
+    Assert.assertEquals(3, generated.get());
+    cache.get("2");
+    Assert.assertEquals(4, generated.get());
+
+    Assert.assertEquals(2, cache.getHitCount());
+    Assert.assertEquals(4, cache.getMissCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void negativeCapacity() {
+    new UIDCache(-1, this::generate);
+  }
+}
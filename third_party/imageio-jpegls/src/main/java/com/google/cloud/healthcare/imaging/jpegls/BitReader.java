@@ -0,0 +1,97 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.jpegls;
+
+import javax.imageio.IIOException;
+
+/** Reads the entropy coded data of a scan, dropping the bits stuffed after 0xFF bytes. */
+final class BitReader {
+
+  // Longest run of zeros a valid scan holds, before the limited length Golomb code escapes.
+  private static final int MAX_ZEROS = 64;
+
+  private final byte[] data;
+  private final int end;
+  private int position;
+
+  // Bits read ahead, right aligned.
+  private long bits;
+  private int bitCount;
+  private boolean afterFF;
+
+  /** Reads data from start up to end, the position of the marker following the scan. */
+  BitReader(byte[] data, int start, int end) {
+    this.data = data;
+    this.position = start;
+    this.end = end;
+  }
+
+  /** Reads n bits, n being at most 32. */
+  int readBits(int n) {
+    if (n == 0) {
+      return 0;
+    }
+    if (bitCount < n) {
+      fill();
+    }
+    bitCount -= n;
+    return (int) ((bits >>> bitCount) & ((1L << n) - 1));
+  }
+
+  int readBit() {
+    return readBits(1);
+  }
+
+  /** Reads zeros up to and including a 1, returning the number of zeros. */
+  int readZeros() throws IIOException {
+    int zeros = 0;
+    while (true) {
+      if (bitCount == 0) {
+        fill();
+      }
+      long window = bits & ((1L << bitCount) - 1);
+      if (window != 0) {
+        int leadingZeros = Long.numberOfLeadingZeros(window) - (64 - bitCount);
+        bitCount -= leadingZeros + 1;
+        return zeros + leadingZeros;
+      }
+      zeros += bitCount;
+      bitCount = 0;
+      if (zeros > MAX_ZEROS) {
+        throw new IIOException("Invalid JPEG-LS scan data");
+      }
+    }
+  }
+
+  // Past the end of the scan, reads zeros.
+  private void fill() {
+    while (bitCount <= 48) {
+      if (position >= end) {
+        bits <<= 8;
+        bitCount += 8;
+        continue;
+      }
+      int b = data[position++] & 0xFF;
+      if (afterFF) {
+        bits = (bits << 7) | (b & 0x7F);
+        bitCount += 7;
+      } else {
+        bits = (bits << 8) | b;
+        bitCount += 8;
+      }
+      afterFF = b == 0xFF;
+    }
+  }
+}
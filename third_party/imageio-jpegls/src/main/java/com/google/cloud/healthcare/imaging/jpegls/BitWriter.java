@@ -0,0 +1,97 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.jpegls;
+
+import java.util.Arrays;
+
+/**
+ * Writes marker segments and entropy coded bits to a growing buffer. Within entropy coded data, a
+ * 0xFF byte is followed by a byte whose most significant bit is a stuffed 0, so that markers stay
+ * recognizable (ITU-T T.87 A.1).
+ */
+final class BitWriter {
+
+  private byte[] buffer;
+  private int size;
+
+  // Bits not written yet, right aligned.
+  private long bits;
+  private int bitCount;
+  private boolean afterFF;
+
+  BitWriter(int initialCapacity) {
+    buffer = new byte[Math.max(initialCapacity, 64)];
+  }
+
+  void writeByte(int b) {
+    if (size == buffer.length) {
+      buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    }
+    buffer[size++] = (byte) b;
+  }
+
+  void writeShort(int value) {
+    writeByte(value >> 8);
+    writeByte(value);
+  }
+
+  void writeMarker(int marker) {
+    writeByte(0xFF);
+    writeByte(marker);
+  }
+
+  /** Appends the n low bits of value, n being at most 32. */
+  void writeBits(int value, int n) {
+    if (n == 0) {
+      return;
+    }
+    bits = (bits << n) | (value & ((1L << n) - 1));
+    bitCount += n;
+    while (true) {
+      int byteBits = afterFF ? 7 : 8;
+      if (bitCount < byteBits) {
+        break;
+      }
+      bitCount -= byteBits;
+      int b = (int) (bits >>> bitCount) & ((1 << byteBits) - 1);
+      writeByte(b);
+      afterFF = b == 0xFF;
+    }
+  }
+
+  void writeZeros(int n) {
+    while (n > 32) {
+      writeBits(0, 32);
+      n -= 32;
+    }
+    writeBits(0, n);
+  }
+
+  /** Pads entropy coded data to a byte boundary, before a marker. */
+  void endEntropyCodedData() {
+    if (bitCount > 0) {
+      writeBits(0, (afterFF ? 7 : 8) - bitCount);
+    }
+    if (afterFF) {
+      writeBits(0, 7);
+    }
+    bits = 0;
+    afterFF = false;
+  }
+
+  byte[] toByteArray() {
+    return Arrays.copyOf(buffer, size);
+  }
+}
@@ -0,0 +1,83 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.jpegls;
+
+/**
+ * Parameters of a JPEG-LS scan (ITU-T T.87 C.2.4.1.1), defaults being used for those not given by
+ * a preset parameters marker segment.
+ */
+final class CodingParameters {
+
+  private static final int BASIC_T1 = 3;
+  private static final int BASIC_T2 = 7;
+  private static final int BASIC_T3 = 21;
+  private static final int DEFAULT_RESET = 64;
+
+  final int maxVal;
+  final int near;
+  final int t1;
+  final int t2;
+  final int t3;
+  final int reset;
+  final int range;
+  final int qbpp;
+  final int limit;
+
+  CodingParameters(int bitsPerSample, int near) {
+    this(bitsPerSample, near, 0, 0, 0, 0, 0);
+  }
+
+  /** Parameters equal to 0 take their default value. */
+  CodingParameters(int bitsPerSample, int near, int maxVal, int t1, int t2, int t3, int reset) {
+    this.maxVal = maxVal > 0 ? maxVal : (1 << bitsPerSample) - 1;
+    this.near = near;
+
+    int defaultT1;
+    int defaultT2;
+    int defaultT3;
+    if (this.maxVal >= 128) {
+      int factor = (Math.min(this.maxVal, 4095) + 128) >> 8;
+      defaultT1 = clamp(factor * (BASIC_T1 - 2) + 2 + 3 * near, near + 1);
+      defaultT2 = clamp(factor * (BASIC_T2 - 3) + 3 + 5 * near, defaultT1);
+      defaultT3 = clamp(factor * (BASIC_T3 - 4) + 4 + 7 * near, defaultT2);
+    } else {
+      int factor = 256 / (this.maxVal + 1);
+      defaultT1 = clamp(Math.max(2, BASIC_T1 / factor + 3 * near), near + 1);
+      defaultT2 = clamp(Math.max(3, BASIC_T2 / factor + 5 * near), defaultT1);
+      defaultT3 = clamp(Math.max(4, BASIC_T3 / factor + 7 * near), defaultT2);
+    }
+    this.t1 = t1 > 0 ? t1 : defaultT1;
+    this.t2 = t2 > 0 ? t2 : defaultT2;
+    this.t3 = t3 > 0 ? t3 : defaultT3;
+    this.reset = reset > 0 ? reset : DEFAULT_RESET;
+
+    this.range = (this.maxVal + 2 * near) / (2 * near + 1) + 1;
+    this.qbpp = ceilLog2(range);
+    int bpp = Math.max(2, ceilLog2(this.maxVal + 1));
+    this.limit = 2 * (bpp + Math.max(8, bpp));
+  }
+
+  private int clamp(int value, int min) {
+    return value > maxVal || value < min ? min : value;
+  }
+
+  private static int ceilLog2(int n) {
+    int log = 0;
+    while ((1 << log) < n) {
+      log++;
+    }
+    return log;
+  }
+}
@@ -0,0 +1,261 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.jpegls;
+
+import static com.google.cloud.healthcare.imaging.jpegls.JpegLsEncoder.EOI;
+import static com.google.cloud.healthcare.imaging.jpegls.JpegLsEncoder.LSE;
+import static com.google.cloud.healthcare.imaging.jpegls.JpegLsEncoder.MAX_COMPONENTS;
+import static com.google.cloud.healthcare.imaging.jpegls.JpegLsEncoder.SOF55;
+import static com.google.cloud.healthcare.imaging.jpegls.JpegLsEncoder.SOI;
+import static com.google.cloud.healthcare.imaging.jpegls.JpegLsEncoder.SOS;
+
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import javax.imageio.IIOException;
+
+/**
+ * Decodes lossless and near lossless JPEG-LS codestreams (ITU-T T.87), of components either not
+ * interleaved or line interleaved. Sample interleaved scans and mapping tables are not supported.
+ */
+public final class JpegLsDecoder {
+
+  private static final int PRESET_CODING_PARAMETERS = 1;
+
+  private final byte[] data;
+  private int position;
+  // Position following the frame header, where decoding starts.
+  private int framePosition;
+
+  private int width;
+  private int height;
+  private int bitsPerSample;
+  private int[] componentIds;
+
+  // Preset coding parameters, 0 for defaults.
+  private int maxVal;
+  private int t1;
+  private int t2;
+  private int t3;
+  private int reset;
+
+  /** Reads the frame header of the codestream in data. */
+  public JpegLsDecoder(byte[] data) throws IIOException {
+    this.data = data;
+    if (readMarker() != SOI) {
+      throw new IIOException("Not a JPEG-LS codestream");
+    }
+    readFrameHeader();
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getComponents() {
+    return componentIds.length;
+  }
+
+  public int getBitsPerSample() {
+    return bitsPerSample;
+  }
+
+  /** Decodes the image into the first getWidth() x getHeight() samples of raster. */
+  public void decode(WritableRaster raster) throws IIOException {
+    if (raster.getWidth() < width || raster.getHeight() < height
+        || raster.getNumBands() != componentIds.length) {
+      throw new IIOException("Destination does not fit a " + width + "x" + height + "x"
+          + componentIds.length + " JPEG-LS image");
+    }
+    position = framePosition;
+    int[][] lines = new int[2 * componentIds.length][width + 2];
+    int[] samples = new int[width];
+    while (true) {
+      int marker = readMarker();
+      if (marker == EOI) {
+        return;
+      } else if (marker == SOS) {
+        decodeScan(raster, lines, samples);
+      } else if (marker == LSE) {
+        readPresetParameters();
+      } else {
+        skipSegment();
+      }
+    }
+  }
+
+  private void readFrameHeader() throws IIOException {
+    while (true) {
+      int marker = readMarker();
+      if (marker == SOF55) {
+        break;
+      } else if (marker == LSE) {
+        readPresetParameters();
+      } else if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xCC) {
+        throw new IIOException(String.format("Not a JPEG-LS codestream: SOF marker %02X", marker));
+      } else if (marker == SOS || marker == EOI) {
+        throw new IIOException("JPEG-LS codestream without frame header");
+      } else {
+        skipSegment();
+      }
+    }
+    int segmentEnd = segmentEnd();
+    bitsPerSample = readByte();
+    height = readShort();
+    width = readShort();
+    int components = readByte();
+    if (bitsPerSample < 2 || bitsPerSample > 16) {
+      throw new IIOException("Unsupported JPEG-LS precision: " + bitsPerSample);
+    }
+    if (height == 0 || width == 0) {
+      throw new IIOException("Unsupported JPEG-LS dimensions: " + width + "x" + height);
+    }
+    if (components < 1 || components > MAX_COMPONENTS) {
+      throw new IIOException("Unsupported JPEG-LS components: " + components);
+    }
+    componentIds = new int[components];
+    for (int i = 0; i < components; i++) {
+      componentIds[i] = readByte();
+      if (readByte() != 0x11) {
+        throw new IIOException("Subsampled JPEG-LS components are not supported");
+      }
+      readByte();
+    }
+    position = segmentEnd;
+    framePosition = position;
+  }
+
+  private void readPresetParameters() throws IIOException {
+    int segmentEnd = segmentEnd();
+    int id = readByte();
+    if (id != PRESET_CODING_PARAMETERS) {
+      throw new IIOException("Unsupported JPEG-LS preset parameters: " + id);
+    }
+    maxVal = readShort();
+    t1 = readShort();
+    t2 = readShort();
+    t3 = readShort();
+    reset = readShort();
+    position = segmentEnd;
+  }
+
+  private void decodeScan(WritableRaster raster, int[][] lines, int[] samples)
+      throws IIOException {
+    int segmentEnd = segmentEnd();
+    int scanComponents = readByte();
+    if (scanComponents < 1 || scanComponents > componentIds.length) {
+      throw new IIOException("Invalid JPEG-LS scan components: " + scanComponents);
+    }
+    int[] bands = new int[scanComponents];
+    for (int i = 0; i < scanComponents; i++) {
+      bands[i] = band(readByte());
+      if (readByte() != 0) {
+        throw new IIOException("JPEG-LS mapping tables are not supported");
+      }
+    }
+    int near = readByte();
+    int interleaveMode = readByte();
+    if (readByte() != 0) {
+      throw new IIOException("JPEG-LS point transform is not supported");
+    }
+    if (interleaveMode == 2 || (interleaveMode == 0) != (scanComponents == 1)) {
+      throw new IIOException("Unsupported JPEG-LS interleave mode: " + interleaveMode);
+    }
+    position = segmentEnd;
+
+    CodingParameters params =
+        new CodingParameters(bitsPerSample, near, maxVal, t1, t2, t3, reset);
+    if (near > Math.min(255, params.maxVal / 2)) {
+      throw new IIOException("Invalid JPEG-LS NEAR: " + near);
+    }
+    int scanEnd = findMarker(position);
+    ScanDecoder decoder =
+        new ScanDecoder(params, scanComponents, new BitReader(data, position, scanEnd));
+    for (int i = 0; i < scanComponents; i++) {
+      Arrays.fill(lines[2 * i], 0);
+    }
+    for (int y = 0; y < height; y++) {
+      for (int i = 0; i < scanComponents; i++) {
+        int[] previous = lines[2 * i];
+        int[] current = lines[2 * i + 1];
+        decoder.decodeLine(previous, current, width, i);
+        System.arraycopy(current, 1, samples, 0, width);
+        raster.setSamples(raster.getMinX(), raster.getMinY() + y, width, 1, bands[i], samples);
+        lines[2 * i] = current;
+        lines[2 * i + 1] = previous;
+      }
+    }
+    position = scanEnd;
+  }
+
+  private int band(int componentId) throws IIOException {
+    for (int i = 0; i < componentIds.length; i++) {
+      if (componentIds[i] == componentId) {
+        return i;
+      }
+    }
+    throw new IIOException("Unknown JPEG-LS component: " + componentId);
+  }
+
+  // Entropy coded data holds 0xFF only followed by a byte below 0x80.
+  private int findMarker(int from) throws IIOException {
+    for (int i = from; i + 1 < data.length; i++) {
+      if (data[i] == (byte) 0xFF && (data[i + 1] & 0x80) != 0) {
+        return i;
+      }
+    }
+    throw new IIOException("Truncated JPEG-LS scan");
+  }
+
+  private int readMarker() throws IIOException {
+    if (readByte() != 0xFF) {
+      throw new IIOException("Expected a JPEG-LS marker at " + (position - 1));
+    }
+    int marker = readByte();
+    // Fill bytes.
+    while (marker == 0xFF) {
+      marker = readByte();
+    }
+    return marker;
+  }
+
+  private void skipSegment() throws IIOException {
+    position = segmentEnd();
+  }
+
+  // Reads the length of a marker segment, returning the position following it.
+  private int segmentEnd() throws IIOException {
+    int start = position;
+    int length = readShort();
+    if (length < 2 || start + length > data.length) {
+      throw new IIOException("Invalid JPEG-LS marker segment length: " + length);
+    }
+    return start + length;
+  }
+
+  private int readByte() throws IIOException {
+    if (position >= data.length) {
+      throw new IIOException("Truncated JPEG-LS codestream");
+    }
+    return data[position++] & 0xFF;
+  }
+
+  private int readShort() throws IIOException {
+    return (readByte() << 8) | readByte();
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.jpegls;
+
+import java.awt.image.Raster;
+
+/**
+ * Encodes images as lossless JPEG-LS codestreams (ITU-T T.87) with default coding parameters, the
+ * components of color images line interleaved in a single scan.
+ */
+public final class JpegLsEncoder {
+
+  static final int SOI = 0xD8;
+  static final int EOI = 0xD9;
+  static final int SOS = 0xDA;
+  static final int SOF55 = 0xF7;
+  static final int LSE = 0xF8;
+
+  static final int MAX_DIMENSION = 0xFFFF;
+  static final int MAX_COMPONENTS = 4;
+
+  private JpegLsEncoder() {}
+
+  /**
+   * @param bitsPerSample precision of the samples, 2 to 16, bits above it being ignored.
+   */
+  public static byte[] encode(Raster raster, int bitsPerSample) {
+    int width = raster.getWidth();
+    int height = raster.getHeight();
+    int components = raster.getNumBands();
+    if (bitsPerSample < 2 || bitsPerSample > 16) {
+      throw new IllegalArgumentException("Unsupported JPEG-LS precision: " + bitsPerSample);
+    }
+    if (width > MAX_DIMENSION || height > MAX_DIMENSION) {
+      throw new IllegalArgumentException("Image too large for JPEG-LS: " + width + "x" + height);
+    }
+    if (components > MAX_COMPONENTS) {
+      throw new IllegalArgumentException("Unsupported JPEG-LS components: " + components);
+    }
+
+    BitWriter writer = new BitWriter(width * height * components * (bitsPerSample + 7) / 8 / 2);
+    writer.writeMarker(SOI);
+    writer.writeMarker(SOF55);
+    writer.writeShort(8 + 3 * components);
+    writer.writeByte(bitsPerSample);
+    writer.writeShort(height);
+    writer.writeShort(width);
+    writer.writeByte(components);
+    for (int component = 0; component < components; component++) {
+      writer.writeByte(component + 1);
+      // No subsampling, no quantization table.
+      writer.writeByte(0x11);
+      writer.writeByte(0);
+    }
+
+    writer.writeMarker(SOS);
+    writer.writeShort(6 + 2 * components);
+    writer.writeByte(components);
+    for (int component = 0; component < components; component++) {
+      writer.writeByte(component + 1);
+      // No mapping table.
+      writer.writeByte(0);
+    }
+    // NEAR, interleave mode (none or line), point transform.
+    writer.writeByte(0);
+    writer.writeByte(components == 1 ? 0 : 1);
+    writer.writeByte(0);
+
+    ScanEncoder encoder =
+        new ScanEncoder(new CodingParameters(bitsPerSample, 0), components, writer);
+    int mask = (1 << bitsPerSample) - 1;
+    int[] samples = new int[width];
+    int[][] previous = new int[components][width + 2];
+    int[][] current = new int[components][width + 2];
+    for (int y = 0; y < height; y++) {
+      for (int component = 0; component < components; component++) {
+        raster.getSamples(raster.getMinX(), raster.getMinY() + y, width, 1, component, samples);
+        int[] line = current[component];
+        for (int x = 0; x < width; x++) {
+          line[x + 1] = samples[x] & mask;
+        }
+        encoder.encodeLine(previous[component], line, width, component);
+        current[component] = previous[component];
+        previous[component] = line;
+      }
+    }
+    writer.endEntropyCodedData();
+    writer.writeMarker(EOI);
+    return writer.toByteArray();
+  }
+}
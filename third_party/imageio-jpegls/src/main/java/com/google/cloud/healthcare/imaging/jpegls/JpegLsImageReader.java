@@ -0,0 +1,156 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.jpegls;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Reads a JPEG-LS codestream into an 8 or 16 bit gray or RGB image, or into the destination of
+ * the read param if set.
+ */
+public class JpegLsImageReader extends ImageReader {
+
+  private JpegLsDecoder decoder;
+
+  public JpegLsImageReader(ImageReaderSpi originatingProvider) {
+    super(originatingProvider);
+  }
+
+  @Override
+  public void setInput(Object input, boolean seekForwardOnly, boolean ignoreMetadata) {
+    super.setInput(input, seekForwardOnly, ignoreMetadata);
+    decoder = null;
+  }
+
+  @Override
+  public int getNumImages(boolean allowSearch) {
+    return 1;
+  }
+
+  @Override
+  public int getWidth(int imageIndex) throws IOException {
+    return decoder(imageIndex).getWidth();
+  }
+
+  @Override
+  public int getHeight(int imageIndex) throws IOException {
+    return decoder(imageIndex).getHeight();
+  }
+
+  @Override
+  public Iterator<ImageTypeSpecifier> getImageTypes(int imageIndex) throws IOException {
+    return Collections.singletonList(imageType(decoder(imageIndex))).iterator();
+  }
+
+  @Override
+  public IIOMetadata getStreamMetadata() {
+    return null;
+  }
+
+  @Override
+  public IIOMetadata getImageMetadata(int imageIndex) {
+    return null;
+  }
+
+  @Override
+  public BufferedImage read(int imageIndex, ImageReadParam param) throws IOException {
+    JpegLsDecoder decoder = decoder(imageIndex);
+    BufferedImage image = param != null ? param.getDestination() : null;
+    if (image == null) {
+      image = imageType(decoder).createBufferedImage(decoder.getWidth(), decoder.getHeight());
+    }
+    decoder.decode(image.getRaster());
+    return image;
+  }
+
+  @Override
+  public boolean canReadRaster() {
+    return true;
+  }
+
+  @Override
+  public Raster readRaster(int imageIndex, ImageReadParam param) throws IOException {
+    JpegLsDecoder decoder = decoder(imageIndex);
+    WritableRaster raster = Raster.createWritableRaster(
+        imageType(decoder).getSampleModel(decoder.getWidth(), decoder.getHeight()), null);
+    decoder.decode(raster);
+    return raster;
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    decoder = null;
+  }
+
+  @Override
+  public void dispose() {
+    decoder = null;
+  }
+
+  private JpegLsDecoder decoder(int imageIndex) throws IOException {
+    if (imageIndex != 0) {
+      throw new IndexOutOfBoundsException("imageIndex: " + imageIndex);
+    }
+    if (decoder == null) {
+      if (!(input instanceof ImageInputStream)) {
+        throw new IllegalStateException("Input not set");
+      }
+      decoder = new JpegLsDecoder(readFully((ImageInputStream) input));
+    }
+    return decoder;
+  }
+
+  private static byte[] readFully(ImageInputStream input) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = input.read(buffer)) > 0) {
+      bytes.write(buffer, 0, read);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static ImageTypeSpecifier imageType(JpegLsDecoder decoder) {
+    int dataType =
+        decoder.getBitsPerSample() <= 8 ? DataBuffer.TYPE_BYTE : DataBuffer.TYPE_USHORT;
+    switch (decoder.getComponents()) {
+      case 1:
+        return ImageTypeSpecifier.createGrayscale(
+            dataType == DataBuffer.TYPE_BYTE ? 8 : 16, dataType, false);
+      case 3:
+        return ImageTypeSpecifier.createInterleaved(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+            new int[] {0, 1, 2}, dataType, false /* hasAlpha */, false /* isAlphaPremultiplied */);
+      default:
+        return ImageTypeSpecifier.createInterleaved(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+            new int[] {0, 1, 2, 3}, dataType,
+            true /* hasAlpha */, false /* isAlphaPremultiplied */);
+    }
+  }
+}
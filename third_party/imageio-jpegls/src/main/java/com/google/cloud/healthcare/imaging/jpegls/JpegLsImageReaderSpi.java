@@ -0,0 +1,71 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.jpegls;
+
+import java.io.IOException;
+import java.util.Locale;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Provides {@link JpegLsImageReader}, registered through META-INF/services under the "jpeg-ls"
+ * format name.
+ */
+public class JpegLsImageReaderSpi extends ImageReaderSpi {
+
+  private static final String[] NAMES = {"jpeg-ls"};
+  private static final String[] SUFFIXES = {"jls"};
+  private static final String[] MIME_TYPES = {};
+  private static final Class<?>[] INPUT_TYPES = {ImageInputStream.class};
+
+  public JpegLsImageReaderSpi() {
+    super("Google LLC", "1.0", NAMES, SUFFIXES, MIME_TYPES, JpegLsImageReader.class.getName(),
+        INPUT_TYPES, new String[] {JpegLsImageWriterSpi.class.getName()},
+        false, null, null, null, null,
+        false, null, null, null, null);
+  }
+
+  /** Accepts codestreams starting with SOI followed by SOF55 or LSE. */
+  @Override
+  public boolean canDecodeInput(Object source) throws IOException {
+    if (!(source instanceof ImageInputStream)) {
+      return false;
+    }
+    ImageInputStream stream = (ImageInputStream) source;
+    byte[] header = new byte[4];
+    stream.mark();
+    try {
+      stream.readFully(header);
+    } catch (IOException e) {
+      return false;
+    } finally {
+      stream.reset();
+    }
+    return (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == JpegLsEncoder.SOI
+        && (header[2] & 0xFF) == 0xFF
+        && ((header[3] & 0xFF) == JpegLsEncoder.SOF55 || (header[3] & 0xFF) == JpegLsEncoder.LSE);
+  }
+
+  @Override
+  public ImageReader createReaderInstance(Object extension) {
+    return new JpegLsImageReader(this);
+  }
+
+  @Override
+  public String getDescription(Locale locale) {
+    return "JPEG-LS Image Reader";
+  }
+}
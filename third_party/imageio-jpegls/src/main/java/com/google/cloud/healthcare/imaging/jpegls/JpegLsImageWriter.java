@@ -0,0 +1,96 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.jpegls;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Writes images as lossless JPEG-LS codestreams, the precision being the size of the first color
+ * component of the image, or the sample size of rasters.
+ */
+public class JpegLsImageWriter extends ImageWriter {
+
+  public JpegLsImageWriter(ImageWriterSpi originatingProvider) {
+    super(originatingProvider);
+  }
+
+  @Override
+  public IIOMetadata getDefaultStreamMetadata(ImageWriteParam param) {
+    return null;
+  }
+
+  @Override
+  public IIOMetadata getDefaultImageMetadata(ImageTypeSpecifier imageType,
+      ImageWriteParam param) {
+    return null;
+  }
+
+  @Override
+  public IIOMetadata convertStreamMetadata(IIOMetadata inData, ImageWriteParam param) {
+    return null;
+  }
+
+  @Override
+  public IIOMetadata convertImageMetadata(IIOMetadata inData, ImageTypeSpecifier imageType,
+      ImageWriteParam param) {
+    return null;
+  }
+
+  @Override
+  public boolean canWriteRasters() {
+    return true;
+  }
+
+  @Override
+  public void write(IIOMetadata streamMetadata, IIOImage image, ImageWriteParam param)
+      throws IOException {
+    if (!(getOutput() instanceof ImageOutputStream)) {
+      throw new IllegalStateException("Output not set");
+    }
+    Raster raster;
+    int bitsPerSample;
+    if (image.hasRaster()) {
+      raster = image.getRaster();
+      bitsPerSample = raster.getSampleModel().getSampleSize(0);
+    } else {
+      RenderedImage renderedImage = image.getRenderedImage();
+      raster = renderedImage instanceof BufferedImage
+          ? ((BufferedImage) renderedImage).getRaster()
+          : renderedImage.getData();
+      ColorModel colorModel = renderedImage.getColorModel();
+      bitsPerSample = colorModel != null
+          ? colorModel.getComponentSize(0)
+          : raster.getSampleModel().getSampleSize(0);
+    }
+    try {
+      ((ImageOutputStream) getOutput())
+          .write(JpegLsEncoder.encode(raster, Math.max(2, bitsPerSample)));
+    } catch (IllegalArgumentException e) {
+      throw new IIOException(e.getMessage(), e);
+    }
+  }
+}
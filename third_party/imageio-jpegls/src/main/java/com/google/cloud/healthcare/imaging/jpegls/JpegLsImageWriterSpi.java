@@ -0,0 +1,62 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.jpegls;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.SampleModel;
+import java.util.Locale;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Provides {@link JpegLsImageWriter}, registered through META-INF/services under the "jpeg-ls"
+ * format name.
+ */
+public class JpegLsImageWriterSpi extends ImageWriterSpi {
+
+  private static final String[] NAMES = {"jpeg-ls"};
+  private static final String[] SUFFIXES = {"jls"};
+  private static final String[] MIME_TYPES = {};
+  private static final Class<?>[] OUTPUT_TYPES = {ImageOutputStream.class};
+
+  public JpegLsImageWriterSpi() {
+    super("Google LLC", "1.0", NAMES, SUFFIXES, MIME_TYPES, JpegLsImageWriter.class.getName(),
+        OUTPUT_TYPES, new String[] {JpegLsImageReaderSpi.class.getName()},
+        false, null, null, null, null,
+        false, null, null, null, null);
+  }
+
+  @Override
+  public boolean canEncodeImage(ImageTypeSpecifier type) {
+    SampleModel sampleModel = type.getSampleModel();
+    int dataType = sampleModel.getDataType();
+    return sampleModel.getNumBands() <= JpegLsEncoder.MAX_COMPONENTS
+        && (dataType == DataBuffer.TYPE_BYTE
+            || dataType == DataBuffer.TYPE_USHORT
+            || dataType == DataBuffer.TYPE_SHORT);
+  }
+
+  @Override
+  public ImageWriter createWriterInstance(Object extension) {
+    return new JpegLsImageWriter(this);
+  }
+
+  @Override
+  public String getDescription(Locale locale) {
+    return "JPEG-LS Lossless Image Writer";
+  }
+}
@@ -0,0 +1,231 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.jpegls;
+
+import java.util.Arrays;
+
+/**
+ * State shared by the encoder and decoder of a scan (ITU-T T.87 Annex A): the 365 regular mode
+ * contexts, the 2 run interruption contexts and the run index of each component.
+ *
+ * <p>Lines are held in arrays of width + 2 samples, the sample at x being at x + 1 so that the
+ * neighbours of the first and last samples of a line are at 0 and width + 1.
+ */
+abstract class ScanContext {
+
+  static final int[] J = {
+      0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3,
+      4, 4, 5, 5, 6, 6, 7, 7, 8, 9, 10, 11, 12, 13, 14, 15};
+
+  // Contexts 1 to 364 are regular mode contexts, 365 and 366 run interruption ones.
+  static final int RUN_CONTEXT = 365;
+  private static final int CONTEXTS = 367;
+  private static final int MIN_C = -128;
+  private static final int MAX_C = 127;
+
+  final int maxVal;
+  final int near;
+  final int range;
+  final int qbpp;
+  final int limit;
+  private final int t1;
+  private final int t2;
+  private final int t3;
+  private final int reset;
+
+  final int[] a = new int[CONTEXTS];
+  final int[] b = new int[CONTEXTS];
+  final int[] c = new int[CONTEXTS];
+  final int[] n = new int[CONTEXTS];
+  final int[] nn = new int[CONTEXTS];
+  final int[] runIndex;
+
+  ScanContext(CodingParameters params, int components) {
+    this.maxVal = params.maxVal;
+    this.near = params.near;
+    this.range = params.range;
+    this.qbpp = params.qbpp;
+    this.limit = params.limit;
+    this.t1 = params.t1;
+    this.t2 = params.t2;
+    this.t3 = params.t3;
+    this.reset = params.reset;
+    Arrays.fill(a, Math.max(2, (range + 32) / 64));
+    Arrays.fill(n, 1);
+    this.runIndex = new int[components];
+  }
+
+  /**
+   * Returns the signed context of the gradients around a sample, 0 meaning run mode. Its sign is
+   * that of the first non zero quantized gradient.
+   */
+  final int contextId(int d1, int d2, int d3) {
+    return (quantize(d1) * 9 + quantize(d2)) * 9 + quantize(d3);
+  }
+
+  private int quantize(int d) {
+    if (d <= -t3) {
+      return -4;
+    } else if (d <= -t2) {
+      return -3;
+    } else if (d <= -t1) {
+      return -2;
+    } else if (d < -near) {
+      return -1;
+    } else if (d <= near) {
+      return 0;
+    } else if (d < t1) {
+      return 1;
+    } else if (d < t2) {
+      return 2;
+    } else if (d < t3) {
+      return 3;
+    }
+    return 4;
+  }
+
+  /** Median edge detector. */
+  static int predict(int ra, int rb, int rc) {
+    if (rc >= Math.max(ra, rb)) {
+      return Math.min(ra, rb);
+    } else if (rc <= Math.min(ra, rb)) {
+      return Math.max(ra, rb);
+    }
+    return ra + rb - rc;
+  }
+
+  final int clampToRange(int value) {
+    return value < 0 ? 0 : value > maxVal ? maxVal : value;
+  }
+
+  final int golombK(int context) {
+    int k = 0;
+    for (int nk = n[context]; nk < a[context]; nk <<= 1) {
+      k++;
+    }
+    return k;
+  }
+
+  final int runGolombK(int context, int riType) {
+    int temp = a[context] + (n[context] >> 1) * riType;
+    int k = 0;
+    for (int nk = n[context]; nk < temp; nk <<= 1) {
+      k++;
+    }
+    return k;
+  }
+
+  /** -1 if lossless regular mode errors of the context are mapped inverted, else 0. */
+  final int errorCorrection(int context, int k) {
+    if (k != 0 || near != 0) {
+      return 0;
+    }
+    return (2 * b[context] + n[context] - 1) >> 31;
+  }
+
+  /** Quantizes a prediction error for near lossless coding, and reduces it modulo range. */
+  final int quantizeError(int errVal) {
+    if (near > 0) {
+      errVal = errVal > 0
+          ? (errVal + near) / (2 * near + 1)
+          : -(near - errVal) / (2 * near + 1);
+    }
+    if (errVal < 0) {
+      errVal += range;
+    }
+    if (errVal >= (range + 1) / 2) {
+      errVal -= range;
+    }
+    return errVal;
+  }
+
+  /** The sample decoded from a prediction and its quantized error. */
+  final int reconstruct(int prediction, int errVal) {
+    int value = prediction + errVal * (2 * near + 1);
+    if (value < -near) {
+      value += range * (2 * near + 1);
+    } else if (value > maxVal + near) {
+      value -= range * (2 * near + 1);
+    }
+    return clampToRange(value);
+  }
+
+  final void updateRegular(int context, int errVal) {
+    a[context] += Math.abs(errVal);
+    b[context] += errVal * (2 * near + 1);
+    if (n[context] == reset) {
+      a[context] >>= 1;
+      b[context] >>= 1;
+      n[context] >>= 1;
+    }
+    n[context]++;
+
+    if (b[context] + n[context] <= 0) {
+      b[context] += n[context];
+      if (b[context] <= -n[context]) {
+        b[context] = -n[context] + 1;
+      }
+      if (c[context] > MIN_C) {
+        c[context]--;
+      }
+    } else if (b[context] > 0) {
+      b[context] -= n[context];
+      if (b[context] > 0) {
+        b[context] = 0;
+      }
+      if (c[context] < MAX_C) {
+        c[context]++;
+      }
+    }
+  }
+
+  /** Whether a run interruption error is mapped to the odd rather than the even code. */
+  final boolean runErrorMap(int context, int errVal, int k) {
+    return (k == 0 && errVal > 0 && 2 * nn[context] < n[context])
+        || (errVal < 0 && 2 * nn[context] >= n[context])
+        || (errVal < 0 && k != 0);
+  }
+
+  final void updateRun(int context, int riType, int errVal, int mappedErrVal) {
+    if (errVal < 0) {
+      nn[context]++;
+    }
+    a[context] += (mappedErrVal + 1 - riType) >> 1;
+    if (n[context] == reset) {
+      a[context] >>= 1;
+      n[context] >>= 1;
+      nn[context] >>= 1;
+    }
+    n[context]++;
+  }
+
+  final void incrementRunIndex(int component) {
+    if (runIndex[component] < 31) {
+      runIndex[component]++;
+    }
+  }
+
+  final void decrementRunIndex(int component) {
+    if (runIndex[component] > 0) {
+      runIndex[component]--;
+    }
+  }
+
+  /** Sets the neighbours at the edges of a line before it is coded (T.87 A.2.1). */
+  static void initEdges(int[] previous, int[] current, int width) {
+    current[0] = previous[1];
+    previous[width + 1] = previous[width];
+  }
+}
@@ -0,0 +1,130 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.jpegls;
+
+import javax.imageio.IIOException;
+
+/** Decodes the lines of a scan, one component line after another. */
+final class ScanDecoder extends ScanContext {
+
+  private final BitReader reader;
+
+  ScanDecoder(CodingParameters params, int components, BitReader reader) {
+    super(params, components);
+    this.reader = reader;
+  }
+
+  /**
+   * Decodes the samples of current.
+   *
+   * @param previous the previous line of the component.
+   */
+  void decodeLine(int[] previous, int[] current, int width, int component) throws IIOException {
+    initEdges(previous, current, width);
+    int x = 1;
+    while (x <= width) {
+      int ra = current[x - 1];
+      int rb = previous[x];
+      int rc = previous[x - 1];
+      int rd = previous[x + 1];
+      int context = contextId(rd - rb, rb - rc, rc - ra);
+      if (context != 0) {
+        current[x] = decodeRegular(context, predict(ra, rb, rc));
+        x++;
+      } else {
+        x = decodeRun(previous, current, x, width, component);
+      }
+    }
+  }
+
+  private int decodeRegular(int signedContext, int prediction) throws IIOException {
+    int sign = signedContext < 0 ? -1 : 1;
+    int context = signedContext * sign;
+    int k = golombK(context);
+    int px = clampToRange(prediction + sign * c[context]);
+    int errVal = unmap(decodeMapped(k, limit));
+    if (k == 0) {
+      errVal ^= errorCorrection(context, k);
+    }
+    updateRegular(context, errVal);
+    return reconstruct(px, sign * errVal);
+  }
+
+  private int decodeRun(int[] previous, int[] current, int start, int width, int component)
+      throws IIOException {
+    int ra = current[start - 1];
+    int remaining = width + 1 - start;
+    int runLength = 0;
+    while (reader.readBit() == 1) {
+      int count = Math.min(1 << J[runIndex[component]], remaining - runLength);
+      runLength += count;
+      if (count == (1 << J[runIndex[component]])) {
+        incrementRunIndex(component);
+      }
+      if (runLength == remaining) {
+        break;
+      }
+    }
+    if (runLength != remaining) {
+      runLength += reader.readBits(J[runIndex[component]]);
+    }
+    if (runLength > remaining) {
+      throw new IIOException("Invalid JPEG-LS run length");
+    }
+
+    int x = start;
+    for (int end = start + runLength; x < end; x++) {
+      current[x] = ra;
+    }
+    if (x > width) {
+      return x;
+    }
+    current[x] = decodeRunInterruption(ra, previous[x], component);
+    decrementRunIndex(component);
+    return x + 1;
+  }
+
+  private int decodeRunInterruption(int ra, int rb, int component) throws IIOException {
+    if (Math.abs(ra - rb) <= near) {
+      return reconstruct(ra, decodeRunError(RUN_CONTEXT + 1, 1, component));
+    }
+    int sign = rb > ra ? 1 : -1;
+    return reconstruct(rb, sign * decodeRunError(RUN_CONTEXT, 0, component));
+  }
+
+  private int decodeRunError(int context, int riType, int component) throws IIOException {
+    int k = runGolombK(context, riType);
+    int mappedErrVal = decodeMapped(k, limit - J[runIndex[component]] - 1);
+    int temp = mappedErrVal + riType;
+    boolean map = (temp & 1) != 0;
+    int absErrVal = (temp + 1) >> 1;
+    boolean negative = (k != 0 || 2 * nn[context] >= n[context]) == map;
+    int errVal = negative ? -absErrVal : absErrVal;
+    updateRun(context, riType, errVal, mappedErrVal);
+    return errVal;
+  }
+
+  private int decodeMapped(int k, int limit) throws IIOException {
+    int high = reader.readZeros();
+    if (high >= limit - qbpp - 1) {
+      return reader.readBits(qbpp) + 1;
+    }
+    return (high << k) | reader.readBits(k);
+  }
+
+  private static int unmap(int mappedErrVal) {
+    return (mappedErrVal >>> 1) ^ -(mappedErrVal & 1);
+  }
+}
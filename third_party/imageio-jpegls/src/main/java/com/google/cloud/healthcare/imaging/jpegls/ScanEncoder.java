@@ -0,0 +1,127 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.jpegls;
+
+/** Encodes the lines of a scan, one component line after another. */
+final class ScanEncoder extends ScanContext {
+
+  private final BitWriter writer;
+
+  ScanEncoder(CodingParameters params, int components, BitWriter writer) {
+    super(params, components);
+    this.writer = writer;
+  }
+
+  /**
+   * Encodes current, replacing its samples by the reconstructed ones the decoder will see.
+   *
+   * @param previous the previous line of the component, reconstructed.
+   */
+  void encodeLine(int[] previous, int[] current, int width, int component) {
+    initEdges(previous, current, width);
+    int x = 1;
+    while (x <= width) {
+      int ra = current[x - 1];
+      int rb = previous[x];
+      int rc = previous[x - 1];
+      int rd = previous[x + 1];
+      int context = contextId(rd - rb, rb - rc, rc - ra);
+      if (context != 0) {
+        current[x] = encodeRegular(context, current[x], predict(ra, rb, rc));
+        x++;
+      } else {
+        x = encodeRun(previous, current, x, width, component);
+      }
+    }
+  }
+
+  private int encodeRegular(int signedContext, int sample, int prediction) {
+    int sign = signedContext < 0 ? -1 : 1;
+    int context = signedContext * sign;
+    int k = golombK(context);
+    int px = clampToRange(prediction + sign * c[context]);
+    int errVal = quantizeError(sign * (sample - px));
+    encodeMapped(k, map(errVal ^ errorCorrection(context, k)), limit);
+    updateRegular(context, errVal);
+    return reconstruct(px, sign * errVal);
+  }
+
+  // Returns the position following the run and its interruption sample, if any.
+  private int encodeRun(int[] previous, int[] current, int start, int width, int component) {
+    int ra = current[start - 1];
+    int x = start;
+    while (x <= width && Math.abs(current[x] - ra) <= near) {
+      current[x] = ra;
+      x++;
+    }
+
+    int runLength = x - start;
+    while (runLength >= (1 << J[runIndex[component]])) {
+      writer.writeBits(1, 1);
+      runLength -= 1 << J[runIndex[component]];
+      incrementRunIndex(component);
+    }
+    if (x > width) {
+      // The run reached the end of the line.
+      if (runLength > 0) {
+        writer.writeBits(1, 1);
+      }
+      return x;
+    }
+    writer.writeBits(0, 1);
+    writer.writeBits(runLength, J[runIndex[component]]);
+
+    current[x] = encodeRunInterruption(current[x], ra, previous[x], component);
+    decrementRunIndex(component);
+    return x + 1;
+  }
+
+  private int encodeRunInterruption(int sample, int ra, int rb, int component) {
+    if (Math.abs(ra - rb) <= near) {
+      int errVal = quantizeError(sample - ra);
+      encodeRunError(RUN_CONTEXT + 1, 1, errVal, component);
+      return reconstruct(ra, errVal);
+    }
+    int sign = rb > ra ? 1 : -1;
+    int errVal = quantizeError(sign * (sample - rb));
+    encodeRunError(RUN_CONTEXT, 0, errVal, component);
+    return reconstruct(rb, sign * errVal);
+  }
+
+  private void encodeRunError(int context, int riType, int errVal, int component) {
+    int k = runGolombK(context, riType);
+    int mappedErrVal = 2 * Math.abs(errVal) - riType - (runErrorMap(context, errVal, k) ? 1 : 0);
+    encodeMapped(k, mappedErrVal, limit - J[runIndex[component]] - 1);
+    updateRun(context, riType, errVal, mappedErrVal);
+  }
+
+  /** Limited length Golomb code of a mapped error (T.87 A.5.3). */
+  private void encodeMapped(int k, int mappedErrVal, int limit) {
+    int high = mappedErrVal >>> k;
+    if (high < limit - qbpp - 1) {
+      writer.writeZeros(high);
+      writer.writeBits(1, 1);
+      writer.writeBits(mappedErrVal, k);
+    } else {
+      writer.writeZeros(limit - qbpp - 1);
+      writer.writeBits(1, 1);
+      writer.writeBits(mappedErrVal - 1, qbpp);
+    }
+  }
+
+  private static int map(int errVal) {
+    return (errVal >> 31) ^ (errVal << 1);
+  }
+}
@@ -0,0 +1,166 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.jpegls;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class JpegLsCodecTest {
+
+  private static final int WIDTH = 203;
+  private static final int HEIGHT = 61;
+
+  // ITU-T T.87 Annex H.3.
+  @Test
+  public void encode_sampleImage_matchesStandard() {
+    WritableRaster raster = Raster.createBandedRaster(DataBuffer.TYPE_BYTE, 4, 4, 1, null);
+    raster.setPixels(0, 0, 4, 4, new int[] {
+        0, 0, 90, 74,
+        68, 50, 43, 205,
+        64, 145, 145, 145,
+        100, 145, 145, 145});
+
+    byte[] data = JpegLsEncoder.encode(raster, 8);
+
+    assertThat(data).isEqualTo(toBytes(
+        0xFF, 0xD8, 0xFF, 0xF7, 0x00, 0x0B, 0x08, 0x00, 0x04, 0x00, 0x04, 0x01, 0x01, 0x11, 0x00,
+        0xFF, 0xDA, 0x00, 0x08, 0x01, 0x01, 0x00, 0x00, 0x00, 0x00,
+        0xC0, 0x00, 0x00, 0x6C, 0x80, 0x20, 0x8E, 0x01, 0xC0, 0x00, 0x00, 0x57, 0x40, 0x00, 0x00,
+        0x6E, 0xE6, 0x00, 0x00, 0x01, 0xBC, 0x18, 0x00, 0x00, 0x05, 0xD8, 0x00, 0x00, 0x91, 0x60,
+        0xFF, 0xD9));
+  }
+
+  @Test
+  public void roundTrip_8bitGray() throws Exception {
+    assertRoundTrip(DataBuffer.TYPE_BYTE, 1, 8);
+  }
+
+  @Test
+  public void roundTrip_12bitGray() throws Exception {
+    assertRoundTrip(DataBuffer.TYPE_USHORT, 1, 12);
+  }
+
+  @Test
+  public void roundTrip_16bitGray() throws Exception {
+    assertRoundTrip(DataBuffer.TYPE_USHORT, 1, 16);
+  }
+
+  @Test
+  public void roundTrip_rgb_lineInterleaved() throws Exception {
+    assertRoundTrip(DataBuffer.TYPE_BYTE, 3, 8);
+  }
+
+  @Test
+  public void imageIO_roundTrip() throws Exception {
+    BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_USHORT_GRAY);
+    fill(image.getRaster(), 16, new Random(0));
+
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg-ls").next();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ImageOutputStream ios = ImageIO.createImageOutputStream(bytes)) {
+      writer.setOutput(ios);
+      writer.write(image);
+    }
+    // Looked up by format name, as the JDK JPEG reader also claims streams starting with SOI.
+    ImageReader reader = ImageIO.getImageReadersByFormatName("jpeg-ls").next();
+    BufferedImage read;
+    try (ImageInputStream iis =
+        ImageIO.createImageInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      reader.setInput(iis);
+      read = reader.read(0);
+    }
+
+    assertThat(writer).isInstanceOf(JpegLsImageWriter.class);
+    assertThat(reader).isInstanceOf(JpegLsImageReader.class);
+    assertThat(pixels(read.getRaster())).isEqualTo(pixels(image.getRaster()));
+  }
+
+  @Test
+  public void decoder_notJpegLs_throws() {
+    try {
+      new JpegLsDecoder(toBytes(0xFF, 0xD8, 0xFF, 0xC0, 0x00, 0x02));
+      fail("expected exception");
+    } catch (IIOException expected) {
+      assertThat(expected).hasMessageThat().contains("SOF marker C0");
+    }
+  }
+
+  private static void assertRoundTrip(int dataType, int bands, int bitsPerSample)
+      throws Exception {
+    Random random = new Random(bitsPerSample * bands);
+    WritableRaster raster =
+        Raster.createInterleavedRaster(dataType, WIDTH, HEIGHT, bands, null);
+    fill(raster, bitsPerSample, random);
+
+    JpegLsDecoder decoder = new JpegLsDecoder(JpegLsEncoder.encode(raster, bitsPerSample));
+    WritableRaster decoded = raster.createCompatibleWritableRaster();
+    decoder.decode(decoded);
+
+    assertThat(decoder.getBitsPerSample()).isEqualTo(bitsPerSample);
+    assertThat(decoder.getComponents()).isEqualTo(bands);
+    assertThat(pixels(decoded)).isEqualTo(pixels(raster));
+  }
+
+  // Noise in the left half, gradients and flat runs in the right half, to exercise both the
+  // regular and the run mode.
+  private static void fill(WritableRaster raster, int bitsPerSample, Random random) {
+    int maxVal = (1 << bitsPerSample) - 1;
+    for (int y = 0; y < raster.getHeight(); y++) {
+      for (int x = 0; x < raster.getWidth(); x++) {
+        for (int band = 0; band < raster.getNumBands(); band++) {
+          int value;
+          if (x < raster.getWidth() / 2) {
+            value = random.nextInt(maxVal + 1);
+          } else if (y % 8 < 4) {
+            value = (x * 7 + band * 31) % (maxVal + 1);
+          } else {
+            value = maxVal / (band + 1);
+          }
+          raster.setSample(x, y, band, value);
+        }
+      }
+    }
+  }
+
+  private static int[] pixels(Raster raster) {
+    return raster.getPixels(0, 0, raster.getWidth(), raster.getHeight(), (int[]) null);
+  }
+
+  private static byte[] toBytes(int... values) {
+    byte[] bytes = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,429 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.dicomadapter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.FutureDimseRSP;
+import org.dcm4che3.net.IncompatibleConnectionException;
+import org.dcm4che3.net.InputStreamDataWriter;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps outbound associations open across C-STOREs, pooled per peer (AET, host and port).
+ *
+ * <p>New associations propose presentation contexts for every SOP class and transfer syntax sent
+ * to (or announced for) the peer so far, so that following instances can reuse them. They also
+ * propose an asynchronous operations window of maxOpsInvoked: concurrent C-STOREs share an
+ * association up to the number of outstanding operations accepted by the peer, responses being
+ * matched to requests by message ID. Associations are released once idle for idleTimeoutMillis.
+ *
+ * <p>At most maxAssociationsPerPeer associations are open to a peer at once: past it, C-STOREs
+ * wait for an operation slot on one of them, an idle association being released to make room
+ * for one negotiating a missing presentation context.
+ */
+public class AssociationPool implements Closeable {
+
+  public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  public static final int DEFAULT_MAX_OPS_INVOKED = 1;
+  public static final int DEFAULT_MAX_ASSOCIATIONS_PER_PEER = 0;
+
+  // Presentation context ids are odd numbers from 1 to 255.
+  private static final int MAX_PRESENTATION_CONTEXTS = 128;
+  // Proposed for SOP classes announced before any of their instances is sent.
+  private static final String[] DEFAULT_TRANSFER_SYNTAXES =
+      {UID.ExplicitVRLittleEndian, UID.ImplicitVRLittleEndian};
+
+  private static Logger log = LoggerFactory.getLogger(AssociationPool.class);
+
+  private final ApplicationEntity applicationEntity;
+  private final long idleTimeoutMillis;
+  private final int maxOpsInvoked;
+  private final int maxAssociationsPerPeer;
+  // Guarded by this.
+  private final Map<String, Peer> peers = new HashMap<>();
+  private boolean reaperScheduled;
+  private boolean closed;
+
+  public AssociationPool(ApplicationEntity applicationEntity, long idleTimeoutMillis) {
+    this(applicationEntity, idleTimeoutMillis, DEFAULT_MAX_OPS_INVOKED);
+  }
+
+  /**
+   * @param maxOpsInvoked number of C-STOREs proposed to be outstanding at once on an association
+   * (1 for synchronous operations).
+   */
+  public AssociationPool(ApplicationEntity applicationEntity, long idleTimeoutMillis,
+      int maxOpsInvoked) {
+    this(applicationEntity, idleTimeoutMillis, maxOpsInvoked, DEFAULT_MAX_ASSOCIATIONS_PER_PEER);
+  }
+
+  /**
+   * @param maxOpsInvoked number of C-STOREs proposed to be outstanding at once on an association
+   * (1 for synchronous operations).
+   * @param maxAssociationsPerPeer maximum number of associations open to a peer at once. 0 for no
+   * limit.
+   */
+  public AssociationPool(ApplicationEntity applicationEntity, long idleTimeoutMillis,
+      int maxOpsInvoked, int maxAssociationsPerPeer) {
+    if (maxOpsInvoked < 1) {
+      throw new IllegalArgumentException("maxOpsInvoked must be at least 1");
+    }
+    if (maxAssociationsPerPeer < 0) {
+      throw new IllegalArgumentException("maxAssociationsPerPeer must not be negative");
+    }
+    this.applicationEntity = applicationEntity;
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    this.maxOpsInvoked = maxOpsInvoked;
+    this.maxAssociationsPerPeer = maxAssociationsPerPeer;
+  }
+
+  /**
+   * Announces SOP classes about to be sent to the peer, so that they are all negotiated by the
+   * next association opened to it.
+   */
+  public synchronized void addPresentationContexts(String peerAet, String peerHost,
+      int peerPort, Collection<String> sopClassUids) {
+    Peer peer = getPeer(peerAet, peerHost, peerPort);
+    for (String sopClassUid : sopClassUids) {
+      for (String transferSyntax : DEFAULT_TRANSFER_SYNTAXES) {
+        peer.addContext(new ContextKey(sopClassUid, transferSyntax));
+      }
+    }
+  }
+
+  /**
+   * Sends the instance read from in (with its file meta information) to the peer, on a pooled
+   * association with a matching presentation context and a free operation slot if there is one.
+   * Waits for a slot if the peer already has maxAssociationsPerPeer associations open. Returns
+   * once the C-STORE response is received.
+   */
+  public void cstore(
+      String sopClassUid,
+      String sopInstanceUid,
+      InputStream in,
+      String peerAet,
+      String peerHost,
+      int peerPort) throws IOException, InterruptedException {
+    DicomInputStream din = new DicomInputStream(in);
+    din.readFileMetaInformation();
+    String transferSyntax = din.getTransferSyntax();
+
+    Peer peer;
+    synchronized (this) {
+      peer = getPeer(peerAet, peerHost, peerPort);
+    }
+    PooledAssociation pooled = acquire(peer, new ContextKey(sopClassUid, transferSyntax));
+    Association association = pooled.association;
+    boolean completed = false;
+    try {
+      // Message IDs are unique within the association, so responses to the C-STOREs sharing it
+      // reach the handler of their own request.
+      FutureDimseRSP handler = new FutureDimseRSP(association.nextMessageID());
+      association.cstore(sopClassUid, sopInstanceUid, /* priority */ 1,
+          new InputStreamDataWriter(din), transferSyntax, handler);
+      handler.next();
+      completed = true;
+      int dimseStatus = handler.getCommand().getInt(Tag.Status, /* default status */ -1);
+      if (dimseStatus != Status.Success) {
+        throw new IllegalArgumentException("C-STORE failed with status code: " + dimseStatus);
+      }
+    } finally {
+      // If the exchange was cut short, the association can't be trusted anymore.
+      release(pooled, !completed);
+    }
+  }
+
+  /** Releases all idle associations. Associations in use are released when they complete. */
+  @Override
+  public void close() {
+    List<Association> toClose = new ArrayList<>();
+    synchronized (this) {
+      closed = true;
+      // Waiting C-STOREs fail.
+      notifyAll();
+      for (Peer peer : peers.values()) {
+        for (Iterator<PooledAssociation> it = peer.associations.iterator(); it.hasNext(); ) {
+          PooledAssociation pooled = it.next();
+          if (pooled.inFlight == 0) {
+            it.remove();
+            toClose.add(pooled.association);
+          }
+        }
+      }
+    }
+    toClose.forEach(this::closeAssociation);
+  }
+
+  // Guarded by this.
+  private Peer getPeer(String peerAet, String peerHost, int peerPort) {
+    return peers.computeIfAbsent(peerAet + "@" + peerHost + ":" + peerPort,
+        key -> new Peer(peerAet, peerHost, peerPort));
+  }
+
+  private PooledAssociation acquire(Peer peer, ContextKey context)
+      throws IOException, InterruptedException {
+    AAssociateRQ rq = new AAssociateRQ();
+    Association evicted = null;
+    synchronized (this) {
+      while (true) {
+        if (closed) {
+          throw new IOException("Association pool is closed");
+        }
+        PooledAssociation idle = null;
+        for (Iterator<PooledAssociation> it = peer.associations.iterator(); it.hasNext(); ) {
+          PooledAssociation pooled = it.next();
+          if (!pooled.association.isReadyForDataTransfer()) {
+            if (pooled.inFlight == 0) {
+              it.remove();
+            }
+          } else if (!pooled.broken && pooled.inFlight < pooled.capacity
+              && pooled.association.getTransferSyntaxesFor(context.sopClassUid)
+              .contains(context.transferSyntax)) {
+            pooled.inFlight++;
+            return pooled;
+          } else if (pooled.inFlight == 0 && idle == null) {
+            idle = pooled;
+          }
+        }
+        if (maxAssociationsPerPeer == 0
+            || peer.associations.size() + peer.opening < maxAssociationsPerPeer) {
+          break;
+        }
+        if (idle != null) {
+          // Lacks the presentation context, the new association negotiates it instead.
+          peer.associations.remove(idle);
+          evicted = idle.association;
+          break;
+        }
+        wait();
+      }
+      peer.opening++;
+      peer.addContext(context);
+      int pcid = 1;
+      for (ContextKey key : peer.contexts) {
+        rq.addPresentationContext(
+            new PresentationContext(pcid, key.sopClassUid, key.transferSyntax));
+        pcid += 2;
+      }
+    }
+    if (evicted != null) {
+      closeAssociation(evicted);
+    }
+    rq.setCalledAET(peer.aet);
+    if (maxOpsInvoked > 1) {
+      rq.setMaxOpsInvoked(maxOpsInvoked);
+      rq.setMaxOpsPerformed(1);
+    }
+
+    Connection remoteConn = new Connection();
+    remoteConn.setHostname(peer.host);
+    remoteConn.setPort(peer.port);
+    Association association = null;
+    try {
+      association = applicationEntity.connect(remoteConn, rq);
+    } catch (IncompatibleConnectionException | GeneralSecurityException e) {
+      // calling code doesn't need to distinguish these
+      throw new IOException(e);
+    } finally {
+      if (association == null) {
+        synchronized (this) {
+          peer.opening--;
+          notifyAll();
+        }
+      }
+    }
+    // 0 stands for an unlimited window; peers not supporting asynchronous operations accept 1.
+    int acceptedOpsInvoked = association.getMaxOpsInvoked();
+    int capacity = acceptedOpsInvoked > 0
+        ? Math.min(acceptedOpsInvoked, maxOpsInvoked) : maxOpsInvoked;
+    log.debug("Opened association to {}@{}:{}, {} operations outstanding at most", peer.aet,
+        peer.host, peer.port, capacity);
+
+    PooledAssociation pooled = new PooledAssociation(peer, association, capacity);
+    synchronized (this) {
+      peer.opening--;
+      peer.associations.add(pooled);
+      // Its other operation slots may serve waiting C-STOREs.
+      notifyAll();
+    }
+    return pooled;
+  }
+
+  private void release(PooledAssociation pooled, boolean broken) {
+    synchronized (this) {
+      pooled.inFlight--;
+      pooled.broken |= broken;
+      // Frees an operation slot, or the association itself, for C-STOREs waiting on the peer.
+      notifyAll();
+      if (pooled.inFlight > 0) {
+        return;
+      }
+      if (!closed && !pooled.broken && pooled.association.isReadyForDataTransfer()) {
+        pooled.idleSinceNanos = System.nanoTime();
+        scheduleReaper();
+        return;
+      }
+      pooled.peer.associations.remove(pooled);
+    }
+    closeAssociation(pooled.association);
+  }
+
+  // Guarded by this.
+  private void scheduleReaper() {
+    if (!reaperScheduled) {
+      reaperScheduled = true;
+      applicationEntity.getDevice().schedule(this::closeIdleAssociations,
+          idleTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void closeIdleAssociations() {
+    List<Association> toClose = new ArrayList<>();
+    synchronized (this) {
+      reaperScheduled = false;
+      long idleSince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+      boolean remaining = false;
+      for (Peer peer : peers.values()) {
+        for (Iterator<PooledAssociation> it = peer.associations.iterator(); it.hasNext(); ) {
+          PooledAssociation pooled = it.next();
+          if (pooled.inFlight > 0) {
+            continue;
+          }
+          if (pooled.idleSinceNanos - idleSince <= 0) {
+            it.remove();
+            toClose.add(pooled.association);
+          } else {
+            remaining = true;
+          }
+        }
+      }
+      if (remaining) {
+        scheduleReaper();
+      }
+      if (!toClose.isEmpty()) {
+        notifyAll();
+      }
+    }
+    toClose.forEach(this::closeAssociation);
+  }
+
+  private void closeAssociation(Association association) {
+    try {
+      if (association.isReadyForDataTransfer()) {
+        association.release();
+      }
+      association.waitForSocketClose();
+    } catch (Exception e) {
+      log.warn("Failed to release association", e);
+      association.abort();
+    }
+  }
+
+  private static class Peer {
+
+    private final String aet;
+    private final String host;
+    private final int port;
+    // Most recently used last.
+    private final Set<ContextKey> contexts = new LinkedHashSet<>();
+    private final List<PooledAssociation> associations = new ArrayList<>();
+    // Associations being opened, counting towards maxAssociationsPerPeer.
+    private int opening;
+
+    Peer(String aet, String host, int port) {
+      this.aet = aet;
+      this.host = host;
+      this.port = port;
+    }
+
+    void addContext(ContextKey context) {
+      contexts.remove(context);
+      contexts.add(context);
+      if (contexts.size() > MAX_PRESENTATION_CONTEXTS) {
+        Iterator<ContextKey> it = contexts.iterator();
+        it.next();
+        it.remove();
+      }
+    }
+  }
+
+  // Fields guarded by the pool.
+  private static class PooledAssociation {
+
+    private final Peer peer;
+    private final Association association;
+    private final int capacity;
+    private int inFlight = 1;
+    private boolean broken;
+    private long idleSinceNanos;
+
+    PooledAssociation(Peer peer, Association association, int capacity) {
+      this.peer = peer;
+      this.association = association;
+      this.capacity = capacity;
+    }
+  }
+
+  private static class ContextKey {
+
+    private final String sopClassUid;
+    private final String transferSyntax;
+
+    ContextKey(String sopClassUid, String transferSyntax) {
+      this.sopClassUid = sopClassUid;
+      this.transferSyntax = transferSyntax;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ContextKey)) {
+        return false;
+      }
+      ContextKey that = (ContextKey) o;
+      return sopClassUid.equals(that.sopClassUid) && transferSyntax.equals(that.transferSyntax);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(sopClassUid, transferSyntax);
+    }
+  }
+}
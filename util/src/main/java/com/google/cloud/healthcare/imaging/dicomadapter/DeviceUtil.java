@@ -14,6 +14,7 @@
 
 package com.google.cloud.healthcare.imaging.dicomadapter;
 
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Connection;
@@ -36,14 +37,42 @@ public class DeviceUtil {
    */
   public static Device createServerDevice(
       String applicationEntityName, Integer dicomPort, DicomServiceRegistry serviceRegistry) {
-    TransferCapability transferCapability =
-        new TransferCapability(
-            null /* commonName */,
-            ALL_ALLOWED_SOP_CLASSES,
-            TransferCapability.Role.SCP,
-            ALL_ALLOWED_TRANSFER_SYNTAXES);
     return createServerDevice(
-        applicationEntityName, dicomPort, serviceRegistry, transferCapability);
+        applicationEntityName, dicomPort, serviceRegistry, allSyntaxesCapability());
+  }
+
+  /**
+   * Creates a DICOM server listening to the port for the given services handling all syntaxes,
+   * accepting up to maxOpsPerformed outstanding operations per association from calling AEs that
+   * propose an asynchronous operations window
+   */
+  public static Device createServerDevice(
+      String applicationEntityName,
+      Integer dicomPort,
+      DicomServiceRegistry serviceRegistry,
+      int maxOpsPerformed) {
+    Device device = createServerDevice(applicationEntityName, dicomPort, serviceRegistry);
+    device.listConnections().get(0).setMaxOpsPerformed(maxOpsPerformed);
+    return device;
+  }
+
+  /**
+   * Creates a DICOM server listening to the port for the given services handling all syntaxes,
+   * running associations on the given executor and rejecting associations beyond
+   * maxAssociations open ones (0 for no limit) with A-ASSOCIATE-RJ
+   */
+  public static Device createServerDevice(
+      String applicationEntityName,
+      Integer dicomPort,
+      DicomServiceRegistry serviceRegistry,
+      int maxOpsPerformed,
+      Executor executor,
+      int maxAssociations) {
+    Device device = createServerDevice(applicationEntityName, dicomPort, serviceRegistry,
+        allSyntaxesCapability(), executor);
+    device.listConnections().get(0).setMaxOpsPerformed(maxOpsPerformed);
+    device.setLimitOpenAssociations(maxAssociations);
+    return device;
   }
 
   /**
@@ -54,6 +83,16 @@ public class DeviceUtil {
       Integer dicomPort,
       DicomServiceRegistry serviceRegistry,
       TransferCapability transferCapability) {
+    return createServerDevice(applicationEntityName, dicomPort, serviceRegistry,
+        transferCapability, Executors.newCachedThreadPool());
+  }
+
+  private static Device createServerDevice(
+      String applicationEntityName,
+      Integer dicomPort,
+      DicomServiceRegistry serviceRegistry,
+      TransferCapability transferCapability,
+      Executor executor) {
     // Create a DICOM device.
     Device device = new Device("dicom-to-dicomweb-adapter-server");
     Connection connection = new Connection();
@@ -70,10 +109,18 @@ public class DeviceUtil {
     // Add the DICOM request handlers to the device.
     device.setDimseRQHandler(serviceRegistry);
     device.setScheduledExecutor(Executors.newSingleThreadScheduledExecutor());
-    device.setExecutor(Executors.newCachedThreadPool());
+    device.setExecutor(executor);
     return device;
   }
 
+  private static TransferCapability allSyntaxesCapability() {
+    return new TransferCapability(
+        null /* commonName */,
+        ALL_ALLOWED_SOP_CLASSES,
+        TransferCapability.Role.SCP,
+        ALL_ALLOWED_TRANSFER_SYNTAXES);
+  }
+
   /**
    * Creates a DICOM client device containing the given Application Entity
    */
@@ -15,18 +15,14 @@
 package com.google.cloud.healthcare.imaging.dicomadapter;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.security.GeneralSecurityException;
-import org.dcm4che3.data.Tag;
 import org.dcm4che3.io.DicomInputStream;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Association;
 import org.dcm4che3.net.Connection;
 import org.dcm4che3.net.DimseRSPHandler;
-import org.dcm4che3.net.FutureDimseRSP;
 import org.dcm4che3.net.IncompatibleConnectionException;
 import org.dcm4che3.net.InputStreamDataWriter;
-import org.dcm4che3.net.Status;
 import org.dcm4che3.net.pdu.AAssociateRQ;
 import org.dcm4che3.net.pdu.PresentationContext;
 
@@ -70,48 +66,6 @@ public class DicomClient {
     return new DicomClient(association);
   }
 
-  public static void connectAndCstore(
-      String sopClassUid,
-      String sopInstanceUid,
-      InputStream in,
-      ApplicationEntity applicationEntity,
-      String dimsePeerAet,
-      String dimsePeerHost,
-      int dimsePeerPort) throws IOException, InterruptedException {
-    DicomInputStream din = new DicomInputStream(in);
-    din.readFileMetaInformation();
-
-    PresentationContext pc = new PresentationContext(1, sopClassUid, din.getTransferSyntax());
-    DicomClient dicomClient;
-    try {
-      dicomClient = DicomClient.associatePeer(applicationEntity,
-          dimsePeerAet, dimsePeerHost, dimsePeerPort, pc);
-    } catch (IOException | IncompatibleConnectionException | GeneralSecurityException e) {
-      // calling code doesn't need to distinguish these
-      throw new IOException(e);
-    }
-
-    Association association = dicomClient.getAssociation();
-    try {
-      FutureDimseRSP handler = new FutureDimseRSP(association.nextMessageID());
-      dicomClient.cstore(
-          sopClassUid, sopInstanceUid, din.getTransferSyntax(), din, handler);
-      handler.next();
-      int dimseStatus = handler.getCommand().getInt(Tag.Status, /* default status */ -1);
-      if (dimseStatus != Status.Success) {
-        throw new IllegalArgumentException("C-STORE failed with status code: " + dimseStatus);
-      }
-    } finally {
-      try {
-        association.release();
-        association.waitForSocketClose();
-      } catch (Exception e) {
-        System.err.println("Send C-STORE successfully, but failed to close association");
-        e.printStackTrace();
-      }
-    }
-  }
-
   public void cstore(
       String sopClassUid,
       String sopInstanceUid,
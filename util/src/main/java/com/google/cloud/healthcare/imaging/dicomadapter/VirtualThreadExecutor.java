@@ -0,0 +1,98 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.dicomadapter;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executor running each task on its own virtual thread, rejecting tasks with
+ * {@link RejectedExecutionException} while maxTasks are running.
+ *
+ * <p>A blocked virtual thread only holds its few kilobytes of stack on the heap, so the limit can
+ * be far above what a platform thread pool affords. Requires a Java 21 or later runtime.
+ */
+public class VirtualThreadExecutor implements Executor {
+
+  private final ThreadFactory threadFactory;
+  private final Semaphore permits;
+  private final int maxTasks;
+  private volatile Runnable rejectionListener = () -> {};
+
+  public VirtualThreadExecutor(String name, int maxTasks) {
+    if (maxTasks <= 0) {
+      throw new IllegalArgumentException(name + " task limit must be positive: " + maxTasks);
+    }
+    this.threadFactory = virtualThreadFactory(name);
+    this.permits = new Semaphore(maxTasks);
+    this.maxTasks = maxTasks;
+  }
+
+  /** Whether the running JVM supports virtual threads. */
+  public static boolean isSupported() {
+    try {
+      Thread.class.getMethod("ofVirtual");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    if (!permits.tryAcquire()) {
+      rejectionListener.run();
+      throw new RejectedExecutionException(
+          "Task rejected, " + maxTasks + " tasks already running");
+    }
+    try {
+      threadFactory.newThread(() -> {
+        try {
+          command.run();
+        } finally {
+          permits.release();
+        }
+      }).start();
+    } catch (RuntimeException | Error e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /** Number of tasks running. */
+  public int getActiveCount() {
+    return maxTasks - permits.availablePermits();
+  }
+
+  void setRejectionListener(Runnable rejectionListener) {
+    this.rejectionListener = rejectionListener;
+  }
+
+  // Thread.ofVirtual().name(name + "-", 1).factory(), looked up at runtime as the build targets
+  // Java 11.
+  private static ThreadFactory virtualThreadFactory(String name) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder = builderClass.getMethod("name", String.class, long.class)
+          .invoke(builder, name + "-", 1L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      throw new UnsupportedOperationException("Virtual threads require Java 21 or later", e);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.dicomadapter;
+
+import com.google.cloud.healthcare.imaging.dicomadapter.monitoring.IMonitoringEvent;
+import com.google.cloud.healthcare.imaging.dicomadapter.monitoring.MonitoringService;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Static utilities for creating bounded thread pools, which reject work past their limits rather
+ * than growing a thread per task like cached thread pools do, or unbounded ones when no limit is
+ * configured.
+ */
+public class WorkerPools {
+
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  private WorkerPools() {
+  }
+
+  /**
+   * Creates a pool of up to maxThreads threads, idle ones expiring after a minute. Tasks submitted
+   * while all threads are busy wait in a queue of queueSize, or are handed directly to a thread
+   * if queueSize is 0. Tasks that fit in neither are rejected with
+   * {@link RejectedExecutionException}.
+   */
+  public static ThreadPoolExecutor newBoundedPool(String name, int maxThreads, int queueSize) {
+    if (maxThreads <= 0) {
+      throw new IllegalArgumentException(name + " pool size must be positive: " + maxThreads);
+    }
+    if (queueSize < 0) {
+      throw new IllegalArgumentException(name + " queue size must not be negative: " + queueSize);
+    }
+    BlockingQueue<Runnable> queue =
+        queueSize == 0 ? new SynchronousQueue<>() : new LinkedBlockingQueue<>(queueSize);
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads,
+        KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue, new NamedThreadFactory(name));
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  /**
+   * Creates a pool starting a thread per task when none is idle, like a cached thread pool, idle
+   * threads expiring after a minute.
+   */
+  public static ThreadPoolExecutor newUnboundedPool(String name) {
+    return new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new SynchronousQueue<>(), new NamedThreadFactory(name));
+  }
+
+  /**
+   * Exports the active thread count and queue size of the pool as gauges, and counts the tasks it
+   * rejects.
+   */
+  public static ThreadPoolExecutor monitor(ThreadPoolExecutor pool,
+      IMonitoringEvent activeThreadsEvent, IMonitoringEvent queueSizeEvent,
+      IMonitoringEvent rejectionsEvent) {
+    MonitoringService.addGauge(activeThreadsEvent, pool::getActiveCount);
+    MonitoringService.addGauge(queueSizeEvent, () -> pool.getQueue().size());
+    pool.setRejectedExecutionHandler((task, executor) -> {
+      MonitoringService.addEvent(rejectionsEvent);
+      throw new RejectedExecutionException(
+          "Task rejected, pool of " + executor.getMaximumPoolSize() + " threads is full");
+    });
+    return pool;
+  }
+
+  /**
+   * Exports the number of running tasks of the executor as the active threads gauge, a queue size
+   * of 0 as tasks never wait for a thread, and counts the tasks it rejects.
+   */
+  public static VirtualThreadExecutor monitor(VirtualThreadExecutor executor,
+      IMonitoringEvent activeThreadsEvent, IMonitoringEvent queueSizeEvent,
+      IMonitoringEvent rejectionsEvent) {
+    MonitoringService.addGauge(activeThreadsEvent, executor::getActiveCount);
+    MonitoringService.addGauge(queueSizeEvent, () -> 0L);
+    executor.setRejectionListener(() -> MonitoringService.addEvent(rejectionsEvent));
+    return executor;
+  }
+
+  private static class NamedThreadFactory implements ThreadFactory {
+
+    private final String name;
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    NamedThreadFactory(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      return new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+    }
+  }
+}
@@ -33,9 +33,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,6 +51,10 @@ public class MonitoringService {
   private static Logger log = LoggerFactory.getLogger(MonitoringService.class);
   private static MonitoringService INSTANCE;
   private static boolean ENABLED = true;
+  // Sampled on each flush instead of reporting the sum of added events.
+  private static final Map<IMonitoringEvent, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+  // Running totals, of which the increase since the last flush is added to the events.
+  private static final Map<IMonitoringEvent, Counter> COUNTERS = new ConcurrentHashMap<>();
 
   private final MetricServiceClient client;
   private final ScheduledExecutorService service;
@@ -135,6 +141,23 @@ public class MonitoringService {
     addEvent(eventType, 1L);
   }
 
+  /**
+   * Reports the current value of the supplier for eventType on each flush, e.g. the number of
+   * active threads of a pool. May be called before initialize.
+   */
+  public static void addGauge(IMonitoringEvent eventType, LongSupplier supplier) {
+    GAUGES.put(eventType, supplier);
+  }
+
+  /**
+   * Reports the increase since the previous flush of a running total, e.g. the number of requests
+   * a client rejected so far, added to the events of eventType. Counters are thus reported per
+   * flush like added events, rather than as ever growing gauges. May be called before initialize.
+   */
+  public static void addCounter(IMonitoringEvent eventType, LongSupplier total) {
+    COUNTERS.put(eventType, new Counter(total));
+  }
+
   private void shutdown() {
     service.shutdown();
     client.shutdown();
@@ -153,6 +176,12 @@ public class MonitoringService {
       flushEvents = new HashMap<>(aggregateEvents);
       aggregateEvents.clear();
     }
+    for (Map.Entry<IMonitoringEvent, Counter> counter : COUNTERS.entrySet()) {
+      long increase = counter.getValue().takeIncrease();
+      if (increase != 0) {
+        flushEvents.merge(counter.getKey(), increase, Long::sum);
+      }
+    }
 
     try {
       Timestamp flushTime = Timestamps.fromMillis(System.currentTimeMillis());
@@ -162,8 +191,10 @@ public class MonitoringService {
         TimeInterval interval = TimeInterval.newBuilder()
             .setEndTime(flushTime)
             .build();
+        LongSupplier gauge = GAUGES.get(event);
         TypedValue value = TypedValue.newBuilder()
-            .setInt64Value(flushEvents.getOrDefault(event, 0L))
+            .setInt64Value(
+                gauge != null ? gauge.getAsLong() : flushEvents.getOrDefault(event, 0L))
             .build();
         Point point = Point.newBuilder()
             .setInterval(interval)
@@ -203,4 +234,23 @@ public class MonitoringService {
       log.error("Failed to flush time series", e);
     }
   }
+
+  private static class Counter {
+
+    private final LongSupplier total;
+    private long reported;
+
+    Counter(LongSupplier total) {
+      this.total = total;
+      this.reported = total.getAsLong();
+    }
+
+    // Called by the flushing thread only.
+    long takeIncrease() {
+      long current = total.getAsLong();
+      long increase = current - reported;
+      reported = current;
+      return increase;
+    }
+  }
 }
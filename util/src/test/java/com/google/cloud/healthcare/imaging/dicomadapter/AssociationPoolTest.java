@@ -0,0 +1,191 @@
+// Copyright 2018 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.healthcare.imaging.dicomadapter;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.cloud.healthcare.imaging.dicomadapter.util.PortUtil;
+import com.google.cloud.healthcare.imaging.dicomadapter.util.StubCStoreService;
+import com.google.cloud.healthcare.util.TestUtils;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.PDVInputStream;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.service.BasicCEchoSCP;
+import org.dcm4che3.net.service.DicomServiceRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class AssociationPoolTest {
+  private final String serverAET = "SERVER";
+  private final String serverHost = "localhost";
+
+  private final String clientAET = "CLIENT";
+  private ApplicationEntity clientAE;
+
+  private AssociationPool associationPool;
+  private final Set<Association> serverAssociations =
+      Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+  @Before
+  public void setUp() throws Exception {
+    clientAE = new ApplicationEntity(clientAET);
+    Connection conn = new Connection();
+    DeviceUtil.createClientDevice(clientAE, conn);
+    clientAE.addConnection(conn);
+  }
+
+  @After
+  public void tearDown() {
+    associationPool.close();
+  }
+
+  @Test
+  public void testAssociationPool_reusesAssociation() throws Exception {
+    associationPool = new AssociationPool(clientAE, AssociationPool.DEFAULT_IDLE_TIMEOUT_MILLIS);
+    int serverPort = createServerDevice();
+
+    cstore(serverPort, "1.0.0.0");
+    cstore(serverPort, "1.0.0.1");
+    cstore(serverPort, "1.0.0.2");
+
+    assertThat(serverAssociations).hasSize(1);
+  }
+
+  @Test
+  public void testAssociationPool_idleAssociationReleased() throws Exception {
+    associationPool = new AssociationPool(clientAE, 100);
+    int serverPort = createServerDevice();
+
+    cstore(serverPort, "1.0.0.0");
+    Thread.sleep(1000);
+    cstore(serverPort, "1.0.0.1");
+
+    assertThat(serverAssociations).hasSize(2);
+  }
+
+  @Test
+  public void testAssociationPool_announcedSopClassesNegotiated() throws Exception {
+    associationPool = new AssociationPool(clientAE, AssociationPool.DEFAULT_IDLE_TIMEOUT_MILLIS);
+    int serverPort = createServerDevice();
+
+    associationPool.addPresentationContexts(serverAET, serverHost, serverPort,
+        Collections.singletonList(UID.CTImageStorage));
+    cstore(serverPort, "1.0.0.0");
+
+    Association association = serverAssociations.iterator().next();
+    assertThat(association.getTransferSyntaxesFor(UID.CTImageStorage))
+        .contains(UID.ExplicitVRLittleEndian);
+  }
+
+  @Test
+  public void testAssociationPool_concurrentOperationsShareAssociation() throws Exception {
+    associationPool =
+        new AssociationPool(clientAE, AssociationPool.DEFAULT_IDLE_TIMEOUT_MILLIS, 4);
+    int serverPort = createServerDevice(4);
+
+    cstore(serverPort, "1.0.0.0");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 1; i <= 4; i++) {
+        String sopInstanceUid = "1.0.0." + i;
+        futures.add(executor.submit(() -> {
+          cstore(serverPort, sopInstanceUid);
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(serverAssociations).hasSize(1);
+  }
+
+  @Test
+  public void testAssociationPool_concurrentOperationsWaitPastMaxAssociations() throws Exception {
+    associationPool =
+        new AssociationPool(clientAE, AssociationPool.DEFAULT_IDLE_TIMEOUT_MILLIS, 1, 1);
+    int serverPort = createServerDevice();
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        String sopInstanceUid = "1.0.0." + i;
+        futures.add(executor.submit(() -> {
+          cstore(serverPort, sopInstanceUid);
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(serverAssociations).hasSize(1);
+  }
+
+  private void cstore(int serverPort, String sopInstanceUid) throws Exception {
+    associationPool.cstore(UID.MRImageStorage, sopInstanceUid,
+        TestUtils.streamTestFile(TestUtils.TEST_MR_FILE), serverAET, serverHost, serverPort);
+  }
+
+  private int createServerDevice() throws Exception {
+    return createServerDevice(1);
+  }
+
+  private int createServerDevice(int maxOpsPerformed) throws Exception {
+    int serverPort = PortUtil.getFreePort();
+    DicomServiceRegistry serviceRegistry = new DicomServiceRegistry();
+    serviceRegistry.addDicomService(new BasicCEchoSCP());
+    serviceRegistry.addDicomService(new StubCStoreService(Status.Success) {
+      @Override
+      protected void store(Association association, PresentationContext presentationContext,
+          Attributes request, PDVInputStream dataStream, Attributes response)
+          throws IOException {
+        serverAssociations.add(association);
+        super.store(association, presentationContext, request, dataStream, response);
+      }
+    });
+    Device serverDevice = DeviceUtil.createServerDevice(serverAET, serverPort, serviceRegistry);
+    serverDevice.listConnections().get(0).setMaxOpsPerformed(maxOpsPerformed);
+    serverDevice.bindConnections();
+    return serverPort;
+  }
+}
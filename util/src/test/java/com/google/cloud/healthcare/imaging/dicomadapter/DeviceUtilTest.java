@@ -18,6 +18,7 @@ import static com.google.common.truth.Truth.assertThat;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Executor;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Connection;
 import org.dcm4che3.net.Device;
@@ -58,4 +59,15 @@ public final class DeviceUtilTest {
     assertThat(gotTransferCapability.getSopClass()).isEqualTo("*");
     assertThat(gotTransferCapability.getRole()).isEqualTo(TransferCapability.Role.SCP);
   }
+
+  @Test
+  public void testDeviceUtil_executorAndLimits() throws Exception {
+    Executor executor = Runnable::run;
+    Device device = DeviceUtil.createServerDevice("server", 11111, new DicomServiceRegistry(),
+        4, executor, 10);
+
+    assertThat(device.getExecutor()).isSameInstanceAs(executor);
+    assertThat(device.getLimitOpenAssociations()).isEqualTo(10);
+    assertThat(device.listConnections().get(0).getMaxOpsPerformed()).isEqualTo(4);
+  }
 }